@@ -0,0 +1,69 @@
+package com.visenze.visearch.benchmark;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import com.visenze.visearch.internal.http.ViSearchHttpClient;
+import com.visenze.visearch.internal.http.ViSearchHttpClientImpl;
+import com.visenze.visearch.internal.http.ViSearchHttpResponse;
+import com.visenze.visearch.internal.http.ViSearchHttpStream;
+import com.visenze.visearch.metrics.ConnectionPoolStats;
+import org.apache.http.auth.UsernamePasswordCredentials;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+
+/**
+ * Returns one pre-read response for every call, so only response parsing is measured.
+ */
+class CannedViSearchHttpClient implements ViSearchHttpClient {
+
+    private final ViSearchHttpResponse response;
+
+    CannedViSearchHttpClient(String body) {
+        // read the body once through the real client and stub http layer
+        this.response = new ViSearchHttpClientImpl("http://localhost", "access", "secret", new StubHttpClient(body))
+                .get("/search", HashMultimap.<String, String>create());
+    }
+
+    @Override
+    public UsernamePasswordCredentials getCredentials() {
+        return new UsernamePasswordCredentials("access", "secret");
+    }
+
+    @Override
+    public ConnectionPoolStats getConnectionPoolStats() {
+        return null;
+    }
+
+    @Override
+    public ViSearchHttpResponse get(String url, Multimap<String, String> params) {
+        return response;
+    }
+
+    @Override
+    public ViSearchHttpStream getStream(String url, Multimap<String, String> params) {
+        return new ViSearchHttpStream(new ByteArrayInputStream(response.getBody().getBytes(ViSearchHttpClientImpl.UTF8_CHARSET)),
+                response.getHeaders());
+    }
+
+    @Override
+    public ViSearchHttpResponse post(String url, Multimap<String, String> params) {
+        return response;
+    }
+
+    @Override
+    public ViSearchHttpResponse postImage(String url, Multimap<String, String> params, File file) {
+        return response;
+    }
+
+    @Override
+    public ViSearchHttpResponse postImage(String url, Multimap<String, String> params, InputStream inputStream, String filename) {
+        return response;
+    }
+
+    @Override
+    public ViSearchHttpResponse postImFeature(String url, Multimap<String, String> params, String imFeature, String transId) {
+        return response;
+    }
+}
@@ -0,0 +1,112 @@
+package com.visenze.visearch.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Multimap;
+import com.visenze.visearch.Image;
+import com.visenze.visearch.InsertTrans;
+import com.visenze.visearch.SearchParams;
+import com.visenze.visearch.UploadSearchParams;
+import com.visenze.visearch.internal.DataOperationsImpl;
+import com.visenze.visearch.internal.http.ViSearchHttpClientImpl;
+import com.visenze.visearch.internal.http.ViSearchHttpResponse;
+import com.visenze.visearch.internal.json.ViSearchModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building requests: search parameters to a map, query string encoding, the form of a 100 image
+ * insert and the multipart body of an upload search. Http is stubbed, request bodies are still
+ * serialized.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestBuildingBenchmark {
+
+    private static final String INSERT_RESPONSE = "{\"status\":\"OK\",\"method\":\"insert\",\"trans_id\":1,\"error\":[],\"total\":100}";
+
+    private SearchParams searchParams;
+    private Multimap<String, String> searchQuery;
+    private Multimap<String, String> uploadQuery;
+    private ViSearchHttpClientImpl searchClient;
+    private DataOperationsImpl dataOperations;
+    private List<Image> images;
+    private byte[] image;
+
+    @Setup
+    public void setUp() {
+        Map<String, String> fq = new HashMap<String, String>();
+        fq.put("brand", "brand a");
+        fq.put("price", "10.0,199.99");
+        Map<String, String> custom = new HashMap<String, String>();
+        custom.put("user_id", "user 42");
+        searchParams = new SearchParams("im_name_1")
+                .setLimit(50)
+                .setFl(Arrays.asList("price", "title", "brand", "im_url", "description"))
+                .setFq(fq)
+                .setFacets(Arrays.asList("brand", "category"))
+                .setScore(true)
+                .setQInfo(true)
+                .setCustom(custom);
+        searchQuery = searchParams.toMap();
+        uploadQuery = new UploadSearchParams().setLimit(50).setFl(Arrays.asList("price", "title")).toMap();
+
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new ViSearchModule());
+        searchClient = new ViSearchHttpClientImpl("http://localhost", "access", "secret", new StubHttpClient(Responses.search(10, 5)));
+        dataOperations = new DataOperationsImpl(
+                new ViSearchHttpClientImpl("http://localhost", "access", "secret", new StubHttpClient(INSERT_RESPONSE)), objectMapper);
+
+        images = new ArrayList<Image>(100);
+        for (int i = 0; i < 100; i++) {
+            Map<String, String> metadata = new HashMap<String, String>();
+            metadata.put("title", "Product title number " + i);
+            metadata.put("price", Integer.toString(10 + i) + ".99");
+            metadata.put("brand", "brand " + (i % 7));
+            metadata.put("description", "A longer description with spaces & symbols / to encode " + i);
+            images.add(new Image("image_" + i, "http://www.example.com/images/" + i + ".jpg", metadata));
+        }
+
+        image = new byte[64 * 1024];
+        new Random(42).nextBytes(image);
+    }
+
+    @Benchmark
+    public Multimap<String, String> searchParamsToMap() {
+        return searchParams.toMap();
+    }
+
+    @Benchmark
+    public ViSearchHttpResponse searchQueryEncoding() {
+        return searchClient.get("/search", searchQuery);
+    }
+
+    @Benchmark
+    public InsertTrans insertForm100Images() {
+        return dataOperations.insert(images);
+    }
+
+    @Benchmark
+    public ViSearchHttpResponse uploadMultipart64k() {
+        return searchClient.postImage("/uploadsearch", uploadQuery, new ByteArrayInputStream(image), "image.jpg");
+    }
+}
@@ -0,0 +1,83 @@
+package com.visenze.visearch.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.visenze.visearch.PagedSearchResult;
+import com.visenze.visearch.SearchParams;
+import com.visenze.visearch.UploadSearchParams;
+import com.visenze.visearch.internal.SearchOperationsImpl;
+import com.visenze.visearch.internal.json.ViSearchModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing search responses into results. The http client returns a pre-read body, so only the
+ * work of {@link SearchOperationsImpl} from body to {@link PagedSearchResult} is measured.
+ *
+ * Small responses have 10 results with 5 metadata fields, large ones 100 results with 20 fields.
+ * Discover and similar products responses have 4 detected objects of that many results each.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseParsingBenchmark {
+
+    @Param({"small", "large"})
+    public String size;
+
+    private SearchOperationsImpl search;
+    private SearchOperationsImpl discover;
+    private SearchOperationsImpl similarProducts;
+    private SearchParams searchParams;
+    private UploadSearchParams uploadSearchParams;
+
+    @Setup
+    public void setUp() {
+        boolean large = "large".equals(size);
+        int results = large ? 100 : 10;
+        int fields = large ? 20 : 5;
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new ViSearchModule());
+        search = new SearchOperationsImpl(new CannedViSearchHttpClient(Responses.search(results, fields)), objectMapper);
+        discover = new SearchOperationsImpl(new CannedViSearchHttpClient(Responses.discover(results, fields)), objectMapper);
+        similarProducts = new SearchOperationsImpl(new CannedViSearchHttpClient(Responses.similarProducts(results, fields)), objectMapper);
+        searchParams = new SearchParams("im_name_1");
+        uploadSearchParams = new UploadSearchParams("http://www.example.com/query.jpg");
+        check(search.search(searchParams));
+        check(discover.discoverSearch(uploadSearchParams));
+        check(similarProducts.similarProductsSearch(uploadSearchParams));
+    }
+
+    private static void check(PagedSearchResult result) {
+        if (result.getErrorMessage() != null) {
+            throw new IllegalStateException("Benchmark response failed to parse: " + result.getErrorMessage(), result.getCause());
+        }
+    }
+
+    @Benchmark
+    public PagedSearchResult search() {
+        return search.search(searchParams);
+    }
+
+    @Benchmark
+    public PagedSearchResult discoverSearch() {
+        return discover.discoverSearch(uploadSearchParams);
+    }
+
+    @Benchmark
+    public PagedSearchResult similarProductsGroups() {
+        return similarProducts.similarProductsSearch(uploadSearchParams);
+    }
+}
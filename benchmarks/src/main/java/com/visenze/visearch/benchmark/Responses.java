@@ -0,0 +1,100 @@
+package com.visenze.visearch.benchmark;
+
+import java.nio.charset.Charset;
+
+/**
+ * Realistic response bodies of the ViSearch API.
+ */
+final class Responses {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String[] TYPES = {"top", "bottom", "shoe", "bag"};
+
+    private Responses() {
+    }
+
+    static byte[] bytes(String body) {
+        return body.getBytes(UTF8);
+    }
+
+    /**
+     * A page of search results with metadata, facets and query info.
+     */
+    static String search(int results, int metadataFields) {
+        StringBuilder json = new StringBuilder(results * (80 + metadataFields * 40) + 1024);
+        json.append("{\"status\":\"OK\",\"method\":\"search\",\"error\":[],\"page\":1,\"limit\":").append(results)
+                .append(",\"total\":").append(results * 20).append(",");
+        json.append("\"qinfo\":{\"im_url\":\"http://www.example.com/query.jpeg\",\"price\":\"49.99\",\"title\":\"query\"},");
+        json.append("\"facets\":[{\"key\":\"brand\",\"items\":[");
+        for (int i = 0; i < 10; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"value\":\"brand").append(i).append("\",\"count\":").append(10 + i).append('}');
+        }
+        json.append("]},{\"key\":\"price\",\"range\":{\"min\":1,\"max\":420}}],");
+        json.append("\"result\":");
+        appendResults(json, "im", results, metadataFields);
+        return json.append('}').toString();
+    }
+
+    /**
+     * A multiple product search response with detected objects, each with its own results.
+     */
+    static String discover(int resultsPerObject, int metadataFields) {
+        StringBuilder json = new StringBuilder(TYPES.length * resultsPerObject * (80 + metadataFields * 40) + 1024);
+        json.append("{\"status\":\"OK\",\"method\":\"discoversearch\",\"error\":[],\"page\":1,\"limit\":").append(resultsPerObject)
+                .append(",\"total\":").append(resultsPerObject * 20).append(",\"im_id\":\"query.jpg\",");
+        json.append("\"objects\":[");
+        for (int t = 0; t < TYPES.length; t++) {
+            json.append(t == 0 ? "" : ",").append("{\"type\":\"").append(TYPES[t]).append("\",\"score\":0.").append(9 - t)
+                    .append(",\"box\":[84,223,425,639],\"attributes\":{},\"total\":").append(resultsPerObject * 20)
+                    .append(",\"result\":");
+            appendResults(json, TYPES[t], resultsPerObject, metadataFields);
+            json.append('}');
+        }
+        json.append("],\"product_types\":[");
+        for (int t = 0; t < TYPES.length; t++) {
+            json.append(t == 0 ? "" : ",").append("{\"type\":\"").append(TYPES[t]).append("\",\"score\":0.").append(9 - t)
+                    .append(",\"box\":[84,223,425,639]}");
+        }
+        json.append("],\"product_types_list\":[");
+        for (int t = 0; t < TYPES.length; t++) {
+            json.append(t == 0 ? "" : ",").append("{\"type\":\"").append(TYPES[t]).append("\"}");
+        }
+        json.append("],\"result\":[]}");
+        return json.toString();
+    }
+
+    /**
+     * A similar products response, results grouped per detected product type.
+     */
+    static String similarProducts(int resultsPerGroup, int metadataFields) {
+        StringBuilder json = new StringBuilder(TYPES.length * resultsPerGroup * (80 + metadataFields * 40) + 1024);
+        json.append("{\"status\":\"OK\",\"method\":\"similarproducts\",\"error\":[],\"page\":1,\"limit\":").append(resultsPerGroup)
+                .append(",\"total\":").append(resultsPerGroup * 20).append(",\"product_types\":[");
+        for (int t = 0; t < TYPES.length; t++) {
+            json.append(t == 0 ? "" : ",").append("{\"type\":\"").append(TYPES[t]).append("\",\"score\":0.").append(9 - t)
+                    .append(",\"box\":[84,223,425,639]}");
+        }
+        json.append("],\"group_result\":[");
+        for (int t = 0; t < TYPES.length; t++) {
+            json.append(t == 0 ? "" : ",");
+            appendResults(json, TYPES[t], resultsPerGroup, metadataFields);
+        }
+        json.append("],\"result\":[]}");
+        return json.toString();
+    }
+
+    private static void appendResults(StringBuilder json, String prefix, int results, int metadataFields) {
+        json.append('[');
+        for (int i = 0; i < results; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"im_name\":\"").append(prefix).append('_').append(i)
+                    .append("\",\"score\":0.").append(999999 - i).append(",\"value_map\":{");
+            for (int f = 0; f < metadataFields; f++) {
+                json.append(f == 0 ? "" : ",").append("\"field").append(f).append("\":\"value ").append(prefix)
+                        .append(' ').append(i).append(' ').append(f).append('"');
+            }
+            json.append("}}");
+        }
+        json.append(']');
+    }
+}
@@ -0,0 +1,78 @@
+package com.visenze.visearch.benchmark;
+
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Answers every request with the same body without any network. Request entities are written to
+ * a discarding stream, so building and serializing request bodies is part of the measurement.
+ */
+@SuppressWarnings("deprecation")
+class StubHttpClient extends CloseableHttpClient {
+
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private final byte[] body;
+
+    StubHttpClient(String body) {
+        this.body = Responses.bytes(body);
+    }
+
+    @Override
+    protected CloseableHttpResponse doExecute(HttpHost target, HttpRequest request, HttpContext context) throws IOException {
+        if (request instanceof HttpEntityEnclosingRequest) {
+            ((HttpEntityEnclosingRequest) request).getEntity().writeTo(DISCARD);
+        }
+        StubResponse response = new StubResponse();
+        response.setEntity(new ByteArrayEntity(body, ContentType.APPLICATION_JSON));
+        response.addHeader("X-Log-ID", "benchmark");
+        return response;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public HttpParams getParams() {
+        return new BasicHttpParams();
+    }
+
+    @Override
+    public ClientConnectionManager getConnectionManager() {
+        return null;
+    }
+
+    private static class StubResponse extends BasicHttpResponse implements CloseableHttpResponse {
+
+        StubResponse() {
+            super(HttpVersion.HTTP_1_1, 200, "OK");
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
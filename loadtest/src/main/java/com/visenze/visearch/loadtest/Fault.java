@@ -0,0 +1,33 @@
+package com.visenze.visearch.loadtest;
+
+/**
+ * Ways the {@link StubViSearchServer} can misbehave, see {@link FaultProfile}.
+ */
+public enum Fault {
+
+    /**
+     * The response is delayed by {@link FaultProfile#getDelayMillis()} before the first byte.
+     */
+    SLOW_FIRST_BYTE,
+
+    /**
+     * Headers announce the full body but only half of it is sent before the connection closes.
+     */
+    TRUNCATED_JSON,
+
+    /**
+     * The connection is closed without any response. The JDK http server offers no way to send a
+     * TCP reset, the client sees a connection closed by the peer instead.
+     */
+    CONNECTION_RESET,
+
+    /**
+     * A 503 with an html error page, as sent by a load balancer without healthy backends.
+     */
+    SERVER_ERROR,
+
+    /**
+     * A 200 with a <code>"status":"fail"</code> payload.
+     */
+    STATUS_FAIL
+}
@@ -0,0 +1,68 @@
+package com.visenze.visearch.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A fault and the share of requests it hits.
+ */
+public class FaultProfile {
+
+    public static final long DEFAULT_DELAY_MILLIS = 10 * 1000;
+
+    private final Fault fault;
+    private final double rate;
+    private final long delayMillis;
+
+    public FaultProfile(Fault fault, double rate) {
+        this(fault, rate, DEFAULT_DELAY_MILLIS);
+    }
+
+    /**
+     * @param rate        share of requests hit by the fault, 0 to 1
+     * @param delayMillis delay of {@link Fault#SLOW_FIRST_BYTE}
+     */
+    public FaultProfile(Fault fault, double rate, long delayMillis) {
+        if (rate < 0 || rate > 1) {
+            throw new IllegalArgumentException("Fault rate must be between 0 and 1.");
+        }
+        this.fault = fault;
+        this.rate = rate;
+        this.delayMillis = delayMillis;
+    }
+
+    /**
+     * Parse <code>fault[:rate[:delayMillis]]</code>, e.g. <code>server_error:0.5</code> or
+     * <code>slow_first_byte:1:5000</code>.
+     */
+    public static FaultProfile parse(String spec) {
+        String[] parts = spec.split(":");
+        Fault fault = Fault.valueOf(parts[0].trim().toUpperCase());
+        double rate = parts.length > 1 ? Double.parseDouble(parts[1]) : 1;
+        long delayMillis = parts.length > 2 ? Long.parseLong(parts[2]) : DEFAULT_DELAY_MILLIS;
+        return new FaultProfile(fault, rate, delayMillis);
+    }
+
+    public Fault getFault() {
+        return fault;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    public long getDelayMillis() {
+        return delayMillis;
+    }
+
+    /**
+     * Whether the fault hits the current request.
+     */
+    boolean hits() {
+        return rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    @Override
+    public String toString() {
+        return fault.name().toLowerCase() + ":" + rate + (fault == Fault.SLOW_FIRST_BYTE ? ":" + delayMillis : "");
+    }
+}
@@ -0,0 +1,103 @@
+package com.visenze.visearch.loadtest;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server side latency added by the stub to every response.
+ */
+public abstract class LatencyDistribution {
+
+    /**
+     * z-score of the 99th percentile of the standard normal distribution.
+     */
+    private static final double Z_99 = 2.326;
+
+    public static final LatencyDistribution NONE = fixed(0);
+
+    /**
+     * @return the next latency in nanoseconds
+     */
+    public abstract long nextNanos(Random random);
+
+    public static LatencyDistribution fixed(final double millis) {
+        final long nanos = toNanos(millis);
+        return new LatencyDistribution() {
+            @Override
+            public long nextNanos(Random random) {
+                return nanos;
+            }
+
+            @Override
+            public String toString() {
+                return "fixed:" + millis;
+            }
+        };
+    }
+
+    public static LatencyDistribution uniform(final double minMillis, final double maxMillis) {
+        final long min = toNanos(minMillis);
+        final long range = toNanos(maxMillis) - min;
+        return new LatencyDistribution() {
+            @Override
+            public long nextNanos(Random random) {
+                return min + (long) (random.nextDouble() * range);
+            }
+
+            @Override
+            public String toString() {
+                return "uniform:" + minMillis + "-" + maxMillis;
+            }
+        };
+    }
+
+    /**
+     * A log-normal distribution, the usual shape of service latencies: most responses close to the
+     * median and a long tail.
+     */
+    public static LatencyDistribution logNormal(final double medianMillis, final double p99Millis) {
+        if (p99Millis < medianMillis) {
+            throw new IllegalArgumentException("p99 must not be below the median.");
+        }
+        final double mu = Math.log(medianMillis);
+        final double sigma = Math.log(p99Millis / medianMillis) / Z_99;
+        return new LatencyDistribution() {
+            @Override
+            public long nextNanos(Random random) {
+                return toNanos(Math.exp(mu + sigma * random.nextGaussian()));
+            }
+
+            @Override
+            public String toString() {
+                return "lognormal:" + medianMillis + "," + p99Millis;
+            }
+        };
+    }
+
+    /**
+     * Parse <code>fixed:20</code>, <code>uniform:10-50</code> or <code>lognormal:20,150</code>
+     * (median and p99), all in milliseconds.
+     */
+    public static LatencyDistribution parse(String spec) {
+        int colon = spec.indexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Invalid latency distribution: " + spec);
+        }
+        String type = spec.substring(0, colon);
+        String args = spec.substring(colon + 1);
+        if ("fixed".equals(type)) {
+            return fixed(Double.parseDouble(args));
+        } else if ("uniform".equals(type)) {
+            String[] range = args.split("-");
+            return uniform(Double.parseDouble(range[0]), Double.parseDouble(range[1]));
+        } else if ("lognormal".equals(type)) {
+            String[] params = args.split(",");
+            return logNormal(Double.parseDouble(params[0]), Double.parseDouble(params[1]));
+        }
+        throw new IllegalArgumentException("Invalid latency distribution: " + spec);
+    }
+
+    private static long toNanos(double millis) {
+        return (long) (millis * TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
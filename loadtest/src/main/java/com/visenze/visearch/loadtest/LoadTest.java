@@ -0,0 +1,134 @@
+package com.visenze.visearch.loadtest;
+
+import com.visenze.visearch.ViSearch;
+import com.visenze.visearch.metrics.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a closed-loop load test: a fixed number of threads each calling the synchronous client
+ * back to back, recording the latency of every call after the warmup.
+ */
+public class LoadTest {
+
+    private final ViSearch client;
+    private final List<Operation> operations;
+
+    /**
+     * @param operations the calls to make, rotated through by every thread
+     */
+    public LoadTest(ViSearch client, List<Operation> operations) {
+        if (operations.isEmpty()) {
+            throw new IllegalArgumentException("At least one operation is required.");
+        }
+        this.client = client;
+        this.operations = new ArrayList<Operation>(operations);
+    }
+
+    public Result run(int concurrency, long warmupMillis, long durationMillis) throws InterruptedException {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final long start = System.nanoTime();
+        final long measureFrom = start + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+        final long end = measureFrom + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        final CountDownLatch done = new CountDownLatch(concurrency);
+        final String[] lastError = new String[1];
+        for (int t = 0; t < concurrency; t++) {
+            final int offset = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; ; i++) {
+                            Operation operation = operations.get((i + offset) % operations.size());
+                            long callStart = System.nanoTime();
+                            if (callStart >= end) {
+                                return;
+                            }
+                            String error = operation.call(client, i);
+                            long callEnd = System.nanoTime();
+                            if (callStart >= measureFrom && callEnd <= end) {
+                                latency.record(callEnd - callStart);
+                                calls.incrementAndGet();
+                                if (error != null) {
+                                    errors.incrementAndGet();
+                                    lastError[0] = error;
+                                }
+                            }
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "loadtest-" + t);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        return new Result(concurrency, calls.get(), errors.get(), durationMillis, latency, lastError[0]);
+    }
+
+    /**
+     * Outcome of one load test run.
+     */
+    public static class Result {
+
+        private final int concurrency;
+        private final long calls;
+        private final long errors;
+        private final long durationMillis;
+        private final LatencyHistogram latency;
+        private final String lastError;
+
+        Result(int concurrency, long calls, long errors, long durationMillis, LatencyHistogram latency, String lastError) {
+            this.concurrency = concurrency;
+            this.calls = calls;
+            this.errors = errors;
+            this.durationMillis = durationMillis;
+            this.latency = latency;
+            this.lastError = lastError;
+        }
+
+        public int getConcurrency() {
+            return concurrency;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * Calls per second, including those with an error result.
+         */
+        public double getThroughput() {
+            return calls * 1000.0 / durationMillis;
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * The error message of the last failed call, null without errors.
+         */
+        public String getLastError() {
+            return lastError;
+        }
+
+        /**
+         * Latency at a percentile in milliseconds, with microsecond resolution.
+         */
+        public double getLatencyMillis(double percentile) {
+            return latency.getValueAtPercentile(percentile, TimeUnit.MICROSECONDS) / 1000.0;
+        }
+    }
+}
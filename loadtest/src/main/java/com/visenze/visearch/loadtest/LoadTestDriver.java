@@ -0,0 +1,119 @@
+package com.visenze.visearch.loadtest;
+
+import com.visenze.visearch.ClientConfig;
+import com.visenze.visearch.ViSearch;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sweeps concurrency levels against the stub server (or any ViSearch endpoint) and prints
+ * throughput and latency percentiles of the synchronous client per level:
+ * <pre>
+ * java -jar target/loadtest.jar --operations search,upload_search --concurrency 1,4,16,64 \
+ *     --latency lognormal:20,120 --results 50 --duration 10
+ * </pre>
+ * Options:
+ * <ul>
+ * <li><code>--operations</code> calls to rotate through, see {@link Operation} (default search)</li>
+ * <li><code>--concurrency</code> comma separated thread counts (default 1,2,4,8,16,32,64)</li>
+ * <li><code>--warmup</code>, <code>--duration</code> seconds per level (default 3 and 10)</li>
+ * <li><code>--latency</code> stub latency of all endpoints, see {@link LatencyDistribution#parse(String)} (default lognormal:20,120)</li>
+ * <li><code>--results</code>, <code>--fields</code>, <code>--objects</code> stub payload sizes (default 10, 5 and 3)</li>
+ * <li><code>--fault</code> a fault injected by the stub, see {@link FaultProfile#parse(String)}</li>
+ * <li><code>--endpoint</code> an existing server to load instead of the stub</li>
+ * <li><code>--track</code> also send the automatic tracking events</li>
+ * </ul>
+ */
+public class LoadTestDriver {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = parseOptions(args);
+        List<Operation> operations = new ArrayList<Operation>();
+        for (String name : option(options, "operations", "search").split(",")) {
+            operations.add(Operation.parse(name));
+        }
+        List<Integer> levels = new ArrayList<Integer>();
+        for (String level : option(options, "concurrency", "1,2,4,8,16,32,64").split(",")) {
+            levels.add(Integer.parseInt(level.trim()));
+        }
+        long warmupMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(option(options, "warmup", "3")));
+        long durationMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(option(options, "duration", "10")));
+
+        StubViSearchServer server = null;
+        String endpoint = options.get("endpoint");
+        if (endpoint == null) {
+            StubConfig config = new StubConfig()
+                    .setDefaultLatency(LatencyDistribution.parse(option(options, "latency", "lognormal:20,120")))
+                    .setResults(Integer.parseInt(option(options, "results", "10")))
+                    .setMetadataFields(Integer.parseInt(option(options, "fields", "5")))
+                    .setObjects(Integer.parseInt(option(options, "objects", "3")));
+            if (options.containsKey("fault")) {
+                config.setFaultProfile(FaultProfile.parse(options.get("fault")));
+            }
+            server = new StubViSearchServer(config).start();
+            endpoint = server.getEndpoint();
+        }
+        try {
+            int maxConcurrency = 1;
+            for (int level : levels) {
+                maxConcurrency = Math.max(maxConcurrency, level);
+            }
+            ClientConfig clientConfig = new ClientConfig();
+            clientConfig.setMaxConnection(maxConcurrency);
+            ViSearch client = new ViSearch(endpoint, "access", "secret", clientConfig);
+            client.setEnableAutoSolutionActionTrack(options.containsKey("track"));
+
+            LoadTest loadTest = new LoadTest(client, operations);
+            PrintStream out = System.out;
+            out.println("endpoint " + endpoint + ", operations " + operations);
+            printHeader(out);
+            for (int level : levels) {
+                print(out, loadTest.run(level, warmupMillis, durationMillis));
+            }
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    static void printHeader(PrintStream out) {
+        out.println(String.format("%11s %10s %8s %12s %9s %9s %9s %9s", "concurrency", "calls", "errors", "calls/s", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+    }
+
+    static void print(PrintStream out, LoadTest.Result result) {
+        out.println(String.format("%11d %10d %8d %12.1f %9.2f %9.2f %9.2f %9.2f", result.getConcurrency(), result.getCalls(),
+                result.getErrors(), result.getThroughput(), result.getLatencyMillis(50), result.getLatencyMillis(99),
+                result.getLatencyMillis(99.9), result.getLatency().getMax(TimeUnit.MICROSECONDS) / 1000.0));
+        if (result.getLastError() != null) {
+            out.println("  last error: " + result.getLastError());
+        }
+    }
+
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<String, String>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            String name = args[i].substring(2);
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(name, args[++i]);
+            } else {
+                options.put(name, "true");
+            }
+        }
+        return options;
+    }
+
+    static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+}
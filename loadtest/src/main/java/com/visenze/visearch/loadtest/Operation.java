@@ -0,0 +1,90 @@
+package com.visenze.visearch.loadtest;
+
+import com.visenze.visearch.Image;
+import com.visenze.visearch.SearchParams;
+import com.visenze.visearch.UploadSearchParams;
+import com.visenze.visearch.ViSearch;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A ViSearch API call made by the load test, returning the error message of its result or null.
+ */
+public enum Operation {
+
+    SEARCH {
+        @Override
+        String call(ViSearch client, int i) {
+            return client.search(new SearchParams("im_" + (i % 1000))).getErrorMessage();
+        }
+    },
+    UPLOAD_SEARCH {
+        @Override
+        String call(ViSearch client, int i) {
+            return client.uploadSearch(new UploadSearchParams(new ByteArrayInputStream(IMAGE))).getErrorMessage();
+        }
+    },
+    DISCOVER_SEARCH {
+        @Override
+        String call(ViSearch client, int i) {
+            return client.discoverSearch(new UploadSearchParams(new ByteArrayInputStream(IMAGE))).getErrorMessage();
+        }
+    },
+    INSERT {
+        @Override
+        String call(ViSearch client, int i) {
+            return client.insert(IMAGES).getErrorMessage();
+        }
+    },
+    INSERT_STATUS {
+        @Override
+        String call(ViSearch client, int i) {
+            return client.insertStatus(Integer.toString(i + 1)).getErrorMessage();
+        }
+    },
+    REMOVE {
+        @Override
+        String call(ViSearch client, int i) {
+            return client.remove(Collections.singletonList("im_" + (i % 1000))).getErrorMessage();
+        }
+    };
+
+    /**
+     * The image uploaded by upload and discover search, 32 KiB.
+     */
+    static final byte[] IMAGE = new byte[32 * 1024];
+
+    /**
+     * The batch sent by insert, 100 images with metadata.
+     */
+    static final List<Image> IMAGES = new ArrayList<Image>();
+
+    static {
+        new Random(42).nextBytes(IMAGE);
+        for (int i = 0; i < 100; i++) {
+            Map<String, String> metadata = new HashMap<String, String>();
+            metadata.put("title", "Product title number " + i);
+            metadata.put("price", (10 + i) + ".99");
+            metadata.put("brand", "brand " + (i % 7));
+            IMAGES.add(new Image("im_" + i, "http://www.example.com/images/" + i + ".jpg", metadata));
+        }
+    }
+
+    /**
+     * @param i sequence number of the call within its thread
+     */
+    abstract String call(ViSearch client, int i);
+
+    /**
+     * Parse an operation name such as <code>search</code> or <code>upload_search</code>.
+     */
+    public static Operation parse(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+}
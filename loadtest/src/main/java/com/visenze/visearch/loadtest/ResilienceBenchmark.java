@@ -0,0 +1,259 @@
+package com.visenze.visearch.loadtest;
+
+import com.visenze.visearch.ClientConfig;
+import com.visenze.visearch.ViSearch;
+import com.visenze.visearch.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how the client copes with each {@link Fault}: calls arrive at a fixed rate (open
+ * loop, as from incoming user traffic), the stub is healthy for a baseline period, faulty for a
+ * while and healthy again. Per fault it reports
+ * <ul>
+ * <li>the latency of calls that returned an error result,</li>
+ * <li>the latency of successful calls while faulty,</li>
+ * <li>thread occupancy, the calling threads blocked in the SDK at the same time,</li>
+ * <li>recovery time, from the stub turning healthy until the last error result or the last
+ * moment occupancy was above its baseline peak (taken over the second half of the baseline).</li>
+ * </ul>
+ * Rerun with different <code>--socket-timeout</code> and <code>--max-connections</code> to see
+ * what the {@link ClientConfig} settings cost:
+ * <pre>
+ * java -cp target/loadtest.jar com.visenze.visearch.loadtest.ResilienceBenchmark --rate 50 --socket-timeout 2000
+ * </pre>
+ * Options: <code>--faults</code> (default all, see {@link FaultProfile#parse(String)}),
+ * <code>--operation</code>, <code>--rate</code> calls/s, <code>--baseline</code>,
+ * <code>--fault-duration</code>, <code>--after</code> seconds, <code>--latency</code>,
+ * <code>--socket-timeout</code>, <code>--connect-timeout</code> ms and <code>--max-connections</code>.
+ */
+public class ResilienceBenchmark {
+
+    private static final long SAMPLE_MILLIS = 10;
+
+    private final Operation operation;
+    private final int rate;
+    private final long baselineMillis;
+    private final long faultMillis;
+    private final long afterMillis;
+    private final LatencyDistribution latency;
+    private final ClientConfig clientConfig;
+
+    public ResilienceBenchmark(Operation operation, int rate, long baselineMillis, long faultMillis, long afterMillis,
+                               LatencyDistribution latency, ClientConfig clientConfig) {
+        this.operation = operation;
+        this.rate = rate;
+        this.baselineMillis = baselineMillis;
+        this.faultMillis = faultMillis;
+        this.afterMillis = afterMillis;
+        this.latency = latency;
+        this.clientConfig = clientConfig;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = LoadTestDriver.parseOptions(args);
+        List<FaultProfile> faults = new ArrayList<FaultProfile>();
+        String faultOption = LoadTestDriver.option(options, "faults", "all");
+        if ("all".equals(faultOption)) {
+            for (Fault fault : Fault.values()) {
+                faults.add(new FaultProfile(fault, 1));
+            }
+        } else {
+            for (String spec : faultOption.split(",")) {
+                faults.add(FaultProfile.parse(spec));
+            }
+        }
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setSocketTimeout(Integer.parseInt(LoadTestDriver.option(options, "socket-timeout",
+                Integer.toString(ClientConfig.DEFAULT_SOCKET_TIMEOUT))));
+        clientConfig.setConnectionTimeout(Integer.parseInt(LoadTestDriver.option(options, "connect-timeout",
+                Integer.toString(ClientConfig.DEFAULT_CONNECTION_TIMEOUT))));
+        clientConfig.setMaxConnection(Integer.parseInt(LoadTestDriver.option(options, "max-connections",
+                Integer.toString(ClientConfig.DEFAULT_MAX_CONNECTIONS))));
+        ResilienceBenchmark benchmark = new ResilienceBenchmark(
+                Operation.parse(LoadTestDriver.option(options, "operation", "search")),
+                Integer.parseInt(LoadTestDriver.option(options, "rate", "50")),
+                TimeUnit.SECONDS.toMillis(Long.parseLong(LoadTestDriver.option(options, "baseline", "5"))),
+                TimeUnit.SECONDS.toMillis(Long.parseLong(LoadTestDriver.option(options, "fault-duration", "5"))),
+                TimeUnit.SECONDS.toMillis(Long.parseLong(LoadTestDriver.option(options, "after", "5"))),
+                LatencyDistribution.parse(LoadTestDriver.option(options, "latency", "lognormal:20,120")),
+                clientConfig);
+
+        PrintStream out = System.out;
+        out.println("operation " + benchmark.operation + ", " + benchmark.rate + " calls/s, socket timeout "
+                + clientConfig.getSocketTimeout() + " ms, max connections " + clientConfig.getMaxConnection());
+        out.println(String.format("%-28s %7s %7s %11s %11s %11s %9s %9s %12s", "fault", "calls", "errors",
+                "err p50 ms", "err p99 ms", "ok p99 ms", "base occ", "peak occ", "recovery ms"));
+        for (FaultProfile fault : faults) {
+            Result result = benchmark.run(fault);
+            out.println(String.format("%-28s %7d %7d %11.1f %11.1f %11.1f %9d %9d %12d", fault, result.calls, result.errors,
+                    millis(result.errorLatency, 50), millis(result.errorLatency, 99), millis(result.faultyOkLatency, 99),
+                    result.baselineOccupancy, result.peakOccupancy, result.recoveryMillis));
+        }
+    }
+
+    private static double millis(LatencyHistogram histogram, double percentile) {
+        return histogram.getCount() == 0 ? 0 : histogram.getValueAtPercentile(percentile, TimeUnit.MICROSECONDS) / 1000.0;
+    }
+
+    public Result run(FaultProfile fault) throws IOException, InterruptedException {
+        StubViSearchServer server = new StubViSearchServer(new StubConfig().setDefaultLatency(latency)).start();
+        final ViSearch client = new ViSearch(server.getEndpoint(), "access", "secret", clientConfig);
+        client.setEnableAutoSolutionActionTrack(false);
+        final Result result = new Result();
+        final AtomicInteger occupancy = new AtomicInteger();
+        final AtomicLong lastUnhealthy = new AtomicLong();
+        final AtomicInteger sequence = new AtomicInteger();
+        final long start = System.nanoTime();
+        final long faultStart = start + TimeUnit.MILLISECONDS.toNanos(baselineMillis);
+        // the first half of the baseline warms up the client and its connections
+        final long baselineFrom = start + TimeUnit.MILLISECONDS.toNanos(baselineMillis / 2);
+        final long faultEnd = faultStart + TimeUnit.MILLISECONDS.toNanos(faultMillis);
+        final long end = faultEnd + TimeUnit.MILLISECONDS.toNanos(afterMillis);
+
+        final ExecutorService callers = Executors.newCachedThreadPool();
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                if (System.nanoTime() >= end) {
+                    return;
+                }
+                callers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        occupancy.incrementAndGet();
+                        long callStart = System.nanoTime();
+                        String error = operation.call(client, sequence.getAndIncrement());
+                        long callEnd = System.nanoTime();
+                        occupancy.decrementAndGet();
+                        result.record(callStart, callEnd, error, faultStart, faultEnd, lastUnhealthy);
+                    }
+                });
+            }
+        }, 0, TimeUnit.SECONDS.toNanos(1) / rate, TimeUnit.NANOSECONDS);
+
+        try {
+            int baselinePeak = 0;
+            boolean faulty = false;
+            while (true) {
+                long now = System.nanoTime();
+                int current = occupancy.get();
+                if (now < baselineFrom) {
+                    // warming up
+                } else if (now < faultStart) {
+                    baselinePeak = Math.max(baselinePeak, current);
+                } else if (now < faultEnd) {
+                    if (!faulty) {
+                        server.setFaultProfile(fault);
+                        faulty = true;
+                    }
+                } else {
+                    if (faulty) {
+                        server.setFaultProfile(null);
+                        faulty = false;
+                    }
+                    if (current > baselinePeak) {
+                        lastUnhealthy.set(now);
+                    }
+                }
+                result.peakOccupancy = Math.max(result.peakOccupancy, current);
+                if (now >= end && current == 0) {
+                    break;
+                }
+                Thread.sleep(SAMPLE_MILLIS);
+            }
+            result.baselineOccupancy = baselinePeak;
+            long unhealthy = lastUnhealthy.get();
+            result.recoveryMillis = unhealthy <= faultEnd ? 0 : TimeUnit.NANOSECONDS.toMillis(unhealthy - faultEnd);
+            return result;
+        } finally {
+            scheduler.shutdownNow();
+            callers.shutdownNow();
+            server.stop();
+        }
+    }
+
+    /**
+     * Outcome of one fault.
+     */
+    public static class Result {
+
+        private final AtomicLong callCount = new AtomicLong();
+        private final AtomicLong errorCount = new AtomicLong();
+        final LatencyHistogram errorLatency = new LatencyHistogram();
+        final LatencyHistogram faultyOkLatency = new LatencyHistogram();
+        long calls;
+        long errors;
+        int baselineOccupancy;
+        int peakOccupancy;
+        long recoveryMillis;
+
+        void record(long callStart, long callEnd, String error, long faultStart, long faultEnd, AtomicLong lastUnhealthy) {
+            calls = callCount.incrementAndGet();
+            long latency = callEnd - callStart;
+            if (error != null) {
+                errors = errorCount.incrementAndGet();
+                errorLatency.record(latency);
+                if (callEnd > faultEnd) {
+                    lastUnhealthy.set(Math.max(lastUnhealthy.get(), callEnd));
+                }
+            } else if (callStart >= faultStart && callStart < faultEnd) {
+                faultyOkLatency.record(latency);
+            }
+        }
+
+        public long getCalls() {
+            return callCount.get();
+        }
+
+        public long getErrors() {
+            return errorCount.get();
+        }
+
+        /**
+         * Latency of calls that returned an error result.
+         */
+        public LatencyHistogram getErrorLatency() {
+            return errorLatency;
+        }
+
+        /**
+         * Latency of successful calls started while the stub was faulty.
+         */
+        public LatencyHistogram getFaultyOkLatency() {
+            return faultyOkLatency;
+        }
+
+        /**
+         * Peak number of threads in the SDK at the same time before the fault.
+         */
+        public int getBaselineOccupancy() {
+            return baselineOccupancy;
+        }
+
+        /**
+         * Peak number of threads in the SDK at the same time.
+         */
+        public int getPeakOccupancy() {
+            return peakOccupancy;
+        }
+
+        /**
+         * Time from the stub turning healthy until the client was healthy again.
+         */
+        public long getRecoveryMillis() {
+            return recoveryMillis;
+        }
+    }
+}
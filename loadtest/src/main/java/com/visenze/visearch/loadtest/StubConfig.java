@@ -0,0 +1,86 @@
+package com.visenze.visearch.loadtest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Latencies and payload sizes of the {@link StubViSearchServer}.
+ */
+public class StubConfig {
+
+    private LatencyDistribution defaultLatency = LatencyDistribution.NONE;
+    private final Map<String, LatencyDistribution> latencies = new HashMap<String, LatencyDistribution>();
+    private int results = 10;
+    private int metadataFields = 5;
+    private int objects = 3;
+    private FaultProfile faultProfile;
+
+    public LatencyDistribution getLatency(String endpoint) {
+        LatencyDistribution latency = latencies.get(endpoint);
+        return latency == null ? defaultLatency : latency;
+    }
+
+    /**
+     * Latency of all endpoints without one of their own.
+     */
+    public StubConfig setDefaultLatency(LatencyDistribution defaultLatency) {
+        this.defaultLatency = defaultLatency;
+        return this;
+    }
+
+    /**
+     * @param endpoint the API path, e.g. <code>/search</code>; <code>/insert/status</code> covers all transactions
+     */
+    public StubConfig setLatency(String endpoint, LatencyDistribution latency) {
+        latencies.put(endpoint, latency);
+        return this;
+    }
+
+    public int getResults() {
+        return results;
+    }
+
+    /**
+     * Results per search response, per detected object for discover search.
+     */
+    public StubConfig setResults(int results) {
+        this.results = results;
+        return this;
+    }
+
+    public int getMetadataFields() {
+        return metadataFields;
+    }
+
+    /**
+     * Metadata fields in the value_map of every result.
+     */
+    public StubConfig setMetadataFields(int metadataFields) {
+        this.metadataFields = metadataFields;
+        return this;
+    }
+
+    public int getObjects() {
+        return objects;
+    }
+
+    /**
+     * Objects detected by discover search.
+     */
+    public StubConfig setObjects(int objects) {
+        this.objects = objects;
+        return this;
+    }
+
+    public FaultProfile getFaultProfile() {
+        return faultProfile;
+    }
+
+    /**
+     * Inject a fault from the start, null (the default) to serve normally.
+     */
+    public StubConfig setFaultProfile(FaultProfile faultProfile) {
+        this.faultProfile = faultProfile;
+        return this;
+    }
+}
@@ -0,0 +1,94 @@
+package com.visenze.visearch.loadtest;
+
+import java.nio.charset.Charset;
+
+/**
+ * Response bodies of the ViSearch API contracts, sized by a {@link StubConfig}.
+ */
+final class StubResponses {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String[] TYPES = {"top", "bottom", "shoe", "bag", "dress", "other"};
+
+    /**
+     * A 1x1 transparent gif, the body of the tracking pixel.
+     */
+    static final byte[] PIXEL = {
+            0x47, 0x49, 0x46, 0x38, 0x39, 0x61, 0x01, 0x00, 0x01, 0x00, (byte) 0x80, 0x00, 0x00, 0x00, 0x00, 0x00,
+            (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x21, (byte) 0xf9, 0x04, 0x01, 0x00, 0x00, 0x00, 0x00, 0x2c, 0x00,
+            0x00, 0x00, 0x00, 0x01, 0x00, 0x01, 0x00, 0x00, 0x02, 0x01, 0x44, 0x00, 0x3b};
+
+    static final String SERVICE_UNAVAILABLE = "<html><body><h1>503 Service Unavailable</h1></body></html>";
+
+    final byte[] search;
+    final byte[] uploadSearch;
+    final byte[] discoverSearch;
+
+    StubResponses(StubConfig config) {
+        search = bytes(searchPage("search", config));
+        uploadSearch = bytes(searchPage("uploadsearch", config));
+        discoverSearch = bytes(discover(config));
+    }
+
+    static byte[] bytes(String body) {
+        return body.getBytes(UTF8);
+    }
+
+    static String insert(long transId, int total) {
+        return "{\"status\":\"OK\",\"method\":\"insert\",\"trans_id\":" + transId + ",\"error\":[],\"total\":" + total + "}";
+    }
+
+    static String insertStatus(String transId) {
+        return "{\"status\":\"OK\",\"method\":\"insert/status\",\"result\":[{\"trans_id\":" + transId
+                + ",\"processed_percent\":100,\"total\":1,\"success_count\":1,\"fail_count\":0,"
+                + "\"start_time\":\"2015-01-02T03:04:05.678+0000\",\"update_time\":\"2015-01-02T03:04:05.678+0000\"}]}";
+    }
+
+    static String remove(int total) {
+        return "{\"status\":\"OK\",\"method\":\"remove\",\"error\":[],\"total\":" + total + "}";
+    }
+
+    static String error(String method, String message) {
+        return "{\"status\":\"fail\",\"method\":\"" + method + "\",\"error\":[\"" + message + "\"]}";
+    }
+
+    private static String searchPage(String method, StubConfig config) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"status\":\"OK\",\"method\":\"").append(method).append("\",\"error\":[],\"page\":1,\"limit\":")
+                .append(config.getResults()).append(",\"total\":").append(config.getResults() * 20)
+                .append(",\"facets\":[{\"key\":\"brand\",\"items\":[{\"value\":\"brand a\",\"count\":5},{\"value\":\"brand b\",\"count\":3}]}]")
+                .append(",\"result\":");
+        appendResults(json, "im", config);
+        return json.append('}').toString();
+    }
+
+    private static String discover(StubConfig config) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"status\":\"OK\",\"method\":\"discoversearch\",\"error\":[],\"page\":1,\"limit\":")
+                .append(config.getResults()).append(",\"total\":").append(config.getResults() * 20).append(",\"im_id\":\"stub.jpg\",\"objects\":[");
+        for (int t = 0; t < config.getObjects(); t++) {
+            String type = TYPES[t % TYPES.length];
+            json.append(t == 0 ? "" : ",").append("{\"type\":\"").append(type)
+                    .append("\",\"score\":0.9,\"box\":[84,223,425,639],\"attributes\":{},\"total\":").append(config.getResults() * 20)
+                    .append(",\"result\":");
+            appendResults(json, type, config);
+            json.append('}');
+        }
+        return json.append("],\"result\":[]}").toString();
+    }
+
+    private static void appendResults(StringBuilder json, String prefix, StubConfig config) {
+        json.append('[');
+        for (int i = 0; i < config.getResults(); i++) {
+            json.append(i == 0 ? "" : ",").append("{\"im_name\":\"").append(prefix).append('_').append(i)
+                    .append("\",\"score\":0.").append(999999 - i).append(",\"value_map\":{");
+            for (int f = 0; f < config.getMetadataFields(); f++) {
+                json.append(f == 0 ? "" : ",").append("\"field").append(f).append("\":\"value ").append(prefix)
+                        .append(' ').append(i).append(' ').append(f).append('"');
+            }
+            json.append("}}");
+        }
+        json.append(']');
+    }
+}
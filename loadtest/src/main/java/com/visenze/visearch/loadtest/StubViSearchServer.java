@@ -0,0 +1,239 @@
+package com.visenze.visearch.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for the ViSearch API, answering the search, data and tracking contracts
+ * with canned payloads after a configurable latency. Request bodies are read in full, so uploads
+ * cost what they would against the real service up to the network.
+ *
+ * A {@link FaultProfile} makes the stub misbehave, from the start through
+ * {@link StubConfig#setFaultProfile(FaultProfile)} or switched at runtime with
+ * {@link #setFaultProfile(FaultProfile)}. The tracking pixel is never faulted.
+ */
+public class StubViSearchServer {
+
+    public static final String SEARCH = "/search";
+    public static final String UPLOAD_SEARCH = "/uploadsearch";
+    public static final String DISCOVER_SEARCH = "/discoversearch";
+    public static final String INSERT = "/insert";
+    public static final String INSERT_STATUS = "/insert/status";
+    public static final String REMOVE = "/remove";
+    public static final String TRACK = "/__aq.gif";
+
+    private static final String JSON = "application/json;charset=utf-8";
+
+    static {
+        // without TCP_NODELAY, Nagle's algorithm and delayed ACKs add ~40 ms to every response
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final StubConfig config;
+    private final StubResponses responses;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong transIds = new AtomicLong(1);
+    private final ConcurrentMap<String, AtomicLong> requests = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong faults = new AtomicLong();
+    private volatile FaultProfile faultProfile;
+
+    public StubViSearchServer(StubConfig config) throws IOException {
+        this(config, 0);
+    }
+
+    /**
+     * @param port the port to listen on, 0 for any free port
+     */
+    public StubViSearchServer(StubConfig config, int port) throws IOException {
+        this.config = config;
+        this.responses = new StubResponses(config);
+        this.faultProfile = config.getFaultProfile();
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+        this.executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    StubViSearchServer.this.handle(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    public StubViSearchServer start() {
+        server.start();
+        return this;
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * The base url to pass to the ViSearch client.
+     */
+    public String getEndpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Inject a fault into subsequent requests, null to serve normally again.
+     */
+    public void setFaultProfile(FaultProfile faultProfile) {
+        this.faultProfile = faultProfile;
+    }
+
+    public FaultProfile getFaultProfile() {
+        return faultProfile;
+    }
+
+    /**
+     * Requests hit by a fault so far.
+     */
+    public long getFaults() {
+        return faults.get();
+    }
+
+    /**
+     * Requests served by endpoint so far.
+     */
+    public long getRequests(String endpoint) {
+        AtomicLong count = requests.get(endpoint);
+        return count == null ? 0 : count.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String endpoint = path.startsWith(INSERT_STATUS + "/") ? INSERT_STATUS : path;
+        byte[] body = readBody(exchange.getRequestBody());
+        count(endpoint);
+        delay(config.getLatency(endpoint));
+
+        FaultProfile fault = faultProfile;
+        if (fault != null && !TRACK.equals(endpoint) && fault.hits()) {
+            faults.incrementAndGet();
+            switch (fault.getFault()) {
+                case SLOW_FIRST_BYTE:
+                    delay(LatencyDistribution.fixed(fault.getDelayMillis()));
+                    break;
+                case TRUNCATED_JSON:
+                    truncate(exchange, responses.search);
+                    return;
+                case CONNECTION_RESET:
+                    // closing the exchange before any response closes the connection
+                    return;
+                case SERVER_ERROR:
+                    respond(exchange, 503, "text/html", StubResponses.bytes(StubResponses.SERVICE_UNAVAILABLE));
+                    return;
+                case STATUS_FAIL:
+                    respond(exchange, 200, JSON, StubResponses.bytes(StubResponses.error(endpoint.substring(1), "Internal server error.")));
+                    return;
+                default:
+                    break;
+            }
+        }
+
+        if (SEARCH.equals(endpoint)) {
+            respond(exchange, 200, JSON, responses.search);
+        } else if (UPLOAD_SEARCH.equals(endpoint)) {
+            respond(exchange, 200, JSON, responses.uploadSearch);
+        } else if (DISCOVER_SEARCH.equals(endpoint)) {
+            respond(exchange, 200, JSON, responses.discoverSearch);
+        } else if (INSERT.equals(endpoint)) {
+            int images = countParams(body, "im_name");
+            respond(exchange, 200, JSON, StubResponses.bytes(StubResponses.insert(transIds.getAndIncrement(), images)));
+        } else if (INSERT_STATUS.equals(endpoint)) {
+            respond(exchange, 200, JSON, StubResponses.bytes(StubResponses.insertStatus(path.substring(INSERT_STATUS.length() + 1))));
+        } else if (REMOVE.equals(endpoint)) {
+            respond(exchange, 200, JSON, StubResponses.bytes(StubResponses.remove(countParams(body, "im_name"))));
+        } else if (TRACK.equals(endpoint)) {
+            respond(exchange, 200, "image/gif", StubResponses.PIXEL);
+        } else {
+            respond(exchange, 404, JSON, StubResponses.bytes(StubResponses.error(path, "Not found.")));
+        }
+    }
+
+    private void count(String endpoint) {
+        AtomicLong count = requests.get(endpoint);
+        if (count == null) {
+            requests.putIfAbsent(endpoint, new AtomicLong());
+            count = requests.get(endpoint);
+        }
+        count.incrementAndGet();
+    }
+
+    private static void delay(LatencyDistribution latency) {
+        long nanos = latency.nextNanos(ThreadLocalRandom.current());
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.getResponseHeaders().set("X-Log-ID", Long.toHexString(ThreadLocalRandom.current().nextLong()));
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    private static void truncate(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", JSON);
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body, 0, body.length / 2);
+        out.flush();
+        // closing with bytes missing makes the server drop the connection
+    }
+
+    private static byte[] readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Count the indexed form parameters of a name, e.g. im_name[0] to im_name[99].
+     */
+    private static int countParams(byte[] body, String name) {
+        String form = new String(body, 0, body.length, StandardCharsets.ISO_8859_1);
+        int count = 0;
+        int from = 0;
+        String key = name + "%5B";
+        while ((from = form.indexOf(key, from)) >= 0) {
+            count++;
+            from += key.length();
+        }
+        return count;
+    }
+}
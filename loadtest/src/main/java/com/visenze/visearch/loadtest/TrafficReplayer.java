@@ -0,0 +1,285 @@
+package com.visenze.visearch.loadtest;
+
+import com.google.common.base.Strings;
+import com.visenze.visearch.ClientConfig;
+import com.visenze.visearch.internal.InternalViSearchException;
+import com.visenze.visearch.internal.http.ViSearchHttpClient;
+import com.visenze.visearch.internal.http.ViSearchHttpClientImpl;
+import com.visenze.visearch.metrics.LatencyHistogram;
+import com.visenze.visearch.record.RecordedRequest;
+import com.visenze.visearch.record.RequestLogReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays a log written by {@link com.visenze.visearch.record.RequestRecorder} against the stub
+ * server (or any ViSearch endpoint), with the recorded timing or <code>--speed</code> times
+ * faster, and prints the latency per endpoint:
+ * <pre>
+ * java -cp target/loadtest.jar com.visenze.visearch.loadtest.TrafficReplayer --log visearch.rec --speed 4
+ * </pre>
+ * Calls are sent at their recorded offsets whether or not earlier calls have returned (open
+ * loop), so a slow client shows as latency and schedule lag rather than as fewer calls. Uploads
+ * send random bytes of the recorded body size. Unless <code>--latency</code> is given, the stub
+ * answers every endpoint with a log-normal latency fitted to the median and p99 recorded for it.
+ *
+ * Options: <code>--log</code> (required), <code>--speed</code> (default 1), <code>--latency</code>,
+ * <code>--results</code>, <code>--endpoint</code>, <code>--max-connections</code> (default 64)
+ * and <code>--socket-timeout</code> ms.
+ */
+public class TrafficReplayer {
+
+    private final List<RecordedRequest> requests;
+    private final double speed;
+    private final ViSearchHttpClient client;
+    private final Map<String, Result> results = new TreeMap<String, Result>();
+    private final LatencyHistogram lag = new LatencyHistogram();
+
+    public TrafficReplayer(List<RecordedRequest> requests, double speed, ViSearchHttpClient client) {
+        if (speed <= 0) {
+            throw new IllegalArgumentException("Speed must be positive.");
+        }
+        this.requests = new ArrayList<RecordedRequest>(requests);
+        Collections.sort(this.requests, new Comparator<RecordedRequest>() {
+            @Override
+            public int compare(RecordedRequest a, RecordedRequest b) {
+                return a.getOffsetMicros() < b.getOffsetMicros() ? -1 : a.getOffsetMicros() == b.getOffsetMicros() ? 0 : 1;
+            }
+        });
+        this.speed = speed;
+        this.client = client;
+        for (RecordedRequest request : this.requests) {
+            result(endpoint(request.getPath()));
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = LoadTestDriver.parseOptions(args);
+        String log = options.get("log");
+        if (log == null) {
+            throw new IllegalArgumentException("--log is required.");
+        }
+        List<RecordedRequest> requests = read(new File(log));
+
+        StubViSearchServer server = null;
+        String endpoint = options.get("endpoint");
+        if (endpoint == null) {
+            StubConfig config = new StubConfig().setResults(Integer.parseInt(LoadTestDriver.option(options, "results", "10")));
+            if (options.containsKey("latency")) {
+                config.setDefaultLatency(LatencyDistribution.parse(options.get("latency")));
+            } else {
+                for (Map.Entry<String, LatencyDistribution> latency : recordedLatencies(requests).entrySet()) {
+                    config.setLatency(latency.getKey(), latency.getValue());
+                }
+            }
+            server = new StubViSearchServer(config).start();
+            endpoint = server.getEndpoint();
+        }
+        try {
+            ClientConfig clientConfig = new ClientConfig();
+            clientConfig.setMaxConnection(Integer.parseInt(LoadTestDriver.option(options, "max-connections", "64")));
+            clientConfig.setSocketTimeout(Integer.parseInt(LoadTestDriver.option(options, "socket-timeout",
+                    Integer.toString(ClientConfig.DEFAULT_SOCKET_TIMEOUT))));
+            TrafficReplayer replayer = new TrafficReplayer(requests,
+                    Double.parseDouble(LoadTestDriver.option(options, "speed", "1")),
+                    new ViSearchHttpClientImpl(endpoint, "access", "secret", clientConfig));
+
+            PrintStream out = System.out;
+            out.println("endpoint " + endpoint + ", " + requests.size() + " requests from " + log + " at " + replayer.speed + "x");
+            long elapsed = replayer.run();
+            out.println(String.format("%-20s %8s %8s %10s %10s %10s %10s %10s", "endpoint", "calls", "errors",
+                    "p50 ms", "p99 ms", "p999 ms", "rec p50", "rec p99"));
+            for (Map.Entry<String, Result> entry : replayer.results.entrySet()) {
+                Result result = entry.getValue();
+                out.println(String.format("%-20s %8d %8d %10.2f %10.2f %10.2f %10.2f %10.2f", entry.getKey(), result.calls.get(),
+                        result.errors.get(), millis(result.latency, 50), millis(result.latency, 99), millis(result.latency, 99.9),
+                        millis(result.recordedLatency, 50), millis(result.recordedLatency, 99)));
+            }
+            out.println(String.format("replayed in %.1f s, schedule lag p99 %.2f ms, max %.2f ms",
+                    elapsed / 1000.0, millis(replayer.lag, 99), replayer.lag.getMax(TimeUnit.MICROSECONDS) / 1000.0));
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+    }
+
+    static List<RecordedRequest> read(File file) throws IOException {
+        List<RecordedRequest> requests = new ArrayList<RecordedRequest>();
+        RequestLogReader reader = RequestLogReader.fromFile(file);
+        try {
+            for (RecordedRequest request = reader.read(); request != null; request = reader.read()) {
+                requests.add(request);
+            }
+        } finally {
+            reader.close();
+        }
+        return requests;
+    }
+
+    /**
+     * A log-normal latency per endpoint with the median and p99 of the recorded calls.
+     */
+    static Map<String, LatencyDistribution> recordedLatencies(List<RecordedRequest> requests) {
+        Map<String, List<Long>> byEndpoint = new TreeMap<String, List<Long>>();
+        for (RecordedRequest request : requests) {
+            if (request.getStatusCode() == 0) {
+                continue;
+            }
+            String endpoint = endpoint(request.getPath());
+            List<Long> latencies = byEndpoint.get(endpoint);
+            if (latencies == null) {
+                latencies = new ArrayList<Long>();
+                byEndpoint.put(endpoint, latencies);
+            }
+            latencies.add(request.getLatencyMicros());
+        }
+        Map<String, LatencyDistribution> distributions = new TreeMap<String, LatencyDistribution>();
+        for (Map.Entry<String, List<Long>> entry : byEndpoint.entrySet()) {
+            Long[] latencies = entry.getValue().toArray(new Long[0]);
+            Arrays.sort(latencies);
+            double median = latencies[(latencies.length - 1) / 2] / 1000.0;
+            double p99 = latencies[(int) Math.ceil(latencies.length * 0.99) - 1] / 1000.0;
+            distributions.put(entry.getKey(), median <= 0 ? LatencyDistribution.NONE
+                    : LatencyDistribution.logNormal(median, Math.max(median, p99)));
+        }
+        return distributions;
+    }
+
+    private static String endpoint(String path) {
+        return path.startsWith(StubViSearchServer.INSERT_STATUS + "/") ? StubViSearchServer.INSERT_STATUS : path;
+    }
+
+    private static double millis(LatencyHistogram histogram, double percentile) {
+        return histogram.getCount() == 0 ? 0 : histogram.getValueAtPercentile(percentile, TimeUnit.MICROSECONDS) / 1000.0;
+    }
+
+    private Result result(String endpoint) {
+        Result result = results.get(endpoint);
+        if (result == null) {
+            result = new Result();
+            results.put(endpoint, result);
+        }
+        return result;
+    }
+
+    /**
+     * Send every request at its offset divided by the speed and wait for all of them.
+     *
+     * @return the time the replay took in milliseconds
+     */
+    public long run() throws InterruptedException {
+        ExecutorService callers = Executors.newCachedThreadPool();
+        long start = System.nanoTime();
+        try {
+            for (final RecordedRequest request : requests) {
+                final long due = start + (long) (TimeUnit.MICROSECONDS.toNanos(request.getOffsetMicros()) / speed);
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                final Result result = results.get(endpoint(request.getPath()));
+                callers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        long callStart = System.nanoTime();
+                        lag.record(callStart - due);
+                        String error = call(request);
+                        result.record(System.nanoTime() - callStart, request, error);
+                    }
+                });
+            }
+            callers.shutdown();
+            callers.awaitTermination(1, TimeUnit.HOURS);
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the error, null if the call succeeded
+     */
+    private String call(RecordedRequest request) {
+        try {
+            switch (request.getKind()) {
+                case GET:
+                    client.get(request.getPath(), request.getParams());
+                    break;
+                case POST:
+                    client.post(request.getPath(), request.getParams());
+                    break;
+                case POST_IMAGE:
+                    client.postImage(request.getPath(), request.getParams(),
+                            new ByteArrayInputStream(randomBytes(request.getRequestBytes())), "replay.jpg");
+                    break;
+                case POST_FEATURE:
+                    client.postImFeature(request.getPath(), request.getParams(),
+                            Strings.repeat("A", (int) Math.min(Integer.MAX_VALUE, request.getRequestBytes())), null);
+                    break;
+                default:
+                    return "Unknown kind " + request.getKind();
+            }
+            return null;
+        } catch (InternalViSearchException e) {
+            return e.getMessage();
+        }
+    }
+
+    private static byte[] randomBytes(long size) {
+        byte[] bytes = new byte[(int) Math.min(Integer.MAX_VALUE, size)];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Replayed and recorded latencies of one endpoint.
+     */
+    public static class Result {
+
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram recordedLatency = new LatencyHistogram();
+
+        void record(long latencyNanos, RecordedRequest request, String error) {
+            calls.incrementAndGet();
+            if (error != null) {
+                errors.incrementAndGet();
+            }
+            latency.record(latencyNanos);
+            recordedLatency.record(TimeUnit.MICROSECONDS.toNanos(request.getLatencyMicros()));
+        }
+
+        public long getCalls() {
+            return calls.get();
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public LatencyHistogram getRecordedLatency() {
+            return recordedLatency;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Preconditions;
+import com.visenze.visearch.metrics.LatencyHistogram;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timeouts learned from the latency of every endpoint, see
+ * {@link ClientConfig#setAdaptiveTimeout(AdaptiveTimeout)}.
+ *
+ * The timeout of a call is the multiplier times the p99 latency of its endpoint over the window,
+ * kept between the min and max timeout. Until an endpoint has {@link #MIN_SAMPLES} calls in the
+ * window its timeout is the max timeout, so slow endpoints such as uploadsearch keep their
+ * headroom while fast ones are cut early. A call cut by its timeout counts with the time it ran,
+ * so the timeout of an endpoint that became slower grows back.
+ *
+ * The window is kept as {@link #SLICES} histograms of consecutive intervals; the oldest interval
+ * is dropped as a new one starts. The timeouts are recomputed at most once per interval.
+ */
+public class AdaptiveTimeout {
+
+    public static final double DEFAULT_MULTIPLIER = 3;
+
+    public static final long DEFAULT_MIN_TIMEOUT = 1000;
+
+    public static final long DEFAULT_MAX_TIMEOUT = ClientConfig.DEFAULT_SOCKET_TIMEOUT;
+
+    public static final long DEFAULT_WINDOW = 5 * 60 * 1000;
+
+    public static final int MIN_SAMPLES = 50;
+
+    public static final int SLICES = 5;
+
+    private static final double PERCENTILE = 99;
+
+    private final double multiplier;
+    private final long minTimeoutNanos;
+    private final long maxTimeoutNanos;
+    private final long sliceNanos;
+    private final long origin = System.nanoTime();
+    private final ConcurrentMap<String, Window> windows = new ConcurrentHashMap<String, Window>();
+
+    /**
+     * Three times the p99 latency over the last 5 minutes, between 1 and 30 seconds.
+     */
+    public AdaptiveTimeout() {
+        this(DEFAULT_MULTIPLIER, DEFAULT_MIN_TIMEOUT, DEFAULT_MAX_TIMEOUT, DEFAULT_WINDOW, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param multiplier factor applied to the p99 latency
+     * @param minTimeout the shortest timeout
+     * @param maxTimeout the longest timeout, and the timeout of endpoints with too few calls
+     * @param window the time over which latencies are kept
+     */
+    public AdaptiveTimeout(double multiplier, long minTimeout, long maxTimeout, long window, TimeUnit unit) {
+        Preconditions.checkArgument(multiplier >= 1, "multiplier must be at least 1");
+        Preconditions.checkArgument(minTimeout > 0, "min timeout must be positive");
+        Preconditions.checkArgument(maxTimeout >= minTimeout, "max timeout must not be less than min timeout");
+        Preconditions.checkArgument(unit.toNanos(window) >= SLICES, "window is too short");
+        this.multiplier = multiplier;
+        this.minTimeoutNanos = unit.toNanos(minTimeout);
+        this.maxTimeoutNanos = unit.toNanos(maxTimeout);
+        this.sliceNanos = unit.toNanos(window) / SLICES;
+    }
+
+    /**
+     * Note the latency of a call of the endpoint.
+     */
+    public void record(String endpoint, long latencyNanos) {
+        window(endpoint).record(latencyNanos, System.nanoTime() - origin);
+    }
+
+    /**
+     * The timeout for the next call of the endpoint.
+     */
+    public long getTimeout(String endpoint, TimeUnit unit) {
+        return unit.convert(window(endpoint).timeout(System.nanoTime() - origin), TimeUnit.NANOSECONDS);
+    }
+
+    private Window window(String endpoint) {
+        Window window = windows.get(endpoint);
+        if (window == null) {
+            Window created = new Window();
+            window = windows.putIfAbsent(endpoint, created);
+            if (window == null) {
+                window = created;
+            }
+        }
+        return window;
+    }
+
+    /**
+     * The latencies of one endpoint. A value recorded while its interval is being dropped may be
+     * lost, which the percentile does not notice.
+     */
+    private final class Window {
+
+        private final LatencyHistogram[] slices = new LatencyHistogram[SLICES];
+        private final AtomicLongArray intervals = new AtomicLongArray(SLICES);
+        private final AtomicBoolean computing = new AtomicBoolean();
+        private volatile long timeoutNanos = maxTimeoutNanos;
+        private volatile long computedInterval = -1;
+
+        Window() {
+            for (int i = 0; i < SLICES; i++) {
+                slices[i] = new LatencyHistogram();
+            }
+        }
+
+        void record(long latencyNanos, long now) {
+            long interval = now / sliceNanos;
+            int slot = (int) (interval % SLICES);
+            if (intervals.get(slot) != interval) {
+                synchronized (this) {
+                    if (intervals.get(slot) != interval) {
+                        slices[slot].reset();
+                        intervals.set(slot, interval);
+                    }
+                }
+            }
+            slices[slot].record(latencyNanos);
+        }
+
+        long timeout(long now) {
+            long interval = now / sliceNanos;
+            if (interval != computedInterval && computing.compareAndSet(false, true)) {
+                try {
+                    timeoutNanos = compute(interval);
+                    computedInterval = interval;
+                } finally {
+                    computing.set(false);
+                }
+            }
+            return timeoutNanos;
+        }
+
+        private long compute(long interval) {
+            LatencyHistogram merged = new LatencyHistogram();
+            for (int i = 0; i < SLICES; i++) {
+                if (interval - intervals.get(i) < SLICES) {
+                    merged.add(slices[i]);
+                }
+            }
+            if (merged.getCount() < MIN_SAMPLES) {
+                return maxTimeoutNanos;
+            }
+            double timeout = merged.getValueAtPercentile(PERCENTILE, TimeUnit.NANOSECONDS) * multiplier;
+            return (long) Math.max(minTimeoutNanos, Math.min(maxTimeoutNanos, timeout));
+        }
+    }
+}
@@ -52,6 +52,45 @@ public class BaseSearchParams<P extends BaseSearchParams<P>> {
     protected Optional<String> sortGroupBy = Optional.absent();
     protected Optional<String> sortGroupStrategy = Optional.absent();
 
+    /**
+     * Copy every parameter of another params object. Lists and maps are copied, so changing
+     * either object afterwards does not affect the other.
+     */
+    @SuppressWarnings("unchecked")
+    P copyFrom(BaseSearchParams<?> other) {
+        page = other.page;
+        limit = other.limit;
+        facets = copyList(other.facets);
+        facetsLimit = other.facetsLimit;
+        facetsShowCount = other.facetsShowCount;
+        score = other.score;
+        scoreMin = other.scoreMin;
+        scoreMax = other.scoreMax;
+        fq = copyMap(other.fq);
+        vsfq = copyMap(other.vsfq);
+        fl = copyList(other.fl);
+        vsfl = copyList(other.vsfl);
+        getAllFl = other.getAllFl;
+        qInfo = other.qInfo;
+        custom = copyMap(other.custom);
+        dedup = other.dedup;
+        dedupThreshold = other.dedupThreshold;
+        groupBy = other.groupBy;
+        groupLimit = other.groupLimit;
+        sortBy = other.sortBy;
+        sortGroupBy = other.sortGroupBy;
+        sortGroupStrategy = other.sortGroupStrategy;
+        return (P) this;
+    }
+
+    private static Optional<List<String>> copyList(Optional<List<String>> list) {
+        return list.isPresent() ? Optional.<List<String>>of(Lists.newArrayList(list.get())) : list;
+    }
+
+    private static Optional<Map<String, String>> copyMap(Optional<Map<String, String>> map) {
+        return map.isPresent() ? Optional.<Map<String, String>>of(new HashMap<String, String>(map.get())) : map;
+    }
+
 
     @SuppressWarnings("unchecked")
     public P setPage(Integer page) {
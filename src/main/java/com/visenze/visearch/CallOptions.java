@@ -0,0 +1,220 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Options for the calls a thread makes while they are entered: a deadline and cancellation.
+ * <pre>
+ * CallOptions.Scope scope = CallOptions.withTimeout(200, TimeUnit.MILLISECONDS).enter();
+ * try {
+ *     PagedSearchResult result = client.search(params);
+ * } finally {
+ *     scope.close();
+ * }
+ * </pre>
+ * The deadline bounds the whole http call of every operation: waiting for a pooled connection,
+ * connecting, sending and reading the response. A call still running at the deadline is aborted
+ * and its connection closed, and the result has the {@link ResponseMessages#REQUEST_TIMEOUT}
+ * error; calls made after the deadline are not sent. The connect and socket timeouts of the
+ * {@link ClientConfig} still apply within the deadline.
+ *
+ * {@link #cancel()}, from any thread, aborts the calls running under the options the same way,
+ * with the {@link ResponseMessages#REQUEST_CANCELLED} error, e.g. once the user who triggered a
+ * search is gone. Options derived with {@link #withDeadlineAfter} or {@link #withCancellation()}
+ * are cancelled with the options they were derived from.
+ *
+ * Instances are thread safe and may be entered on several threads, e.g. to give the calls of
+ * worker threads the deadline of the request they serve.
+ */
+public final class CallOptions {
+
+    private static final ThreadLocal<CallOptions> CURRENT = new ThreadLocal<CallOptions>();
+
+    private final CallOptions parent;
+    private final boolean hasDeadline;
+    private final long deadlineNanos;
+    private final List<Runnable> cancelListeners = new ArrayList<Runnable>();
+    private volatile boolean cancelled;
+
+    private CallOptions(CallOptions parent, boolean hasDeadline, long deadlineNanos) {
+        this.parent = parent;
+        this.hasDeadline = hasDeadline;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * Options with a deadline the given time from now.
+     */
+    public static CallOptions withTimeout(long timeout, TimeUnit unit) {
+        Preconditions.checkArgument(timeout >= 0, "timeout must not be negative");
+        return new CallOptions(null, true, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * Options with a deadline at the given {@link System#nanoTime()}.
+     */
+    public static CallOptions withDeadline(long deadlineNanos) {
+        return new CallOptions(null, true, deadlineNanos);
+    }
+
+    /**
+     * Options without a deadline, to cancel the calls made under them.
+     */
+    public static CallOptions cancellable() {
+        return new CallOptions(null, false, 0);
+    }
+
+    /**
+     * The options entered on the current thread, null if none.
+     */
+    public static CallOptions current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Options with the deadline of these or the given time from now, whichever is earlier, and
+     * cancelled with these.
+     */
+    public CallOptions withDeadlineAfter(long timeout, TimeUnit unit) {
+        Preconditions.checkArgument(timeout >= 0, "timeout must not be negative");
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (hasDeadline && deadlineNanos - deadline < 0) {
+            deadline = deadlineNanos;
+        }
+        return new CallOptions(this, true, deadline);
+    }
+
+    /**
+     * Options with the deadline of these, cancelled with these or on their own.
+     */
+    public CallOptions withCancellation() {
+        return new CallOptions(this, hasDeadline, deadlineNanos);
+    }
+
+    public boolean hasDeadline() {
+        return hasDeadline;
+    }
+
+    /**
+     * The deadline as a {@link System#nanoTime()}, only meaningful if there is one.
+     */
+    public long getDeadlineNanos() {
+        return deadlineNanos;
+    }
+
+    /**
+     * Time left until the deadline, negative once it passed and {@link Long#MAX_VALUE} without
+     * a deadline.
+     */
+    public long getRemaining(TimeUnit unit) {
+        if (!hasDeadline) {
+            return Long.MAX_VALUE;
+        }
+        return unit.convert(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    public boolean isExpired() {
+        return hasDeadline && deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Abort the calls running under these options and the ones derived from them; calls made
+     * under them afterwards are not sent.
+     */
+    public void cancel() {
+        List<Runnable> listeners;
+        synchronized (cancelListeners) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            listeners = new ArrayList<Runnable>(cancelListeners);
+            cancelListeners.clear();
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Whether these options or the ones they were derived from were cancelled.
+     */
+    public boolean isCancelled() {
+        for (CallOptions options = this; options != null; options = options.parent) {
+            if (options.cancelled) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Run the listener when these options or the ones they were derived from are cancelled, at
+     * once if they already are. It runs on the cancelling thread and may run more than once, so
+     * it must be quick and idempotent.
+     */
+    public void addCancelListener(Runnable listener) {
+        Preconditions.checkNotNull(listener, "listener must not be null");
+        for (CallOptions options = this; options != null; options = options.parent) {
+            boolean added;
+            synchronized (options.cancelListeners) {
+                added = !options.cancelled && options.cancelListeners.add(listener);
+            }
+            if (!added) {
+                listener.run();
+            }
+        }
+    }
+
+    /**
+     * Stop notifying the listener, e.g. once the call it aborts ended.
+     */
+    public void removeCancelListener(Runnable listener) {
+        for (CallOptions options = this; options != null; options = options.parent) {
+            synchronized (options.cancelListeners) {
+                options.cancelListeners.remove(listener);
+            }
+        }
+    }
+
+    /**
+     * Apply the options to the calls of the current thread until the scope is closed. Scopes nest,
+     * closing one restores the options entered before it.
+     */
+    public Scope enter() {
+        Scope scope = new Scope(CURRENT.get());
+        CURRENT.set(this);
+        return scope;
+    }
+
+    /**
+     * The calls of a thread under entered options.
+     */
+    public static final class Scope implements Closeable {
+
+        private final CallOptions previous;
+        private boolean closed;
+
+        private Scope(CallOptions previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+}
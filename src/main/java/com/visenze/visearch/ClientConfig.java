@@ -1,5 +1,18 @@
 package com.visenze.visearch;
 
+import com.visenze.visearch.feature.FeatureCache;
+import com.visenze.visearch.metrics.ConnectionPoolListener;
+import com.visenze.visearch.metrics.FlightRecorderSupport;
+import com.visenze.visearch.metrics.NoopViSearchMetrics;
+import com.visenze.visearch.metrics.RequestListener;
+import com.visenze.visearch.metrics.ViSearchMetrics;
+import com.visenze.visearch.record.RequestRecorder;
+import com.visenze.visearch.tracing.NoopViSearchTracer;
+import com.visenze.visearch.tracing.ViSearchTracer;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 /**
  * Client config for http connection timeouts, max connections, etc.
  */
@@ -11,6 +24,12 @@ public class ClientConfig {
 
     public static final int DEFAULT_MAX_CONNECTIONS = 50;
 
+    public static final long DEFAULT_CONNECTION_IDLE_TIMEOUT = 60 * 1000;
+
+    public static final long DEFAULT_CONNECTION_EVICTION_INTERVAL = 10 * 1000;
+
+    public static final double DEFAULT_POOL_SATURATION_THRESHOLD = 0.9;
+
     public static final String DEFAULT_USER_AGENT = getDefaultUserAgent();
 
     public static final String DEFAULT_XREQUEST_WITH = getDefaultXRequestWith();
@@ -19,10 +38,34 @@ public class ClientConfig {
 
     private int socketTimeout = DEFAULT_SOCKET_TIMEOUT;
 
+    private AdaptiveTimeout adaptiveTimeout;
+
     private int maxConnection = DEFAULT_MAX_CONNECTIONS;
 
     private String userAgent = DEFAULT_USER_AGENT;
 
+    private long connectionIdleTimeout = DEFAULT_CONNECTION_IDLE_TIMEOUT;
+
+    private long connectionEvictionInterval = DEFAULT_CONNECTION_EVICTION_INTERVAL;
+
+    private double poolSaturationThreshold = DEFAULT_POOL_SATURATION_THRESHOLD;
+
+    private ConnectionPoolListener connectionPoolListener;
+
+    private FeatureCache featureCache;
+
+    private MetadataInterner metadataInterner;
+
+    private boolean lazyMetadata;
+
+    private ViSearchMetrics metrics = NoopViSearchMetrics.INSTANCE;
+
+    private ViSearchTracer tracer = NoopViSearchTracer.INSTANCE;
+
+    private RequestRecorder requestRecorder;
+
+    private final List<RequestListener> requestListeners = new CopyOnWriteArrayList<RequestListener>();
+
     public static String getDefaultUserAgent() {
         String version = ViSearch.VISEACH_JAVA_SDK_VERSION;
         String osName = System.getProperty("os.name");
@@ -59,6 +102,20 @@ public class ClientConfig {
         this.socketTimeout = socketTimeout;
     }
 
+    public AdaptiveTimeout getAdaptiveTimeout() {
+        return adaptiveTimeout;
+    }
+
+    /**
+     * Cut calls that take much longer than their endpoint usually does, with a timeout learned
+     * from the latency of recent calls. The connection and socket timeouts still apply. Result
+     * streams, whose body is read at the pace of the caller, are not cut. Disabled (null) by
+     * default.
+     */
+    public void setAdaptiveTimeout(AdaptiveTimeout adaptiveTimeout) {
+        this.adaptiveTimeout = adaptiveTimeout;
+    }
+
     public int getMaxConnection() {
         return maxConnection;
     }
@@ -74,4 +131,156 @@ public class ClientConfig {
     public void setUserAgent(String userAgent) {
         this.userAgent = userAgent;
     }
+
+    public long getConnectionIdleTimeout() {
+        return connectionIdleTimeout;
+    }
+
+    /**
+     * Close pooled connections idle for longer than this many milliseconds, before the server or
+     * a load balancer drops them and the next call fails on a stale connection.
+     */
+    public void setConnectionIdleTimeout(long connectionIdleTimeout) {
+        this.connectionIdleTimeout = connectionIdleTimeout;
+    }
+
+    public long getConnectionEvictionInterval() {
+        return connectionEvictionInterval;
+    }
+
+    /**
+     * How often, in milliseconds, a background thread evicts idle and expired connections and
+     * checks the pool for saturation. 0 disables the background checks.
+     */
+    public void setConnectionEvictionInterval(long connectionEvictionInterval) {
+        this.connectionEvictionInterval = connectionEvictionInterval;
+    }
+
+    public double getPoolSaturationThreshold() {
+        return poolSaturationThreshold;
+    }
+
+    /**
+     * Fraction of {@link #getMaxConnection()} in use at which the pool counts as saturated.
+     */
+    public void setPoolSaturationThreshold(double poolSaturationThreshold) {
+        this.poolSaturationThreshold = poolSaturationThreshold;
+    }
+
+    public ConnectionPoolListener getConnectionPoolListener() {
+        return connectionPoolListener;
+    }
+
+    /**
+     * Alert when requests wait for a connection or the pool reaches the saturation threshold,
+     * checked every {@link #getConnectionEvictionInterval()}. Disabled (null) by default.
+     */
+    public void setConnectionPoolListener(ConnectionPoolListener connectionPoolListener) {
+        this.connectionPoolListener = connectionPoolListener;
+    }
+
+    public FeatureCache getFeatureCache() {
+        return featureCache;
+    }
+
+    /**
+     * Cache extracted features by image content, so repeated extractFeature and uploadSearch calls
+     * for the same image skip the image upload. Disabled (null) by default.
+     */
+    public void setFeatureCache(FeatureCache featureCache) {
+        this.featureCache = featureCache;
+    }
+
+    public MetadataInterner getMetadataInterner() {
+        return metadataInterner;
+    }
+
+    /**
+     * Share metadata keys and repeated metadata values between the results of all searches,
+     * reducing the memory of cached results and the allocation of parsing. Disabled (null) by
+     * default.
+     */
+    public void setMetadataInterner(MetadataInterner metadataInterner) {
+        this.metadataInterner = metadataInterner;
+    }
+
+    public boolean isLazyMetadata() {
+        return lazyMetadata;
+    }
+
+    /**
+     * Keep the metadata of each search result as JSON text and decode it on first access, so
+     * parsing a page costs little when only names and scores are read. {@link ImageResult#getMetadata(String)}
+     * decodes only the requested key. Disabled by default.
+     */
+    public void setLazyMetadata(boolean lazyMetadata) {
+        this.lazyMetadata = lazyMetadata;
+    }
+
+    public ViSearchMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Record request counts, errors, latencies and sizes of every call, e.g. with a
+     * {@link com.visenze.visearch.metrics.HistogramViSearchMetrics}. Nothing is recorded by default.
+     */
+    public void setMetrics(ViSearchMetrics metrics) {
+        this.metrics = metrics == null ? NoopViSearchMetrics.INSTANCE : metrics;
+    }
+
+    public ViSearchTracer getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Open a span for every call and propagate it to the server in a W3C traceparent header.
+     * Tracking events sent for a search are linked to the span of the search. Disabled by default.
+     */
+    public void setTracer(ViSearchTracer tracer) {
+        this.tracer = tracer == null ? NoopViSearchTracer.INSTANCE : tracer;
+    }
+
+    public RequestRecorder getRequestRecorder() {
+        return requestRecorder;
+    }
+
+    /**
+     * Record the anonymized shape of every call, for replay against a stub server when
+     * benchmarking. Disabled (null) by default.
+     */
+    public void setRequestRecorder(RequestRecorder requestRecorder) {
+        this.requestRecorder = requestRecorder;
+    }
+
+    public List<RequestListener> getRequestListeners() {
+        return requestListeners;
+    }
+
+    /**
+     * Observe the phases of every call, from connection lease to response parsing, with
+     * nanosecond timestamps.
+     */
+    public void addRequestListener(RequestListener requestListener) {
+        if (requestListener == null) {
+            throw new IllegalArgumentException("Request listener must not be null.");
+        }
+        requestListeners.add(requestListener);
+    }
+
+    /**
+     * Emit a Java Flight Recorder event for every http call (endpoint, status, sizes, duration,
+     * pool wait) and every response parse (result type and count, duration), recorded whenever a
+     * flight recording with the ViSearch events enabled is running.
+     *
+     * @return false if the running JDK has no JFR support, in which case nothing changes
+     */
+    public boolean enableFlightRecorderEvents() {
+        RequestListener listener = FlightRecorderSupport.newListener();
+        if (listener == null) {
+            return false;
+        }
+        addRequestListener(listener);
+        return true;
+    }
 }
@@ -20,6 +20,13 @@ public class ColorSearchParams extends BaseSearchParams<ColorSearchParams> {
         this.color = color;
     }
 
+    /**
+     * A copy that can be changed without affecting these params.
+     */
+    ColorSearchParams copy() {
+        return new ColorSearchParams(color).copyFrom(this);
+    }
+
     public String getColor() {
         return color;
     }
@@ -0,0 +1,280 @@
+package com.visenze.visearch;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A compact copy of the results of a {@link PagedSearchResult}, for caching or aggregating many
+ * pages:
+ * <pre>
+ * CompactSearchResult compact = pagedSearchResult.toCompact();
+ * for (int i = 0; i &lt; compact.size(); i++) {
+ *     String price = compact.getMetadata(i, "price");
+ * }
+ * </pre>
+ * Names, scores and metadata are kept in arrays: one column per metadata key, holding indexes
+ * into a dictionary of the distinct values of the page. Keys are interned, so pages share them.
+ * {@link #get(int)} and {@link #getResult()} return {@link ImageResult}s whose metadata is a
+ * read-only view of the columns, created on access.
+ *
+ * Only the paging information, the request id and the results are kept; facets, query info,
+ * detected objects and the raw response are not. Grouped results (group_by) have no results of
+ * their own and give an empty compact result. Instances are immutable.
+ */
+public class CompactSearchResult {
+
+    private static final int ABSENT = -1;
+
+    private final Integer page;
+    private final Integer limit;
+    private final Integer total;
+    private final String reqId;
+    private final String[] imNames;
+    private final float[] scores;
+    private final String[] keys;
+    private final Map<String, Integer> keyIndex;
+    private final String[] values;
+    private final int[][] columns;
+
+    private CompactSearchResult(PagedSearchResult source) {
+        this.page = source.getPage();
+        this.limit = source.getLimit();
+        this.total = source.getTotal();
+        this.reqId = source.getReqId();
+        List<ImageResult> results = source.getResult() == null ? Collections.<ImageResult>emptyList() : source.getResult();
+        int size = results.size();
+        this.imNames = new String[size];
+        this.scores = new float[size];
+
+        List<String> keyList = new ArrayList<String>();
+        Map<String, Integer> keyIndex = new HashMap<String, Integer>();
+        List<String> valueList = new ArrayList<String>();
+        Map<String, Integer> valueIndex = new HashMap<String, Integer>();
+        List<int[]> columnList = new ArrayList<int[]>();
+        for (int i = 0; i < size; i++) {
+            ImageResult result = results.get(i);
+            imNames[i] = result.getImName();
+            scores[i] = result.getScore() == null ? Float.NaN : result.getScore();
+            Map<String, String> metadata = result.getMetadata();
+            if (metadata == null) {
+                continue;
+            }
+            for (Map.Entry<String, String> entry : metadata.entrySet()) {
+                Integer key = keyIndex.get(entry.getKey());
+                if (key == null) {
+                    key = keyList.size();
+                    keyList.add(entry.getKey().intern());
+                    keyIndex.put(keyList.get(key), key);
+                    int[] column = new int[size];
+                    Arrays.fill(column, ABSENT);
+                    columnList.add(column);
+                }
+                Integer value = valueIndex.get(entry.getValue());
+                if (value == null) {
+                    value = valueList.size();
+                    valueList.add(entry.getValue());
+                    valueIndex.put(entry.getValue(), value);
+                }
+                columnList.get(key)[i] = value;
+            }
+        }
+        this.keys = keyList.toArray(new String[keyList.size()]);
+        this.keyIndex = keyIndex;
+        this.values = valueList.toArray(new String[valueList.size()]);
+        this.columns = columnList.toArray(new int[columnList.size()][]);
+    }
+
+    /**
+     * Copy the results of a page, see {@link PagedSearchResult#toCompact()}.
+     */
+    public static CompactSearchResult of(PagedSearchResult result) {
+        return new CompactSearchResult(result);
+    }
+
+    public Integer getPage() {
+        return page;
+    }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public Integer getTotal() {
+        return total;
+    }
+
+    /**
+     * The request id of the search, see {@link PagedSearchResult#getReqId()}.
+     */
+    public String getReqId() {
+        return reqId;
+    }
+
+    /**
+     * Number of results.
+     */
+    public int size() {
+        return imNames.length;
+    }
+
+    public String getImName(int index) {
+        return imNames[index];
+    }
+
+    /**
+     * @return the score of a result, or null if the search did not return scores
+     */
+    public Float getScore(int index) {
+        float score = scores[index];
+        return Float.isNaN(score) ? null : score;
+    }
+
+    /**
+     * The score of a result without boxing, NaN if the search did not return scores.
+     */
+    public float getScoreValue(int index) {
+        return scores[index];
+    }
+
+    /**
+     * The metadata keys of any result, in order of first appearance.
+     */
+    public List<String> getMetadataKeys() {
+        return Collections.unmodifiableList(Arrays.asList(keys));
+    }
+
+    /**
+     * @return a metadata value of a result, or null if it has none for the key
+     */
+    public String getMetadata(int index, String key) {
+        Integer column = keyIndex.get(key);
+        if (column == null) {
+            return null;
+        }
+        int value = columns[column][index];
+        return value == ABSENT ? null : values[value];
+    }
+
+    /**
+     * A read-only view of the metadata of a result.
+     */
+    public Map<String, String> getMetadata(int index) {
+        return new MetadataView(index);
+    }
+
+    /**
+     * A result, with the metadata as a view of the columns.
+     */
+    public ImageResult get(int index) {
+        return new ImageResult(imNames[index], getMetadata(index), getScore(index));
+    }
+
+    /**
+     * A read-only view of all results, created on access.
+     */
+    public List<ImageResult> getResult() {
+        return new AbstractList<ImageResult>() {
+            @Override
+            public ImageResult get(int index) {
+                return CompactSearchResult.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return imNames.length;
+            }
+        };
+    }
+
+    /**
+     * The metadata of one result, reading its row of the columns.
+     */
+    private class MetadataView extends AbstractMap<String, String> {
+
+        private final int index;
+
+        MetadataView(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String get(Object key) {
+            return key instanceof String ? getMetadata(index, (String) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            Integer column = key instanceof String ? keyIndex.get(key) : null;
+            return column != null && columns[column][index] != ABSENT;
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return new AbstractSet<Entry<String, String>>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new EntryIterator(index);
+                }
+
+                @Override
+                public int size() {
+                    int size = 0;
+                    for (int[] column : columns) {
+                        if (column[index] != ABSENT) {
+                            size++;
+                        }
+                    }
+                    return size;
+                }
+            };
+        }
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<String, String>> {
+
+        private final int index;
+        private int column = -1;
+
+        EntryIterator(int index) {
+            this.index = index;
+            advance();
+        }
+
+        private void advance() {
+            do {
+                column++;
+            } while (column < columns.length && columns[column][index] == ABSENT);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return column < columns.length;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, String> entry = new AbstractMap.SimpleImmutableEntry<String, String>(
+                    keys[column], values[columns[column][index]]);
+            advance();
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
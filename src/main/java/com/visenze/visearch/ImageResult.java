@@ -22,6 +22,14 @@ public class ImageResult {
         return metadata;
     }
 
+    /**
+     * @return a metadata value, or null if the result has none for the key
+     */
+    public String getMetadata(String key) {
+        Map<String, String> metadata = getMetadata();
+        return metadata == null ? null : metadata.get(key);
+    }
+
     public Float getScore() {
         return score;
     }
@@ -0,0 +1,98 @@
+package com.visenze.visearch;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Shares the metadata keys and repeated metadata values of search results between results and
+ * pages, see {@link ClientConfig#setMetadataInterner(MetadataInterner)}.
+ *
+ * The table has a fixed number of slots, each holding the last string that hashed to it, so
+ * memory stays bounded however many distinct values pass through: frequent values such as
+ * brands, categories or prices stay in the table, unique ones replace each other. Values longer
+ * than the maximum length, such as descriptions, are never interned. Lookups are lock-free and
+ * allocate nothing when the value is found.
+ */
+public class MetadataInterner {
+
+    public static final int DEFAULT_TABLE_SIZE = 4096;
+
+    public static final int DEFAULT_MAX_LENGTH = 64;
+
+    private final AtomicReferenceArray<String> table;
+    private final int mask;
+    private final int maxLength;
+
+    public MetadataInterner() {
+        this(DEFAULT_TABLE_SIZE, DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * @param tableSize number of slots, rounded up to a power of two
+     * @param maxLength length of the longest value to intern
+     */
+    public MetadataInterner(int tableSize, int maxLength) {
+        if (tableSize <= 0) {
+            throw new IllegalArgumentException("Table size must be positive.");
+        }
+        int size = Integer.highestOneBit(tableSize);
+        if (size < tableSize) {
+            size <<= 1;
+        }
+        this.table = new AtomicReferenceArray<String>(size);
+        this.mask = size - 1;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * @return an equal string from the table, or the value itself after adding it
+     */
+    public String intern(String value) {
+        if (value == null || value.length() > maxLength) {
+            return value;
+        }
+        int slot = slot(value.hashCode());
+        String cached = table.get(slot);
+        if (value.equals(cached)) {
+            return cached;
+        }
+        table.lazySet(slot, value);
+        return value;
+    }
+
+    /**
+     * Intern characters of a parser buffer, creating a string only if the table has no equal one.
+     */
+    public String intern(char[] chars, int offset, int length) {
+        if (length > maxLength) {
+            return new String(chars, offset, length);
+        }
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int slot = slot(hash);
+        String cached = table.get(slot);
+        if (cached != null && matches(cached, chars, offset, length)) {
+            return cached;
+        }
+        String value = new String(chars, offset, length);
+        table.lazySet(slot, value);
+        return value;
+    }
+
+    private int slot(int hash) {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private static boolean matches(String cached, char[] chars, int offset, int length) {
+        if (cached.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (cached.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
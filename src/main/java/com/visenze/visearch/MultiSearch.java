@@ -0,0 +1,257 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.visenze.visearch.internal.SearchOperations;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A batch of searches run concurrently, with the results in the order the searches were added:
+ * <pre>
+ * List&lt;PagedSearchResult&gt; results = client.multiSearch()
+ *         .setConcurrency(8)
+ *         .setTimeout(500, TimeUnit.MILLISECONDS)
+ *         .recommendation(new SearchParams("product-1"))
+ *         .recommendation(new SearchParams("product-2"))
+ *         .execute();
+ * </pre>
+ * Every search is a regular call of the {@link SearchOperations}, so the feature cache, metrics
+ * and tracking apply as for single calls. A search that fails has the error message set on its
+ * result, the others are not affected. Searches with the same endpoint and parameters are sent
+ * once and share the result instance; searches of an image file or stream are always sent.
+ *
+ * At most the concurrency of searches run at a time, on the given executor, by default a shared
+ * pool of daemon threads. The timeout is a deadline for the calls of the batch, see
+ * {@link CallOptions}, as is the deadline of options entered by the caller: searches still
+ * running then are aborted and get a {@link ResponseMessages#REQUEST_TIMEOUT} result, searches
+ * not started by then are not sent. Cancelling the options of the caller ends the batch the same
+ * way, with {@link ResponseMessages#REQUEST_CANCELLED} results.
+ */
+public class MultiSearch {
+
+    public static final int DEFAULT_CONCURRENCY = 8;
+
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("visearch-multi-search-%d")
+            .build());
+
+    private enum Kind {
+        SEARCH, RECOMMENDATION, COLOR_SEARCH, UPLOAD_SEARCH
+    }
+
+    private final SearchOperations searchOperations;
+    private final List<Kind> kinds = new ArrayList<Kind>();
+    private final List<BaseSearchParams<?>> params = new ArrayList<BaseSearchParams<?>>();
+    private int concurrency = DEFAULT_CONCURRENCY;
+    private long timeoutNanos = -1;
+    private Executor executor = DEFAULT_EXECUTOR;
+
+    /**
+     * @param searchOperations the client used for the searches, usually a {@link ViSearch}
+     */
+    public MultiSearch(SearchOperations searchOperations) {
+        this.searchOperations = Preconditions.checkNotNull(searchOperations, "search operations must not be null");
+    }
+
+    /**
+     * Maximum number of searches of the batch running at a time.
+     */
+    public MultiSearch setConcurrency(int concurrency) {
+        Preconditions.checkArgument(concurrency > 0, "concurrency must be positive");
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * Time {@link #execute()} waits for the batch, no limit by default.
+     */
+    public MultiSearch setTimeout(long timeout, TimeUnit unit) {
+        Preconditions.checkArgument(timeout > 0, "timeout must be positive");
+        this.timeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    public MultiSearch setExecutor(Executor executor) {
+        this.executor = Preconditions.checkNotNull(executor, "executor must not be null");
+        return this;
+    }
+
+    public MultiSearch search(SearchParams searchParams) {
+        return add(Kind.SEARCH, searchParams);
+    }
+
+    public MultiSearch recommendation(SearchParams searchParams) {
+        return add(Kind.RECOMMENDATION, searchParams);
+    }
+
+    public MultiSearch colorSearch(ColorSearchParams colorSearchParams) {
+        return add(Kind.COLOR_SEARCH, colorSearchParams);
+    }
+
+    public MultiSearch uploadSearch(UploadSearchParams uploadSearchParams) {
+        return add(Kind.UPLOAD_SEARCH, uploadSearchParams);
+    }
+
+    private MultiSearch add(Kind kind, BaseSearchParams<?> searchParams) {
+        kinds.add(kind);
+        params.add(Preconditions.checkNotNull(searchParams, "params must not be null"));
+        return this;
+    }
+
+    /**
+     * Number of searches added.
+     */
+    public int size() {
+        return params.size();
+    }
+
+    /**
+     * Run the searches and wait for them, or until the timeout elapsed.
+     *
+     * @return a result for every search, in the order they were added
+     */
+    public List<PagedSearchResult> execute() {
+        // the searches get the earlier of the batch timeout and the deadline of the caller, and are
+        // cancelled with the options of the caller
+        CallOptions callerOptions = CallOptions.current();
+        final CallOptions options;
+        if (timeoutNanos < 0) {
+            options = callerOptions;
+        } else if (callerOptions == null) {
+            options = CallOptions.withTimeout(timeoutNanos, TimeUnit.NANOSECONDS);
+        } else {
+            options = callerOptions.withDeadlineAfter(timeoutNanos, TimeUnit.NANOSECONDS);
+        }
+        // the first search of every distinct key, and for every search the index of that first one
+        final List<Integer> distinct = new ArrayList<Integer>();
+        int[] sameAs = new int[params.size()];
+        Map<Object, Integer> byKey = new HashMap<Object, Integer>();
+        for (int i = 0; i < params.size(); i++) {
+            Object key = key(kinds.get(i), params.get(i));
+            Integer first = key == null ? null : byKey.get(key);
+            if (first == null) {
+                first = i;
+                distinct.add(i);
+                if (key != null) {
+                    byKey.put(key, i);
+                }
+            }
+            sameAs[i] = first;
+        }
+
+        final AtomicReferenceArray<PagedSearchResult> results = new AtomicReferenceArray<PagedSearchResult>(params.size());
+        final CountDownLatch done = new CountDownLatch(distinct.size());
+        final AtomicInteger next = new AtomicInteger();
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                CallOptions.Scope scope = options == null ? null : options.enter();
+                try {
+                    for (int n = next.getAndIncrement(); n < distinct.size(); n = next.getAndIncrement()) {
+                        int index = distinct.get(n);
+                        try {
+                            if (options == null || !(options.isExpired() || options.isCancelled())) {
+                                results.compareAndSet(index, null, call(index));
+                            }
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                } finally {
+                    if (scope != null) {
+                        scope.close();
+                    }
+                }
+            }
+        };
+        int workers = Math.min(concurrency, distinct.size());
+        for (int i = 0; i < workers; i++) {
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException e) {
+                if (i == 0) {
+                    throw e;
+                }
+                // the started workers take over the searches
+                break;
+            }
+        }
+        String waitError = ResponseMessages.REQUEST_TIMEOUT.getMessage();
+        Throwable waitCause = null;
+        try {
+            if (options == null) {
+                done.await();
+            } else {
+                done.await(options.getRemaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            waitError = ResponseMessages.SYSTEM_ERROR.getMessage();
+            waitCause = e;
+        }
+        if (options != null && options.isCancelled()) {
+            waitError = ResponseMessages.REQUEST_CANCELLED.getMessage();
+        }
+
+        List<PagedSearchResult> ordered = Lists.newArrayListWithCapacity(params.size());
+        for (int i = 0; i < params.size(); i++) {
+            int first = sameAs[i];
+            // a search still running when the batch ends keeps the timeout result
+            results.compareAndSet(first, null, new PagedSearchResult(waitError, waitCause, null));
+            ordered.add(results.get(first));
+        }
+        return ordered;
+    }
+
+    private PagedSearchResult call(int index) {
+        BaseSearchParams<?> searchParams = params.get(index);
+        try {
+            PagedSearchResult result;
+            switch (kinds.get(index)) {
+                case SEARCH:
+                    result = searchOperations.search((SearchParams) searchParams);
+                    break;
+                case RECOMMENDATION:
+                    result = searchOperations.recommendation((SearchParams) searchParams);
+                    break;
+                case COLOR_SEARCH:
+                    result = searchOperations.colorSearch((ColorSearchParams) searchParams);
+                    break;
+                default:
+                    result = searchOperations.uploadSearch((UploadSearchParams) searchParams);
+                    break;
+            }
+            return result == null ? new PagedSearchResult(ResponseMessages.INVALID_RESPONSE_FORMAT.getMessage(), null, null) : result;
+        } catch (RuntimeException e) {
+            return new PagedSearchResult(ResponseMessages.SYSTEM_ERROR.getMessage(), e, null);
+        }
+    }
+
+    /**
+     * The key under which identical searches are sent once, null if the search must be sent.
+     */
+    private static Object key(Kind kind, BaseSearchParams<?> searchParams) {
+        if (searchParams instanceof UploadSearchParams) {
+            UploadSearchParams upload = (UploadSearchParams) searchParams;
+            if (upload.getImageFile() != null || upload.getImageStream() != null || !Strings.isNullOrEmpty(upload.getImFeature())) {
+                return null;
+            }
+        }
+        return Lists.newArrayList(kind, searchParams.toMap());
+    }
+}
@@ -121,6 +121,13 @@ public class PagedSearchResult extends PagedResult<ImageResult> {
         this.objectTypesList = objectTypesList;
     }
 
+    /**
+     * A compact copy of the results, for caching or aggregating many pages, see {@link CompactSearchResult}.
+     */
+    public CompactSearchResult toCompact() {
+        return CompactSearchResult.of(this);
+    }
+
     public List<GroupSearchResult> getGroupSearchResults() { return groupSearchResults; }
 
     public void setGroupSearchResults(List<GroupSearchResult> groupSearchResults) { this.groupSearchResults = groupSearchResults; }
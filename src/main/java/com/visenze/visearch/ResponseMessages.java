@@ -1,5 +1,8 @@
 package com.visenze.visearch;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Created by peng on 3/12/15.
  */
@@ -18,6 +21,8 @@ public enum ResponseMessages {
             "Please ensure that your provided ViSearch endpoint is a well-formed URL and try again."),
     PARSE_RESPONSE_ERROR(43, "Could not parse the ViSearch response."),
     INVALID_RESPONSE_FORMAT(44, "ViSearch response have wrong contents."),
+    REQUEST_TIMEOUT(45, "The request did not complete before its deadline."),
+    REQUEST_CANCELLED(46, "The request was cancelled."),
 
     // for data APIs
     TRANSACTION_NOT_FOUND(101, "Transaction not found with trans_id."),
@@ -46,6 +51,14 @@ public enum ResponseMessages {
             "or a valid image url to perform upload search")
     ;
 
+    private static final Map<String, ResponseMessages> BY_MESSAGE = new HashMap<String, ResponseMessages>();
+
+    static {
+        for (ResponseMessages responseMessage : values()) {
+            BY_MESSAGE.put(responseMessage.message, responseMessage);
+        }
+    }
+
     private int code;
     private String message;
 
@@ -61,4 +74,11 @@ public enum ResponseMessages {
     public String getMessage() {
         return this.message;
     }
+
+    /**
+     * @return the constant with the given message, or null for other messages
+     */
+    public static ResponseMessages fromMessage(String message) {
+        return message == null ? null : BY_MESSAGE.get(message);
+    }
 }
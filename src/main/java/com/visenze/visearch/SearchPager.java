@@ -0,0 +1,222 @@
+package com.visenze.visearch;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The results of all pages of a search, fetching the next page in the background while the
+ * results of the current one are read:
+ * <pre>
+ * SearchPager pager = client.searchAll(params, 5000);
+ * while (pager.hasNext()) {
+ *     ImageResult result = pager.next();
+ * }
+ * if (pager.getErrorMessage() != null) {
+ *     // a page failed, the results before it were returned
+ * }
+ * </pre>
+ * Paging starts at the page of the params, 1 if not set, and stops after the page that reaches
+ * the total of the search, a page with fewer results than its limit, the max results or the
+ * first failed page. Each page is a regular search call and the page is set on the params as it
+ * is fetched, so the params must not be changed while the pager is in use.
+ *
+ * Pages are fetched on the given executor, by default a shared pool of daemon threads; at most
+ * one page is fetched ahead. The fetches run under the {@link CallOptions} entered when the pager
+ * was created, and closing the pager cancels them. The pager is not thread safe.
+ */
+public class SearchPager implements Iterator<ImageResult>, Closeable {
+
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setDaemon(true)
+            .setNameFormat("visearch-page-prefetch-%d")
+            .build());
+
+    /**
+     * Fetches one page of a search.
+     */
+    public interface PageLoader {
+
+        /**
+         * @return the page, with the error message set if it failed
+         */
+        PagedSearchResult load(int page);
+    }
+
+    private final PageLoader loader;
+    private final int maxResults;
+    private final Executor executor;
+    private final CallOptions options;
+    private int nextPage;
+    private Future<PagedSearchResult> pending;
+    private PagedSearchResult currentPage;
+    private List<ImageResult> current = Collections.emptyList();
+    private int index;
+    private int fetched;
+    private int returned;
+    private int pages;
+    private String errorMessage;
+    private Throwable cause;
+    private boolean closed;
+
+    public SearchPager(PageLoader loader, Integer firstPage, int maxResults) {
+        this(loader, firstPage, maxResults, DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * Start fetching the first page.
+     *
+     * @param firstPage the page to start at, 1 if null
+     * @param maxResults the maximum number of results returned over all pages
+     */
+    public SearchPager(PageLoader loader, Integer firstPage, int maxResults, Executor executor) {
+        Preconditions.checkArgument(maxResults > 0, "max results must be positive");
+        this.loader = Preconditions.checkNotNull(loader, "loader must not be null");
+        this.maxResults = maxResults;
+        this.executor = Preconditions.checkNotNull(executor, "executor must not be null");
+        this.nextPage = firstPage == null ? 1 : firstPage;
+        // the fetches have the deadline of the caller, and are cancelled with it or when closed
+        CallOptions current = CallOptions.current();
+        this.options = current == null ? CallOptions.cancellable() : current.withCancellation();
+        fetchNextPage();
+    }
+
+    private void fetchNextPage() {
+        final int page = nextPage++;
+        FutureTask<PagedSearchResult> task = new FutureTask<PagedSearchResult>(new Callable<PagedSearchResult>() {
+            @Override
+            public PagedSearchResult call() {
+                CallOptions.Scope scope = options.enter();
+                try {
+                    return loader.load(page);
+                } finally {
+                    scope.close();
+                }
+            }
+        });
+        pending = task;
+        executor.execute(task);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!closed && returned < maxResults) {
+            if (index < current.size()) {
+                return true;
+            }
+            if (pending == null) {
+                return false;
+            }
+            takePage();
+        }
+        return false;
+    }
+
+    @Override
+    public ImageResult next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        returned++;
+        return current.get(index++);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Wait for the page being fetched, and start fetching the one after it unless it is the last.
+     */
+    private void takePage() {
+        PagedSearchResult page;
+        try {
+            page = pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(ResponseMessages.SYSTEM_ERROR.getMessage(), e);
+            return;
+        } catch (ExecutionException e) {
+            fail(ResponseMessages.SYSTEM_ERROR.getMessage(), e.getCause());
+            return;
+        } finally {
+            pending = null;
+        }
+        pages++;
+        currentPage = page;
+        if (page == null || page.getErrorMessage() != null) {
+            fail(page == null ? ResponseMessages.INVALID_RESPONSE_FORMAT.getMessage() : page.getErrorMessage(),
+                    page == null ? null : page.getCause());
+            return;
+        }
+        current = page.getResult() == null ? Collections.<ImageResult>emptyList() : page.getResult();
+        index = 0;
+        fetched += current.size();
+        boolean last = current.isEmpty()
+                || fetched >= maxResults
+                || (page.getTotal() != null && fetched >= page.getTotal())
+                || (page.getLimit() != null && current.size() < page.getLimit());
+        if (!last) {
+            fetchNextPage();
+        }
+    }
+
+    private void fail(String errorMessage, Throwable cause) {
+        this.errorMessage = errorMessage;
+        this.cause = cause;
+        this.current = Collections.emptyList();
+        this.index = 0;
+    }
+
+    /**
+     * The page the current result belongs to, null before the first page arrived. Gives the
+     * total, facets and request id of the page.
+     */
+    public PagedSearchResult getCurrentPage() {
+        return currentPage;
+    }
+
+    /**
+     * Pages received so far, including a failed one.
+     */
+    public int getPages() {
+        return pages;
+    }
+
+    /**
+     * The error of the page that ended the paging, null if no page failed.
+     */
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public Throwable getCause() {
+        return cause;
+    }
+
+    /**
+     * Stop paging. A page being fetched is not waited for, its call is aborted.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        options.cancel();
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+}
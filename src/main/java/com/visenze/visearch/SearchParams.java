@@ -18,6 +18,13 @@ public class SearchParams extends BaseSearchParams<SearchParams> {
         this.imName = imName;
     }
 
+    /**
+     * A copy that can be changed without affecting these params.
+     */
+    SearchParams copy() {
+        return new SearchParams(imName).copyFrom(this);
+    }
+
     public String getImName() {
         return imName;
     }
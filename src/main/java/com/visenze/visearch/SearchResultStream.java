@@ -0,0 +1,136 @@
+package com.visenze.visearch;
+
+import com.visenze.visearch.internal.ResponseBase;
+import com.visenze.visearch.internal.constant.ViSearchHttpConstants;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The results of a search, read one at a time while the response is still being received:
+ * <pre>
+ * SearchResultStream stream = client.recommendationStream(params);
+ * try {
+ *     while (stream.hasNext()) {
+ *         ImageResult result = stream.next();
+ *     }
+ * } finally {
+ *     stream.close();
+ * }
+ * if (stream.getErrorMessage() != null) {
+ *     // the search failed, possibly after some results were returned
+ * }
+ * </pre>
+ * Only the current result is held in memory, whatever the <code>limit</code> of the search. A
+ * failure ends the iteration and sets the error message, as for a {@link PagedSearchResult}.
+ * The page, limit and total are read as they appear in the response and are complete once the
+ * iteration ended. Facets, query info and other fields of the response are not kept.
+ *
+ * The stream holds a connection until it is read to its end or closed. It is not thread safe.
+ */
+public class SearchResultStream extends ResponseBase implements Iterator<ImageResult>, Closeable {
+
+    protected Integer page;
+
+    protected Integer limit;
+
+    protected Integer total;
+
+    private ImageResult next;
+
+    private boolean done;
+
+    protected SearchResultStream() {
+    }
+
+    /**
+     * A stream of a search that failed before any result, it has no results.
+     */
+    public SearchResultStream(String errorMessage, Throwable e, String rawResponse) {
+        super.setErrorMessage(errorMessage);
+        super.setCause(e);
+        super.setRawResponseMessage(rawResponse);
+        this.done = true;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !done) {
+            next = readNext();
+            if (next == null) {
+                done = true;
+                close();
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public ImageResult next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ImageResult result = next;
+        next = null;
+        return result;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Read the next result from the response.
+     *
+     * @return the result, null once there are no more results or the search failed
+     */
+    protected ImageResult readNext() {
+        return null;
+    }
+
+    /**
+     * Stop reading the response and release its connection. Called when the iteration ended,
+     * calling it again has no effect.
+     */
+    @Override
+    public void close() {
+        done = true;
+        next = null;
+    }
+
+    public Integer getPage() {
+        return page;
+    }
+
+    public Integer getLimit() {
+        return limit;
+    }
+
+    public Integer getTotal() {
+        return total;
+    }
+
+    public void setPage(Integer page) {
+        this.page = page;
+    }
+
+    public void setLimit(Integer limit) {
+        this.limit = limit;
+    }
+
+    public void setTotal(Integer total) {
+        this.total = total;
+    }
+
+    /**
+     * Get the request id to identify this request.
+     */
+    public String getReqId() {
+        if (this.headers != null && this.headers.containsKey(ViSearchHttpConstants.X_LOG_ID)) {
+            return headers.get(ViSearchHttpConstants.X_LOG_ID);
+        }
+        return ViSearchHttpConstants.X_LOG_ID_EMPTY;
+    }
+}
@@ -48,6 +48,25 @@ public class UploadSearchParams extends BaseSearchParams<UploadSearchParams> {
         super();
     }
 
+    /**
+     * A copy that can be changed without affecting these params. The image stream is shared.
+     */
+    UploadSearchParams copy() {
+        UploadSearchParams copy = new UploadSearchParams().copyFrom(this);
+        copy.imageFile = imageFile;
+        copy.imageStream = imageStream;
+        copy.box = box;
+        copy.imageUrl = imageUrl;
+        copy.imId = imId;
+        copy.detection = detection;
+        copy.imFeature = imFeature;
+        copy.transId = transId;
+        copy.detectionLimit = detectionLimit;
+        copy.resultLimit = resultLimit;
+        copy.detectionSensitivity = detectionSensitivity;
+        return copy;
+    }
+
     public UploadSearchParams setBox(Box box) {
         this.box = box;
         return this;
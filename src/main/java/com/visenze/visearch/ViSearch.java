@@ -1,11 +1,15 @@
 package com.visenze.visearch;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
+import com.visenze.visearch.feature.HnswIndex;
+import com.visenze.visearch.feature.LocalIndexSync;
 import com.visenze.visearch.internal.*;
 import com.visenze.visearch.internal.http.ViSearchHttpClient;
 import com.visenze.visearch.internal.http.ViSearchHttpClientImpl;
 import com.visenze.visearch.internal.json.ViSearchModule;
+import com.visenze.visearch.metrics.ConnectionPoolStats;
 
 import java.io.InputStream;
 import java.net.URL;
@@ -60,6 +64,16 @@ public class ViSearch implements DataOperations, SearchOperations, TrackOperatio
      */
     private final TrackOperations trackOperations;
 
+    /**
+     * Http client of the Data and Search API, null when constructed with stub operations.
+     */
+    private final ViSearchHttpClient viSearchHttpClient;
+
+    /**
+     * Local feature index kept in sync with insert and remove, disabled (null) by default.
+     */
+    private volatile LocalIndexSync localIndexSync;
+
     /**
      * Construct a ViSearch client to call the default ViSearch API endpoint with access key and secret key.
      *
@@ -77,6 +91,7 @@ public class ViSearch implements DataOperations, SearchOperations, TrackOperatio
         this.dataOperations = dataOperations;
         this.searchOperations = searchOperations;
         this.trackOperations = trackOperations;
+        this.viSearchHttpClient = null;
     }
 
     /**
@@ -104,7 +119,7 @@ public class ViSearch implements DataOperations, SearchOperations, TrackOperatio
         if (endpoint.isEmpty()) {
             throw new IllegalArgumentException("ViSearch endpoint must not be empty.");
         }
-        ViSearchHttpClient viSearchHttpClient = new ViSearchHttpClientImpl(endpoint, accessKey, secretKey);
+        this.viSearchHttpClient = new ViSearchHttpClientImpl(endpoint, accessKey, secretKey);
         ObjectMapper objectMapper = new ObjectMapper().registerModule(new ViSearchModule());
         this.dataOperations = new DataOperationsImpl(viSearchHttpClient, objectMapper);
         this.searchOperations = new SearchOperationsImpl(viSearchHttpClient, objectMapper);
@@ -112,6 +127,38 @@ public class ViSearch implements DataOperations, SearchOperations, TrackOperatio
     }
 
     public ViSearch(String endpoint, String accessKey, String secretKey, ClientConfig clientConfig) {
+        this(newHttpClient(endpoint, accessKey, secretKey, clientConfig), accessKey, secretKey, clientConfig);
+    }
+
+    /**
+     * Construct a ViSearch client sending every call to one of several equivalent ViSearch API
+     * endpoints, e.g. the API in several regions. Each call goes to the endpoint with the lowest
+     * latency and error rate of recent calls, and endpoints that keep failing are left out for a
+     * while until they recover.
+     *
+     * @param endpoints the ViSearch API endpoints
+     * @param accessKey ViSearch App access key
+     * @param secretKey ViSearch App secret key
+     */
+    public ViSearch(List<String> endpoints, String accessKey, String secretKey) {
+        this(endpoints, accessKey, secretKey, new ClientConfig());
+    }
+
+    public ViSearch(List<String> endpoints, String accessKey, String secretKey, ClientConfig clientConfig) {
+        this(newHttpClient(endpoints, accessKey, secretKey, clientConfig), accessKey, secretKey, clientConfig);
+    }
+
+    private ViSearch(ViSearchHttpClient viSearchHttpClient, String accessKey, String secretKey, ClientConfig clientConfig) {
+        this.viSearchHttpClient = viSearchHttpClient;
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new ViSearchModule(clientConfig.getMetadataInterner(),
+                clientConfig.isLazyMetadata()));
+        this.dataOperations = new DataOperationsImpl(viSearchHttpClient, objectMapper, clientConfig);
+        this.searchOperations = new SearchOperationsImpl(viSearchHttpClient, objectMapper, clientConfig);
+        this.trackOperations = new TrackOperationsImpl(new ViSearchHttpClientImpl(DEFAULT_TRACKING_ENDPOINT, accessKey, secretKey,
+                trackingConfig(clientConfig)));
+    }
+
+    private static ViSearchHttpClient newHttpClient(String endpoint, String accessKey, String secretKey, ClientConfig clientConfig) {
         if (endpoint == null) {
             throw new IllegalArgumentException("ViSearch endpoint must not be null.");
         }
@@ -121,11 +168,33 @@ public class ViSearch implements DataOperations, SearchOperations, TrackOperatio
         if (clientConfig == null) {
             throw new IllegalArgumentException("ClientConfig must not be null.");
         }
-        ViSearchHttpClient viSearchHttpClient = new ViSearchHttpClientImpl(endpoint, accessKey, secretKey, clientConfig);
-        ObjectMapper objectMapper = new ObjectMapper().registerModule(new ViSearchModule());
-        this.dataOperations = new DataOperationsImpl(viSearchHttpClient, objectMapper);
-        this.searchOperations = new SearchOperationsImpl(viSearchHttpClient, objectMapper);
-        this.trackOperations = new TrackOperationsImpl(new ViSearchHttpClientImpl(DEFAULT_TRACKING_ENDPOINT, accessKey, secretKey));
+        return new ViSearchHttpClientImpl(endpoint, accessKey, secretKey, clientConfig);
+    }
+
+    private static ViSearchHttpClient newHttpClient(List<String> endpoints, String accessKey, String secretKey, ClientConfig clientConfig) {
+        if (endpoints == null || endpoints.isEmpty()) {
+            throw new IllegalArgumentException("ViSearch endpoints must not be empty.");
+        }
+        for (String endpoint : endpoints) {
+            if (endpoint == null || endpoint.isEmpty()) {
+                throw new IllegalArgumentException("ViSearch endpoint must not be empty.");
+            }
+        }
+        if (clientConfig == null) {
+            throw new IllegalArgumentException("ClientConfig must not be null.");
+        }
+        return new ViSearchHttpClientImpl(endpoints, accessKey, secretKey, clientConfig);
+    }
+
+    /**
+     * The tracking API has its own endpoint and latency, so its client keeps the default
+     * timeouts, pool and metrics; only the tracer is shared, so that events link to the calls
+     * they follow.
+     */
+    private static ClientConfig trackingConfig(ClientConfig clientConfig) {
+        ClientConfig trackingConfig = new ClientConfig();
+        trackingConfig.setTracer(clientConfig.getTracer());
+        return trackingConfig;
     }
 
     /**
@@ -136,7 +205,12 @@ public class ViSearch implements DataOperations, SearchOperations, TrackOperatio
      */
     @Override
     public InsertTrans insert(List<Image> imageList) {
-        return dataOperations.insert(imageList);
+        InsertTrans insertTrans = dataOperations.insert(imageList);
+        LocalIndexSync sync = localIndexSync;
+        if (sync != null) {
+            sync.onInsert(imageList, insertTrans);
+        }
+        return insertTrans;
     }
 
     /**
@@ -148,7 +222,12 @@ public class ViSearch implements DataOperations, SearchOperations, TrackOperatio
      */
     @Override
     public InsertTrans insert(List<Image> imageList, Map<String, String> customParams) {
-        return dataOperations.insert(imageList, customParams);
+        InsertTrans insertTrans = dataOperations.insert(imageList, customParams);
+        LocalIndexSync sync = localIndexSync;
+        if (sync != null) {
+            sync.onInsert(imageList, insertTrans);
+        }
+        return insertTrans;
     }
 
     /**
@@ -183,7 +262,12 @@ public class ViSearch implements DataOperations, SearchOperations, TrackOperatio
      */
     @Override
     public RemoveStatus remove(List<String> imNameList) {
-        return dataOperations.remove(imNameList);
+        RemoveStatus removeStatus = dataOperations.remove(imNameList);
+        LocalIndexSync sync = localIndexSync;
+        if (sync != null) {
+            sync.onRemove(imNameList, removeStatus);
+        }
+        return removeStatus;
     }
 
     /**
@@ -216,6 +300,84 @@ public class ViSearch implements DataOperations, SearchOperations, TrackOperatio
         return result;
     }
 
+    /**
+     * Search for similar images given an existing image in the App, returning the results one at
+     * a time while the response is received. Meant for large limits, the stream must be closed.
+     *
+     * @param searchParams the search parameters, must contain the im_name of the existing image
+     * @return the stream of search results
+     */
+    @Override
+    public SearchResultStream searchStream(SearchParams searchParams) {
+        SearchResultStream result = searchOperations.searchStream(searchParams);
+        if(result!=null && enableAutoSolutionActionTrack) {
+            String reqId = result.getReqId();
+            this.sendSolutionActions("search", reqId);
+        }
+        return result;
+    }
+
+    /**
+     * Recommendation for similar images given an existing image in the App, returning the results
+     * one at a time while the response is received. Meant for large limits, the stream must be closed.
+     *
+     * @param searchParams the search parameters, must contain the im_name of the existing image
+     * @return the stream of recommendations
+     */
+    @Override
+    public SearchResultStream recommendationStream(SearchParams searchParams) {
+        SearchResultStream result = searchOperations.recommendationStream(searchParams);
+        if(result!=null && enableAutoSolutionActionTrack) {
+            String reqId = result.getReqId();
+            this.sendSolutionActions("recommendation", reqId);
+        }
+        return result;
+    }
+
+    /**
+     * Search for similar images given an existing image in the App, over all pages: the next
+     * page is fetched while the results of the current one are read.
+     *
+     * @param searchParams the search parameters, must contain the im_name of the existing image
+     * @param maxResults the maximum number of results over all pages
+     * @return the results of all pages
+     */
+    public SearchPager searchAll(SearchParams searchParams, int maxResults) {
+        // the loader runs on the prefetch thread and pages through its own copy
+        final SearchParams params = searchParams.copy();
+        return new SearchPager(new SearchPager.PageLoader() {
+            @Override
+            public PagedSearchResult load(int page) {
+                return search(params.setPage(page));
+            }
+        }, searchParams.getPage(), maxResults);
+    }
+
+    /**
+     * Recommendation for similar images given an existing image in the App, over all pages: the
+     * next page is fetched while the results of the current one are read.
+     *
+     * @param searchParams the search parameters, must contain the im_name of the existing image
+     * @param maxResults the maximum number of results over all pages
+     * @return the results of all pages
+     */
+    public SearchPager recommendationAll(SearchParams searchParams, int maxResults) {
+        final SearchParams params = searchParams.copy();
+        return new SearchPager(new SearchPager.PageLoader() {
+            @Override
+            public PagedSearchResult load(int page) {
+                return recommendation(params.setPage(page));
+            }
+        }, searchParams.getPage(), maxResults);
+    }
+
+    /**
+     * A batch of searches to run concurrently, see {@link MultiSearch}.
+     */
+    public MultiSearch multiSearch() {
+        return new MultiSearch(this);
+    }
+
     /**
      * Search for similar images from the ViSearch App given a hex color.
      *
@@ -248,6 +410,55 @@ public class ViSearch implements DataOperations, SearchOperations, TrackOperatio
         return result;
     }
 
+    /**
+     * Search for similar images given a hex color, over all pages: the next page is fetched while
+     * the results of the current one are read.
+     *
+     * @param colorSearchParams the color search parameters, must contain the hex color
+     * @param maxResults the maximum number of results over all pages
+     * @return the results of all pages
+     */
+    public SearchPager colorSearchAll(ColorSearchParams colorSearchParams, int maxResults) {
+        final ColorSearchParams params = colorSearchParams.copy();
+        return new SearchPager(new SearchPager.PageLoader() {
+            @Override
+            public PagedSearchResult load(int page) {
+                return colorSearch(params.setPage(page));
+            }
+        }, colorSearchParams.getPage(), maxResults);
+    }
+
+    /**
+     * Search for similar images given an image file or url, over all pages: the next page is
+     * fetched while the results of the current one are read. The image is uploaded once, later
+     * pages search by the im_id returned with the first page. The params are copied, so they are
+     * not changed by the pager.
+     *
+     * @param uploadSearchParams the upload search parameters, must contain a image file or a url
+     * @param maxResults the maximum number of results over all pages
+     * @return the results of all pages
+     */
+    public SearchPager uploadSearchAll(UploadSearchParams uploadSearchParams, int maxResults) {
+        final UploadSearchParams params = uploadSearchParams.copy();
+        return new SearchPager(new SearchPager.PageLoader() {
+            private boolean uploaded;
+
+            @Override
+            public PagedSearchResult load(int page) {
+                if (uploaded && params.getImId() == null && params.getImageStream() != null) {
+                    // without an im_id the stream would have to be uploaded again
+                    return new PagedSearchResult(ResponseMessages.INVALID_IMAGE_SOURCE.getMessage(), null, null);
+                }
+                PagedSearchResult result = uploadSearch(params.setPage(page));
+                uploaded = true;
+                if (result != null && result.getImId() != null && Strings.isNullOrEmpty(params.getImFeature())) {
+                    params.setImId(result.getImId());
+                }
+                return result;
+            }
+        }, uploadSearchParams.getPage(), maxResults);
+    }
+
     /**
      * Detect multiple objects and search for similar images from the ViSearch App
      * The input will be an image file or url.
@@ -329,4 +540,30 @@ public class ViSearch implements DataOperations, SearchOperations, TrackOperatio
         this.enableAutoSolutionActionTrack = enableAutoSolutionActionTrack;
         return this;
     }
+
+    /**
+     * Keep a local feature index in sync with this app: images accepted by insert are extracted
+     * and added in the background, removed images are removed. Pass null to stop syncing. The
+     * sync of a previous index is shut down, dropping its pending extractions.
+     * @param index the index to keep in sync, or null
+     * @return this client
+     */
+    public synchronized ViSearch setLocalIndex(HnswIndex index) {
+        LocalIndexSync previous = localIndexSync;
+        this.localIndexSync = index == null ? null : new LocalIndexSync(index, searchOperations);
+        if (previous != null) {
+            previous.shutdown();
+        }
+        return this;
+    }
+
+    /**
+     * Snapshot of the connection pool of the Data and Search API, in total and per route, to
+     * check whether {@link ClientConfig#setMaxConnection(int)} fits the load.
+     *
+     * @return the pool stats, null if this client was constructed with stub operations
+     */
+    public ConnectionPoolStats getConnectionPoolStats() {
+        return viSearchHttpClient == null ? null : viSearchHttpClient.getConnectionPoolStats();
+    }
 }
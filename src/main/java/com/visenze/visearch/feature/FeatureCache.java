@@ -0,0 +1,165 @@
+package com.visenze.visearch.feature;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Ordering;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.visenze.visearch.UploadSearchParams;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Cache of /extractfeature responses keyed by the SHA-256 hash of the image content and of the
+ * parameters the extraction depends on.
+ *
+ * Entries live in a size bounded in-memory tier and, when a directory is given, in a persistent
+ * file-backed tier that survives restarts. With a cache configured through
+ * {@link com.visenze.visearch.ClientConfig#setFeatureCache(FeatureCache)}, extracting features of
+ * an image that was seen before does not call ViSearch at all, and upload searches of such an image
+ * are sent as im_feature searches instead of uploading the image again.
+ */
+public class FeatureCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private static final HashFunction HASH_FUNCTION = Hashing.sha256();
+
+    private static final String FILE_SUFFIX = ".json";
+
+    /**
+     * Paging, result shaping, filtering, scoring and grouping parameters, applied by the search
+     * after the feature was extracted.
+     */
+    static final Set<String> SEARCH_ONLY_PARAMS = ImmutableSet.of(
+            "page", "limit", "result_limit", "group_by", "group_limit", "facets", "facets_limit",
+            "facets_show_count", "score", "score_min", "score_max", "sort_by", "sort_group_by",
+            "sort_group_strategy", "fq", "vs_fq", "vs_fl", "fl", "get_all_fl", "qinfo", "dedup",
+            "dedup_score_threshold");
+
+    private final Cache<String, String> memoryCache;
+
+    private final File directory;
+
+    public FeatureCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public FeatureCache(int maxEntries) {
+        this(maxEntries, null);
+    }
+
+    /**
+     * @param maxEntries maximum number of responses held in memory
+     * @param directory  directory of the persistent tier, or null to keep entries in memory only
+     */
+    public FeatureCache(int maxEntries, File directory) {
+        Preconditions.checkArgument(maxEntries > 0, "max entries must be positive");
+        if (directory != null) {
+            Preconditions.checkArgument(directory.isDirectory() || directory.mkdirs(),
+                    "feature cache directory could not be created: " + directory);
+        }
+        this.memoryCache = CacheBuilder.newBuilder().maximumSize(maxEntries).build();
+        this.directory = directory;
+    }
+
+    /**
+     * Compute the cache key of an image file for the given upload parameters.
+     */
+    public static String keyFor(File imageFile, UploadSearchParams params) throws IOException {
+        return key(Files.hash(imageFile, HASH_FUNCTION), params);
+    }
+
+    /**
+     * Compute the cache key of image bytes for the given upload parameters.
+     */
+    public static String keyFor(byte[] image, UploadSearchParams params) {
+        return key(HASH_FUNCTION.hashBytes(image), params);
+    }
+
+    /**
+     * The key covers the image and every parameter that may change the extracted feature: the box,
+     * the detection settings (detection, detection_limit, detection_sensitivity) and any custom
+     * parameter. The parameters in {@link #SEARCH_ONLY_PARAMS} are left out, they only shape the
+     * search run with the feature, so searches differing in them share the extraction.
+     */
+    private static String key(HashCode imageHash, UploadSearchParams params) {
+        Hasher hasher = HASH_FUNCTION.newHasher().putBytes(imageHash.asBytes());
+        Multimap<String, String> map = params.toMap();
+        for (String name : Ordering.natural().sortedCopy(map.keySet())) {
+            if (SEARCH_ONLY_PARAMS.contains(name)) {
+                continue;
+            }
+            for (String value : Ordering.natural().sortedCopy(map.get(name))) {
+                hasher.putString(name, Charsets.UTF_8).putByte((byte) '=')
+                        .putString(value, Charsets.UTF_8).putByte((byte) 0);
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Get the cached raw /extractfeature response for the key, or null if absent.
+     */
+    public String get(String key) {
+        String response = memoryCache.getIfPresent(key);
+        if (response == null && directory != null) {
+            File file = fileFor(key);
+            if (file.isFile()) {
+                try {
+                    response = Files.toString(file, Charsets.UTF_8);
+                    memoryCache.put(key, response);
+                } catch (IOException e) {
+                    // treat an unreadable entry as a miss, it is rewritten on the next put
+                    return null;
+                }
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Cache the raw /extractfeature response for the key.
+     */
+    public void put(String key, String response) {
+        memoryCache.put(key, response);
+        if (directory != null) {
+            File file = fileFor(key);
+            File tmp = new File(directory, key + FILE_SUFFIX + ".tmp." + Thread.currentThread().getId());
+            try {
+                Files.write(response, tmp, Charsets.UTF_8);
+                Files.move(tmp, file);
+            } catch (IOException e) {
+                // the persistent tier is best effort, the entry stays in memory
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Remove all entries from the in-memory tier. Persistent entries are kept.
+     */
+    public void invalidateAll() {
+        memoryCache.invalidateAll();
+    }
+
+    /**
+     * Number of entries in the in-memory tier.
+     */
+    public long size() {
+        return memoryCache.size();
+    }
+
+    private File fileFor(String key) {
+        return new File(directory, key + FILE_SUFFIX);
+    }
+}
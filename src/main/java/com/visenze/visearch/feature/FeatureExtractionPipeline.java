@@ -0,0 +1,268 @@
+package com.visenze.visearch.feature;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.visenze.visearch.FeatureResponseResult;
+import com.visenze.visearch.ProductType;
+import com.visenze.visearch.UploadSearchParams;
+import com.visenze.visearch.internal.SearchOperations;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Extracts features for a stream of images with bounded parallelism and writes them to a
+ * {@link FeatureRecordFile}.
+ *
+ * Sources are pulled from the iterator only when a worker is free to take them, so arbitrarily
+ * long streams run in constant memory. Each completed extraction is appended to the output file
+ * right away; running the pipeline again over the same output skips every source whose name is
+ * already recorded, which resumes an interrupted run from the last completed record.
+ *
+ * With detection ViSearch may return one feature per detected object. The first is recorded under
+ * the source name and every further one under {@link #detectionName(String, int)}, e.g.
+ * <code>shirt.jpg#1</code>, all with the product types of the whole image.
+ *
+ * <pre>
+ * FeatureExtractionPipeline pipeline = new FeatureExtractionPipeline(client, new File("features.bin"))
+ *         .setParallelism(8);
+ * FeatureExtractionPipeline.Summary summary = pipeline.run(FeatureSource.fromDirectory(new File("images")));
+ * </pre>
+ */
+public class FeatureExtractionPipeline {
+
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    private static final int MAX_REPORTED_FAILURES = 1000;
+
+    /**
+     * Transforms image content before upload, e.g. to downscale large images. Only applied to file
+     * sources, url sources are downloaded by ViSearch.
+     */
+    public interface ImagePreprocessor {
+        byte[] process(FeatureSource source, byte[] image) throws IOException;
+    }
+
+    private final SearchOperations searchOperations;
+    private final File output;
+    private int parallelism = DEFAULT_PARALLELISM;
+    private int maxPending = 2 * DEFAULT_PARALLELISM;
+    private ImagePreprocessor preprocessor;
+    private String detection;
+
+    /**
+     * @param searchOperations the client used for /extractfeature calls, usually a {@link com.visenze.visearch.ViSearch}
+     * @param output           the record file to append features to
+     */
+    public FeatureExtractionPipeline(SearchOperations searchOperations, File output) {
+        Preconditions.checkNotNull(searchOperations, "search operations must not be null");
+        Preconditions.checkNotNull(output, "output file must not be null");
+        this.searchOperations = searchOperations;
+        this.output = output;
+    }
+
+    /**
+     * Number of concurrent /extractfeature calls. Also resets the number of pending sources to
+     * twice the parallelism.
+     */
+    public FeatureExtractionPipeline setParallelism(int parallelism) {
+        Preconditions.checkArgument(parallelism > 0, "parallelism must be positive");
+        this.parallelism = parallelism;
+        this.maxPending = 2 * parallelism;
+        return this;
+    }
+
+    /**
+     * Maximum number of sources read ahead of the running extractions, which bounds the images
+     * held in memory. Must not be lower than the parallelism.
+     */
+    public FeatureExtractionPipeline setMaxPending(int maxPending) {
+        Preconditions.checkArgument(maxPending >= parallelism, "max pending must not be lower than parallelism");
+        this.maxPending = maxPending;
+        return this;
+    }
+
+    public FeatureExtractionPipeline setPreprocessor(ImagePreprocessor preprocessor) {
+        this.preprocessor = preprocessor;
+        return this;
+    }
+
+    public FeatureExtractionPipeline setDetection(String detection) {
+        this.detection = detection;
+        return this;
+    }
+
+    /**
+     * Extract features for all sources not yet in the output file. Blocks until every source is
+     * either recorded or failed.
+     */
+    public Summary run(Iterator<FeatureSource> sources) throws IOException, InterruptedException {
+        final FeatureRecordFile records = FeatureRecordFile.open(output);
+        final Summary summary = new Summary();
+        final Semaphore permits = new Semaphore(maxPending);
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("visearch-feature-extraction-%d")
+                .build());
+        try {
+            while (sources.hasNext()) {
+                final FeatureSource source = sources.next();
+                if (records.contains(source.getName())) {
+                    summary.skipped.incrementAndGet();
+                    continue;
+                }
+                // blocks while maxPending sources are in flight
+                permits.acquire();
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                extract(source, records, summary);
+                            } finally {
+                                permits.release();
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    permits.release();
+                    throw e;
+                }
+            }
+            permits.acquire(maxPending);
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+            try {
+                records.sync();
+            } finally {
+                records.close();
+            }
+        }
+        return summary;
+    }
+
+    private void extract(FeatureSource source, FeatureRecordFile records, Summary summary) {
+        try {
+            FeatureResponseResult result = searchOperations.extractFeature(toParams(source));
+            if (result.getErrorMessage() != null) {
+                summary.fail(source, result.getErrorMessage());
+            } else if (result.getResult() == null || result.getResult().isEmpty()) {
+                summary.fail(source, "No feature extracted.");
+            } else {
+                List<String> features = result.getResult();
+                List<byte[]> decoded = new ArrayList<byte[]>(features.size());
+                for (String feature : features) {
+                    decoded.add(BaseEncoding.base64().decode(feature));
+                }
+                List<String> types = productTypes(result);
+                // the source name goes last, so a source only counts as recorded once all its detections are
+                for (int i = decoded.size() - 1; i >= 0; i--) {
+                    String name = i == 0 ? source.getName() : detectionName(source.getName(), i);
+                    if (i > 0 && records.contains(name)) {
+                        continue;
+                    }
+                    records.append(new FeatureRecord(name, result.getImId(), types, decoded.get(i)));
+                }
+                summary.succeeded.incrementAndGet();
+            }
+        } catch (IOException e) {
+            summary.fail(source, e.toString());
+        } catch (RuntimeException e) {
+            // e.g. an InternalViSearchException for a network error: one image must not stop the run
+            summary.fail(source, e.toString());
+        }
+    }
+
+    /**
+     * Name of the record holding a further detection of a source, for detections numbered from 1.
+     */
+    public static String detectionName(String sourceName, int detection) {
+        return sourceName + "#" + detection;
+    }
+
+    private UploadSearchParams toParams(FeatureSource source) throws IOException {
+        UploadSearchParams params;
+        if (source.getFile() != null) {
+            byte[] image = Files.toByteArray(source.getFile());
+            if (preprocessor != null) {
+                image = preprocessor.process(source, image);
+            }
+            params = new UploadSearchParams(new ByteArrayInputStream(image));
+        } else {
+            params = new UploadSearchParams(source.getUrl());
+        }
+        if (detection != null) {
+            params.setDetection(detection);
+        }
+        return params;
+    }
+
+    private static List<String> productTypes(FeatureResponseResult result) {
+        List<String> types = new ArrayList<String>();
+        if (result.getProductTypes() != null) {
+            for (ProductType productType : result.getProductTypes()) {
+                types.add(productType.getType());
+            }
+        }
+        return types;
+    }
+
+    /**
+     * Outcome of a pipeline run.
+     */
+    public static class Summary {
+
+        private final AtomicInteger succeeded = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final Map<String, String> failures = Maps.newConcurrentMap();
+
+        private void fail(FeatureSource source, String message) {
+            failed.incrementAndGet();
+            if (failures.size() < MAX_REPORTED_FAILURES) {
+                failures.put(source.getName(), message);
+            }
+        }
+
+        /**
+         * Number of sources extracted and recorded in this run.
+         */
+        public int getSucceeded() {
+            return succeeded.get();
+        }
+
+        /**
+         * Number of sources already recorded by a previous run.
+         */
+        public int getSkipped() {
+            return skipped.get();
+        }
+
+        public int getFailed() {
+            return failed.get();
+        }
+
+        /**
+         * Error messages by source name, for up to the first 1000 failures.
+         */
+        public Map<String, String> getFailures() {
+            return Collections.unmodifiableMap(failures);
+        }
+    }
+}
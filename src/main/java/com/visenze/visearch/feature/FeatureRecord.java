@@ -0,0 +1,44 @@
+package com.visenze.visearch.feature;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One extracted feature as stored in a {@link FeatureRecordFile}.
+ */
+public class FeatureRecord {
+
+    private final String name;
+    private final String imId;
+    private final List<String> productTypes;
+    private final byte[] feature;
+
+    public FeatureRecord(String name, String imId, List<String> productTypes, byte[] feature) {
+        this.name = name;
+        this.imId = imId;
+        this.productTypes = productTypes == null ? Collections.<String>emptyList() : productTypes;
+        this.feature = feature;
+    }
+
+    /**
+     * The name of the image source, i.e. the im_name for catalog images.
+     */
+    public String getName() {
+        return name;
+    }
+
+    public String getImId() {
+        return imId;
+    }
+
+    public List<String> getProductTypes() {
+        return productTypes;
+    }
+
+    /**
+     * The base 64 decoded feature.
+     */
+    public byte[] getFeature() {
+        return feature;
+    }
+}
@@ -0,0 +1,245 @@
+package com.visenze.visearch.feature;
+
+import com.google.common.base.Strings;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Compact append-only file of {@link FeatureRecord}s.
+ *
+ * The file starts with a magic number and a version, followed by records framed as
+ * <code>[int length][payload][int crc32(payload)]</code>. A record only counts once its checksum
+ * has been written, so a file cut short by a crash is recovered on {@link #open(File)} by
+ * truncating it to the last complete record.
+ */
+public class FeatureRecordFile implements Closeable {
+
+    private static final int MAGIC = 0x56534652; // "VSFR"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final Set<String> names;
+    private boolean broken;
+
+    private FeatureRecordFile(RandomAccessFile file, Set<String> names) {
+        this.file = file;
+        this.channel = file.getChannel();
+        this.names = names;
+    }
+
+    /**
+     * Open a record file for appending, creating it if needed. A partially written record at the
+     * end of an existing file is discarded.
+     */
+    public static FeatureRecordFile open(File path) throws IOException {
+        Set<String> names = new HashSet<String>();
+        long validLength = HEADER_SIZE;
+        if (path.isFile() && path.length() > 0) {
+            Reader reader = new Reader(path);
+            try {
+                FeatureRecord record;
+                while ((record = reader.next()) != null) {
+                    names.add(record.getName());
+                }
+                validLength = reader.position;
+            } finally {
+                reader.close();
+            }
+        }
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        if (file.length() < HEADER_SIZE) {
+            file.setLength(0);
+            file.writeInt(MAGIC);
+            file.writeInt(VERSION);
+        } else {
+            file.setLength(validLength);
+        }
+        file.seek(file.length());
+        return new FeatureRecordFile(file, names);
+    }
+
+    /**
+     * Open a reader over the complete records of a record file.
+     */
+    public static Reader newReader(File path) throws IOException {
+        return new Reader(path);
+    }
+
+    /**
+     * Read all complete records of a record file.
+     */
+    public static List<FeatureRecord> readAll(File path) throws IOException {
+        List<FeatureRecord> records = new ArrayList<FeatureRecord>();
+        Reader reader = new Reader(path);
+        try {
+            FeatureRecord record;
+            while ((record = reader.next()) != null) {
+                records.add(record);
+            }
+        } finally {
+            reader.close();
+        }
+        return records;
+    }
+
+    /**
+     * Names of the records in the file, including the ones appended since it was opened.
+     */
+    public synchronized Set<String> getNames() {
+        return Collections.unmodifiableSet(new HashSet<String>(names));
+    }
+
+    public synchronized boolean contains(String name) {
+        return names.contains(name);
+    }
+
+    /**
+     * Append a record. The record is handed to the operating system before this method returns, so
+     * it survives a crash of the process. If the write fails part way the file is truncated back to
+     * the end of the previous record, so the records appended after it are not lost on the next
+     * {@link #open(File)}.
+     */
+    public synchronized void append(FeatureRecord record) throws IOException {
+        if (broken) {
+            throw new IOException("A failed append could not be rolled back");
+        }
+        byte[] payload = encode(record);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buffer = ByteBuffer.allocate(payload.length + 8);
+        buffer.putInt(payload.length).put(payload).putInt((int) crc.getValue());
+        buffer.flip();
+        long start = channel.position();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            rollback(start);
+            throw e;
+        } catch (RuntimeException e) {
+            rollback(start);
+            throw e;
+        }
+        names.add(record.getName());
+    }
+
+    private void rollback(long position) {
+        try {
+            channel.truncate(position);
+            channel.position(position);
+        } catch (IOException e) {
+            // the partial record is dropped by the next open; appending after it would lose more
+            broken = true;
+        }
+    }
+
+    /**
+     * Force appended records to the storage device.
+     */
+    public synchronized void sync() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        file.close();
+    }
+
+    private static byte[] encode(FeatureRecord record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(record.getFeature().length + 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(record.getName());
+        out.writeUTF(Strings.nullToEmpty(record.getImId()));
+        out.writeShort(record.getProductTypes().size());
+        for (String productType : record.getProductTypes()) {
+            out.writeUTF(productType);
+        }
+        out.writeInt(record.getFeature().length);
+        out.write(record.getFeature());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static FeatureRecord decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        String name = in.readUTF();
+        String imId = Strings.emptyToNull(in.readUTF());
+        int productTypeCount = in.readUnsignedShort();
+        List<String> productTypes = new ArrayList<String>(productTypeCount);
+        for (int i = 0; i < productTypeCount; i++) {
+            productTypes.add(in.readUTF());
+        }
+        byte[] feature = new byte[in.readInt()];
+        in.readFully(feature);
+        return new FeatureRecord(name, imId, productTypes, feature);
+    }
+
+    /**
+     * Sequential reader of complete records. Reading stops at the first incomplete or corrupted
+     * record.
+     */
+    public static class Reader implements Closeable {
+
+        private final DataInputStream in;
+        private long position;
+
+        private Reader(File path) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 64 * 1024));
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not a feature record file: " + path);
+                }
+                int version = in.readInt();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported feature record file version " + version + ": " + path);
+                }
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+            this.position = HEADER_SIZE;
+        }
+
+        /**
+         * @return the next record, or null at the end of the complete records
+         */
+        public FeatureRecord next() throws IOException {
+            try {
+                int length = in.readInt();
+                if (length < 0 || length > MAX_RECORD_SIZE) {
+                    return null;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                int checksum = in.readInt();
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    return null;
+                }
+                FeatureRecord record = decode(payload);
+                position += length + 8;
+                return record;
+            } catch (EOFException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.visenze.visearch.feature;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Allocation free similarity scoring of decoded feature vectors.
+ *
+ * The inner loops are unrolled by four with independent accumulators, which lets the JIT keep the
+ * partial sums in registers and auto-vectorize where the platform supports it.
+ */
+public final class FeatureSimilarity {
+
+    /**
+     * How two vectors are compared. Every metric yields a score where higher means more similar,
+     * so results of different metrics rank the same way.
+     */
+    public enum Metric {
+        /** Cosine of the angle between the vectors, in [-1, 1]. */
+        COSINE,
+        /** Dot product, equal to cosine for normalized vectors but cheaper. */
+        DOT,
+        /** Negated squared euclidean distance. */
+        L2
+    }
+
+    private FeatureSimilarity() {
+    }
+
+    public static float dot(float[] a, float[] b) {
+        Preconditions.checkArgument(a.length == b.length, "vectors must have the same dimension");
+        return dot(a, 0, b, 0, a.length);
+    }
+
+    /**
+     * Dot product of <code>length</code> components starting at the given offsets, so vectors
+     * packed back to back in one array can be scored without copying.
+     */
+    public static float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int i = 0;
+        int bound = length & ~3;
+        for (; i < bound; i += 4) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+            s1 += a[aOffset + i + 1] * b[bOffset + i + 1];
+            s2 += a[aOffset + i + 2] * b[bOffset + i + 2];
+            s3 += a[aOffset + i + 3] * b[bOffset + i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += a[aOffset + i] * b[bOffset + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    public static float dot(float[] a, FloatBuffer b) {
+        Preconditions.checkArgument(a.length == b.remaining(), "vectors must have the same dimension");
+        int base = b.position();
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int i = 0;
+        int bound = a.length & ~3;
+        for (; i < bound; i += 4) {
+            s0 += a[i] * b.get(base + i);
+            s1 += a[i + 1] * b.get(base + i + 1);
+            s2 += a[i + 2] * b.get(base + i + 2);
+            s3 += a[i + 3] * b.get(base + i + 3);
+        }
+        for (; i < a.length; i++) {
+            s0 += a[i] * b.get(base + i);
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    public static float squaredL2(float[] a, float[] b) {
+        Preconditions.checkArgument(a.length == b.length, "vectors must have the same dimension");
+        return squaredL2(a, 0, b, 0, a.length);
+    }
+
+    public static float squaredL2(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int i = 0;
+        int bound = length & ~3;
+        for (; i < bound; i += 4) {
+            float d0 = a[aOffset + i] - b[bOffset + i];
+            float d1 = a[aOffset + i + 1] - b[bOffset + i + 1];
+            float d2 = a[aOffset + i + 2] - b[bOffset + i + 2];
+            float d3 = a[aOffset + i + 3] - b[bOffset + i + 3];
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        for (; i < length; i++) {
+            float d = a[aOffset + i] - b[bOffset + i];
+            s0 += d * d;
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    public static float squaredL2(float[] a, FloatBuffer b) {
+        Preconditions.checkArgument(a.length == b.remaining(), "vectors must have the same dimension");
+        int base = b.position();
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int i = 0;
+        int bound = a.length & ~3;
+        for (; i < bound; i += 4) {
+            float d0 = a[i] - b.get(base + i);
+            float d1 = a[i + 1] - b.get(base + i + 1);
+            float d2 = a[i + 2] - b.get(base + i + 2);
+            float d3 = a[i + 3] - b.get(base + i + 3);
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        for (; i < a.length; i++) {
+            float d = a[i] - b.get(base + i);
+            s0 += d * d;
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    public static float norm(float[] a) {
+        return (float) Math.sqrt(dot(a, 0, a, 0, a.length));
+    }
+
+    public static float cosine(float[] a, float[] b) {
+        return cosine(dot(a, b), norm(a), norm(b));
+    }
+
+    /**
+     * Cosine from a dot product and precomputed norms, to avoid recomputing the query norm for
+     * every candidate.
+     */
+    public static float cosine(float dot, float normA, float normB) {
+        float denominator = normA * normB;
+        return denominator == 0f ? 0f : dot / denominator;
+    }
+
+    /**
+     * Normalize a vector in place to unit length, after which {@link Metric#DOT} equals
+     * {@link Metric#COSINE}.
+     */
+    public static void normalize(float[] a) {
+        float norm = norm(a);
+        if (norm > 0f) {
+            float inverse = 1f / norm;
+            for (int i = 0; i < a.length; i++) {
+                a[i] *= inverse;
+            }
+        }
+    }
+
+    public static float score(Metric metric, float[] query, float[] candidate) {
+        switch (metric) {
+            case COSINE:
+                return cosine(query, candidate);
+            case DOT:
+                return dot(query, candidate);
+            default:
+                return -squaredL2(query, candidate);
+        }
+    }
+
+    public static float score(Metric metric, float[] query, FloatBuffer candidate) {
+        return score(metric, query, metric == Metric.COSINE ? norm(query) : 0f, candidate);
+    }
+
+    /**
+     * Score against a query whose norm is computed once for a scan, see {@link #norm(float[])};
+     * the norm is only used by {@link Metric#COSINE}.
+     */
+    public static float score(Metric metric, float[] query, float queryNorm, FloatBuffer candidate) {
+        switch (metric) {
+            case COSINE:
+                float candidateNorm = (float) Math.sqrt(dotSelf(candidate));
+                return cosine(dot(query, candidate), queryNorm, candidateNorm);
+            case DOT:
+                return dot(query, candidate);
+            default:
+                return -squaredL2(query, candidate);
+        }
+    }
+
+    /**
+     * Score every candidate against the query and keep the best ones in <code>topK</code>, which
+     * is reset first.
+     */
+    public static void topK(Metric metric, float[] query, float[][] candidates, TopK topK) {
+        topK.reset();
+        float queryNorm = metric == Metric.COSINE ? norm(query) : 0f;
+        for (int i = 0; i < candidates.length; i++) {
+            float[] candidate = candidates[i];
+            Preconditions.checkArgument(candidate.length == query.length, "vectors must have the same dimension");
+            float score;
+            if (metric == Metric.COSINE) {
+                score = cosine(dot(query, 0, candidate, 0, query.length), queryNorm, norm(candidate));
+            } else if (metric == Metric.DOT) {
+                score = dot(query, 0, candidate, 0, query.length);
+            } else {
+                score = -squaredL2(query, 0, candidate, 0, query.length);
+            }
+            topK.offer(i, score);
+        }
+    }
+
+    /**
+     * Score candidates packed back to back in one array, <code>query.length</code> floats each.
+     */
+    public static void topK(Metric metric, float[] query, float[] packedCandidates, TopK topK) {
+        int dimension = query.length;
+        Preconditions.checkArgument(dimension > 0 && packedCandidates.length % dimension == 0,
+                "packed candidates must be a multiple of the query dimension");
+        topK.reset();
+        float queryNorm = metric == Metric.COSINE ? norm(query) : 0f;
+        int count = packedCandidates.length / dimension;
+        for (int i = 0; i < count; i++) {
+            int offset = i * dimension;
+            float score;
+            if (metric == Metric.COSINE) {
+                float candidateNorm = (float) Math.sqrt(dot(packedCandidates, offset, packedCandidates, offset, dimension));
+                score = cosine(dot(query, 0, packedCandidates, offset, dimension), queryNorm, candidateNorm);
+            } else if (metric == Metric.DOT) {
+                score = dot(query, 0, packedCandidates, offset, dimension);
+            } else {
+                score = -squaredL2(query, 0, packedCandidates, offset, dimension);
+            }
+            topK.offer(i, score);
+        }
+    }
+
+    /**
+     * Greedy near-duplicate removal: walks the vectors in order and drops every vector scoring at
+     * least <code>threshold</code> against a vector kept before it.
+     *
+     * @return the number of kept vectors, whose indices are written to the start of <code>kept</code>
+     */
+    public static int dedupe(Metric metric, float[][] vectors, float threshold, int[] kept) {
+        int keptCount = 0;
+        for (int i = 0; i < vectors.length; i++) {
+            boolean duplicate = false;
+            for (int k = 0; k < keptCount && !duplicate; k++) {
+                duplicate = score(metric, vectors[kept[k]], vectors[i]) >= threshold;
+            }
+            if (!duplicate) {
+                kept[keptCount++] = i;
+            }
+        }
+        return keptCount;
+    }
+
+    private static float dotSelf(FloatBuffer a) {
+        int base = a.position();
+        int length = a.remaining();
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int i = 0;
+        int bound = length & ~3;
+        for (; i < bound; i += 4) {
+            float v0 = a.get(base + i);
+            float v1 = a.get(base + i + 1);
+            float v2 = a.get(base + i + 2);
+            float v3 = a.get(base + i + 3);
+            s0 += v0 * v0;
+            s1 += v1 * v1;
+            s2 += v2 * v2;
+            s3 += v3 * v3;
+        }
+        for (; i < length; i++) {
+            float v = a.get(base + i);
+            s0 += v * v;
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+}
@@ -0,0 +1,84 @@
+package com.visenze.visearch.feature;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.base.Strings;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.Iterators;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.util.Iterator;
+
+/**
+ * An image to extract features from, either a local file or an url downloaded by ViSearch.
+ */
+public class FeatureSource {
+
+    private final String name;
+    private final File file;
+    private final String url;
+
+    private FeatureSource(String name, File file, String url) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(name), "feature source name must not be null or empty");
+        this.name = name;
+        this.file = file;
+        this.url = url;
+    }
+
+    /**
+     * A local image file, named by its file name.
+     */
+    public static FeatureSource ofFile(File file) {
+        Preconditions.checkNotNull(file, "The image file must not be null.");
+        return new FeatureSource(file.getName(), file, null);
+    }
+
+    public static FeatureSource ofFile(String name, File file) {
+        Preconditions.checkNotNull(file, "The image file must not be null.");
+        return new FeatureSource(name, file, null);
+    }
+
+    public static FeatureSource ofUrl(String name, String url) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(url), "The image url must not be null or empty.");
+        return new FeatureSource(name, null, url);
+    }
+
+    /**
+     * All files under a directory, recursively, named by their path relative to the directory.
+     * The directory is walked lazily while the iterator is consumed.
+     */
+    public static Iterator<FeatureSource> fromDirectory(final File directory) {
+        Preconditions.checkArgument(directory.isDirectory(), "not a directory: " + directory);
+        final String root = directory.getAbsolutePath();
+        FluentIterable<FeatureSource> sources = Files.fileTreeTraverser()
+                .preOrderTraversal(directory)
+                .filter(new Predicate<File>() {
+                    @Override
+                    public boolean apply(File file) {
+                        return file.isFile() && !file.isHidden();
+                    }
+                })
+                .transform(new Function<File, FeatureSource>() {
+                    @Override
+                    public FeatureSource apply(File file) {
+                        String relative = file.getAbsolutePath().substring(root.length() + 1);
+                        return ofFile(relative.replace(File.separatorChar, '/'), file);
+                    }
+                });
+        return Iterators.unmodifiableIterator(sources.iterator());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+}
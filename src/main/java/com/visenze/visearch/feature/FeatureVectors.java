@@ -0,0 +1,151 @@
+package com.visenze.visearch.feature;
+
+import com.google.common.base.Preconditions;
+import com.visenze.visearch.FeatureResponseResult;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decodes the base 64 feature strings returned by /extractfeature into primitive vectors.
+ *
+ * Features are read as packed 32 bit floats, little endian by default. The base 64 text is decoded
+ * straight into the target buffer without an intermediate byte array, so decoding many features
+ * into one reused buffer does not allocate.
+ */
+public final class FeatureVectors {
+
+    public static final ByteOrder DEFAULT_BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private static final byte[] DECODE_TABLE = new byte[128];
+
+    static {
+        Arrays.fill(DECODE_TABLE, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODE_TABLE[alphabet.charAt(i)] = (byte) i;
+        }
+        // accept the url safe alphabet as well
+        DECODE_TABLE['-'] = 62;
+        DECODE_TABLE['_'] = 63;
+    }
+
+    private FeatureVectors() {
+    }
+
+    /**
+     * Number of bytes a base 64 feature string decodes to.
+     */
+    public static int decodedLength(CharSequence feature) {
+        int length = feature.length();
+        int padding = 0;
+        while (length > 0 && feature.charAt(length - 1) == '=') {
+            length--;
+            padding++;
+        }
+        Preconditions.checkArgument(padding <= 2, "invalid base 64 padding");
+        return (int) ((long) length * 6 / 8);
+    }
+
+    /**
+     * Number of float components of a base 64 feature string.
+     */
+    public static int dimension(CharSequence feature) {
+        return decodedLength(feature) / 4;
+    }
+
+    /**
+     * Decode a feature into a new buffer positioned at zero, in the default byte order.
+     */
+    public static ByteBuffer decode(CharSequence feature) {
+        ByteBuffer buffer = ByteBuffer.allocate(decodedLength(feature)).order(DEFAULT_BYTE_ORDER);
+        decode(feature, buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decode a feature into the buffer at its current position, advancing the position by the
+     * decoded length.
+     *
+     * @throws IllegalArgumentException if the feature is not valid base 64
+     * @throws java.nio.BufferOverflowException if the buffer has not enough space remaining
+     */
+    public static void decode(CharSequence feature, ByteBuffer target) {
+        int length = feature.length();
+        while (length > 0 && feature.charAt(length - 1) == '=') {
+            length--;
+        }
+        int bits = 0;
+        int bitCount = 0;
+        for (int i = 0; i < length; i++) {
+            char c = feature.charAt(i);
+            int value = c < 128 ? DECODE_TABLE[c] : -1;
+            Preconditions.checkArgument(value >= 0, "invalid base 64 character at %s", i);
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                target.put((byte) (bits >> bitCount));
+            }
+        }
+    }
+
+    /**
+     * View decoded feature bytes as floats without copying them.
+     */
+    public static FloatBuffer asFloatBuffer(ByteBuffer feature) {
+        return feature.duplicate().order(feature.order()).asFloatBuffer();
+    }
+
+    /**
+     * Decode a feature into a new float array.
+     */
+    public static float[] toFloatArray(CharSequence feature) {
+        return toFloatArray(feature, DEFAULT_BYTE_ORDER);
+    }
+
+    public static float[] toFloatArray(CharSequence feature, ByteOrder order) {
+        ByteBuffer buffer = ByteBuffer.allocate(decodedLength(feature)).order(order);
+        decode(feature, buffer);
+        buffer.flip();
+        float[] vector = new float[buffer.remaining() / 4];
+        buffer.asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    /**
+     * Decode a feature into an existing float array, which must have at least {@link #dimension(CharSequence)}
+     * components. The scratch buffer must hold the decoded bytes and is cleared first; reusing both
+     * across calls keeps decoding allocation free.
+     *
+     * @return the dimension of the decoded feature
+     */
+    public static int toFloatArray(CharSequence feature, ByteBuffer scratch, float[] target) {
+        scratch.clear();
+        decode(feature, scratch);
+        scratch.flip();
+        int dimension = scratch.remaining() / 4;
+        for (int i = 0; i < dimension; i++) {
+            target[i] = scratch.getFloat(i << 2);
+        }
+        return dimension;
+    }
+
+    /**
+     * Decode every feature of an /extractfeature result.
+     */
+    public static List<float[]> toFloatArrays(FeatureResponseResult result) {
+        List<float[]> vectors = new ArrayList<float[]>();
+        if (result.getResult() != null) {
+            for (String feature : result.getResult()) {
+                vectors.add(toFloatArray(feature));
+            }
+        }
+        return vectors;
+    }
+}
@@ -0,0 +1,806 @@
+package com.visenze.visearch.feature;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
+import com.visenze.visearch.BaseSearchParams;
+import com.visenze.visearch.ImageResult;
+import com.visenze.visearch.PagedSearchResult;
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.SearchParams;
+import com.visenze.visearch.UploadSearchParams;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-process approximate nearest neighbor index (HNSW) over extracted features.
+ *
+ * The index answers "more like this" queries locally, e.g. for a hot catalog subset or while
+ * ViSearch is unreachable. Queries take the same parameter objects as the ViSearch client: a
+ * {@link SearchParams} searches by an indexed im_name and an {@link UploadSearchParams} by its
+ * im_feature. Page, limit, score, score_min/score_max, fl, get_all_fl and exact match fq on
+ * metadata are honored. Scores follow {@link FeatureSimilarity.Metric}, higher is more similar.
+ *
+ * Searches run concurrently; adds and removes take an exclusive lock. Removed and replaced images
+ * are tombstoned and stay in the graph for navigation; once they make up more than
+ * {@link #MAX_REMOVED_FRACTION} of the nodes the graph is rebuilt from the live images, so churn
+ * does not grow the index without bound. {@link #compact()} rebuilds it on demand. The index can
+ * be {@link #save(File) saved} and {@link #load(File) loaded} back onto the heap for fast restarts,
+ * without extracting or inserting the images again. To keep it in sync with the ViSearch app, see
+ * {@link com.visenze.visearch.ViSearch#setLocalIndex(HnswIndex)}.
+ */
+public class HnswIndex {
+
+    public static final int DEFAULT_M = 16;
+    public static final int DEFAULT_EF_CONSTRUCTION = 200;
+    public static final int DEFAULT_EF_SEARCH = 64;
+
+    /**
+     * Share of removed nodes above which the graph is rebuilt.
+     */
+    public static final double MAX_REMOVED_FRACTION = 0.5;
+
+    private static final int MAGIC = 0x56534858; // "VSHX"
+    private static final int VERSION = 1;
+    private static final long DEFAULT_SEED = 42L;
+    private static final int DEFAULT_PAGE = 1;
+    private static final int DEFAULT_LIMIT = 10;
+
+    private final int dimension;
+    private final FeatureSimilarity.Metric metric;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final Random random = new Random(DEFAULT_SEED);
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ThreadLocal<VisitedSet> visitedSets = new ThreadLocal<VisitedSet>() {
+        @Override
+        protected VisitedSet initialValue() {
+            return new VisitedSet();
+        }
+    };
+
+    private final List<Node> nodes = new ArrayList<Node>();
+    private final Map<String, Integer> nodeByName = new HashMap<String, Integer>();
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    private int liveCount;
+    private volatile int efSearch = DEFAULT_EF_SEARCH;
+
+    public HnswIndex(int dimension) {
+        this(dimension, FeatureSimilarity.Metric.COSINE);
+    }
+
+    public HnswIndex(int dimension, FeatureSimilarity.Metric metric) {
+        this(dimension, metric, DEFAULT_M, DEFAULT_EF_CONSTRUCTION);
+    }
+
+    /**
+     * @param dimension      number of float components of every feature
+     * @param metric         how features are compared
+     * @param m              number of neighbors per node and layer, 2m on the bottom layer
+     * @param efConstruction size of the candidate list while inserting, trades build time for recall
+     */
+    public HnswIndex(int dimension, FeatureSimilarity.Metric metric, int m, int efConstruction) {
+        Preconditions.checkArgument(dimension > 0, "dimension must be positive");
+        Preconditions.checkNotNull(metric, "metric must not be null");
+        Preconditions.checkArgument(m > 1, "m must be greater than 1");
+        Preconditions.checkArgument(efConstruction > 0, "ef construction must be positive");
+        this.dimension = dimension;
+        this.metric = metric;
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = efConstruction;
+        this.levelMultiplier = 1 / Math.log(m);
+    }
+
+    /**
+     * Size of the candidate list while searching. Raising it improves recall at the cost of
+     * latency; it is never lower than the number of requested results.
+     */
+    public void setEfSearch(int efSearch) {
+        Preconditions.checkArgument(efSearch > 0, "ef search must be positive");
+        this.efSearch = efSearch;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public FeatureSimilarity.Metric getMetric() {
+        return metric;
+    }
+
+    /**
+     * Number of indexed images, not counting removed ones.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(String imName) {
+        lock.readLock().lock();
+        try {
+            return nodeByName.containsKey(imName);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Index a base 64 feature as returned by extractFeature.
+     */
+    public void add(String imName, String feature, Map<String, String> metadata) {
+        add(imName, FeatureVectors.toFloatArray(feature), metadata);
+    }
+
+    /**
+     * Index a record written by the {@link FeatureExtractionPipeline}.
+     */
+    public void add(FeatureRecord record) {
+        ByteBuffer buffer = ByteBuffer.wrap(record.getFeature()).order(FeatureVectors.DEFAULT_BYTE_ORDER);
+        float[] vector = new float[buffer.remaining() / 4];
+        buffer.asFloatBuffer().get(vector);
+        add(record.getName(), vector, null);
+    }
+
+    /**
+     * Index a feature vector, replacing any previous entry of the same im_name.
+     */
+    public void add(String imName, float[] feature, Map<String, String> metadata) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(imName), "im_name must not be null or empty");
+        Preconditions.checkArgument(feature.length == dimension, "feature dimension %s does not match index dimension %s",
+                feature.length, dimension);
+        float[] vector = prepare(feature);
+        Map<String, String> values = metadata == null
+                ? Collections.<String, String>emptyMap()
+                : Collections.unmodifiableMap(new HashMap<String, String>(metadata));
+        lock.writeLock().lock();
+        try {
+            insertLocked(imName, vector, values);
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove an image from the results.
+     *
+     * @return true if the image was indexed
+     */
+    public boolean remove(String imName) {
+        lock.writeLock().lock();
+        try {
+            boolean removed = removeLocked(imName);
+            compactIfNeeded();
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rebuild the graph from the live images, dropping the removed and replaced ones.
+     */
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            compactLocked();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Number of nodes in the graph, including removed ones.
+     */
+    int nodeCount() {
+        lock.readLock().lock();
+        try {
+            return nodes.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (nodes.size() - liveCount > nodes.size() * MAX_REMOVED_FRACTION) {
+            compactLocked();
+        }
+    }
+
+    private void compactLocked() {
+        List<Node> previous = new ArrayList<Node>(nodes);
+        nodes.clear();
+        nodeByName.clear();
+        entryPoint = -1;
+        maxLevel = -1;
+        liveCount = 0;
+        for (Node node : previous) {
+            if (!node.deleted) {
+                insertLocked(node.name, node.vector, node.metadata);
+            }
+        }
+    }
+
+    /**
+     * Find images similar to an indexed image, excluding the image itself.
+     */
+    public PagedSearchResult search(SearchParams params) {
+        float[] vector;
+        lock.readLock().lock();
+        try {
+            Integer id = nodeByName.get(params.getImName());
+            if (id == null) {
+                return new PagedSearchResult(ResponseMessages.SEARCH_IMAGE_NOT_FOUND.getMessage(), null, null);
+            }
+            vector = nodes.get(id).vector;
+        } finally {
+            lock.readLock().unlock();
+        }
+        return searchPrepared(vector, params, params.getImName());
+    }
+
+    /**
+     * Find images similar to the im_feature of the params.
+     */
+    public PagedSearchResult search(UploadSearchParams params) {
+        if (Strings.isNullOrEmpty(params.getImFeature())) {
+            return new PagedSearchResult(ResponseMessages.INVALID_IMAGE_SOURCE.getMessage(), null, null);
+        }
+        float[] feature;
+        try {
+            feature = FeatureVectors.toFloatArray(params.getImFeature());
+        } catch (IllegalArgumentException e) {
+            return new PagedSearchResult(ResponseMessages.INVALID_IMAGE_OR_URL.getMessage(), e, null);
+        }
+        return search(feature, params);
+    }
+
+    public PagedSearchResult search(float[] feature, BaseSearchParams<?> params) {
+        if (feature.length != dimension) {
+            return new PagedSearchResult(ResponseMessages.INVALID_IMAGE_OR_URL.getMessage(),
+                    new IllegalArgumentException("feature dimension " + feature.length + " does not match index dimension " + dimension), null);
+        }
+        return searchPrepared(prepare(feature), params, null);
+    }
+
+    private PagedSearchResult searchPrepared(float[] query, BaseSearchParams<?> params, String excludeName) {
+        int page = params.getPage() == null ? DEFAULT_PAGE : Math.max(1, params.getPage());
+        int limit = params.getLimit() == null ? DEFAULT_LIMIT : Math.max(1, params.getLimit());
+        int wanted = page * limit + (excludeName == null ? 0 : 1);
+        List<ImageResult> results = new ArrayList<ImageResult>(limit);
+        int total;
+        lock.readLock().lock();
+        try {
+            total = excludeName == null ? liveCount : liveCount - 1;
+            if (entryPoint >= 0) {
+                int ep = entryPoint;
+                for (int level = maxLevel; level > 0; level--) {
+                    ep = greedyClosest(query, ep, level);
+                }
+                NodeHeap found = searchLayer(query, ep, Math.max(efSearch, wanted), 0, params.getFq(), false);
+                int count = found.size();
+                int[] ids = new int[count];
+                float[] distances = new float[count];
+                // the result heap pops the farthest first
+                for (int i = count - 1; i >= 0; i--) {
+                    distances[i] = -found.peekKey();
+                    ids[i] = found.pop();
+                }
+                int skip = (page - 1) * limit;
+                for (int i = 0; i < count && results.size() < limit; i++) {
+                    Node node = nodes.get(ids[i]);
+                    if (node.name.equals(excludeName)) {
+                        continue;
+                    }
+                    float score = toScore(distances[i]);
+                    if ((params.getScoreMin() != null && score < params.getScoreMin())
+                            || (params.getScoreMax() != null && score > params.getScoreMax())) {
+                        continue;
+                    }
+                    if (skip > 0) {
+                        skip--;
+                        continue;
+                    }
+                    results.add(new ImageResult(node.name, project(node.metadata, params), params.isScore() ? score : null));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        PagedSearchResult result = new PagedSearchResult(results);
+        result.setPage(page);
+        result.setLimit(limit);
+        result.setTotal(Math.max(0, total));
+        return result;
+    }
+
+    private static Map<String, String> project(Map<String, String> metadata, BaseSearchParams<?> params) {
+        if (params.isGetAllFl()) {
+            return metadata;
+        }
+        Map<String, String> projected = new HashMap<String, String>();
+        for (String field : params.getFl()) {
+            String value = metadata.get(field);
+            if (value != null) {
+                projected.put(field, value);
+            }
+        }
+        return projected;
+    }
+
+    // vectors are normalized up front for cosine, so distances reduce to a dot product
+    private float[] prepare(float[] feature) {
+        float[] vector = feature.clone();
+        if (metric == FeatureSimilarity.Metric.COSINE) {
+            FeatureSimilarity.normalize(vector);
+        }
+        return vector;
+    }
+
+    private float distance(float[] a, float[] b) {
+        if (metric == FeatureSimilarity.Metric.L2) {
+            return FeatureSimilarity.squaredL2(a, 0, b, 0, dimension);
+        }
+        return -FeatureSimilarity.dot(a, 0, b, 0, dimension);
+    }
+
+    private float toScore(float distance) {
+        return -distance;
+    }
+
+    private boolean removeLocked(String imName) {
+        Integer id = nodeByName.remove(imName);
+        if (id == null) {
+            return false;
+        }
+        nodes.get(id).deleted = true;
+        liveCount--;
+        return true;
+    }
+
+    private void insertLocked(String imName, float[] vector, Map<String, String> metadata) {
+        int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+        // pick the neighbors before touching the graph, so a failure leaves the index as it was
+        int[][] selected = new int[Math.min(level, maxLevel) + 1][];
+        if (entryPoint >= 0) {
+            int ep = entryPoint;
+            for (int l = maxLevel; l > level; l--) {
+                ep = greedyClosest(vector, ep, l);
+            }
+            for (int l = selected.length - 1; l >= 0; l--) {
+                // removed nodes still carry the graph, so they are linked like live ones
+                NodeHeap found = searchLayer(vector, ep, efConstruction, l, null, true);
+                int count = found.size();
+                int[] candidates = new int[count];
+                float[] distances = new float[count];
+                for (int i = count - 1; i >= 0; i--) {
+                    distances[i] = -found.peekKey();
+                    candidates[i] = found.pop();
+                }
+                selected[l] = selectNeighbors(candidates, distances, count, m);
+                if (count > 0) {
+                    ep = candidates[0];
+                }
+            }
+        }
+        removeLocked(imName);
+        int id = nodes.size();
+        Node node = new Node(imName, vector, metadata, level, m, maxM0);
+        nodes.add(node);
+        nodeByName.put(imName, id);
+        liveCount++;
+        if (entryPoint < 0) {
+            entryPoint = id;
+            maxLevel = level;
+            return;
+        }
+        for (int l = 0; l < selected.length; l++) {
+            int maxM = l == 0 ? maxM0 : m;
+            int[] links = node.neighbors[l];
+            for (int neighbor : selected[l]) {
+                links[++links[0]] = neighbor;
+                connect(neighbor, id, l, maxM);
+            }
+        }
+        if (level > maxLevel) {
+            entryPoint = id;
+            maxLevel = level;
+        }
+    }
+
+    private void connect(int from, int to, int level, int maxM) {
+        Node node = nodes.get(from);
+        int[] links = node.neighbors[level];
+        if (links[0] < maxM) {
+            links[++links[0]] = to;
+            return;
+        }
+        // over capacity: keep the best spread of the existing links plus the new one
+        int count = links[0] + 1;
+        int[] candidates = new int[count];
+        float[] distances = new float[count];
+        for (int i = 0; i < count; i++) {
+            candidates[i] = i < links[0] ? links[i + 1] : to;
+            distances[i] = distance(node.vector, nodes.get(candidates[i]).vector);
+        }
+        sortByDistance(candidates, distances, count);
+        int[] selected = selectNeighbors(candidates, distances, count, maxM);
+        links[0] = selected.length;
+        System.arraycopy(selected, 0, links, 1, selected.length);
+    }
+
+    /**
+     * Neighbor selection heuristic: prefer candidates closer to the base than to any neighbor
+     * already selected, which keeps links spread out, then fill up with the closest pruned ones.
+     * Candidates must be sorted by ascending distance.
+     */
+    private int[] selectNeighbors(int[] candidates, float[] distances, int count, int max) {
+        if (count <= max) {
+            return Arrays.copyOf(candidates, count);
+        }
+        int[] selected = new int[max];
+        int selectedCount = 0;
+        int[] pruned = new int[count];
+        int prunedCount = 0;
+        for (int i = 0; i < count && selectedCount < max; i++) {
+            float[] candidate = nodes.get(candidates[i]).vector;
+            boolean keep = true;
+            for (int j = 0; j < selectedCount && keep; j++) {
+                keep = distance(candidate, nodes.get(selected[j]).vector) >= distances[i];
+            }
+            if (keep) {
+                selected[selectedCount++] = candidates[i];
+            } else {
+                pruned[prunedCount++] = candidates[i];
+            }
+        }
+        for (int i = 0; i < prunedCount && selectedCount < max; i++) {
+            selected[selectedCount++] = pruned[i];
+        }
+        return selectedCount == max ? selected : Arrays.copyOf(selected, selectedCount);
+    }
+
+    private static void sortByDistance(int[] ids, float[] distances, int count) {
+        for (int i = 1; i < count; i++) {
+            int id = ids[i];
+            float distance = distances[i];
+            int j = i - 1;
+            while (j >= 0 && distances[j] > distance) {
+                ids[j + 1] = ids[j];
+                distances[j + 1] = distances[j];
+                j--;
+            }
+            ids[j + 1] = id;
+            distances[j + 1] = distance;
+        }
+    }
+
+    private int greedyClosest(float[] query, int ep, int level) {
+        float best = distance(query, nodes.get(ep).vector);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] links = nodes.get(ep).neighbors[level];
+            for (int i = 1; i <= links[0]; i++) {
+                float d = distance(query, nodes.get(links[i]).vector);
+                if (d < best) {
+                    best = d;
+                    ep = links[i];
+                    changed = true;
+                }
+            }
+        }
+        return ep;
+    }
+
+    /**
+     * Beam search on one layer. Nodes not matching the filter, and removed nodes unless included,
+     * are traversed but not returned. The returned heap pops the farthest result first, keyed by
+     * negated distance.
+     */
+    private NodeHeap searchLayer(float[] query, int ep, int ef, int level, Map<String, String> filter, boolean includeRemoved) {
+        VisitedSet visited = visitedSets.get();
+        visited.begin(nodes.size());
+        NodeHeap candidates = new NodeHeap(ef * 2);
+        NodeHeap results = new NodeHeap(ef + 1);
+        float d = distance(query, nodes.get(ep).vector);
+        visited.visit(ep);
+        candidates.push(ep, d);
+        if (accept(ep, filter, includeRemoved)) {
+            results.push(ep, -d);
+        }
+        while (candidates.size() > 0) {
+            float candidateDistance = candidates.peekKey();
+            if (results.size() >= ef && candidateDistance > -results.peekKey()) {
+                break;
+            }
+            int candidate = candidates.pop();
+            int[] links = nodes.get(candidate).neighbors[level];
+            for (int i = 1; i <= links[0]; i++) {
+                int neighbor = links[i];
+                if (!visited.visit(neighbor)) {
+                    continue;
+                }
+                float neighborDistance = distance(query, nodes.get(neighbor).vector);
+                if (results.size() < ef || neighborDistance < -results.peekKey()) {
+                    candidates.push(neighbor, neighborDistance);
+                    if (accept(neighbor, filter, includeRemoved)) {
+                        results.push(neighbor, -neighborDistance);
+                        if (results.size() > ef) {
+                            results.pop();
+                        }
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private boolean accept(int id, Map<String, String> filter, boolean includeRemoved) {
+        Node node = nodes.get(id);
+        if (node.deleted && !includeRemoved) {
+            return false;
+        }
+        if (filter != null) {
+            for (Map.Entry<String, String> entry : filter.entrySet()) {
+                if (!entry.getValue().equals(node.metadata.get(entry.getKey()))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write the index to a file. The file is written next to the target and renamed into place,
+     * so a concurrent {@link #load(File)} never sees a partial index.
+     */
+    public void save(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        lock.readLock().lock();
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 256 * 1024));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(dimension);
+                out.writeInt(metric.ordinal());
+                out.writeInt(m);
+                out.writeInt(efConstruction);
+                out.writeInt(entryPoint);
+                out.writeInt(maxLevel);
+                out.writeInt(nodes.size());
+                for (Node node : nodes) {
+                    out.writeByte(node.deleted ? 1 : 0);
+                    writeString(out, node.name);
+                    out.writeInt(node.metadata.size());
+                    for (Map.Entry<String, String> entry : node.metadata.entrySet()) {
+                        writeString(out, entry.getKey());
+                        writeString(out, entry.getValue());
+                    }
+                    for (float value : node.vector) {
+                        out.writeFloat(value);
+                    }
+                    out.writeInt(node.neighbors.length);
+                    for (int[] links : node.neighbors) {
+                        out.writeInt(links[0]);
+                        for (int i = 1; i <= links[0]; i++) {
+                            out.writeInt(links[i]);
+                        }
+                    }
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Files.move(tmp, file);
+    }
+
+    /**
+     * Load an index written by {@link #save(File)}. The file is read through a memory mapping but
+     * the index is copied onto the heap, so the file can be replaced while the index is in use.
+     */
+    public static HnswIndex load(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            Preconditions.checkArgument(channel.size() <= Integer.MAX_VALUE, "index file too large to map: %s", file);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 36 || buffer.getInt() != MAGIC) {
+                throw new IOException("Not an index file: " + file);
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported index file version " + version + ": " + file);
+            }
+            int dimension = buffer.getInt();
+            FeatureSimilarity.Metric metric = FeatureSimilarity.Metric.values()[buffer.getInt()];
+            int m = buffer.getInt();
+            int efConstruction = buffer.getInt();
+            HnswIndex index = new HnswIndex(dimension, metric, m, efConstruction);
+            index.entryPoint = buffer.getInt();
+            index.maxLevel = buffer.getInt();
+            int count = buffer.getInt();
+            for (int id = 0; id < count; id++) {
+                boolean deleted = buffer.get() == 1;
+                String name = readString(buffer);
+                int metadataCount = buffer.getInt();
+                Map<String, String> metadata = new HashMap<String, String>(metadataCount * 2);
+                for (int i = 0; i < metadataCount; i++) {
+                    metadata.put(readString(buffer), readString(buffer));
+                }
+                float[] vector = new float[dimension];
+                buffer.asFloatBuffer().get(vector);
+                buffer.position(buffer.position() + dimension * 4);
+                int levels = buffer.getInt();
+                Node node = new Node(name, vector, Collections.unmodifiableMap(metadata), levels - 1, m, 2 * m);
+                for (int level = 0; level < levels; level++) {
+                    int linkCount = buffer.getInt();
+                    int[] links = node.neighbors[level];
+                    links[0] = linkCount;
+                    for (int i = 1; i <= linkCount; i++) {
+                        links[i] = buffer.getInt();
+                    }
+                }
+                node.deleted = deleted;
+                index.nodes.add(node);
+                if (!deleted) {
+                    index.nodeByName.put(name, id);
+                    index.liveCount++;
+                }
+            }
+            return index;
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupted index file: " + file, e);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(Charsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    private static class Node {
+
+        private final String name;
+        private final float[] vector;
+        private final Map<String, String> metadata;
+        // links per level, the first element of each array holds the link count
+        private final int[][] neighbors;
+        private boolean deleted;
+
+        Node(String name, float[] vector, Map<String, String> metadata, int level, int m, int maxM0) {
+            this.name = name;
+            this.vector = vector;
+            this.metadata = metadata;
+            this.neighbors = new int[level + 1][];
+            for (int l = 0; l <= level; l++) {
+                neighbors[l] = new int[(l == 0 ? maxM0 : m) + 1];
+            }
+        }
+    }
+
+    /**
+     * Binary min-heap of node ids keyed by float.
+     */
+    private static class NodeHeap {
+
+        private int[] ids;
+        private float[] keys;
+        private int size;
+
+        NodeHeap(int capacity) {
+            ids = new int[Math.max(capacity, 4)];
+            keys = new float[ids.length];
+        }
+
+        int size() {
+            return size;
+        }
+
+        float peekKey() {
+            return keys[0];
+        }
+
+        void push(int id, float key) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (keys[parent] <= key) {
+                    break;
+                }
+                ids[i] = ids[parent];
+                keys[i] = keys[parent];
+                i = parent;
+            }
+            ids[i] = id;
+            keys[i] = key;
+        }
+
+        int pop() {
+            int top = ids[0];
+            size--;
+            int id = ids[size];
+            float key = keys[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && keys[child + 1] < keys[child]) {
+                    child++;
+                }
+                if (key <= keys[child]) {
+                    break;
+                }
+                ids[i] = ids[child];
+                keys[i] = keys[child];
+                i = child;
+            }
+            ids[i] = id;
+            keys[i] = key;
+            return top;
+        }
+    }
+
+    /**
+     * Per thread visited marks, cleared in constant time by bumping the epoch.
+     */
+    private static class VisitedSet {
+
+        private int[] marks = new int[0];
+        private int epoch;
+
+        void begin(int size) {
+            if (marks.length < size) {
+                marks = new int[Math.max(size, marks.length * 2)];
+                epoch = 0;
+            }
+            epoch++;
+            if (epoch == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                epoch = 1;
+            }
+        }
+
+        boolean visit(int id) {
+            if (marks[id] == epoch) {
+                return false;
+            }
+            marks[id] = epoch;
+            return true;
+        }
+    }
+}
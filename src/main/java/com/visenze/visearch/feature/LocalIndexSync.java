@@ -0,0 +1,190 @@
+package com.visenze.visearch.feature;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.visenze.visearch.FeatureResponseResult;
+import com.visenze.visearch.Image;
+import com.visenze.visearch.InsertError;
+import com.visenze.visearch.InsertTrans;
+import com.visenze.visearch.RemoveStatus;
+import com.visenze.visearch.UploadSearchParams;
+import com.visenze.visearch.internal.SearchOperations;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a {@link HnswIndex} in step with the data operations of a ViSearch app.
+ *
+ * Images accepted by /insert are extracted by im_url and added with their metadata, images
+ * removed by /remove are removed from the index. Extraction runs on the given executor, by
+ * default a single background thread, so the index trails the app by the extraction latency.
+ * An extraction still running when its image is removed or inserted again is dropped, so the
+ * index ends up with the latest operation on every image.
+ */
+public class LocalIndexSync {
+
+    private final HnswIndex index;
+    private final SearchOperations searchOperations;
+    private final Executor executor;
+    private final boolean ownExecutor;
+    // ticket of the latest insert of each image whose extraction has not been applied yet
+    private final Map<String, Long> pending = new HashMap<String, Long>();
+    private final AtomicLong failureCount = new AtomicLong();
+    private long nextTicket;
+    private boolean shutdown;
+    private volatile String lastFailure;
+
+    public LocalIndexSync(HnswIndex index, SearchOperations searchOperations) {
+        this(index, searchOperations, Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("visearch-local-index-%d")
+                .build()), true);
+    }
+
+    public LocalIndexSync(HnswIndex index, SearchOperations searchOperations, Executor executor) {
+        this(index, searchOperations, executor, false);
+    }
+
+    private LocalIndexSync(HnswIndex index, SearchOperations searchOperations, Executor executor, boolean ownExecutor) {
+        this.index = Preconditions.checkNotNull(index, "index must not be null");
+        this.searchOperations = Preconditions.checkNotNull(searchOperations, "search operations must not be null");
+        this.executor = Preconditions.checkNotNull(executor, "executor must not be null");
+        this.ownExecutor = ownExecutor;
+    }
+
+    public HnswIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Number of accepted images that could not be added to the index, e.g. because their
+     * extraction failed.
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * The im_name and error of the latest image that could not be added, null if none.
+     */
+    public String getLastFailure() {
+        return lastFailure;
+    }
+
+    public void onInsert(List<Image> imageList, InsertTrans insertTrans) {
+        if (imageList == null || insertTrans == null || insertTrans.getErrorMessage() != null) {
+            return;
+        }
+        Set<String> failed = new HashSet<String>();
+        if (insertTrans.getErrorList() != null) {
+            for (InsertError error : insertTrans.getErrorList()) {
+                failed.add(error.getImName());
+            }
+        }
+        for (final Image image : imageList) {
+            if (image == null || image.getImUrl() == null || failed.contains(image.getImName())) {
+                continue;
+            }
+            final long ticket;
+            synchronized (this) {
+                if (shutdown) {
+                    return;
+                }
+                ticket = nextTicket++;
+                pending.put(image.getImName(), ticket);
+            }
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        add(image, ticket);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // shut down meanwhile: drop the image like the pending ones
+                synchronized (this) {
+                    pending.clear();
+                }
+                return;
+            }
+        }
+    }
+
+    public void onRemove(List<String> imNameList, RemoveStatus removeStatus) {
+        if (imNameList == null || removeStatus == null || removeStatus.getErrorMessage() != null) {
+            return;
+        }
+        for (String imName : imNameList) {
+            synchronized (this) {
+                pending.remove(imName);
+                index.remove(imName);
+            }
+        }
+    }
+
+    /**
+     * Stop syncing: pending extractions are dropped and the default executor is shut down. An
+     * executor given to the constructor is left running.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            pending.clear();
+        }
+        if (ownExecutor) {
+            ((ExecutorService) executor).shutdownNow();
+        }
+    }
+
+    private void add(Image image, long ticket) {
+        String imName = image.getImName();
+        synchronized (this) {
+            if (!isLatest(imName, ticket)) {
+                return;
+            }
+        }
+        try {
+            FeatureResponseResult result = searchOperations.extractFeature(new UploadSearchParams(image.getImUrl()));
+            if (result.getErrorMessage() != null) {
+                fail(imName, ticket, result.getErrorMessage());
+            } else if (result.getResult() == null || result.getResult().isEmpty()) {
+                fail(imName, ticket, "No feature extracted.");
+            } else {
+                synchronized (this) {
+                    // removed or inserted again while extracting
+                    if (isLatest(imName, ticket)) {
+                        pending.remove(imName);
+                        index.add(imName, result.getResult().get(0), image.getMetadata());
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            // e.g. a network error, or a feature of another model or dimension: leave the index unchanged
+            fail(imName, ticket, e.toString());
+        }
+    }
+
+    private boolean isLatest(String imName, long ticket) {
+        Long latest = pending.get(imName);
+        return latest != null && latest == ticket;
+    }
+
+    private void fail(String imName, long ticket, String error) {
+        synchronized (this) {
+            if (isLatest(imName, ticket)) {
+                pending.remove(imName);
+            }
+        }
+        failureCount.incrementAndGet();
+        lastFailure = imName + ": " + error;
+    }
+}
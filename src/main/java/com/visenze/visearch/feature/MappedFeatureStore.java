@@ -0,0 +1,691 @@
+package com.visenze.visearch.feature;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Closeables;
+import com.visenze.visearch.FeatureResponseResult;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Feature vectors keyed by im_name, held off heap in memory-mapped files.
+ *
+ * A store is a directory of files:
+ * <ul>
+ * <li><code>meta.dat</code>: dimension, segment size, record count and names length</li>
+ * <li><code>segment-NNNNN.dat</code>: fixed size records <code>[long name hash][long name offset][float * dimension]</code>,
+ * little endian, so a base 64 feature decodes straight into its record</li>
+ * <li><code>names.dat</code>: the im_names, <code>[int length][utf-8 bytes]</code></li>
+ * <li><code>index-N.dat</code>: open addressing hash table from name hash to record, rebuilt on open</li>
+ * </ul>
+ * Putting an existing im_name appends a new record and tombstones the old one, so the store only
+ * grows; scans skip tombstoned records. The record count is published after the record is written
+ * and the old record is tombstoned after that, which leaves the store consistent if the process dies
+ * mid append: the new record is either not counted, or it is the last record of its im_name, which
+ * wins when the index is rebuilt on open.
+ *
+ * The heap cost per vector is zero; the operating system pages vectors in and out as needed, so a
+ * single node can scan tens of millions of vectors. Reads run concurrently, writes are exclusive.
+ */
+public class MappedFeatureStore implements Closeable {
+
+    private static final int MAGIC = 0x5653464d; // "VSFM"
+    private static final int VERSION = 1;
+    private static final int META_SIZE = 32;
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final int INDEX_SLOT_SIZE = 12;
+    private static final int MIN_INDEX_CAPACITY = 1024;
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+    private static final long REMOVED = -1L;
+
+    private final File directory;
+    private final int dimension;
+    private final int recordSize;
+    private final int recordsPerSegment;
+    private final RandomAccessFile metaFile;
+    private final MappedByteBuffer meta;
+    private final RandomAccessFile namesFile;
+    private final FileChannel names;
+    private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private long count;
+    private long namesLength;
+    private long liveCount;
+    // index slot of the record replaced by the one being written, and the names length before it
+    private int replacedSlot = -1;
+    private long uncommittedNamesLength;
+
+    private File indexPath;
+    private ByteBuffer index;
+    private int indexCapacity;
+    private int indexUsed;
+
+    private MappedFeatureStore(File directory, int dimension, int recordsPerSegment,
+                               RandomAccessFile metaFile, MappedByteBuffer meta) throws IOException {
+        this.directory = directory;
+        this.dimension = dimension;
+        this.recordSize = RECORD_HEADER_SIZE + dimension * 4;
+        this.recordsPerSegment = recordsPerSegment;
+        this.metaFile = metaFile;
+        this.meta = meta;
+        this.count = meta.getLong(16);
+        this.namesLength = meta.getLong(24);
+        this.namesFile = new RandomAccessFile(new File(directory, "names.dat"), "rw");
+        this.names = namesFile.getChannel();
+        try {
+            // drop names written after the last published record
+            namesFile.setLength(namesLength);
+        } catch (IOException e) {
+            namesFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open a store, creating it if the directory holds none, with segments of up to 1 GB.
+     */
+    public static MappedFeatureStore open(File directory, int dimension) throws IOException {
+        return open(directory, dimension, (int) Math.max(1, MAX_SEGMENT_BYTES / (RECORD_HEADER_SIZE + dimension * 4L)));
+    }
+
+    /**
+     * Open a store, creating it if the directory holds none.
+     *
+     * @param recordsPerSegment number of vectors per segment file, only used when creating the store
+     */
+    public static MappedFeatureStore open(File directory, int dimension, int recordsPerSegment) throws IOException {
+        Preconditions.checkArgument(dimension > 0, "dimension must be positive");
+        Preconditions.checkArgument(recordsPerSegment > 0, "records per segment must be positive");
+        Preconditions.checkArgument((long) recordsPerSegment * (RECORD_HEADER_SIZE + dimension * 4L) <= Integer.MAX_VALUE,
+                "segment larger than 2 GB");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create feature store directory: " + directory);
+        }
+        File metaPath = new File(directory, "meta.dat");
+        boolean exists = metaPath.isFile() && metaPath.length() >= META_SIZE;
+        RandomAccessFile metaFile = new RandomAccessFile(metaPath, "rw");
+        MappedFeatureStore store = null;
+        try {
+            MappedByteBuffer meta = metaFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, META_SIZE);
+            if (exists) {
+                if (meta.getInt(0) != MAGIC) {
+                    throw new IOException("Not a feature store: " + directory);
+                }
+                if (meta.getInt(4) != VERSION) {
+                    throw new IOException("Unsupported feature store version " + meta.getInt(4) + ": " + directory);
+                }
+                if (meta.getInt(8) != dimension) {
+                    throw new IOException("Feature store dimension " + meta.getInt(8) + " does not match " + dimension);
+                }
+                recordsPerSegment = meta.getInt(12);
+            } else {
+                meta.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, dimension).putInt(12, recordsPerSegment)
+                        .putLong(16, 0L).putLong(24, 0L);
+            }
+            MappedFeatureStore opened = new MappedFeatureStore(directory, dimension, recordsPerSegment, metaFile, meta);
+            try {
+                opened.rebuildIndex();
+            } finally {
+                if (opened.index == null) {
+                    // also closes the meta file
+                    Closeables.close(opened, true);
+                }
+            }
+            store = opened;
+            return store;
+        } finally {
+            if (store == null) {
+                metaFile.close();
+            }
+        }
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * Number of stored vectors, not counting replaced or removed ones.
+     */
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return liveCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Number of records including replaced and removed ones, the bound of record numbers passed to
+     * {@link #getName(long)} and {@link #get(long, float[])}.
+     */
+    public long recordCount() {
+        lock.readLock().lock();
+        try {
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(String imName) {
+        lock.readLock().lock();
+        try {
+            return find(imName) >= 0;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void put(String imName, float[] vector) throws IOException {
+        Preconditions.checkArgument(vector.length == dimension, "feature dimension %s does not match store dimension %s",
+                vector.length, dimension);
+        lock.writeLock().lock();
+        try {
+            ByteBuffer record = beginRecord(imName);
+            for (float value : vector) {
+                record.putFloat(value);
+            }
+            commitRecord();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Store a base 64 feature as returned by extractFeature, decoding it in place.
+     */
+    public void put(String imName, String feature) throws IOException {
+        Preconditions.checkArgument(FeatureVectors.dimension(feature) == dimension,
+                "feature dimension %s does not match store dimension %s", FeatureVectors.dimension(feature), dimension);
+        lock.writeLock().lock();
+        try {
+            ByteBuffer record = beginRecord(imName);
+            try {
+                FeatureVectors.decode(feature, record);
+            } catch (RuntimeException e) {
+                // invalid base 64: the stored vector stays as it was
+                abortRecord();
+                throw e;
+            }
+            commitRecord();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Store the first feature of an extractFeature result.
+     *
+     * @return false if the result is an error or holds no feature
+     */
+    public boolean put(String imName, FeatureResponseResult result) throws IOException {
+        if (result.getErrorMessage() != null || result.getResult() == null || result.getResult().isEmpty()) {
+            return false;
+        }
+        put(imName, result.getResult().get(0));
+        return true;
+    }
+
+    /**
+     * Copy the vector of an im_name into the target array.
+     *
+     * @return false if the im_name is not stored
+     */
+    public boolean get(String imName, float[] target) {
+        lock.readLock().lock();
+        try {
+            long record = find(imName);
+            if (record < 0) {
+                return false;
+            }
+            readVector(record, target);
+            return true;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the vector of an im_name, or null if it is not stored
+     */
+    public float[] get(String imName) {
+        float[] vector = new float[dimension];
+        return get(imName, vector) ? vector : null;
+    }
+
+    /**
+     * Copy the vector of a record into the target array.
+     *
+     * @return false if the record was replaced or removed
+     */
+    public boolean get(long record, float[] target) {
+        lock.readLock().lock();
+        try {
+            Preconditions.checkArgument(record >= 0 && record < count, "record %s out of range", record);
+            if (recordBuffer(record).getLong(recordOffset(record) + 8) == REMOVED) {
+                return false;
+            }
+            readVector(record, target);
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the im_name of a record, or null if the record was replaced or removed
+     */
+    public String getName(long record) {
+        lock.readLock().lock();
+        try {
+            Preconditions.checkArgument(record >= 0 && record < count, "record %s out of range", record);
+            long nameOffset = recordBuffer(record).getLong(recordOffset(record) + 8);
+            return nameOffset == REMOVED ? null : readName(nameOffset);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean remove(String imName) throws IOException {
+        lock.writeLock().lock();
+        try {
+            int slot = findSlot(imName);
+            if (slot < 0) {
+                return false;
+            }
+            long record = index.getInt(slot * INDEX_SLOT_SIZE + 8) - 1L;
+            recordBuffer(record).putLong(recordOffset(record) + 8, REMOVED);
+            // keep the slot occupied so probing continues past it
+            index.putInt(slot * INDEX_SLOT_SIZE + 8, -1);
+            liveCount--;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Visitor of stored vectors for a sequential scan.
+     */
+    public interface Visitor {
+
+        /**
+         * @param record the record number, see {@link #getName(long)}
+         * @param vector a view positioned on the vector, only valid during the call
+         */
+        void visit(long record, FloatBuffer vector);
+    }
+
+    /**
+     * Visit every stored vector in record order, without copying it on heap.
+     */
+    public void scan(Visitor visitor) {
+        lock.readLock().lock();
+        try {
+            long record = 0;
+            for (int s = 0; s < segments.size() && record < count; s++) {
+                ByteBuffer segment = segments.get(s);
+                FloatBuffer floats = segment.duplicate().order(FeatureVectors.DEFAULT_BYTE_ORDER).asFloatBuffer();
+                int floatsPerRecord = recordSize / 4;
+                for (int i = 0; i < recordsPerSegment && record < count; i++, record++) {
+                    int offset = i * recordSize;
+                    if (segment.getLong(offset + 8) == REMOVED) {
+                        continue;
+                    }
+                    int start = i * floatsPerRecord + RECORD_HEADER_SIZE / 4;
+                    floats.limit(start + dimension).position(start);
+                    visitor.visit(record, floats);
+                    floats.limit(floats.capacity());
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Brute-force search over every stored vector. The indices kept in <code>topK</code> are
+     * record numbers, resolved with {@link #getName(long)}.
+     */
+    public void topK(final FeatureSimilarity.Metric metric, final float[] query, final TopK topK) {
+        Preconditions.checkArgument(query.length == dimension, "query dimension %s does not match store dimension %s",
+                query.length, dimension);
+        topK.reset();
+        final float queryNorm = metric == FeatureSimilarity.Metric.COSINE ? FeatureSimilarity.norm(query) : 0f;
+        scan(new Visitor() {
+            @Override
+            public void visit(long record, FloatBuffer vector) {
+                topK.offer((int) record, FeatureSimilarity.score(metric, query, queryNorm, vector));
+            }
+        });
+    }
+
+    /**
+     * Force written vectors to the storage device.
+     */
+    public void force() throws IOException {
+        lock.writeLock().lock();
+        try {
+            for (ByteBuffer segment : segments) {
+                ((MappedByteBuffer) segment).force();
+            }
+            names.force(false);
+            meta.force();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            meta.force();
+            namesFile.close();
+            metaFile.close();
+            if (indexPath != null) {
+                indexPath.delete();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Write the record header and return the segment positioned on the vector. The caller writes
+     * the vector and calls {@link #commitRecord()}, or {@link #abortRecord()} if that fails; a
+     * previous record of the im_name is only replaced on commit.
+     */
+    private ByteBuffer beginRecord(String imName) throws IOException {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(imName), "im_name must not be null or empty");
+        Preconditions.checkState(count < Integer.MAX_VALUE, "feature store is full");
+        long hash = hash(imName);
+        replacedSlot = findSlot(imName);
+        uncommittedNamesLength = namesLength;
+        long nameOffset = appendName(imName);
+        ByteBuffer segment = recordBuffer(count);
+        int offset = recordOffset(count);
+        segment.putLong(offset, hash);
+        segment.putLong(offset + 8, nameOffset);
+        ByteBuffer record = segment.duplicate().order(FeatureVectors.DEFAULT_BYTE_ORDER);
+        record.limit(offset + recordSize).position(offset + RECORD_HEADER_SIZE);
+        return record;
+    }
+
+    private void commitRecord() {
+        long previous = -1;
+        if (replacedSlot >= 0) {
+            previous = index.getInt(replacedSlot * INDEX_SLOT_SIZE + 8) - 1L;
+            index.putInt(replacedSlot * INDEX_SLOT_SIZE + 8, -1);
+            liveCount--;
+            replacedSlot = -1;
+        }
+        long record = count;
+        ByteBuffer segment = recordBuffer(record);
+        insertIndex(segment.getLong(recordOffset(record)), record);
+        count++;
+        liveCount++;
+        meta.putLong(24, namesLength);
+        meta.putLong(16, count);
+        // only once the new record is published, so a crash never loses both
+        if (previous >= 0) {
+            recordBuffer(previous).putLong(recordOffset(previous) + 8, REMOVED);
+        }
+    }
+
+    /**
+     * Drop the record being written; it lies past the committed count, so it is overwritten by the
+     * next one.
+     */
+    private void abortRecord() {
+        namesLength = uncommittedNamesLength;
+        replacedSlot = -1;
+    }
+
+    private long appendName(String imName) throws IOException {
+        byte[] bytes = imName.getBytes(Charsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + bytes.length);
+        buffer.putInt(bytes.length).put(bytes).flip();
+        long offset = namesLength;
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            position += names.write(buffer, position);
+        }
+        namesLength = position;
+        return offset;
+    }
+
+    private String readName(long offset) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(length, offset);
+        ByteBuffer bytes = ByteBuffer.allocate(length.getInt(0));
+        readFully(bytes, offset + 4);
+        return new String(bytes.array(), Charsets.UTF_8);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = names.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Truncated names file in feature store: " + directory);
+            }
+            position += read;
+        }
+    }
+
+    private void readVector(long record, float[] target) {
+        ByteBuffer segment = recordBuffer(record);
+        int offset = recordOffset(record) + RECORD_HEADER_SIZE;
+        for (int i = 0; i < dimension; i++) {
+            target[i] = segment.getFloat(offset + (i << 2));
+        }
+    }
+
+    private ByteBuffer recordBuffer(long record) {
+        int segmentIndex = (int) (record / recordsPerSegment);
+        while (segments.size() <= segmentIndex) {
+            segments.add(mapSegment(segments.size()));
+        }
+        return segments.get(segmentIndex);
+    }
+
+    private int recordOffset(long record) {
+        return (int) (record % recordsPerSegment) * recordSize;
+    }
+
+    private ByteBuffer mapSegment(int segmentIndex) {
+        File path = new File(directory, String.format("segment-%05d.dat", segmentIndex));
+        try {
+            RandomAccessFile file = new RandomAccessFile(path, "rw");
+            try {
+                // the mapping stays valid after the file is closed
+                return file.getChannel()
+                        .map(FileChannel.MapMode.READ_WRITE, 0, (long) recordsPerSegment * recordSize)
+                        .order(FeatureVectors.DEFAULT_BYTE_ORDER);
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not map feature store segment " + path, e);
+        }
+    }
+
+    private static long hash(String imName) {
+        return Hashing.murmur3_128().hashString(imName, Charsets.UTF_8).asLong();
+    }
+
+    private long find(String imName) throws IOException {
+        int slot = findSlot(imName);
+        return slot < 0 ? -1 : index.getInt(slot * INDEX_SLOT_SIZE + 8) - 1L;
+    }
+
+    /**
+     * @return the index slot holding the live record of the im_name, or -1
+     */
+    private int findSlot(String imName) throws IOException {
+        long hash = hash(imName);
+        int mask = indexCapacity - 1;
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            int position = slot * INDEX_SLOT_SIZE;
+            int entry = index.getInt(position + 8);
+            if (entry == 0) {
+                return -1;
+            }
+            if (entry > 0 && index.getLong(position) == hash) {
+                long record = entry - 1L;
+                long nameOffset = recordBuffer(record).getLong(recordOffset(record) + 8);
+                if (imName.equals(readName(nameOffset))) {
+                    return slot;
+                }
+            }
+        }
+    }
+
+    private void insertIndex(long hash, long record) {
+        if ((indexUsed + 1) * 10L > indexCapacity * 6L) {
+            resizeIndex(indexCapacity * 2);
+        }
+        putSlot(index, indexCapacity, hash, record);
+        indexUsed++;
+    }
+
+    private static void putSlot(ByteBuffer table, int capacity, long hash, long record) {
+        int mask = capacity - 1;
+        int slot = spread(hash) & mask;
+        while (table.getInt(slot * INDEX_SLOT_SIZE + 8) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table.putLong(slot * INDEX_SLOT_SIZE, hash);
+        table.putInt(slot * INDEX_SLOT_SIZE + 8, (int) (record + 1));
+    }
+
+    private static int spread(long hash) {
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * Index every live record. A crash between publishing a replacing record and tombstoning the
+     * one it replaced leaves two live records of an im_name; the last one is kept.
+     */
+    private void rebuildIndex() throws IOException {
+        for (File stale : directory.listFiles()) {
+            if (stale.getName().startsWith("index-")) {
+                stale.delete();
+            }
+        }
+        int capacity = MIN_INDEX_CAPACITY;
+        while (capacity * 6L < count * 10L) {
+            capacity <<= 1;
+        }
+        ByteBuffer table = mapIndex(capacity);
+        int used = 0;
+        long live = 0;
+        for (long record = 0; record < count; record++) {
+            ByteBuffer segment = recordBuffer(record);
+            int offset = recordOffset(record);
+            long nameOffset = segment.getLong(offset + 8);
+            if (nameOffset == REMOVED) {
+                continue;
+            }
+            long hash = segment.getLong(offset);
+            int replaced = findDuplicateSlot(table, capacity, hash, nameOffset);
+            if (replaced >= 0) {
+                long previous = table.getInt(replaced * INDEX_SLOT_SIZE + 8) - 1L;
+                recordBuffer(previous).putLong(recordOffset(previous) + 8, REMOVED);
+                table.putInt(replaced * INDEX_SLOT_SIZE + 8, (int) (record + 1));
+            } else {
+                putSlot(table, capacity, hash, record);
+                used++;
+                live++;
+            }
+        }
+        index = table;
+        indexCapacity = capacity;
+        indexUsed = used;
+        liveCount = live;
+    }
+
+    /**
+     * @return the slot of a table being rebuilt that holds a record of the im_name at the name
+     * offset, or -1; names are only read on a hash match
+     */
+    private int findDuplicateSlot(ByteBuffer table, int capacity, long hash, long nameOffset) throws IOException {
+        int mask = capacity - 1;
+        String imName = null;
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+            int position = slot * INDEX_SLOT_SIZE;
+            int entry = table.getInt(position + 8);
+            if (entry == 0) {
+                return -1;
+            }
+            if (table.getLong(position) == hash) {
+                if (imName == null) {
+                    imName = readName(nameOffset);
+                }
+                long record = entry - 1L;
+                if (imName.equals(readName(recordBuffer(record).getLong(recordOffset(record) + 8)))) {
+                    return slot;
+                }
+            }
+        }
+    }
+
+    private void resizeIndex(int capacity) {
+        File oldPath = indexPath;
+        ByteBuffer table = mapIndex(capacity);
+        int used = 0;
+        for (int slot = 0; slot < indexCapacity; slot++) {
+            int entry = index.getInt(slot * INDEX_SLOT_SIZE + 8);
+            if (entry > 0) {
+                putSlot(table, capacity, index.getLong(slot * INDEX_SLOT_SIZE), entry - 1L);
+                used++;
+            }
+        }
+        index = table;
+        indexCapacity = capacity;
+        indexUsed = used;
+        if (oldPath != null) {
+            oldPath.delete();
+        }
+    }
+
+    private ByteBuffer mapIndex(int capacity) {
+        Preconditions.checkState((long) capacity * INDEX_SLOT_SIZE <= Integer.MAX_VALUE, "feature store index is full");
+        File path = new File(directory, "index-" + capacity + ".dat");
+        try {
+            RandomAccessFile file = new RandomAccessFile(path, "rw");
+            try {
+                file.setLength(0);
+                ByteBuffer table = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * INDEX_SLOT_SIZE);
+                indexPath = path;
+                return table;
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not map feature store index " + path, e);
+        }
+    }
+}
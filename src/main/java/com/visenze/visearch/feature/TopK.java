@@ -0,0 +1,127 @@
+package com.visenze.visearch.feature;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Keeps the k highest scoring indices seen, backed by a primitive min-heap so offering a score
+ * never allocates. One instance can be {@link #reset()} and reused across queries.
+ */
+public class TopK {
+
+    private final int capacity;
+    private final int[] indices;
+    private final float[] scores;
+    private int size;
+
+    public TopK(int k) {
+        Preconditions.checkArgument(k > 0, "k must be positive");
+        this.capacity = k;
+        this.indices = new int[k];
+        this.scores = new float[k];
+    }
+
+    public void reset() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Lowest score currently kept, the bar a new score has to pass once the heap is full.
+     */
+    public float threshold() {
+        return size < capacity ? Float.NEGATIVE_INFINITY : scores[0];
+    }
+
+    /**
+     * @return true if the index was kept
+     */
+    public boolean offer(int index, float score) {
+        if (size < capacity) {
+            indices[size] = index;
+            scores[size] = score;
+            siftUp(size++);
+            return true;
+        }
+        if (score <= scores[0]) {
+            return false;
+        }
+        indices[0] = index;
+        scores[0] = score;
+        siftDown(0);
+        return true;
+    }
+
+    /**
+     * Sort the kept entries by descending score. Afterwards {@link #index(int)} and
+     * {@link #score(int)} return them in rank order; offering again requires a {@link #reset()}.
+     *
+     * @return the number of kept entries
+     */
+    public int sort() {
+        // heap sort in place: repeatedly move the minimum to the end of the shrinking heap
+        int n = size;
+        for (int end = n - 1; end > 0; end--) {
+            swap(0, end);
+            size = end;
+            siftDown(0);
+        }
+        size = n;
+        return n;
+    }
+
+    public int index(int rank) {
+        Preconditions.checkElementIndex(rank, size);
+        return indices[rank];
+    }
+
+    public float score(int rank) {
+        Preconditions.checkElementIndex(rank, size);
+        return scores[rank];
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (scores[parent] <= scores[i]) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) {
+                return;
+            }
+            int smallest = left;
+            int right = left + 1;
+            if (right < size && scores[right] < scores[left]) {
+                smallest = right;
+            }
+            if (scores[i] <= scores[smallest]) {
+                return;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int index = indices[a];
+        indices[a] = indices[b];
+        indices[b] = index;
+        float score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+}
@@ -8,6 +8,9 @@ import com.fasterxml.jackson.databind.type.TypeFactory;
 import com.visenze.visearch.*;
 import com.visenze.visearch.internal.constant.ViSearchHttpConstants;
 import com.visenze.visearch.internal.http.ViSearchHttpClient;
+import com.visenze.visearch.internal.http.ViSearchHttpResponse;
+import com.visenze.visearch.metrics.RequestTimeline;
+import com.visenze.visearch.metrics.ViSearchMetrics;
 
 import java.io.IOException;
 import java.util.*;
@@ -16,10 +19,51 @@ class BaseViSearchOperations {
 
     final ViSearchHttpClient viSearchHttpClient;
     final ObjectMapper objectMapper;
+    final ViSearchMetrics metrics;
 
     BaseViSearchOperations(ViSearchHttpClient viSearchHttpClient, ObjectMapper objectMapper) {
+        this(viSearchHttpClient, objectMapper, new ClientConfig());
+    }
+
+    BaseViSearchOperations(ViSearchHttpClient viSearchHttpClient, ObjectMapper objectMapper, ClientConfig clientConfig) {
         this.viSearchHttpClient = viSearchHttpClient;
         this.objectMapper = objectMapper;
+        this.metrics = clientConfig.getMetrics();
+    }
+
+    /**
+     * Count an error result of an endpoint, by its {@link ResponseMessages} category where it has one.
+     */
+    void recordError(String endpoint, InternalViSearchException e) {
+        metrics.error(endpoint, ResponseMessages.fromMessage(e.getMessage()));
+    }
+
+    /**
+     * Note the type and size of a parsed result on the timeline of its call.
+     *
+     * @return the result
+     */
+    static <T> T parsed(ViSearchHttpResponse httpResponse, T result) {
+        RequestTimeline timeline = httpResponse.getTimeline();
+        if (timeline != null && result != null) {
+            int count = 1;
+            if (result instanceof PagedResult) {
+                List<?> items = ((PagedResult<?>) result).getResult();
+                count = items == null ? 0 : items.size();
+            }
+            timeline.setResult(result.getClass().getSimpleName(), count);
+        }
+        return result;
+    }
+
+    /**
+     * Complete the timeline of a call once its response is parsed, successfully or not.
+     */
+    static void parseComplete(ViSearchHttpResponse httpResponse) {
+        RequestTimeline timeline = httpResponse.getTimeline();
+        if (timeline != null) {
+            timeline.parseComplete();
+        }
     }
 
     protected FeatureResponseResult deserializeFeatureResponseResult(String rawResponse, JsonNode node) {
@@ -50,12 +94,21 @@ class BaseViSearchOperations {
     }
 
     protected PagedSearchResult pagify(String rawResponse, JsonNode node) {
+        return pagify(rawResponse, node, null);
+    }
+
+    /**
+     * @param parsedResult the results if already read from the response, or null to read them from the node
+     */
+    protected PagedSearchResult pagify(String rawResponse, JsonNode node, List<ImageResult> parsedResult) {
 
         List<ImageResult> result = new ArrayList<ImageResult>();
         List<ObjectSearchResult> objects = null;
         List<GroupSearchResult> groupResults = null;
 
-        if(node.has(ViSearchHttpConstants.RESULT))
+        if (parsedResult != null)
+            result = parsedResult;
+        else if(node.has(ViSearchHttpConstants.RESULT))
             result = deserializeListResult(rawResponse, node.get(ViSearchHttpConstants.RESULT), ImageResult.class);
 
         // for merged results, it is possible to have both objects and results
@@ -101,10 +154,10 @@ class BaseViSearchOperations {
 
     @SuppressWarnings("unchecked")
     <T> List<T> deserializeListResult(String rawResponse, JsonNode node, Class<T> clazz) {
-        String json = node.toString();
         try {
             CollectionType listType = TypeFactory.defaultInstance().constructCollectionType(List.class, clazz);
-            return (List<T>) objectMapper.readerFor(listType).readValue(json);
+            // read from the tree rather than its text, serializing a large result list costs more than binding it
+            return (List<T>) objectMapper.readerFor(listType).readValue(node);
         } catch (IOException e) {
             throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, rawResponse);
         }
@@ -112,7 +165,6 @@ class BaseViSearchOperations {
 
     @SuppressWarnings("unchecked")
     <T, U> Map<T, U> deserializeMapResult(String rawResponse, JsonNode node, Class<T> keyClass, Class<T> valueClass) {
-        String json = node.toString();
         try {
             MapType mapType = TypeFactory.defaultInstance().constructMapType(HashMap.class, keyClass, valueClass);
             return (Map<T, U>) objectMapper.readerFor(mapType).readValue(node);
@@ -20,7 +20,11 @@ import java.util.Map;
 public class DataOperationsImpl extends BaseViSearchOperations implements DataOperations {
 
     public DataOperationsImpl(ViSearchHttpClient viSearchHttpClient, ObjectMapper objectMapper) {
-        super(viSearchHttpClient, objectMapper);
+        this(viSearchHttpClient, objectMapper, new ClientConfig());
+    }
+
+    public DataOperationsImpl(ViSearchHttpClient viSearchHttpClient, ObjectMapper objectMapper, ClientConfig clientConfig) {
+        super(viSearchHttpClient, objectMapper, clientConfig);
     }
 
     @Override
@@ -50,7 +54,7 @@ public class DataOperationsImpl extends BaseViSearchOperations implements DataOp
                 } else {
                     InsertTrans insertTrans = deserializeObjectResult(response, response, InsertTrans.class);
                     insertTrans.setHeaders(headers);
-                    return insertTrans;
+                    return parsed(httpResponse, insertTrans);
                 }
             } catch (JsonProcessingException e) {
                 throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, response);
@@ -58,8 +62,11 @@ public class DataOperationsImpl extends BaseViSearchOperations implements DataOp
             } catch (IOException e) {
                 throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, response);
                 //throw new ViSearchException("Could not parse the ViSearch response: " + response, e, response);
+            } finally {
+                parseComplete(httpResponse);
             }
         } catch (InternalViSearchException e) {
+            recordError("/insert", e);
             return new InsertTrans(e.getMessage(), e.getCause(), e.getServerRawResponse());
         }
     }
@@ -71,8 +78,13 @@ public class DataOperationsImpl extends BaseViSearchOperations implements DataOp
 
         try {
             ViSearchHttpResponse response = viSearchHttpClient.get("/insert/status/" + transId, HashMultimap.<String, String>create());
-            return parseInsertStatus(response.getBody(), response.getHeaders());
+            try {
+                return parsed(response, parseInsertStatus(response.getBody(), response.getHeaders()));
+            } finally {
+                parseComplete(response);
+            }
         } catch (InternalViSearchException e) {
+            recordError("/insert/status", e);
             return new InsertStatus(e.getMessage(), e.getCause(), e.getServerRawResponse());
         }
     }
@@ -89,8 +101,13 @@ public class DataOperationsImpl extends BaseViSearchOperations implements DataOp
             params.put("error_page", errorPage.toString());
             params.put("error_limit", errorLimit.toString());
             ViSearchHttpResponse response = viSearchHttpClient.get("/insert/status/" + transId, params);
-            return parseInsertStatus(response.getBody(), response.getHeaders());
+            try {
+                return parsed(response, parseInsertStatus(response.getBody(), response.getHeaders()));
+            } finally {
+                parseComplete(response);
+            }
         } catch (InternalViSearchException e) {
+            recordError("/insert/status", e);
             return new InsertStatus(e.getMessage(), e.getCause(), e.getServerRawResponse());
         }
     }
@@ -150,14 +167,17 @@ public class DataOperationsImpl extends BaseViSearchOperations implements DataOp
                     throw new InternalViSearchException(message, response);
                 } else {
                     int total = totalNode.asInt();
-                    return new RemoveStatus(total);
+                    return parsed(httpResponse, new RemoveStatus(total));
                 }
             } catch (JsonProcessingException e) {
                 throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, response);
             } catch (IOException e) {
                 throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, response);
+            } finally {
+                parseComplete(httpResponse);
             }
         } catch (InternalViSearchException e) {
+            recordError("/remove", e);
             return new RemoveStatus(e.getMessage(), e.getCause(), e.getServerRawResponse());
         }
     }
@@ -0,0 +1,124 @@
+package com.visenze.visearch.internal;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.visenze.visearch.ImageResult;
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.SearchResultStream;
+import com.visenze.visearch.internal.constant.ViSearchHttpConstants;
+import com.visenze.visearch.internal.http.ViSearchHttpStream;
+import com.visenze.visearch.internal.json.StreamingResponse;
+import com.visenze.visearch.metrics.RequestTimeline;
+
+import java.io.IOException;
+
+/**
+ * A {@link SearchResultStream} reading the body of a {@link ViSearchHttpStream}. The status of
+ * the response is checked before the first result if the server sent it first, and again once
+ * the response was read.
+ */
+final class HttpSearchResultStream extends SearchResultStream {
+
+    private final BaseViSearchOperations operations;
+    private final String endpoint;
+    private final ViSearchHttpStream httpStream;
+    private final ObjectMapper objectMapper;
+    private StreamingResponse response;
+    private int count;
+    private boolean closed;
+
+    HttpSearchResultStream(BaseViSearchOperations operations, String endpoint, ViSearchHttpStream httpStream,
+                           ObjectMapper objectMapper) {
+        this.operations = operations;
+        this.endpoint = endpoint;
+        this.httpStream = httpStream;
+        this.objectMapper = objectMapper;
+        setHeaders(httpStream.getHeaders());
+    }
+
+    @Override
+    protected ImageResult readNext() {
+        if (closed) {
+            return null;
+        }
+        try {
+            if (response == null) {
+                response = new StreamingResponse(objectMapper, httpStream.getContent());
+            }
+            ImageResult result = response.nextResult();
+            JsonNode node = response.getNode();
+            if (result == null) {
+                SearchOperationsImpl.checkResponseStatus(node);
+                readPaging(node);
+                setResult();
+                return null;
+            }
+            if (count == 0 && node.has(ViSearchHttpConstants.STATUS)) {
+                SearchOperationsImpl.checkResponseStatus(node);
+                readPaging(node);
+            }
+            count++;
+            return result;
+        } catch (JsonProcessingException e) {
+            fail(new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, rawResponse()));
+        } catch (IOException e) {
+            fail(httpStream.readError(e));
+        } catch (InternalViSearchException e) {
+            fail(e);
+        }
+        return null;
+    }
+
+    private void readPaging(JsonNode node) {
+        JsonNode pageNode = node.get(ViSearchHttpConstants.PAGE);
+        JsonNode limitNode = node.get(ViSearchHttpConstants.LIMIT);
+        JsonNode totalNode = node.get(ViSearchHttpConstants.TOTAL);
+        if (pageNode != null) setPage(pageNode.asInt());
+        if (limitNode != null) setLimit(limitNode.asInt());
+        if (totalNode != null) setTotal(totalNode.asInt());
+    }
+
+    private void setResult() {
+        RequestTimeline timeline = httpStream.getTimeline();
+        if (timeline != null) {
+            timeline.setResult(SearchResultStream.class.getSimpleName(), count);
+        }
+    }
+
+    /**
+     * The fields read before the failure, the body itself is not kept.
+     */
+    private String rawResponse() {
+        return response == null ? null : response.getNode().toString();
+    }
+
+    private void fail(InternalViSearchException e) {
+        operations.recordError(endpoint, e);
+        setErrorMessage(e.getMessage());
+        setCause(e.getCause());
+        setRawResponseMessage(e.getServerRawResponse());
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (response != null) {
+                response.close();
+            }
+        } catch (IOException e) {
+            // the body is not needed anymore
+        } finally {
+            httpStream.close();
+            RequestTimeline timeline = httpStream.getTimeline();
+            if (timeline != null) {
+                timeline.parseComplete();
+            }
+        }
+    }
+}
@@ -8,6 +8,16 @@ public interface SearchOperations {
 
     PagedSearchResult recommendation(SearchParams searchParams);
 
+    /**
+     * Search by image id, returning the results as they are received.
+     */
+    SearchResultStream searchStream(SearchParams searchParams);
+
+    /**
+     * Recommendations for an image id, returning the results as they are received.
+     */
+    SearchResultStream recommendationStream(SearchParams searchParams);
+
     PagedSearchResult colorSearch(ColorSearchParams colorSearchParams);
 
     PagedSearchResult uploadSearch(UploadSearchParams uploadSearchParams);
@@ -7,10 +7,14 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
 import com.visenze.visearch.*;
+import com.visenze.visearch.feature.FeatureCache;
 import com.visenze.visearch.internal.constant.ViSearchHttpConstants;
 import com.visenze.visearch.internal.http.ViSearchHttpClient;
 import com.visenze.visearch.internal.http.ViSearchHttpResponse;
+import com.visenze.visearch.internal.json.LazyResponse;
 
 import java.io.*;
 import java.util.ArrayList;
@@ -28,8 +32,19 @@ public class SearchOperationsImpl extends BaseViSearchOperations implements Sear
     private static final String ENDPOINT_SIMILAR_PRODUCTS_SEARCH = "/similarproducts";
     private static final String ENDPOINT_EXTRACT_FEATURE= "/extractfeature";
 
+    private final FeatureCache featureCache;
+    private final boolean lazyMetadata;
+    private final MetadataInterner metadataInterner;
+
     public SearchOperationsImpl(ViSearchHttpClient viSearchHttpClient, ObjectMapper objectMapper) {
-        super(viSearchHttpClient, objectMapper);
+        this(viSearchHttpClient, objectMapper, new ClientConfig());
+    }
+
+    public SearchOperationsImpl(ViSearchHttpClient viSearchHttpClient, ObjectMapper objectMapper, ClientConfig clientConfig) {
+        super(viSearchHttpClient, objectMapper, clientConfig);
+        this.featureCache = clientConfig.getFeatureCache();
+        this.lazyMetadata = clientConfig.isLazyMetadata();
+        this.metadataInterner = clientConfig.getMetadataInterner();
     }
 
     @Override
@@ -38,6 +53,7 @@ public class SearchOperationsImpl extends BaseViSearchOperations implements Sear
             ViSearchHttpResponse response = viSearchHttpClient.get(ENDPOINT_SEARCH, searchParams.toMap());
             return getPagedResult(response);
         } catch (InternalViSearchException e) {
+            recordError(ENDPOINT_SEARCH, e);
             return new PagedSearchResult(e.getMessage(), e.getCause(), e.getServerRawResponse());
         }
     }
@@ -48,16 +64,37 @@ public class SearchOperationsImpl extends BaseViSearchOperations implements Sear
             ViSearchHttpResponse response = viSearchHttpClient.get(ENDPOINT_RECOMMENDATION, searchParams.toMap());
             return getPagedResult(response);
         } catch (InternalViSearchException e) {
+            recordError(ENDPOINT_RECOMMENDATION, e);
             return new PagedSearchResult(e.getMessage(), e.getCause(), e.getServerRawResponse());
         }
     }
 
+    @Override
+    public SearchResultStream searchStream(SearchParams searchParams) {
+        return getResultStream(ENDPOINT_SEARCH, searchParams);
+    }
+
+    @Override
+    public SearchResultStream recommendationStream(SearchParams searchParams) {
+        return getResultStream(ENDPOINT_RECOMMENDATION, searchParams);
+    }
+
+    private SearchResultStream getResultStream(String endpoint, SearchParams searchParams) {
+        try {
+            return new HttpSearchResultStream(this, endpoint, viSearchHttpClient.getStream(endpoint, searchParams.toMap()), objectMapper);
+        } catch (InternalViSearchException e) {
+            recordError(endpoint, e);
+            return new SearchResultStream(e.getMessage(), e.getCause(), e.getServerRawResponse());
+        }
+    }
+
     @Override
     public PagedSearchResult colorSearch(ColorSearchParams colorSearchParams) {
         try {
             ViSearchHttpResponse response = viSearchHttpClient.get(ENDPOINT_COLOR_SEARCH, colorSearchParams.toMap());
             return getPagedResult(response);
         } catch (InternalViSearchException e) {
+            recordError(ENDPOINT_COLOR_SEARCH, e);
             return new PagedSearchResult(e.getMessage(), e.getCause(), e.getServerRawResponse());
         }
     }
@@ -65,8 +102,12 @@ public class SearchOperationsImpl extends BaseViSearchOperations implements Sear
     @Override
     public PagedSearchResult uploadSearch(UploadSearchParams uploadSearchParams) {
         try {
+            if (isFeatureCacheable(uploadSearchParams)) {
+                return uploadSearchWithFeatureCache(uploadSearchParams);
+            }
             return postImageSearch(uploadSearchParams, ENDPOINT_UPLOAD_SEARCH);
         } catch (InternalViSearchException e) {
+            recordError(ENDPOINT_UPLOAD_SEARCH, e);
             return new PagedSearchResult(e.getMessage(), e.getCause(), e.getServerRawResponse());
         }
     }
@@ -82,6 +123,7 @@ public class SearchOperationsImpl extends BaseViSearchOperations implements Sear
         try {
             return postImageSearch(uploadSearchParams, ENDPOINT_DISCOVER_SEARCH);
         } catch (InternalViSearchException e) {
+            recordError(ENDPOINT_DISCOVER_SEARCH, e);
             return new PagedSearchResult(e.getMessage(), e.getCause(), e.getServerRawResponse());
         }
     }
@@ -96,6 +138,7 @@ public class SearchOperationsImpl extends BaseViSearchOperations implements Sear
         try {
             return postImageSearch(uploadSearchParams, ENDPOINT_SIMILAR_PRODUCTS_SEARCH);
         } catch (InternalViSearchException e) {
+            recordError(ENDPOINT_SIMILAR_PRODUCTS_SEARCH, e);
             return new PagedSearchResult(e.getMessage(), e.getCause(), e.getServerRawResponse());
         }
     }
@@ -109,9 +152,13 @@ public class SearchOperationsImpl extends BaseViSearchOperations implements Sear
     @Override
     public FeatureResponseResult extractFeature(UploadSearchParams uploadSearchParams) {
         try {
+            if (isFeatureCacheable(uploadSearchParams)) {
+                return extractFeatureWithFeatureCache(uploadSearchParams);
+            }
             ViSearchHttpResponse response = getPostImageSearchHttpResponse(uploadSearchParams, ENDPOINT_EXTRACT_FEATURE);
             return getFeatureResponseResult(response);
         } catch (InternalViSearchException e) {
+            recordError(ENDPOINT_EXTRACT_FEATURE, e);
             return new FeatureResponseResult(e.getMessage(), e.getCause(), e.getServerRawResponse());
         }
     }
@@ -155,9 +202,83 @@ public class SearchOperationsImpl extends BaseViSearchOperations implements Sear
         return response;
     }
 
+    /**
+     * Only uploads of image content can be looked up in the feature cache, an url may point to
+     * different content over time and im_id or im_feature searches do not upload anything.
+     */
+    private boolean isFeatureCacheable(UploadSearchParams uploadSearchParams) {
+        return featureCache != null
+                && Strings.isNullOrEmpty(uploadSearchParams.getImFeature())
+                && Strings.isNullOrEmpty(uploadSearchParams.getImId())
+                && (uploadSearchParams.getImageFile() != null || uploadSearchParams.getImageStream() != null);
+    }
+
+    private FeatureResponseResult extractFeatureWithFeatureCache(UploadSearchParams uploadSearchParams) {
+        return cachedFeature(uploadSearchParams, readCacheableImage(uploadSearchParams));
+    }
+
+    /**
+     * The extracted features of an image from the cache, or extracted once and cached on a miss.
+     */
+    private FeatureResponseResult cachedFeature(UploadSearchParams uploadSearchParams, CacheableImage image) {
+        String cached = featureCache.get(image.key);
+        if (cached != null) {
+            return parseFeatureResponseResult(cached, Maps.<String, String>newHashMap());
+        }
+        FeatureResponseResult result = getFeatureResponseResult(postCacheableImage(uploadSearchParams, image, ENDPOINT_EXTRACT_FEATURE));
+        if (result.getResult() != null && !result.getResult().isEmpty()) {
+            featureCache.put(image.key, result.getRawJson());
+        }
+        return result;
+    }
+
+    /**
+     * On a cache miss the feature is extracted and cached first, so later searches of the image
+     * do not upload it again.
+     */
+    private PagedSearchResult uploadSearchWithFeatureCache(UploadSearchParams uploadSearchParams) {
+        CacheableImage image = readCacheableImage(uploadSearchParams);
+        List<String> features = cachedFeature(uploadSearchParams, image).getResult();
+        // an im_feature search takes one feature; with several detected objects the image is
+        // uploaded so that the search covers all of them
+        if (features != null && features.size() == 1) {
+            return getPagedResult(viSearchHttpClient.postImFeature(ENDPOINT_UPLOAD_SEARCH, uploadSearchParams.toMap(),
+                    features.get(0), uploadSearchParams.getTransId()));
+        }
+        return getPagedResult(postCacheableImage(uploadSearchParams, image, ENDPOINT_UPLOAD_SEARCH));
+    }
+
+    private static CacheableImage readCacheableImage(UploadSearchParams uploadSearchParams) {
+        try {
+            File imageFile = uploadSearchParams.getImageFile();
+            if (imageFile != null) {
+                return new CacheableImage(FeatureCache.keyFor(imageFile, uploadSearchParams), null);
+            }
+            // a stream can be read only once, keep the bytes for the upload on a cache miss
+            byte[] imageBytes = ByteStreams.toByteArray(uploadSearchParams.getImageStream());
+            return new CacheableImage(FeatureCache.keyFor(imageBytes, uploadSearchParams), imageBytes);
+        } catch (IOException e) {
+            throw new InternalViSearchException(ResponseMessages.INVALID_IMAGE_OR_URL, e);
+        }
+    }
+
+    private ViSearchHttpResponse postCacheableImage(UploadSearchParams uploadSearchParams, CacheableImage image, String endpointMethod) {
+        if (image.bytes == null) {
+            return getPostImageSearchHttpResponse(uploadSearchParams, endpointMethod);
+        }
+        return viSearchHttpClient.postImage(endpointMethod, uploadSearchParams.toMap(),
+                new ByteArrayInputStream(image.bytes), ViSearchHttpConstants.IMAGE_STREAM);
+    }
+
     private FeatureResponseResult getFeatureResponseResult(ViSearchHttpResponse httpResponse){
-        String response = httpResponse.getBody();
-        Map<String, String> headers = httpResponse.getHeaders();
+        try {
+            return parsed(httpResponse, parseFeatureResponseResult(httpResponse.getBody(), httpResponse.getHeaders()));
+        } finally {
+            parseComplete(httpResponse);
+        }
+    }
+
+    private FeatureResponseResult parseFeatureResponseResult(String response, Map<String, String> headers) {
         JsonNode node;
         try {
             node = objectMapper.readTree(response);
@@ -181,11 +302,24 @@ public class SearchOperationsImpl extends BaseViSearchOperations implements Sear
     }
 
     private PagedSearchResult getPagedResult(ViSearchHttpResponse httpResponse) {
-        String response = httpResponse.getBody();
-        Map<String, String> headers = httpResponse.getHeaders();
+        try {
+            return parsed(httpResponse, parsePagedResult(httpResponse.getBody(), httpResponse.getHeaders()));
+        } finally {
+            parseComplete(httpResponse);
+        }
+    }
+
+    private PagedSearchResult parsePagedResult(String response, Map<String, String> headers) {
         JsonNode node;
+        List<ImageResult> lazyResults = null;
         try {
-            node = objectMapper.readTree(response);
+            if (lazyMetadata) {
+                LazyResponse lazyResponse = LazyResponse.parse(objectMapper, response, metadataInterner);
+                node = lazyResponse.getNode();
+                lazyResults = lazyResponse.getResults();
+            } else {
+                node = objectMapper.readTree(response);
+            }
         } catch (JsonProcessingException e) {
             throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, response);
             // throw new ViSearchException("Could not parse the ViSearch response: " + response, e, response);
@@ -195,7 +329,7 @@ public class SearchOperationsImpl extends BaseViSearchOperations implements Sear
         }
         checkResponseStatus(node);
 
-        PagedSearchResult result = pagify(response, node);
+        PagedSearchResult result = pagify(response, node, lazyResults);
 
         JsonNode productTypesNode = node.get(ViSearchHttpConstants.PRODUCT_TYPES);
         if (productTypesNode != null) {
@@ -248,20 +382,22 @@ public class SearchOperationsImpl extends BaseViSearchOperations implements Sear
             result.setObjectTypesList(result.getProductTypesList());
         }
 
-        result.setRawJson(node.toString());
+        // the tree of a lazy response has no results, keep the response as received instead
+        result.setRawJson(lazyMetadata ? response : node.toString());
         result.setHeaders(headers);
         return result;
     }
 
-    private static void checkResponseStatus(JsonNode node) {
-        String json = node.toString();
+    static void checkResponseStatus(JsonNode node) {
         JsonNode statusNode = node.get(ViSearchHttpConstants.STATUS);
         if (statusNode == null) {
-            throw new InternalViSearchException(ResponseMessages.INVALID_RESPONSE_FORMAT, json);
+            throw new InternalViSearchException(ResponseMessages.INVALID_RESPONSE_FORMAT, node.toString());
             // throw new ViSearchException("There was a malformed ViSearch response: " + json, json);
         } else {
             String status = statusNode.asText();
             if (!ViSearchHttpConstants.OK.equals(status)) {
+                // the response text is only needed for the error
+                String json = node.toString();
                 JsonNode errorNode = node.get(ViSearchHttpConstants.ERROR);
                 if (errorNode == null) {
                     throw new InternalViSearchException(ResponseMessages.INVALID_RESPONSE_FORMAT, json);
@@ -273,4 +409,17 @@ public class SearchOperationsImpl extends BaseViSearchOperations implements Sear
             }
         }
     }
+
+    private static class CacheableImage {
+
+        private final String key;
+
+        // content of a stream source, null for file sources which can be read again
+        private final byte[] bytes;
+
+        CacheableImage(String key, byte[] bytes) {
+            this.key = key;
+            this.bytes = bytes;
+        }
+    }
 }
@@ -3,7 +3,10 @@ package com.visenze.visearch.internal;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
+import com.visenze.visearch.internal.http.RequestContext;
 import com.visenze.visearch.internal.http.ViSearchHttpClient;
+import com.visenze.visearch.internal.http.ViSearchHttpResponse;
+import com.visenze.visearch.tracing.ViSearchSpan;
 import org.apache.http.auth.UsernamePasswordCredentials;
 
 import java.util.Map;
@@ -17,6 +20,7 @@ public class TrackOperationsImpl implements TrackOperations {
 
     final ViSearchHttpClient viSearchHttpClient;
     private static final String ENDPOINT_SEND_ACTIONS = "/__aq.gif";
+    private static final String REQ_ID = "reqid";
     private final String userId;
     private static Executor executor;
     static {
@@ -38,6 +42,7 @@ public class TrackOperationsImpl implements TrackOperations {
      * @param params
      */
     public void sendEvent(final Map<String, String> params) {
+        final ViSearchSpan link = RequestContext.lastSpan(params.get(REQ_ID));
         executor.execute(new Runnable() {
             @Override
             public void run() {
@@ -51,7 +56,13 @@ public class TrackOperationsImpl implements TrackOperations {
                     Preconditions.checkNotNull(value, "Custom search param value must not be null.");
                     queryParams.put(key, value);
                 }
-                viSearchHttpClient.get(ENDPOINT_SEND_ACTIONS, queryParams);
+                if (link != null) {
+                    RequestContext.linkNextCall(link);
+                }
+                ViSearchHttpResponse response = viSearchHttpClient.get(ENDPOINT_SEND_ACTIONS, queryParams);
+                if (response != null && response.getTimeline() != null) {
+                    response.getTimeline().complete();
+                }
             }
         });
     }
@@ -0,0 +1,104 @@
+package com.visenze.visearch.internal.http;
+
+import com.visenze.visearch.ClientConfig;
+import com.visenze.visearch.metrics.ConnectionPoolListener;
+import com.visenze.visearch.metrics.ConnectionPoolStats;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Evicts idle and expired connections of a pool and alerts on saturation, on a background thread
+ * shared by all clients. The task only holds a weak reference to the pool and cancels itself once
+ * the client is garbage collected, so clients need not be closed explicitly.
+ */
+final class ConnectionPoolMonitor implements Runnable {
+
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "visearch-pool-monitor-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final WeakReference<PoolingHttpClientConnectionManager> connectionManager;
+    private final long idleTimeout;
+    private final double saturationThreshold;
+    private final ConnectionPoolListener listener;
+    private volatile ScheduledFuture<?> future;
+
+    private ConnectionPoolMonitor(PoolingHttpClientConnectionManager connectionManager, ClientConfig clientConfig) {
+        this.connectionManager = new WeakReference<PoolingHttpClientConnectionManager>(connectionManager);
+        this.idleTimeout = clientConfig.getConnectionIdleTimeout();
+        this.saturationThreshold = clientConfig.getPoolSaturationThreshold();
+        this.listener = clientConfig.getConnectionPoolListener();
+    }
+
+    /**
+     * Start monitoring a pool, unless {@link ClientConfig#getConnectionEvictionInterval()} is 0.
+     */
+    static void schedule(PoolingHttpClientConnectionManager connectionManager, ClientConfig clientConfig) {
+        long interval = clientConfig.getConnectionEvictionInterval();
+        if (interval <= 0) {
+            return;
+        }
+        ConnectionPoolMonitor monitor = new ConnectionPoolMonitor(connectionManager, clientConfig);
+        monitor.future = EXECUTOR.scheduleWithFixedDelay(monitor, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void run() {
+        PoolingHttpClientConnectionManager manager = connectionManager.get();
+        if (manager == null) {
+            ScheduledFuture<?> scheduled = future;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            return;
+        }
+        try {
+            manager.closeExpiredConnections();
+            if (idleTimeout > 0) {
+                manager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+            }
+            if (listener != null) {
+                ConnectionPoolStats stats = stats(manager);
+                if (isSaturated(stats, saturationThreshold)) {
+                    listener.onSaturated(stats);
+                }
+            }
+        } catch (RuntimeException e) {
+            // keep the schedule alive, an exception would cancel it
+        }
+    }
+
+    static boolean isSaturated(ConnectionPoolStats stats, double threshold) {
+        return stats.getPending() > 0 || stats.getLeased() >= stats.getMax() * threshold;
+    }
+
+    static ConnectionPoolStats stats(PoolingHttpClientConnectionManager manager) {
+        Map<String, ConnectionPoolStats> routes = new LinkedHashMap<String, ConnectionPoolStats>();
+        for (HttpRoute route : manager.getRoutes()) {
+            routes.put(route.getTargetHost().toURI(), stats(manager.getStats(route), null));
+        }
+        return stats(manager.getTotalStats(), routes);
+    }
+
+    private static ConnectionPoolStats stats(PoolStats stats, Map<String, ConnectionPoolStats> routes) {
+        return new ConnectionPoolStats(stats.getLeased(), stats.getPending(), stats.getAvailable(), stats.getMax(), routes);
+    }
+}
@@ -0,0 +1,262 @@
+package com.visenze.visearch.internal.http;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Picks the endpoint of every call among equivalent ones, e.g. the API in several regions.
+ *
+ * Each endpoint is scored by the moving averages of its latency to the response headers and of
+ * its error rate, and by the calls it has in flight. A call goes to the better of two endpoints
+ * picked at random (power of two choices), so the fastest endpoint takes most calls without all
+ * clients piling onto it. Scores only change as calls end, so every {@link #EXPLORE_EVERY}th call
+ * goes to the endpoint picked least recently instead, which lets a slow endpoint that recovered
+ * win its calls back.
+ *
+ * After {@link #FAILURES_TO_EJECT} failures in a row an endpoint is left out for a while,
+ * doubling up to {@link #MAX_EJECTION} while it keeps failing. After that a single call is let
+ * through as a probe: if it succeeds the endpoint is back, if it fails the endpoint is left out
+ * again. If every endpoint is left out, the one coming back first is used.
+ *
+ * Failed calls are not retried on another endpoint, as not every call is idempotent; the calls
+ * after them go elsewhere.
+ */
+final class EndpointRouter {
+
+    static final int FAILURES_TO_EJECT = 3;
+
+    static final long MIN_EJECTION = TimeUnit.SECONDS.toNanos(5);
+
+    static final long MAX_EJECTION = TimeUnit.SECONDS.toNanos(60);
+
+    static final int EXPLORE_EVERY = 100;
+
+    private static final int AVAILABLE = 0;
+    private static final int PROBE = 1;
+    private static final int EJECTED = 2;
+
+    /**
+     * Weight of the latest call in the moving averages.
+     */
+    private static final double ALPHA = 0.2;
+
+    /**
+     * How much an error rate of 1 multiplies the cost of an endpoint.
+     */
+    private static final double ERROR_PENALTY = 10;
+
+    private final Endpoint[] endpoints;
+    private final long minEjectionNanos;
+    private final Random random = new Random();
+    private final AtomicLong selections = new AtomicLong();
+
+    EndpointRouter(List<String> urls) {
+        this(urls, MIN_EJECTION);
+    }
+
+    EndpointRouter(List<String> urls, long minEjectionNanos) {
+        Preconditions.checkArgument(urls != null && !urls.isEmpty(), "endpoints must not be empty");
+        this.minEjectionNanos = minEjectionNanos;
+        this.endpoints = new Endpoint[urls.size()];
+        for (int i = 0; i < endpoints.length; i++) {
+            String url = urls.get(i);
+            Preconditions.checkArgument(!Strings.isNullOrEmpty(url), "endpoint must not be null or empty");
+            endpoints[i] = new Endpoint(url);
+        }
+    }
+
+    /**
+     * The endpoint for the next call.
+     */
+    Endpoint select() {
+        if (endpoints.length == 1) {
+            return endpoints[0];
+        }
+        long now = System.nanoTime();
+        long selection = selections.incrementAndGet();
+        Endpoint chosen = selection % EXPLORE_EVERY == 0 ? leastRecentlySelected() : null;
+        if (chosen == null) {
+            chosen = choose(now);
+        }
+        chosen.lastSelected = selection;
+        return chosen;
+    }
+
+    private Endpoint choose(long now) {
+        int first = random.nextInt(endpoints.length);
+        int second = random.nextInt(endpoints.length - 1);
+        if (second >= first) {
+            second++;
+        }
+        Endpoint a = endpoints[first];
+        Endpoint b = endpoints[second];
+        int aState = a.admit(now);
+        if (aState == PROBE) {
+            return a;
+        }
+        int bState = b.admit(now);
+        if (bState == PROBE) {
+            return b;
+        }
+        if (aState == AVAILABLE && bState == AVAILABLE) {
+            return a.cost() <= b.cost() ? a : b;
+        }
+        if (aState == AVAILABLE) {
+            return a;
+        }
+        if (bState == AVAILABLE) {
+            return b;
+        }
+        return fallback(now);
+    }
+
+    /**
+     * The endpoint not left out that was picked least recently, or null if all are left out.
+     */
+    private Endpoint leastRecentlySelected() {
+        Endpoint best = null;
+        for (Endpoint endpoint : endpoints) {
+            if (!endpoint.ejected && (best == null || endpoint.lastSelected < best.lastSelected)) {
+                best = endpoint;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The cheapest available endpoint, or the one coming back first if none is.
+     */
+    private Endpoint fallback(long now) {
+        Endpoint best = null;
+        for (Endpoint endpoint : endpoints) {
+            int state = endpoint.admit(now);
+            if (state == PROBE) {
+                return endpoint;
+            }
+            if (state == AVAILABLE && (best == null || endpoint.cost() < best.cost())) {
+                best = endpoint;
+            }
+        }
+        if (best != null) {
+            return best;
+        }
+        for (Endpoint endpoint : endpoints) {
+            if (best == null || endpoint.ejectedUntil - best.ejectedUntil < 0) {
+                best = endpoint;
+            }
+        }
+        return best;
+    }
+
+    Endpoint[] getEndpoints() {
+        return endpoints.clone();
+    }
+
+    /**
+     * One endpoint and its scores.
+     */
+    final class Endpoint {
+
+        private final String url;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile double latencyNanos;
+        private volatile double errorRate;
+        private volatile long ejectedUntil;
+        private volatile boolean ejected;
+        private volatile long lastSelected;
+        private boolean probing;
+        private int failures;
+        private long ejectionNanos = minEjectionNanos;
+
+        Endpoint(String url) {
+            this.url = url;
+        }
+
+        String getUrl() {
+            return url;
+        }
+
+        int getInFlight() {
+            return inFlight.get();
+        }
+
+        double getLatencyNanos() {
+            return latencyNanos;
+        }
+
+        double getErrorRate() {
+            return errorRate;
+        }
+
+        /**
+         * An endpoint without calls yet costs nothing, so it gets the next one.
+         */
+        double cost() {
+            return latencyNanos * (inFlight.get() + 1) * (1 + ERROR_PENALTY * errorRate);
+        }
+
+        /**
+         * Whether the endpoint takes the next call. Once its ejection is over the first caller
+         * gets {@link #PROBE} and must send its call there; the others see it left out until the
+         * probe ends, or for one more ejection period should the probe never report back.
+         */
+        private int admit(long now) {
+            if (!ejected) {
+                return AVAILABLE;
+            }
+            synchronized (this) {
+                if (!ejected) {
+                    return AVAILABLE;
+                }
+                if (now - ejectedUntil < 0) {
+                    return EJECTED;
+                }
+                probing = true;
+                ejectedUntil = now + ejectionNanos;
+                return PROBE;
+            }
+        }
+
+        void callStarted() {
+            inFlight.incrementAndGet();
+        }
+
+        /**
+         * @param latencyNanos time to the response headers, or until the call failed; negative if
+         *                     the call was cancelled, which does not count
+         */
+        synchronized void callEnded(long latencyNanos, boolean failed) {
+            inFlight.decrementAndGet();
+            boolean probe = probing;
+            probing = false;
+            if (latencyNanos < 0) {
+                if (probe) {
+                    // let the next call probe instead
+                    ejectedUntil = System.nanoTime();
+                }
+                return;
+            }
+            this.latencyNanos = this.latencyNanos == 0 ? latencyNanos : this.latencyNanos + ALPHA * (latencyNanos - this.latencyNanos);
+            this.errorRate += ALPHA * ((failed ? 1 : 0) - errorRate);
+            if (!failed) {
+                failures = 0;
+                ejectionNanos = minEjectionNanos;
+                if (probe) {
+                    // back with a fresh error rate
+                    ejected = false;
+                    errorRate = 0;
+                }
+            } else if (probe || (++failures >= FAILURES_TO_EJECT && !ejected)) {
+                ejected = true;
+                ejectedUntil = System.nanoTime() + ejectionNanos;
+                ejectionNanos = Math.min(MAX_EJECTION, ejectionNanos * 2);
+            }
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.visenze.visearch.internal.http;
+
+import com.google.common.collect.Multimap;
+import com.visenze.visearch.AdaptiveTimeout;
+import com.visenze.visearch.CallOptions;
+import com.visenze.visearch.ClientConfig;
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.internal.InternalViSearchException;
+import com.visenze.visearch.internal.constant.ViSearchHttpConstants;
+import com.visenze.visearch.metrics.RequestListener;
+import com.visenze.visearch.metrics.RequestPhase;
+import com.visenze.visearch.metrics.RequestTimeline;
+import com.visenze.visearch.metrics.ViSearchMetrics;
+import com.visenze.visearch.record.RecordedRequest;
+import com.visenze.visearch.record.RequestRecorder;
+import com.visenze.visearch.tracing.TraceParent;
+import com.visenze.visearch.tracing.ViSearchSpan;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.execchain.RequestAbortedException;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The metrics, timeline, span and recording of one http call, from sending the request until its
+ * response body was read or the call failed. The body is read in {@link ViSearchHttpClientImpl}
+ * for buffered responses and by the caller for a {@link ViSearchHttpStream}.
+ */
+final class HttpCall {
+
+    private static final ScheduledThreadPoolExecutor DEADLINES = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "visearch-deadline-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        // most calls end well before their deadline; the aborts they cancel must not keep their
+        // requests, upload bodies included, in the queue until the deadline passes
+        DEADLINES.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Number of deadline aborts scheduled and not yet cancelled or run.
+     */
+    static int pendingDeadlines() {
+        return DEADLINES.getQueue().size();
+    }
+
+    private final RecordedRequest.Kind kind;
+    private final String path;
+    private final Multimap<String, String> params;
+    private final HttpUriRequest request;
+    private final RequestRecorder recorder;
+    private final ViSearchHttpClientImpl.CountingRequestEntity requestEntity;
+    private final ViSearchMetrics metrics;
+    private final String endpoint;
+    private final RequestTimeline timeline;
+    private final RequestContext context;
+    private final ViSearchSpan span;
+    private final long start;
+    private final CallOptions options;
+    private ScheduledFuture<?> abort;
+    private Runnable cancelListener;
+    private AdaptiveTimeout adaptiveTimeout;
+    private boolean adaptiveCut;
+    private EndpointRouter.Endpoint target;
+    private boolean sent;
+    private long headersNanos = -1;
+    private volatile boolean timedOut;
+    private volatile boolean cancelled;
+    private int statusCode;
+    private long responseBytes;
+    private boolean completed;
+    private boolean ended;
+
+    /**
+     * Start a call, the request must have all its headers but the trace parent.
+     */
+    HttpCall(ClientConfig clientConfig, RecordedRequest.Kind kind, String path, Multimap<String, String> params,
+             HttpUriRequest request) {
+        this.kind = kind;
+        this.path = path;
+        this.params = params;
+        this.request = request;
+        this.recorder = clientConfig.getRequestRecorder();
+        this.requestEntity = recorder == null ? null : ViSearchHttpClientImpl.CountingRequestEntity.wrap(request);
+        this.metrics = clientConfig.getMetrics();
+        this.endpoint = ViSearchHttpClientImpl.metricsEndpoint(path);
+        List<RequestListener> listeners = clientConfig.getRequestListeners();
+        this.timeline = listeners.isEmpty() ? null : new RequestTimeline(endpoint, request.getMethod(), listeners);
+        this.context = RequestContext.current();
+        this.span = clientConfig.getTracer().startSpan(endpoint, request.getMethod(), context.takeLink());
+        if (span.isRecording()) {
+            String traceParent = TraceParent.format(span);
+            if (traceParent != null) {
+                request.setHeader(TraceParent.HEADER, traceParent);
+            }
+            span.setAttribute(ViSearchSpan.HTTP_METHOD, request.getMethod());
+        }
+        this.options = CallOptions.current();
+        this.start = System.nanoTime();
+        metrics.requestStarted(endpoint);
+    }
+
+    /**
+     * Bound the call by the timeout the adaptive timeout gives its endpoint, and let it learn from
+     * the latency of the call. Only for calls whose body is read at once, null for none.
+     */
+    void setAdaptiveTimeout(AdaptiveTimeout adaptiveTimeout) {
+        this.adaptiveTimeout = adaptiveTimeout;
+    }
+
+    /**
+     * Score the endpoint the request is sent to by the outcome of the call, null for none.
+     */
+    void setTarget(EndpointRouter.Endpoint target) {
+        this.target = target;
+    }
+
+    /**
+     * Send the request and wait for the response headers. The request is aborted when the
+     * deadline of the call or its adaptive timeout passes or its options are cancelled, whether
+     * the response is still awaited or its body being read.
+     */
+    CloseableHttpResponse execute(CloseableHttpClient httpClient) {
+        boolean hasDeadline = false;
+        long deadline = 0;
+        if (options != null) {
+            if (options.isCancelled()) {
+                cancelled = true;
+                throw new InternalViSearchException(ResponseMessages.REQUEST_CANCELLED);
+            }
+            hasDeadline = options.hasDeadline();
+            deadline = options.getDeadlineNanos();
+        }
+        if (adaptiveTimeout != null) {
+            long adaptiveDeadline = start + adaptiveTimeout.getTimeout(endpoint, TimeUnit.NANOSECONDS);
+            if (!hasDeadline || adaptiveDeadline - deadline < 0) {
+                hasDeadline = true;
+                deadline = adaptiveDeadline;
+                adaptiveCut = true;
+            }
+        }
+        if (hasDeadline) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                timedOut = true;
+                throw new InternalViSearchException(ResponseMessages.REQUEST_TIMEOUT);
+            }
+            abort = DEADLINES.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    timedOut = true;
+                    request.abort();
+                }
+            }, remaining, TimeUnit.NANOSECONDS);
+        }
+        if (options != null) {
+            cancelListener = new Runnable() {
+                @Override
+                public void run() {
+                    cancelled = true;
+                    request.abort();
+                }
+            };
+            options.addCancelListener(cancelListener);
+        }
+        context.enter(endpoint, timeline);
+        if (target != null) {
+            target.callStarted();
+        }
+        sent = true;
+        try {
+            CloseableHttpResponse response = httpClient.execute(request);
+            headersNanos = System.nanoTime() - start;
+            return response;
+        } catch (IOException e) {
+            InternalViSearchException aborted = abortError(e);
+            if (aborted != null) {
+                if (e instanceof RequestAbortedException && e.getCause() instanceof InterruptedException) {
+                    // the abort cancelled the wait for a pooled connection, the thread was not interrupted
+                    Thread.interrupted();
+                }
+                throw aborted;
+            }
+            throw new InternalViSearchException(ResponseMessages.NETWORK_ERROR, e);
+            // throw new NetworkException("A network error occurred when requesting to the ViSearch endpoint. " +
+            //        "Please check your network connectivity and try again.", e);
+        } finally {
+            context.exit();
+        }
+    }
+
+    /**
+     * The error of a call aborted at its deadline or by a cancel, null if it was not aborted.
+     */
+    InternalViSearchException abortError(Throwable cause) {
+        if (cancelled) {
+            return new InternalViSearchException(ResponseMessages.REQUEST_CANCELLED, cause);
+        }
+        if (timedOut) {
+            return new InternalViSearchException(ResponseMessages.REQUEST_TIMEOUT, cause);
+        }
+        return null;
+    }
+
+    /**
+     * The error to report for a failure of the call: the abort error if it was aborted, as the
+     * failure is then likely caused by the abort.
+     */
+    RuntimeException failure(RuntimeException e) {
+        InternalViSearchException aborted = abortError(e.getCause() == null ? e : e.getCause());
+        if (aborted == null || aborted.getMessage().equals(e.getMessage())) {
+            return e;
+        }
+        return aborted;
+    }
+
+    /**
+     * The timeline of the call, null when no request listener is configured.
+     */
+    RequestTimeline getTimeline() {
+        return timeline;
+    }
+
+    /**
+     * Note that the headers of a response whose body is streamed arrived: tracking events sent
+     * for its request id while the body is still read link to the span of this call.
+     */
+    void opened(HttpResponse response) {
+        if (span.isRecording()) {
+            linkSpan(response);
+        }
+    }
+
+    /**
+     * Note that the response body was read.
+     */
+    void complete(HttpResponse response, long responseBytes) {
+        StatusLine statusLine = response.getStatusLine();
+        this.statusCode = statusLine == null ? 0 : statusLine.getStatusCode();
+        this.responseBytes = responseBytes;
+        long requestBytes = requestBytes(request);
+        metrics.requestCompleted(endpoint, statusCode, System.nanoTime() - start, requestBytes, responseBytes);
+        if (span.isRecording()) {
+            span.setAttribute(ViSearchSpan.HTTP_STATUS_CODE, statusCode);
+            linkSpan(response);
+        }
+        if (timeline != null) {
+            timeline.setResponse(statusCode, requestBytes, responseBytes);
+            timeline.mark(RequestPhase.BODY_COMPLETE);
+        }
+        completed = true;
+    }
+
+    private void linkSpan(HttpResponse response) {
+        Header logIdHeader = response.getFirstHeader(ViSearchHttpConstants.X_LOG_ID);
+        String logId = logIdHeader == null ? null : logIdHeader.getValue();
+        if (logId != null) {
+            span.setAttribute(ViSearchSpan.LOG_ID, logId);
+        }
+        context.setLastSpan(span, logId);
+    }
+
+    /**
+     * Note that the call failed before its response body was read.
+     */
+    void fail(RuntimeException e) {
+        if (timeline != null) {
+            timeline.fail(e);
+        }
+        span.recordError(e);
+    }
+
+    /**
+     * End the span and record the call, once. A call that did not complete counts as failed.
+     */
+    void end() {
+        if (ended) {
+            return;
+        }
+        ended = true;
+        if (abort != null) {
+            abort.cancel(false);
+        }
+        if (cancelListener != null) {
+            options.removeCancelListener(cancelListener);
+        }
+        span.end();
+        long latency = System.nanoTime() - start;
+        if (!completed) {
+            metrics.requestFailed(endpoint, latency);
+        }
+        // a call cut by its adaptive timeout counts, so that the timeout grows when the endpoint
+        // became slower
+        if (adaptiveTimeout != null && (completed || (adaptiveCut && timedOut && !cancelled))) {
+            adaptiveTimeout.record(endpoint, latency);
+        }
+        if (target != null && sent) {
+            // a cancelled call says nothing about the endpoint
+            boolean failed = statusCode >= 500 || (!completed && !cancelled);
+            target.callEnded(cancelled ? -1 : (headersNanos < 0 ? latency : headersNanos), failed);
+        }
+        if (recorder != null) {
+            recorder.record(kind, path, params, requestEntity == null ? 0 : requestEntity.getCount(),
+                    responseBytes, statusCode, start, latency);
+        }
+    }
+
+    private static long requestBytes(HttpUriRequest request) {
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            if (entity != null) {
+                return Math.max(0, entity.getContentLength());
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,88 @@
+package com.visenze.visearch.internal.http;
+
+import com.visenze.visearch.metrics.RequestTimeline;
+import com.visenze.visearch.tracing.ViSearchSpan;
+
+/**
+ * The call in progress on the current thread, for the parts of the http client that have no
+ * access to the request context such as the connection pool. Also carries spans between calls,
+ * so tracking events can be linked to the search they refer to.
+ */
+public final class RequestContext {
+
+    private static final ThreadLocal<RequestContext> CURRENT = new ThreadLocal<RequestContext>() {
+        @Override
+        protected RequestContext initialValue() {
+            return new RequestContext();
+        }
+    };
+
+    private String endpoint;
+    private RequestTimeline timeline;
+    private ViSearchSpan link;
+    private ViSearchSpan lastSpan;
+    private String lastLogId;
+
+    private RequestContext() {
+    }
+
+    static RequestContext current() {
+        return CURRENT.get();
+    }
+
+    void enter(String endpoint, RequestTimeline timeline) {
+        this.endpoint = endpoint;
+        this.timeline = timeline;
+    }
+
+    void exit() {
+        this.endpoint = null;
+        this.timeline = null;
+    }
+
+    /**
+     * The recorded span of the last call on this thread, if the server returned the given request
+     * id (X-Log-ID) for it.
+     *
+     * @return the span, null if tracing is disabled or the last call had another request id
+     */
+    public static ViSearchSpan lastSpan(String logId) {
+        RequestContext context = current();
+        if (context.lastSpan == null || logId == null || !logId.equals(context.lastLogId)) {
+            return null;
+        }
+        return context.lastSpan;
+    }
+
+    /**
+     * Link the span of the next call on this thread to the given span.
+     */
+    public static void linkNextCall(ViSearchSpan span) {
+        current().link = span;
+    }
+
+    ViSearchSpan takeLink() {
+        ViSearchSpan span = link;
+        link = null;
+        return span;
+    }
+
+    void setLastSpan(ViSearchSpan span, String logId) {
+        this.lastSpan = span;
+        this.lastLogId = logId;
+    }
+
+    /**
+     * The endpoint of the call for metrics, null outside of a call.
+     */
+    String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * The timeline of the call, null outside of a call or when no request listener is configured.
+     */
+    RequestTimeline getTimeline() {
+        return timeline;
+    }
+}
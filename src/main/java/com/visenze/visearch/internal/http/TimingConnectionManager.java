@@ -0,0 +1,101 @@
+package com.visenze.visearch.internal.http;
+
+import com.visenze.visearch.metrics.RequestPhase;
+import com.visenze.visearch.metrics.RequestTimeline;
+import com.visenze.visearch.metrics.ViSearchMetrics;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the pool wait time of the current call and marks its lease and connect phases on the
+ * timeline, delegating everything else to the pooling connection manager.
+ */
+class TimingConnectionManager implements HttpClientConnectionManager {
+
+    private final HttpClientConnectionManager delegate;
+    private final ViSearchMetrics metrics;
+
+    TimingConnectionManager(HttpClientConnectionManager delegate, ViSearchMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+        RequestContext context = RequestContext.current();
+        final String endpoint = context.getEndpoint();
+        final RequestTimeline timeline = context.getTimeline();
+        if (timeline != null && !timeline.hasReached(RequestPhase.LEASE_START)) {
+            timeline.mark(RequestPhase.LEASE_START);
+        }
+        final long start = System.nanoTime();
+        final ConnectionRequest request = delegate.requestConnection(route, state);
+        if (endpoint == null) {
+            return request;
+        }
+        return new ConnectionRequest() {
+            @Override
+            public HttpClientConnection get(long timeout, TimeUnit tunit)
+                    throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                HttpClientConnection connection = request.get(timeout, tunit);
+                metrics.connectionLeased(endpoint, System.nanoTime() - start);
+                if (timeline != null) {
+                    timeline.mark(RequestPhase.LEASED);
+                }
+                return connection;
+            }
+
+            @Override
+            public boolean cancel() {
+                return request.cancel();
+            }
+        };
+    }
+
+    @Override
+    public void releaseConnection(HttpClientConnection conn, Object newState, long validDuration, TimeUnit timeUnit) {
+        delegate.releaseConnection(conn, newState, validDuration, timeUnit);
+    }
+
+    @Override
+    public void connect(HttpClientConnection conn, HttpRoute route, int connectTimeout, HttpContext context) throws IOException {
+        delegate.connect(conn, route, connectTimeout, context);
+    }
+
+    @Override
+    public void upgrade(HttpClientConnection conn, HttpRoute route, HttpContext context) throws IOException {
+        delegate.upgrade(conn, route, context);
+    }
+
+    @Override
+    public void routeComplete(HttpClientConnection conn, HttpRoute route, HttpContext context) throws IOException {
+        delegate.routeComplete(conn, route, context);
+        RequestTimeline timeline = RequestContext.current().getTimeline();
+        if (timeline != null) {
+            timeline.mark(RequestPhase.CONNECTED);
+        }
+    }
+
+    @Override
+    public void closeIdleConnections(long idletime, TimeUnit tunit) {
+        delegate.closeIdleConnections(idletime, tunit);
+    }
+
+    @Override
+    public void closeExpiredConnections() {
+        delegate.closeExpiredConnections();
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+}
@@ -0,0 +1,49 @@
+package com.visenze.visearch.internal.http;
+
+import com.visenze.visearch.metrics.RequestPhase;
+import com.visenze.visearch.metrics.RequestTimeline;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+import java.io.IOException;
+
+/**
+ * Marks the request sent and response received phases on the timeline of the current call.
+ */
+class TimingHttpRequestExecutor extends HttpRequestExecutor {
+
+    @Override
+    public HttpResponse execute(HttpRequest request, HttpClientConnection conn, HttpContext context) throws IOException, HttpException {
+        RequestTimeline timeline = RequestContext.current().getTimeline();
+        if (timeline != null && !timeline.hasReached(RequestPhase.CONNECTED)) {
+            // the pool handed out an open connection
+            timeline.setConnectionReused(true);
+            timeline.mark(RequestPhase.CONNECTED);
+        }
+        return super.execute(request, conn, context);
+    }
+
+    @Override
+    protected HttpResponse doSendRequest(HttpRequest request, HttpClientConnection conn, HttpContext context) throws IOException, HttpException {
+        HttpResponse response = super.doSendRequest(request, conn, context);
+        RequestTimeline timeline = RequestContext.current().getTimeline();
+        if (timeline != null) {
+            timeline.mark(RequestPhase.REQUEST_SENT);
+        }
+        return response;
+    }
+
+    @Override
+    protected HttpResponse doReceiveResponse(HttpRequest request, HttpClientConnection conn, HttpContext context) throws HttpException, IOException {
+        HttpResponse response = super.doReceiveResponse(request, conn, context);
+        RequestTimeline timeline = RequestContext.current().getTimeline();
+        if (timeline != null) {
+            timeline.mark(RequestPhase.FIRST_BYTE);
+        }
+        return response;
+    }
+}
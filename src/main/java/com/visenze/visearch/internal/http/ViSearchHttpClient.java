@@ -1,6 +1,7 @@
 package com.visenze.visearch.internal.http;
 
 import com.google.common.collect.Multimap;
+import com.visenze.visearch.metrics.ConnectionPoolStats;
 import org.apache.http.auth.UsernamePasswordCredentials;
 
 import java.io.File;
@@ -10,8 +11,19 @@ public interface ViSearchHttpClient {
 
     UsernamePasswordCredentials getCredentials();
 
+    /**
+     * @return a snapshot of the connection pool, null if the http client is not managed by the SDK
+     */
+    ConnectionPoolStats getConnectionPoolStats();
+
     ViSearchHttpResponse get(String url, Multimap<String, String> params);
 
+    /**
+     * Send a GET request and return as soon as the response headers arrived, for the caller to
+     * read the body as it is received. The caller must close the stream.
+     */
+    ViSearchHttpStream getStream(String url, Multimap<String, String> params);
+
     ViSearchHttpResponse post(String url, Multimap<String, String> params);
 
     ViSearchHttpResponse postImage(String url, Multimap<String, String> params, File file);
@@ -20,5 +32,4 @@ public interface ViSearchHttpClient {
 
     ViSearchHttpResponse postImFeature(String url, Multimap<String, String> params, String imFeature , String transId);
 
-
 }
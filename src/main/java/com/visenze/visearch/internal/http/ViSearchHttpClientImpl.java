@@ -3,10 +3,14 @@ package com.visenze.visearch.internal.http;
 import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
 import com.visenze.visearch.ClientConfig;
 import com.visenze.visearch.ResponseMessages;
 import com.visenze.visearch.internal.InternalViSearchException;
 import com.visenze.visearch.internal.constant.ViSearchHttpConstants;
+import com.visenze.visearch.metrics.ConnectionPoolStats;
+import com.visenze.visearch.record.RecordedRequest;
 import org.apache.http.*;
 import org.apache.http.auth.AuthenticationException;
 import org.apache.http.auth.UsernamePasswordCredentials;
@@ -18,20 +22,24 @@ import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.methods.RequestBuilder;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.entity.ContentType;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.entity.mime.content.InputStreamBody;
 import org.apache.http.impl.auth.BasicScheme;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicNameValuePair;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -39,17 +47,25 @@ public class ViSearchHttpClientImpl implements ViSearchHttpClient {
 
     public static final Charset UTF8_CHARSET = Charset.forName("utf-8") ;
 
-    private final String endpoint;
+    private static final String INSERT_STATUS_PATH = "/insert/status/";
+
+    private final EndpointRouter router;
     CloseableHttpClient httpClient;
+    private final PoolingHttpClientConnectionManager connectionManager;
     private final ClientConfig clientConfig;
     private final UsernamePasswordCredentials credentials;
 
 
     public ViSearchHttpClientImpl(String endpoint, String accessKey, String secretKey, CloseableHttpClient httpClient) {
-        this.endpoint = endpoint;
+        this(endpoint, accessKey, secretKey, httpClient, new ClientConfig());
+    }
+
+    public ViSearchHttpClientImpl(String endpoint, String accessKey, String secretKey, CloseableHttpClient httpClient, ClientConfig clientConfig) {
+        this.router = new EndpointRouter(Collections.singletonList(endpoint));
         credentials = new UsernamePasswordCredentials(accessKey, secretKey);
         this.httpClient = httpClient;
-        this.clientConfig = new ClientConfig();
+        this.clientConfig = clientConfig;
+        this.connectionManager = null;
     }
 
     public ViSearchHttpClientImpl(String endpoint, String accessKey, String secretKey) {
@@ -57,7 +73,14 @@ public class ViSearchHttpClientImpl implements ViSearchHttpClient {
     }
 
     public ViSearchHttpClientImpl(String endpoint, String accessKey, String secretKey, ClientConfig clientConfig) {
-        this.endpoint = endpoint;
+        this(Collections.singletonList(endpoint), accessKey, secretKey, clientConfig);
+    }
+
+    /**
+     * A client sending every call to one of several equivalent endpoints, see {@link EndpointRouter}.
+     */
+    public ViSearchHttpClientImpl(List<String> endpoints, String accessKey, String secretKey, ClientConfig clientConfig) {
+        this.router = new EndpointRouter(endpoints);
         this.clientConfig = clientConfig;
         RequestConfig conf = RequestConfig
                 .custom()
@@ -65,10 +88,14 @@ public class ViSearchHttpClientImpl implements ViSearchHttpClient {
                 .setSocketTimeout(clientConfig.getSocketTimeout())
                 .build();
         credentials = new UsernamePasswordCredentials(accessKey, secretKey);
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(clientConfig.getMaxConnection());
+        connectionManager.setDefaultMaxPerRoute(clientConfig.getMaxConnection());
+        ConnectionPoolMonitor.schedule(connectionManager, clientConfig);
         this.httpClient = HttpClientBuilder
                 .create()
-                .setMaxConnTotal(clientConfig.getMaxConnection())
-                .setMaxConnPerRoute(clientConfig.getMaxConnection())
+                .setConnectionManager(new TimingConnectionManager(connectionManager, clientConfig.getMetrics()))
+                .setRequestExecutor(new TimingHttpRequestExecutor())
                 .setDefaultRequestConfig(conf)
                 .build();
     }
@@ -78,37 +105,47 @@ public class ViSearchHttpClientImpl implements ViSearchHttpClient {
         return credentials;
     }
 
+    @Override
+    public ConnectionPoolStats getConnectionPoolStats() {
+        return connectionManager == null ? null : ConnectionPoolMonitor.stats(connectionManager);
+    }
+
     @Override
     public ViSearchHttpResponse get(String path, Multimap<String, String> params) {
-        HttpUriRequest request = buildGetRequest(endpoint + path, params);
-        return getResponse(request);
+        EndpointRouter.Endpoint target = router.select();
+        HttpUriRequest request = buildGetRequest(target.getUrl() + path, params);
+        return getResponse(RecordedRequest.Kind.GET, path, params, request, target);
     }
 
     @Override
     public ViSearchHttpResponse post(String path, Multimap<String, String> params) {
-        HttpUriRequest request = buildPostRequest(endpoint + path, params);
-        return getResponse(request);
+        EndpointRouter.Endpoint target = router.select();
+        HttpUriRequest request = buildPostRequest(target.getUrl() + path, params);
+        return getResponse(RecordedRequest.Kind.POST, path, params, request, target);
     }
 
     @Override
     public ViSearchHttpResponse postImage(String path, Multimap<String, String> params, File file) {
-        HttpUriRequest request = buildPostRequestForImage(endpoint + path, params, file);
-        return getResponse(request);
+        EndpointRouter.Endpoint target = router.select();
+        HttpUriRequest request = buildPostRequestForImage(target.getUrl() + path, params, file);
+        return getResponse(RecordedRequest.Kind.POST_IMAGE, path, params, request, target);
     }
 
     @Override
     public ViSearchHttpResponse postImage(String path, Multimap<String, String> params, InputStream inputStream, String filename) {
-        HttpUriRequest request = buildPostRequestForImage(endpoint + path, params, inputStream, filename);
-        return getResponse(request);
+        EndpointRouter.Endpoint target = router.select();
+        HttpUriRequest request = buildPostRequestForImage(target.getUrl() + path, params, inputStream, filename);
+        return getResponse(RecordedRequest.Kind.POST_IMAGE, path, params, request, target);
     }
 
     @Override
     public ViSearchHttpResponse postImFeature(String path, Multimap<String, String> params, String imFeature, String transId) {
-        HttpUriRequest request = buildPostRequestForImFeature(endpoint + path, params, imFeature);
+        EndpointRouter.Endpoint target = router.select();
+        HttpUriRequest request = buildPostRequestForImFeature(target.getUrl() + path, params, imFeature);
         if (!Strings.isNullOrEmpty(transId)) {
             request.addHeader(ViSearchHttpConstants.TRANS_ID, transId);
         }
-        return getResponse(request);
+        return getResponse(RecordedRequest.Kind.POST_FEATURE, path, params, request, target);
     }
 
     private HttpUriRequest buildGetRequest(String url, Multimap<String, String> params) {
@@ -187,28 +224,90 @@ public class ViSearchHttpClientImpl implements ViSearchHttpClient {
         return buildMultipartPostRequest(url, entity);
     }
 
-    private ViSearchHttpResponse getResponse(HttpUriRequest request) {
+    private ViSearchHttpResponse getResponse(RecordedRequest.Kind kind, String path, Multimap<String, String> params,
+                                             HttpUriRequest request, EndpointRouter.Endpoint target) {
         addAuthHeader(request);
         addOtherHeaders(request);
-        CloseableHttpResponse response = executeRequest(request);
+        HttpCall call = new HttpCall(clientConfig, kind, path, params, request);
+        call.setAdaptiveTimeout(clientConfig.getAdaptiveTimeout());
+        call.setTarget(target);
         try {
-            Map<String, String> headers = Maps.newHashMap();
-            Header[] responseHeaders = response.getAllHeaders();
-            if (responseHeaders != null) {
-                for (Header header : responseHeaders) {
-                    headers.put(header.getName(), header.getValue());
+            CloseableHttpResponse response = call.execute(httpClient);
+            try {
+                Map<String, String> headers = getHeaders(response);
+                CountingEntity entity = response.getEntity() == null ? null : new CountingEntity(response.getEntity());
+                if (entity != null) {
+                    response.setEntity(entity);
                 }
+                ViSearchHttpResponse response1 = new ViSearchHttpResponse(response);
+                response1.setHeaders(headers);
+                call.complete(response, entity == null ? 0 : entity.getCount());
+                response1.setTimeline(call.getTimeline());
+                return response1;
+            } catch (IllegalArgumentException e) {
+                throw new InternalViSearchException(ResponseMessages.SYSTEM_ERROR, e);
+                // throw new NetworkException("A network error occurred when reading response from the ViSearch endpoint. " +
+                //        "Please check your network connectivity and try again.", e);
+            }
+        } catch (RuntimeException e) {
+            RuntimeException failure = call.failure(e);
+            call.fail(failure);
+            throw failure;
+        } finally {
+            call.end();
+        }
+    }
+
+    @Override
+    public ViSearchHttpStream getStream(String path, Multimap<String, String> params) {
+        EndpointRouter.Endpoint target = router.select();
+        HttpUriRequest request = buildGetRequest(target.getUrl() + path, params);
+        addAuthHeader(request);
+        addOtherHeaders(request);
+        HttpCall call = new HttpCall(clientConfig, RecordedRequest.Kind.GET, path, params, request);
+        call.setTarget(target);
+        try {
+            CloseableHttpResponse response = call.execute(httpClient);
+            if (response.getEntity() == null) {
+                response.close();
+                throw new InternalViSearchException(ResponseMessages.SYSTEM_ERROR);
             }
-            ViSearchHttpResponse response1 = new ViSearchHttpResponse(response);
-            response1.setHeaders(headers);
-            return response1;
-        } catch (IllegalArgumentException e) {
-            throw new InternalViSearchException(ResponseMessages.SYSTEM_ERROR, e);
-            // throw new NetworkException("A network error occurred when reading response from the ViSearch endpoint. " +
-            //        "Please check your network connectivity and try again.", e);
+            call.opened(response);
+            return new ViSearchHttpStream(response, response.getEntity().getContent(), getHeaders(response), call);
+        } catch (IOException e) {
+            RuntimeException failure = call.failure(new InternalViSearchException(ResponseMessages.NETWORK_ERROR, e));
+            call.fail(failure);
+            call.end();
+            throw failure;
+        } catch (RuntimeException e) {
+            RuntimeException failure = call.failure(e);
+            call.fail(failure);
+            call.end();
+            throw failure;
         }
     }
 
+    private static Map<String, String> getHeaders(HttpResponse response) {
+        Map<String, String> headers = Maps.newHashMap();
+        Header[] responseHeaders = response.getAllHeaders();
+        if (responseHeaders != null) {
+            for (Header header : responseHeaders) {
+                headers.put(header.getName(), header.getValue());
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Name of an endpoint for metrics, with path parameters such as the trans_id of /insert/status removed.
+     */
+    static String metricsEndpoint(String path) {
+        if (path.startsWith(INSERT_STATUS_PATH)) {
+            return "/insert/status";
+        }
+        return path;
+    }
+
     private void addAuthHeader(HttpUriRequest request) {
         try {
             request.addHeader(new BasicScheme().authenticate(credentials, request, null));
@@ -231,16 +330,6 @@ public class ViSearchHttpClientImpl implements ViSearchHttpClient {
         request.addHeader(ViSearchHttpConstants.X_REQUESTED_WITH, clientConfig.DEFAULT_XREQUEST_WITH);
     }
 
-    private CloseableHttpResponse executeRequest(HttpUriRequest request) {
-        try {
-            return httpClient.execute(request);
-        } catch (IOException e) {
-            throw new InternalViSearchException(ResponseMessages.NETWORK_ERROR, e);
-            // throw new NetworkException("A network error occurred when requesting to the ViSearch endpoint. " +
-            //        "Please check your network connectivity and try again.", e);
-        }
-    }
-
     private List<NameValuePair> mapToNameValuePair(Multimap<String, ?> params) {
         List<NameValuePair> pairs = new ArrayList<NameValuePair>();
         for (Map.Entry<String, ?> entry : params.entries()) {
@@ -249,4 +338,62 @@ public class ViSearchHttpClientImpl implements ViSearchHttpClient {
         return pairs;
     }
 
+    /**
+     * Counts the bytes of the response body as it is read.
+     */
+    static class CountingEntity extends HttpEntityWrapper {
+
+        private CountingInputStream content;
+
+        CountingEntity(HttpEntity wrappedEntity) {
+            super(wrappedEntity);
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            content = new CountingInputStream(super.getContent());
+            return content;
+        }
+
+        long getCount() {
+            return content == null ? 0 : content.getCount();
+        }
+    }
+
+    /**
+     * Counts the bytes of the request body as it is written, for bodies of unknown length such as
+     * image streams.
+     */
+    static class CountingRequestEntity extends HttpEntityWrapper {
+
+        private long count;
+
+        CountingRequestEntity(HttpEntity wrappedEntity) {
+            super(wrappedEntity);
+        }
+
+        static CountingRequestEntity wrap(HttpUriRequest request) {
+            if (!(request instanceof HttpEntityEnclosingRequest)) {
+                return null;
+            }
+            HttpEntityEnclosingRequest enclosingRequest = (HttpEntityEnclosingRequest) request;
+            if (enclosingRequest.getEntity() == null) {
+                return null;
+            }
+            CountingRequestEntity entity = new CountingRequestEntity(enclosingRequest.getEntity());
+            enclosingRequest.setEntity(entity);
+            return entity;
+        }
+
+        @Override
+        public void writeTo(OutputStream outStream) throws IOException {
+            CountingOutputStream counting = new CountingOutputStream(outStream);
+            super.writeTo(counting);
+            count = counting.getCount();
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
 }
@@ -3,6 +3,7 @@ package com.visenze.visearch.internal.http;
 import com.visenze.visearch.ResponseMessages;
 import com.visenze.visearch.internal.InternalViSearchException;
 import com.visenze.visearch.internal.ResponseBase;
+import com.visenze.visearch.metrics.RequestTimeline;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.util.EntityUtils;
 
@@ -10,6 +11,7 @@ import java.io.IOException;
 
 public class ViSearchHttpResponse extends ResponseBase {
     private String body;
+    private RequestTimeline timeline;
     public ViSearchHttpResponse(CloseableHttpResponse response) {
         try {
             body = EntityUtils.toString(response.getEntity());
@@ -26,4 +28,16 @@ public class ViSearchHttpResponse extends ResponseBase {
     public String getBody() {
         return body;
     }
+
+    /**
+     * The timeline of the call, for the caller to mark it complete once the body is parsed. Null
+     * when no request listener is configured.
+     */
+    public RequestTimeline getTimeline() {
+        return timeline;
+    }
+
+    public void setTimeline(RequestTimeline timeline) {
+        this.timeline = timeline;
+    }
 }
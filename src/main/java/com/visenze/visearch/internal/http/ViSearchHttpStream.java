@@ -0,0 +1,155 @@
+package com.visenze.visearch.internal.http;
+
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.internal.InternalViSearchException;
+import com.visenze.visearch.metrics.RequestTimeline;
+import org.apache.http.client.methods.CloseableHttpResponse;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * A response whose body is read by the caller as it arrives, see
+ * {@link ViSearchHttpClient#getStream}. The caller must close it; the connection is released then
+ * and, unless the body was read to its end, not reused.
+ */
+public class ViSearchHttpStream implements Closeable {
+
+    private final CloseableHttpResponse response;
+    private final HttpCall call;
+    private final ReadingInputStream content;
+    private final Map<String, String> headers;
+    private boolean closed;
+
+    /**
+     * A response over the given body, e.g. for a {@link ViSearchHttpClient} that does not call
+     * the API.
+     */
+    public ViSearchHttpStream(InputStream content, Map<String, String> headers) {
+        this(null, content, headers, null);
+    }
+
+    ViSearchHttpStream(CloseableHttpResponse response, InputStream content, Map<String, String> headers, HttpCall call) {
+        this.response = response;
+        this.call = call;
+        this.content = new ReadingInputStream(content);
+        this.headers = headers;
+    }
+
+    public InputStream getContent() {
+        return content;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * The timeline of the call, for the caller to mark it complete once the body is parsed. Null
+     * when no request listener is configured.
+     */
+    public RequestTimeline getTimeline() {
+        return call == null ? null : call.getTimeline();
+    }
+
+    /**
+     * The error to report for a failed read of the body: a timeout or cancel if the call was
+     * aborted, a network error otherwise.
+     */
+    public InternalViSearchException readError(IOException e) {
+        InternalViSearchException aborted = call == null ? null : call.abortError(e);
+        if (aborted != null) {
+            return aborted;
+        }
+        return new InternalViSearchException(ResponseMessages.NETWORK_ERROR, e);
+    }
+
+    /**
+     * Release the connection and finish the call, counting the bytes read so far. A call whose
+     * body could not be read counts as failed.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (response != null) {
+                response.close();
+            } else {
+                content.close();
+            }
+        } catch (IOException e) {
+            // the body is not needed anymore
+        }
+        if (call != null) {
+            if (content.error == null) {
+                call.complete(response, content.count);
+            } else {
+                call.fail(readError(content.error));
+            }
+            call.end();
+        }
+    }
+
+    /**
+     * Counts the bytes read and keeps the first read error.
+     */
+    private static class ReadingInputStream extends FilterInputStream {
+
+        private long count;
+        private IOException error;
+
+        ReadingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                int b = super.read();
+                if (b >= 0) {
+                    count++;
+                }
+                return b;
+            } catch (IOException e) {
+                throw failed(e);
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                int read = super.read(b, off, len);
+                if (read > 0) {
+                    count += read;
+                }
+                return read;
+            } catch (IOException e) {
+                throw failed(e);
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            try {
+                long skipped = super.skip(n);
+                count += skipped;
+                return skipped;
+            } catch (IOException e) {
+                throw failed(e);
+            }
+        }
+
+        private IOException failed(IOException e) {
+            if (error == null) {
+                error = e;
+            }
+            return e;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.visenze.visearch.internal.json;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.visenze.visearch.ImageResult;
+import com.visenze.visearch.MetadataInterner;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads an {@link ImageResult} like {@link ImageResultMixin} does, with two optional modes for
+ * the metadata: taking keys and values from a {@link MetadataInterner}, and keeping the metadata
+ * as JSON text to decode on first access, see {@link LazyImageResult}. Interned string values are
+ * looked up straight from the buffer of a text parser; a parser over a tree, as used for result
+ * lists, already holds every value as a string and hands it over as is. Either way a repeated
+ * value allocates nothing beyond what the parser does.
+ */
+class ImageResultDeserializer extends StdDeserializer<ImageResult> {
+
+    static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final String IM_NAME = "im_name";
+    private static final String VALUE_MAP = "value_map";
+    private static final String SCORE = "score";
+
+    private final MetadataInterner interner;
+    private final boolean lazyMetadata;
+
+    /**
+     * @param interner     interns metadata keys and values, or null
+     * @param lazyMetadata whether to decode metadata on first access
+     */
+    ImageResultDeserializer(MetadataInterner interner, boolean lazyMetadata) {
+        super(ImageResult.class);
+        this.interner = interner;
+        this.lazyMetadata = lazyMetadata;
+    }
+
+    @Override
+    public ImageResult deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        if (p.getCurrentToken() != JsonToken.START_OBJECT) {
+            throw ctxt.mappingException(ImageResult.class);
+        }
+        String imName = null;
+        Map<String, String> metadata = null;
+        String metadataJson = null;
+        Float score = null;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.getCurrentName();
+            JsonToken token = p.nextToken();
+            if (IM_NAME.equals(field)) {
+                imName = token == JsonToken.VALUE_STRING ? p.getText() : ctxt.readValue(p, String.class);
+            } else if (VALUE_MAP.equals(field)) {
+                if (token == JsonToken.VALUE_NULL) {
+                    metadata = null;
+                    metadataJson = null;
+                } else if (token != JsonToken.START_OBJECT) {
+                    throw ctxt.mappingException(Map.class);
+                } else if (lazyMetadata) {
+                    metadataJson = copy(p);
+                } else {
+                    metadata = readMetadata(p, ctxt, interner);
+                }
+            } else if (SCORE.equals(field)) {
+                score = token == JsonToken.VALUE_NUMBER_FLOAT || token == JsonToken.VALUE_NUMBER_INT
+                        ? Float.valueOf(p.getFloatValue()) : ctxt.readValue(p, Float.class);
+            } else {
+                p.skipChildren();
+            }
+        }
+        if (lazyMetadata) {
+            return new LazyImageResult(imName, metadataJson, score, interner);
+        }
+        return new ImageResult(imName, metadata, score);
+    }
+
+    /**
+     * Read the object at the current token into a map, with nested objects and arrays as JSON text.
+     *
+     * @param ctxt the context to coerce scalars with, or null to take their text
+     */
+    static Map<String, String> readMetadata(JsonParser p, DeserializationContext ctxt, MetadataInterner interner) throws IOException {
+        Map<String, String> metadata = new LinkedHashMap<String, String>();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String key = p.getCurrentName();
+            JsonToken token = p.nextToken();
+            String value;
+            if (token == JsonToken.VALUE_STRING) {
+                // a tree parser copies its text into a new array on every getTextCharacters
+                value = interner == null || !p.hasTextCharacters() ? intern(interner, p.getText())
+                        : interner.intern(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+            } else if (token == JsonToken.VALUE_NULL) {
+                value = null;
+            } else if (ctxt != null) {
+                value = intern(interner, ctxt.readValue(p, String.class));
+            } else if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                value = copy(p);
+            } else {
+                value = intern(interner, p.getText());
+            }
+            metadata.put(intern(interner, key), value);
+        }
+        return metadata;
+    }
+
+    private static String intern(MetadataInterner interner, String value) {
+        return interner == null ? value : interner.intern(value);
+    }
+
+    /**
+     * The JSON text of the object or array at the current token, leaving the parser at its end.
+     */
+    static String copy(JsonParser p) throws IOException {
+        StringWriter writer = new StringWriter();
+        JsonGenerator generator = JSON_FACTORY.createGenerator(writer);
+        generator.copyCurrentStructure(p);
+        generator.close();
+        return writer.toString();
+    }
+}
@@ -0,0 +1,98 @@
+package com.visenze.visearch.internal.json;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.visenze.visearch.ImageResult;
+import com.visenze.visearch.MetadataInterner;
+import com.visenze.visearch.internal.InternalViSearchException;
+import com.visenze.visearch.ResponseMessages;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * An {@link ImageResult} keeping its metadata as the JSON text of the response, decoded into a
+ * map on the first call to {@link #getMetadata()}. {@link #getMetadata(String)} before that scans
+ * the text for the one key without decoding the rest. Nested objects and arrays in the metadata,
+ * which the eager mode rejects, are returned as JSON text.
+ */
+class LazyImageResult extends ImageResult {
+
+    private final String metadataJson;
+    private final MetadataInterner interner;
+    private volatile Map<String, String> metadata;
+
+    LazyImageResult(String imName, String metadataJson, Float score, MetadataInterner interner) {
+        super(imName, null, score);
+        this.metadataJson = metadataJson;
+        this.interner = interner;
+    }
+
+    @Override
+    public Map<String, String> getMetadata() {
+        Map<String, String> decoded = metadata;
+        if (decoded == null && metadataJson != null) {
+            JsonParser p = parser();
+            try {
+                decoded = ImageResultDeserializer.readMetadata(p, null, interner);
+            } catch (IOException e) {
+                throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, metadataJson);
+            } finally {
+                close(p);
+            }
+            metadata = decoded;
+        }
+        return decoded;
+    }
+
+    @Override
+    public String getMetadata(String key) {
+        Map<String, String> decoded = metadata;
+        if (decoded != null || metadataJson == null) {
+            return decoded == null ? null : decoded.get(key);
+        }
+        JsonParser p = parser();
+        try {
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                boolean match = key.equals(p.getCurrentName());
+                JsonToken token = p.nextToken();
+                if (!match) {
+                    p.skipChildren();
+                } else if (token == JsonToken.VALUE_NULL) {
+                    return null;
+                } else if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                    return ImageResultDeserializer.copy(p);
+                } else {
+                    return p.getText();
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, metadataJson);
+        } finally {
+            close(p);
+        }
+    }
+
+    /**
+     * A parser positioned at the start of the metadata object.
+     */
+    private JsonParser parser() {
+        try {
+            JsonParser p = ImageResultDeserializer.JSON_FACTORY.createParser(metadataJson);
+            p.nextToken();
+            return p;
+        } catch (IOException e) {
+            throw new InternalViSearchException(ResponseMessages.PARSE_RESPONSE_ERROR, e, metadataJson);
+        }
+    }
+
+    private static void close(JsonParser p) {
+        try {
+            p.close();
+        } catch (IOException e) {
+            // nothing to release for a string
+        }
+    }
+}
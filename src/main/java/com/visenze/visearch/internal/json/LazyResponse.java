@@ -0,0 +1,114 @@
+package com.visenze.visearch.internal.json;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.visenze.visearch.ImageResult;
+import com.visenze.visearch.MetadataInterner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A search response read in one streaming pass for lazy metadata: the top level
+ * <code>result</code> list becomes {@link LazyImageResult}s holding the text of their
+ * <code>value_map</code> cut from the response, without building a tree of it; all other fields
+ * are read into a tree as usual.
+ */
+public final class LazyResponse {
+
+    private static final String RESULT = "result";
+    private static final String IM_NAME = "im_name";
+    private static final String VALUE_MAP = "value_map";
+    private static final String SCORE = "score";
+
+    private final JsonNode node;
+    private final List<ImageResult> results;
+
+    private LazyResponse(JsonNode node, List<ImageResult> results) {
+        this.node = node;
+        this.results = results;
+    }
+
+    /**
+     * @throws IOException if the response is not a JSON object
+     */
+    public static LazyResponse parse(ObjectMapper objectMapper, String response, MetadataInterner interner) throws IOException {
+        JsonParser p = objectMapper.getFactory().createParser(response);
+        try {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Response is not a JSON object");
+            }
+            ObjectNode node = objectMapper.createObjectNode();
+            List<ImageResult> results = null;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                JsonToken token = p.nextToken();
+                if (RESULT.equals(field) && token == JsonToken.START_ARRAY) {
+                    results = readResults(p, response, interner);
+                } else {
+                    JsonNode value = objectMapper.readTree(p);
+                    node.set(field, value == null ? node.nullNode() : value);
+                }
+            }
+            return new LazyResponse(node, results);
+        } finally {
+            p.close();
+        }
+    }
+
+    private static List<ImageResult> readResults(JsonParser p, String response, MetadataInterner interner) throws IOException {
+        List<ImageResult> results = new ArrayList<ImageResult>();
+        for (JsonToken token = p.nextToken(); token != JsonToken.END_ARRAY; token = p.nextToken()) {
+            if (token != JsonToken.START_OBJECT) {
+                throw new IOException("Result is not a JSON object");
+            }
+            String imName = null;
+            String metadataJson = null;
+            Float score = null;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.getCurrentName();
+                JsonToken value = p.nextToken();
+                if (IM_NAME.equals(field)) {
+                    imName = value == JsonToken.VALUE_NULL ? null : p.getValueAsString();
+                } else if (VALUE_MAP.equals(field) && value == JsonToken.START_OBJECT) {
+                    int start = (int) p.getTokenLocation().getCharOffset();
+                    p.skipChildren();
+                    int end = (int) p.getCurrentLocation().getCharOffset();
+                    metadataJson = response.substring(start, end);
+                } else if (SCORE.equals(field) && value != JsonToken.VALUE_NULL) {
+                    score = value == JsonToken.VALUE_STRING ? parseScore(p.getText()) : p.getFloatValue();
+                } else {
+                    p.skipChildren();
+                }
+            }
+            results.add(new LazyImageResult(imName, metadataJson, score, interner));
+        }
+        return results;
+    }
+
+    private static Float parseScore(String text) throws IOException {
+        try {
+            return Float.valueOf(text.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid score " + text, e);
+        }
+    }
+
+    /**
+     * The response without its result list.
+     */
+    public JsonNode getNode() {
+        return node;
+    }
+
+    /**
+     * The results, null if the response has no result list.
+     */
+    public List<ImageResult> getResults() {
+        return results;
+    }
+}
@@ -0,0 +1,95 @@
+package com.visenze.visearch.internal.json;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.visenze.visearch.ImageResult;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A search response read as it arrives: the elements of the top level <code>result</code> list
+ * are returned one at a time, all other fields are read into a tree as they are reached. Only the
+ * result being read is held in memory, whatever the size of the list.
+ */
+public final class StreamingResponse implements Closeable {
+
+    private static final String RESULT = "result";
+
+    private final ObjectMapper objectMapper;
+    private final JsonParser p;
+    private final ObjectNode node;
+    private boolean started;
+    private boolean inResults;
+    private boolean done;
+
+    public StreamingResponse(ObjectMapper objectMapper, InputStream content) throws IOException {
+        this.objectMapper = objectMapper;
+        this.p = objectMapper.getFactory().createParser(content);
+        this.node = objectMapper.createObjectNode();
+    }
+
+    /**
+     * Read up to the next result, bound like the results of a buffered response.
+     *
+     * @return the result, null once the whole response was read
+     * @throws IOException if the response cannot be read or is not a JSON object
+     */
+    public ImageResult nextResult() throws IOException {
+        if (!started) {
+            started = true;
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Response is not a JSON object");
+            }
+        }
+        while (!done) {
+            if (inResults) {
+                JsonToken token = p.nextToken();
+                if (token == null) {
+                    throw new IOException("Response ended unexpectedly");
+                }
+                if (token == JsonToken.END_ARRAY) {
+                    inResults = false;
+                    continue;
+                }
+                if (token != JsonToken.START_OBJECT) {
+                    throw new IOException("Result is not a JSON object");
+                }
+                return objectMapper.readValue(p, ImageResult.class);
+            }
+            JsonToken token = p.nextToken();
+            if (token != JsonToken.FIELD_NAME) {
+                if (token != JsonToken.END_OBJECT) {
+                    throw new IOException("Response ended unexpectedly");
+                }
+                done = true;
+                break;
+            }
+            String field = p.getCurrentName();
+            token = p.nextToken();
+            if (RESULT.equals(field) && token == JsonToken.START_ARRAY) {
+                inResults = true;
+            } else {
+                JsonNode value = objectMapper.readTree(p);
+                node.set(field, value == null ? node.nullNode() : value);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The fields of the response read so far, without the result list.
+     */
+    public JsonNode getNode() {
+        return node;
+    }
+
+    @Override
+    public void close() throws IOException {
+        p.close();
+    }
+}
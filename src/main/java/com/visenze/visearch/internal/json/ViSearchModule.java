@@ -6,11 +6,30 @@ import com.visenze.visearch.*;
 public class ViSearchModule extends SimpleModule {
 
     public ViSearchModule() {
+        this(null);
+    }
+
+    /**
+     * @param metadataInterner interns the metadata of image results, or null to read it as is
+     */
+    public ViSearchModule(MetadataInterner metadataInterner) {
+        this(metadataInterner, false);
+    }
+
+    /**
+     * @param metadataInterner interns the metadata of image results, or null to read it as is
+     * @param lazyMetadata     whether to decode the metadata of image results on first access
+     */
+    public ViSearchModule(MetadataInterner metadataInterner, boolean lazyMetadata) {
         super("ViSearchModule");
+        if (metadataInterner != null || lazyMetadata) {
+            addDeserializer(ImageResult.class, new ImageResultDeserializer(metadataInterner, lazyMetadata));
+        }
     }
 
     @Override
     public void setupModule(SetupContext context) {
+        super.setupModule(context);
         context.setMixInAnnotations(ImageResult.class, ImageResultMixin.class);
         context.setMixInAnnotations(ProductType.class, ProductTypeMixin.class);
         context.setMixInAnnotations(Facet.class, FacetMixin.class);
@@ -0,0 +1,15 @@
+package com.visenze.visearch.metrics;
+
+/**
+ * Alerted when the http connection pool runs out of connections, see
+ * {@link com.visenze.visearch.ClientConfig#setConnectionPoolListener(ConnectionPoolListener)}.
+ */
+public interface ConnectionPoolListener {
+
+    /**
+     * Requests are waiting for a connection, or the pool utilization reached the configured
+     * saturation threshold. Called from the background eviction thread once per check while the
+     * pool stays saturated.
+     */
+    void onSaturated(ConnectionPoolStats stats);
+}
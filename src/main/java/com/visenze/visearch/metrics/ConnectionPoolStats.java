@@ -0,0 +1,72 @@
+package com.visenze.visearch.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Snapshot of the http connection pool, in total or for one route (scheme, host and port).
+ */
+public class ConnectionPoolStats {
+
+    private final int leased;
+    private final int pending;
+    private final int available;
+    private final int max;
+    private final Map<String, ConnectionPoolStats> routes;
+
+    public ConnectionPoolStats(int leased, int pending, int available, int max, Map<String, ConnectionPoolStats> routes) {
+        this.leased = leased;
+        this.pending = pending;
+        this.available = available;
+        this.max = max;
+        this.routes = routes == null ? Collections.<String, ConnectionPoolStats>emptyMap() : Collections.unmodifiableMap(routes);
+    }
+
+    /**
+     * Connections in use by a request.
+     */
+    public int getLeased() {
+        return leased;
+    }
+
+    /**
+     * Requests waiting for a connection.
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    /**
+     * Idle connections kept alive for reuse.
+     */
+    public int getAvailable() {
+        return available;
+    }
+
+    /**
+     * Maximum number of connections, see {@link com.visenze.visearch.ClientConfig#setMaxConnection(int)}.
+     */
+    public int getMax() {
+        return max;
+    }
+
+    /**
+     * Fraction of the maximum connections in use.
+     */
+    public double getUtilization() {
+        return max == 0 ? 0 : (double) leased / max;
+    }
+
+    /**
+     * Stats per route, empty for the stats of a route itself.
+     */
+    public Map<String, ConnectionPoolStats> getRoutes() {
+        return routes;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPoolStats{leased=" + leased + ", pending=" + pending + ", available=" + available
+                + ", max=" + max + ", routes=" + routes + "}";
+    }
+}
@@ -0,0 +1,58 @@
+package com.visenze.visearch.metrics;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Looks up Java Flight Recorder support without linking against <code>jdk.jfr</code>, so the SDK
+ * keeps running on JDKs without it.
+ */
+public final class FlightRecorderSupport {
+
+    private static final String LISTENER_CLASS = "com.visenze.visearch.metrics.jfr.FlightRecorderListener";
+
+    private FlightRecorderSupport() {
+    }
+
+    /**
+     * Whether the running JDK supports JFR and the SDK was built with its events.
+     */
+    public static boolean isAvailable() {
+        try {
+            Class<?> flightRecorder = Class.forName("jdk.jfr.FlightRecorder");
+            if (!Boolean.TRUE.equals(flightRecorder.getMethod("isAvailable").invoke(null))) {
+                return false;
+            }
+            Class.forName(LISTENER_CLASS);
+            return true;
+        } catch (Exception e) {
+            return false;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return a listener emitting the SDK's JFR events, null if JFR is not available
+     */
+    public static RequestListener newListener() {
+        if (!isAvailable()) {
+            return null;
+        }
+        try {
+            return (RequestListener) Class.forName(LISTENER_CLASS).getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (InstantiationException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            return null;
+        } catch (InvocationTargetException e) {
+            // the listener constructor failed
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.visenze.visearch.metrics;
+
+import com.visenze.visearch.ResponseMessages;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Built-in {@link ViSearchMetrics} keeping per endpoint counters and a {@link LatencyHistogram}
+ * in memory, for polling by a reporter of your choice:
+ * <pre>
+ * HistogramViSearchMetrics metrics = new HistogramViSearchMetrics();
+ * clientConfig.setMetrics(metrics);
+ * ...
+ * long p99 = metrics.getEndpoint("/search").getLatency().getValueAtPercentile(99, TimeUnit.MILLISECONDS);
+ * </pre>
+ * All recording is lock-free; only the first call to a new endpoint allocates.
+ */
+public class HistogramViSearchMetrics implements ViSearchMetrics {
+
+    private final ConcurrentMap<String, EndpointMetrics> endpoints = new ConcurrentHashMap<String, EndpointMetrics>();
+
+    @Override
+    public void requestStarted(String endpoint) {
+        endpoint(endpoint).inFlight.incrementAndGet();
+    }
+
+    @Override
+    public void connectionLeased(String endpoint, long waitNanos) {
+        endpoint(endpoint).poolWait.record(waitNanos);
+    }
+
+    @Override
+    public void requestCompleted(String endpoint, int statusCode, long latencyNanos, long requestBytes, long responseBytes) {
+        EndpointMetrics metrics = endpoint(endpoint);
+        metrics.inFlight.decrementAndGet();
+        metrics.requests.incrementAndGet();
+        metrics.latency.record(latencyNanos);
+        metrics.requestBytes.addAndGet(requestBytes);
+        metrics.responseBytes.addAndGet(responseBytes);
+        if (statusCode >= 400) {
+            metrics.httpErrors.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void requestFailed(String endpoint, long latencyNanos) {
+        EndpointMetrics metrics = endpoint(endpoint);
+        metrics.inFlight.decrementAndGet();
+        metrics.requests.incrementAndGet();
+        metrics.failures.incrementAndGet();
+        metrics.latency.record(latencyNanos);
+    }
+
+    @Override
+    public void error(String endpoint, ResponseMessages category) {
+        endpoint(endpoint).errors.incrementAndGet(category == null ? EndpointMetrics.OTHER_ERROR : category.ordinal());
+    }
+
+    /**
+     * Endpoints called so far, in name order.
+     */
+    public Set<String> getEndpoints() {
+        return Collections.unmodifiableSet(new TreeSet<String>(endpoints.keySet()));
+    }
+
+    /**
+     * @return the metrics of an endpoint, empty if it was never called; reading an endpoint does
+     * not add it to {@link #getEndpoints()}
+     */
+    public EndpointMetrics getEndpoint(String endpoint) {
+        EndpointMetrics metrics = endpoints.get(endpoint);
+        return metrics == null ? new EndpointMetrics() : metrics;
+    }
+
+    /**
+     * Requests in flight over all endpoints.
+     */
+    public int getInFlight() {
+        int inFlight = 0;
+        for (EndpointMetrics metrics : endpoints.values()) {
+            inFlight += metrics.getInFlight();
+        }
+        return inFlight;
+    }
+
+    private EndpointMetrics endpoint(String endpoint) {
+        EndpointMetrics metrics = endpoints.get(endpoint);
+        if (metrics == null) {
+            EndpointMetrics created = new EndpointMetrics();
+            metrics = endpoints.putIfAbsent(endpoint, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Counters of one endpoint.
+     */
+    public static class EndpointMetrics {
+
+        private static final ResponseMessages[] CATEGORIES = ResponseMessages.values();
+        private static final int OTHER_ERROR = CATEGORIES.length;
+
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong httpErrors = new AtomicLong();
+        private final AtomicLong requestBytes = new AtomicLong();
+        private final AtomicLong responseBytes = new AtomicLong();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLongArray errors = new AtomicLongArray(CATEGORIES.length + 1);
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram poolWait = new LatencyHistogram();
+
+        /**
+         * Requests sent, including failed ones.
+         */
+        public long getRequests() {
+            return requests.get();
+        }
+
+        /**
+         * Requests without a response, e.g. timeouts.
+         */
+        public long getFailures() {
+            return failures.get();
+        }
+
+        /**
+         * Responses with an http status of 400 or above.
+         */
+        public long getHttpErrors() {
+            return httpErrors.get();
+        }
+
+        public long getRequestBytes() {
+            return requestBytes.get();
+        }
+
+        public long getResponseBytes() {
+            return responseBytes.get();
+        }
+
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * Time requests waited for a pooled connection.
+         */
+        public LatencyHistogram getPoolWait() {
+            return poolWait;
+        }
+
+        public long getErrors(ResponseMessages category) {
+            return errors.get(category.ordinal());
+        }
+
+        /**
+         * Errors with a server message that has no {@link ResponseMessages} constant.
+         */
+        public long getOtherErrors() {
+            return errors.get(OTHER_ERROR);
+        }
+
+        /**
+         * Non zero error counts by category.
+         */
+        public Map<ResponseMessages, Long> getErrors() {
+            Map<ResponseMessages, Long> counts = new EnumMap<ResponseMessages, Long>(ResponseMessages.class);
+            for (ResponseMessages category : CATEGORIES) {
+                long count = errors.get(category.ordinal());
+                if (count > 0) {
+                    counts.put(category, count);
+                }
+            }
+            return counts;
+        }
+
+        public long getTotalErrors() {
+            long total = 0;
+            for (int i = 0; i <= OTHER_ERROR; i++) {
+                total += errors.get(i);
+            }
+            return total;
+        }
+    }
+}
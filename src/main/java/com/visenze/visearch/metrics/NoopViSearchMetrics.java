@@ -0,0 +1,34 @@
+package com.visenze.visearch.metrics;
+
+import com.visenze.visearch.ResponseMessages;
+
+/**
+ * Discards all measurements, the default.
+ */
+public final class NoopViSearchMetrics implements ViSearchMetrics {
+
+    public static final NoopViSearchMetrics INSTANCE = new NoopViSearchMetrics();
+
+    private NoopViSearchMetrics() {
+    }
+
+    @Override
+    public void requestStarted(String endpoint) {
+    }
+
+    @Override
+    public void connectionLeased(String endpoint, long waitNanos) {
+    }
+
+    @Override
+    public void requestCompleted(String endpoint, int statusCode, long latencyNanos, long requestBytes, long responseBytes) {
+    }
+
+    @Override
+    public void requestFailed(String endpoint, long latencyNanos) {
+    }
+
+    @Override
+    public void error(String endpoint, ResponseMessages category) {
+    }
+}
@@ -0,0 +1,21 @@
+package com.visenze.visearch.metrics;
+
+/**
+ * Observes the lifecycle of every ViSearch API call, see
+ * {@link com.visenze.visearch.ClientConfig#addRequestListener(RequestListener)}.
+ *
+ * Callbacks run on the calling thread while the call is in progress, so implementations must be
+ * thread safe and fast. Exceptions thrown by a listener are ignored.
+ */
+public interface RequestListener {
+
+    /**
+     * A call reached a phase; {@link RequestTimeline#getNanos(RequestPhase)} holds its timestamp.
+     */
+    void onPhase(RequestTimeline timeline, RequestPhase phase);
+
+    /**
+     * A call finished, after the response was parsed or when it failed.
+     */
+    void onComplete(RequestTimeline timeline);
+}
@@ -0,0 +1,21 @@
+package com.visenze.visearch.metrics;
+
+/**
+ * Phases of a ViSearch API call, in the order they are reached.
+ */
+public enum RequestPhase {
+    /** The call asked the connection pool for a connection. */
+    LEASE_START,
+    /** A connection was leased from the pool, the time since LEASE_START is pool wait. */
+    LEASED,
+    /** The connection is open, including the TLS handshake for https. Equal to LEASED for a reused connection. */
+    CONNECTED,
+    /** The request line, headers and body were written. */
+    REQUEST_SENT,
+    /** The response status line and headers were received. */
+    FIRST_BYTE,
+    /** The response body was read. */
+    BODY_COMPLETE,
+    /** The response body was parsed into a result object. */
+    PARSE_COMPLETE
+}
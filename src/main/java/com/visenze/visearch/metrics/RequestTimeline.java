@@ -0,0 +1,235 @@
+package com.visenze.visearch.metrics;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timestamps of the phases of one ViSearch API call, taken with {@link System#nanoTime()}.
+ *
+ * The SDK marks the phases as the call proceeds and hands the timeline to the
+ * {@link RequestListener}s. Phases a call did not reach, e.g. after a connect timeout, have no
+ * timestamp. A timeline belongs to a single call and is not meant to be shared between threads
+ * while the call is in progress.
+ */
+public class RequestTimeline {
+
+    private static final RequestPhase[] PHASES = RequestPhase.values();
+
+    private final String endpoint;
+    private final String method;
+    private final List<RequestListener> listeners;
+    private final long[] nanos = new long[PHASES.length];
+    private final boolean[] reached = new boolean[PHASES.length];
+    private int statusCode;
+    private long requestBytes;
+    private long responseBytes;
+    private boolean connectionReused;
+    private String resultType;
+    private int resultCount = -1;
+    private Throwable error;
+    private boolean completed;
+    private Map<RequestListener, Object> attachments;
+
+    public RequestTimeline(String endpoint, String method, List<RequestListener> listeners) {
+        this.endpoint = endpoint;
+        this.method = method;
+        this.listeners = listeners;
+    }
+
+    /**
+     * The API path without path parameters, e.g. <code>/search</code>.
+     */
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * The http method, GET or POST.
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    public boolean hasReached(RequestPhase phase) {
+        return reached[phase.ordinal()];
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} at which the phase was reached, or 0 if it was not
+     */
+    public long getNanos(RequestPhase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    /**
+     * Time between two reached phases, -1 if either was not reached.
+     */
+    public long getDuration(RequestPhase from, RequestPhase to, TimeUnit unit) {
+        if (!hasReached(from) || !hasReached(to)) {
+            return -1;
+        }
+        return unit.convert(getNanos(to) - getNanos(from), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Time from {@link RequestPhase#LEASE_START} to the last reached phase.
+     */
+    public long getTotalDuration(TimeUnit unit) {
+        for (int i = PHASES.length - 1; i >= 0; i--) {
+            if (reached[i]) {
+                return getDuration(RequestPhase.LEASE_START, PHASES[i], unit);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The http status code, 0 if no response was received.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    /**
+     * Whether the call reused a pooled connection rather than opening one.
+     */
+    public boolean isConnectionReused() {
+        return connectionReused;
+    }
+
+    /**
+     * Simple class name of the parsed result, e.g. <code>PagedSearchResult</code>, null if the
+     * response could not be parsed.
+     */
+    public String getResultType() {
+        return resultType;
+    }
+
+    /**
+     * Number of results in the parsed page, 1 for results that are not paged, -1 if the response
+     * could not be parsed.
+     */
+    public int getResultCount() {
+        return resultCount;
+    }
+
+    /**
+     * The reason the call failed before a response was parsed, null otherwise.
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    /**
+     * @return the state a listener attached to this call, null if none
+     */
+    public synchronized Object getAttachment(RequestListener listener) {
+        return attachments == null ? null : attachments.get(listener);
+    }
+
+    /**
+     * Attach per call state for a listener, e.g. an event in progress, or remove it with null. Kept
+     * on the timeline rather than in a thread local, because a streamed call may complete on
+     * another thread than the one that started it.
+     */
+    public synchronized void setAttachment(RequestListener listener, Object attachment) {
+        if (attachment == null) {
+            if (attachments != null) {
+                attachments.remove(listener);
+            }
+            return;
+        }
+        if (attachments == null) {
+            attachments = new IdentityHashMap<RequestListener, Object>(2);
+        }
+        attachments.put(listener, attachment);
+    }
+
+    /**
+     * Mark a phase as reached now. Called by the SDK.
+     */
+    public void mark(RequestPhase phase) {
+        int index = phase.ordinal();
+        nanos[index] = System.nanoTime();
+        reached[index] = true;
+        for (RequestListener listener : listeners) {
+            try {
+                listener.onPhase(this, phase);
+            } catch (RuntimeException e) {
+                // a listener must not fail the call
+            }
+        }
+    }
+
+    public void setResponse(int statusCode, long requestBytes, long responseBytes) {
+        this.statusCode = statusCode;
+        this.requestBytes = requestBytes;
+        this.responseBytes = responseBytes;
+    }
+
+    public void setConnectionReused(boolean connectionReused) {
+        this.connectionReused = connectionReused;
+    }
+
+    public void setResult(String resultType, int resultCount) {
+        this.resultType = resultType;
+        this.resultCount = resultCount;
+    }
+
+    /**
+     * Finish the call after a failure. Called by the SDK.
+     */
+    public void fail(Throwable error) {
+        this.error = error;
+        complete();
+    }
+
+    /**
+     * Finish the call once its response was parsed. Called by the SDK.
+     */
+    public void parseComplete() {
+        if (!completed) {
+            mark(RequestPhase.PARSE_COMPLETE);
+        }
+        complete();
+    }
+
+    /**
+     * Finish the call without marking further phases, notifying the listeners once. Called by the SDK.
+     */
+    public void complete() {
+        if (completed) {
+            return;
+        }
+        completed = true;
+        for (RequestListener listener : listeners) {
+            try {
+                listener.onComplete(this);
+            } catch (RuntimeException e) {
+                // a listener must not fail the call
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(endpoint).append(" ").append(statusCode);
+        for (int i = 1; i < PHASES.length; i++) {
+            if (reached[i]) {
+                builder.append(' ').append(PHASES[i].name().toLowerCase()).append('=')
+                        .append(TimeUnit.NANOSECONDS.toMicros(nanos[i] - nanos[0])).append("us");
+            }
+        }
+        return builder.toString();
+    }
+}
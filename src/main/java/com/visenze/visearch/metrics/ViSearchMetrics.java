@@ -0,0 +1,47 @@
+package com.visenze.visearch.metrics;
+
+import com.visenze.visearch.ResponseMessages;
+
+/**
+ * Receives measurements of every ViSearch API call, see {@link com.visenze.visearch.ClientConfig#setMetrics(ViSearchMetrics)}.
+ *
+ * Endpoints are API paths without path parameters, e.g. <code>/search</code> or
+ * <code>/insert/status</code>. Methods are called on the calling thread of every request, so
+ * implementations must be thread safe and should not block.
+ */
+public interface ViSearchMetrics {
+
+    /**
+     * A request is about to be sent.
+     */
+    void requestStarted(String endpoint);
+
+    /**
+     * A connection was leased from the pool for a request.
+     *
+     * @param waitNanos time spent waiting for the connection, high values mean the pool is too small
+     */
+    void connectionLeased(String endpoint, long waitNanos);
+
+    /**
+     * A response was received and its body read.
+     *
+     * @param statusCode    the http status code
+     * @param latencyNanos  time from {@link #requestStarted(String)} until the body was read
+     * @param requestBytes  size of the request body, 0 if unknown
+     * @param responseBytes size of the response body
+     */
+    void requestCompleted(String endpoint, int statusCode, long latencyNanos, long requestBytes, long responseBytes);
+
+    /**
+     * No response could be read, e.g. on a connect or socket timeout.
+     */
+    void requestFailed(String endpoint, long latencyNanos);
+
+    /**
+     * A call returned an error result.
+     *
+     * @param category the error, or null for a server message without a {@link ResponseMessages} constant
+     */
+    void error(String endpoint, ResponseMessages category);
+}
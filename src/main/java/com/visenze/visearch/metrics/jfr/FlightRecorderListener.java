@@ -0,0 +1,86 @@
+package com.visenze.visearch.metrics.jfr;
+
+import com.visenze.visearch.metrics.RequestListener;
+import com.visenze.visearch.metrics.RequestPhase;
+import com.visenze.visearch.metrics.RequestTimeline;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Emits a {@link HttpCallEvent} and a {@link ResponseParseEvent} per call, for correlation with GC
+ * and thread activity in a flight recording. Only loaded through
+ * {@link com.visenze.visearch.ClientConfig#enableFlightRecorderEvents()} on JDKs with JFR.
+ *
+ * The events in progress are attached to the call's {@link RequestTimeline}, so a streamed result
+ * closed on another thread still commits the events of its own call.
+ */
+public class FlightRecorderListener implements RequestListener {
+
+    /**
+     * The events in progress of one call.
+     */
+    private static class Events {
+        HttpCallEvent httpCall;
+        ResponseParseEvent responseParse;
+    }
+
+    @Override
+    public void onPhase(RequestTimeline timeline, RequestPhase phase) {
+        if (phase == RequestPhase.LEASE_START) {
+            Events events = new Events();
+            events.httpCall = new HttpCallEvent();
+            events.httpCall.begin();
+            timeline.setAttachment(this, events);
+        } else if (phase == RequestPhase.BODY_COMPLETE) {
+            Events events = (Events) timeline.getAttachment(this);
+            if (events == null) {
+                return;
+            }
+            commitHttpCall(timeline, events);
+            events.responseParse = new ResponseParseEvent();
+            events.responseParse.begin();
+        }
+    }
+
+    @Override
+    public void onComplete(RequestTimeline timeline) {
+        Events events = (Events) timeline.getAttachment(this);
+        if (events == null) {
+            return;
+        }
+        timeline.setAttachment(this, null);
+        commitHttpCall(timeline, events);
+        ResponseParseEvent event = events.responseParse;
+        if (event == null) {
+            return;
+        }
+        events.responseParse = null;
+        event.end();
+        if (event.shouldCommit()) {
+            event.endpoint = timeline.getEndpoint();
+            event.resultType = timeline.getResultType();
+            event.resultCount = timeline.getResultCount();
+            event.commit();
+        }
+    }
+
+    private void commitHttpCall(RequestTimeline timeline, Events events) {
+        HttpCallEvent event = events.httpCall;
+        if (event == null) {
+            return;
+        }
+        events.httpCall = null;
+        event.end();
+        if (event.shouldCommit()) {
+            event.endpoint = timeline.getEndpoint();
+            event.method = timeline.getMethod();
+            event.statusCode = timeline.getStatusCode();
+            event.requestBytes = timeline.getRequestBytes();
+            event.responseBytes = timeline.getResponseBytes();
+            event.poolWait = Math.max(0, timeline.getDuration(RequestPhase.LEASE_START, RequestPhase.LEASED, TimeUnit.NANOSECONDS));
+            event.connectionReused = timeline.isConnectionReused();
+            event.error = timeline.getError() == null ? null : timeline.getError().toString();
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.visenze.visearch.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * One http call to the ViSearch API, from connection lease until the response body was read.
+ */
+@Name("com.visenze.visearch.HttpCall")
+@Label("ViSearch HTTP Call")
+@Category("ViSearch")
+@Description("An http call to the ViSearch API, from connection lease until the response body was read")
+@StackTrace(false)
+class HttpCallEvent extends jdk.jfr.Event {
+
+    @Label("Endpoint")
+    String endpoint;
+
+    @Label("Method")
+    String method;
+
+    @Label("Status Code")
+    int statusCode;
+
+    @Label("Request Size")
+    @DataAmount
+    long requestBytes;
+
+    @Label("Response Size")
+    @DataAmount
+    long responseBytes;
+
+    @Label("Pool Wait")
+    @Timespan
+    long poolWait;
+
+    @Label("Connection Reused")
+    boolean connectionReused;
+
+    @Label("Error")
+    String error;
+}
@@ -0,0 +1,27 @@
+package com.visenze.visearch.metrics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Parsing of one ViSearch API response into a result object.
+ */
+@Name("com.visenze.visearch.ResponseParse")
+@Label("ViSearch Response Parse")
+@Category("ViSearch")
+@Description("Parsing of a ViSearch API response into a result object")
+@StackTrace(false)
+class ResponseParseEvent extends jdk.jfr.Event {
+
+    @Label("Endpoint")
+    String endpoint;
+
+    @Label("Result Type")
+    String resultType;
+
+    @Label("Result Count")
+    int resultCount;
+}
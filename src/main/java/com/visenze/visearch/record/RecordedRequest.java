@@ -0,0 +1,105 @@
+package com.visenze.visearch.record;
+
+import com.google.common.collect.Multimap;
+
+/**
+ * The anonymized shape of one recorded API call, see {@link RequestRecorder}.
+ */
+public class RecordedRequest {
+
+    /**
+     * How the request was sent, which decides how it is replayed.
+     */
+    public enum Kind {
+        /**
+         * Parameters in the query string.
+         */
+        GET,
+        /**
+         * Parameters in a url encoded form.
+         */
+        POST,
+        /**
+         * Parameters and an image in a multipart body.
+         */
+        POST_IMAGE,
+        /**
+         * Parameters and an image feature in a multipart body.
+         */
+        POST_FEATURE
+    }
+
+    private final long offsetMicros;
+    private final Kind kind;
+    private final String path;
+    private final Multimap<String, String> params;
+    private final long requestBytes;
+    private final long responseBytes;
+    private final int statusCode;
+    private final long latencyMicros;
+
+    public RecordedRequest(long offsetMicros, Kind kind, String path, Multimap<String, String> params,
+                           long requestBytes, long responseBytes, int statusCode, long latencyMicros) {
+        this.offsetMicros = offsetMicros;
+        this.kind = kind;
+        this.path = path;
+        this.params = params;
+        this.requestBytes = requestBytes;
+        this.responseBytes = responseBytes;
+        this.statusCode = statusCode;
+        this.latencyMicros = latencyMicros;
+    }
+
+    /**
+     * Time the call started, relative to the start of the recording.
+     */
+    public long getOffsetMicros() {
+        return offsetMicros;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * The API path, e.g. <code>/search</code>.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * The request parameters, identifying values replaced by tokens.
+     */
+    public Multimap<String, String> getParams() {
+        return params;
+    }
+
+    /**
+     * Size of the request body, e.g. the uploaded image, 0 for GET requests.
+     */
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    /**
+     * The http status code, 0 if no response was received.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public long getLatencyMicros() {
+        return latencyMicros;
+    }
+
+    @Override
+    public String toString() {
+        return "+" + offsetMicros + "us " + kind + " " + path + " " + params + " " + requestBytes + "B -> "
+                + statusCode + " " + responseBytes + "B in " + latencyMicros + "us";
+    }
+}
@@ -0,0 +1,91 @@
+package com.visenze.visearch.record;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the shape of request parameters while dropping what identifies images, users or
+ * catalogue content. Values of the parameters that only tune a search, such as <code>limit</code>
+ * or <code>fl</code>, are kept. All other values are replaced by a token of the same length, the
+ * same for equal values within one recording, so repetition and cache behaviour are preserved.
+ * Filters keep their field name, only the filtered value is replaced.
+ */
+final class RequestAnonymizer {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final Set<String> KEPT = ImmutableSet.of(
+            "page", "limit", "facets", "facets_limit", "facets_show_count", "score", "score_min", "score_max",
+            "sort_by", "sort_group_by", "sort_group_strategy", "group_by", "group_limit", "fl", "vs_fl",
+            "get_all_fl", "qinfo", "dedup", "dedup_score_threshold", "box", "detection", "detection_limit",
+            "result_limit", "detection_sensitivity", "error_page", "error_limit", "action");
+
+    private static final String INSERT_STATUS_PATH = "/insert/status/";
+
+    private static final Set<String> FILTERS = ImmutableSet.of("fq", "vs_fq");
+
+    private final HashFunction hash;
+
+    /**
+     * @param salt secret of the recording, so tokens cannot be matched to known values
+     */
+    RequestAnonymizer(long salt) {
+        this.hash = Hashing.sipHash24(salt, ~salt);
+    }
+
+    /**
+     * The path with path parameters, such as the trans_id of /insert/status, replaced.
+     */
+    String anonymizePath(String path) {
+        if (path.startsWith(INSERT_STATUS_PATH)) {
+            return INSERT_STATUS_PATH + token(path.substring(INSERT_STATUS_PATH.length()));
+        }
+        return path;
+    }
+
+    Multimap<String, String> anonymize(Multimap<String, String> params) {
+        Multimap<String, String> anonymized = LinkedListMultimap.create();
+        if (params == null) {
+            return anonymized;
+        }
+        for (Map.Entry<String, String> entry : params.entries()) {
+            anonymized.put(entry.getKey(), anonymize(entry.getKey(), entry.getValue()));
+        }
+        return anonymized;
+    }
+
+    private String anonymize(String key, String value) {
+        if (value == null || KEPT.contains(key)) {
+            return value;
+        }
+        if (FILTERS.contains(key)) {
+            int colon = value.indexOf(':');
+            if (colon >= 0) {
+                return value.substring(0, colon + 1) + token(value.substring(colon + 1));
+            }
+        }
+        return token(value);
+    }
+
+    /**
+     * A hex token of the length of the value.
+     */
+    String token(String value) {
+        if (value.isEmpty()) {
+            return value;
+        }
+        String hex = hash.hashString(value, UTF8).toString();
+        StringBuilder token = new StringBuilder(value.length());
+        while (token.length() < value.length()) {
+            token.append(hex, 0, Math.min(hex.length(), value.length() - token.length()));
+        }
+        return token.toString();
+    }
+}
@@ -0,0 +1,69 @@
+package com.visenze.visearch.record;
+
+import com.google.common.base.Charsets;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Constants and primitives of the binary request log.
+ *
+ * A log starts with {@link #MAGIC}, {@link #VERSION} and the recording start in epoch millis,
+ * followed by one entry per request: the kind as a byte, then as varints the offset in micros,
+ * the path, the number of parameters and each key and value, request bytes, response bytes,
+ * status code and latency in micros. Strings are written as a varint id: 0 for a string that
+ * follows inline, <i>n</i> for entry <i>n - 1</i> of the string table, and table size + 1 for a
+ * new entry that follows and is appended to the table. A string that follows is its length in
+ * bytes as a varint and its UTF-8 bytes; version 1 logs wrote it with
+ * {@link DataOutput#writeUTF(String)}, which cannot hold more than 64 KB.
+ */
+final class RequestLog {
+
+    static final int MAGIC = 0x56535252;
+    static final int VERSION = 2;
+
+    /**
+     * Strings beyond this many are written inline, so anonymized ids cannot grow the table without bound.
+     */
+    static final int MAX_STRINGS = 4096;
+
+    private RequestLog() {
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(Charsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        long length = readVarLong(in);
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Malformed string length " + length + " in request log");
+        }
+        byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in request log");
+    }
+}
@@ -0,0 +1,115 @@
+package com.visenze.visearch.record;
+
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.Multimap;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a log written by {@link RequestRecorder}:
+ * <pre>
+ * RequestLogReader reader = RequestLogReader.fromFile(new File("visearch.rec"));
+ * for (RecordedRequest request = reader.read(); request != null; request = reader.read()) {
+ *     ...
+ * }
+ * reader.close();
+ * </pre>
+ * Requests are returned in the order they completed, which may differ slightly from the order
+ * of their offsets when calls ran concurrently.
+ */
+public class RequestLogReader implements Closeable {
+
+    private static final RecordedRequest.Kind[] KINDS = RecordedRequest.Kind.values();
+
+    private final DataInputStream in;
+    private final long startTimeMillis;
+    private final int version;
+    private final List<String> strings = new ArrayList<String>();
+
+    public RequestLogReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        if (this.in.readInt() != RequestLog.MAGIC) {
+            throw new IOException("Not a request log");
+        }
+        this.version = this.in.readUnsignedByte();
+        if (version < 1 || version > RequestLog.VERSION) {
+            throw new IOException("Unsupported request log version " + version);
+        }
+        this.startTimeMillis = this.in.readLong();
+    }
+
+    public static RequestLogReader fromFile(File file) throws IOException {
+        return new RequestLogReader(new FileInputStream(file));
+    }
+
+    /**
+     * When the recording started, in epoch millis.
+     */
+    public long getStartTimeMillis() {
+        return startTimeMillis;
+    }
+
+    /**
+     * @return the next request, or null at the end of the log, including a log cut short by a crash
+     */
+    public RecordedRequest read() throws IOException {
+        int kind = in.read();
+        if (kind < 0) {
+            return null;
+        }
+        if (kind >= KINDS.length) {
+            throw new IOException("Unknown request kind " + kind);
+        }
+        try {
+            long offsetMicros = RequestLog.readVarLong(in);
+            String path = readString();
+            long count = RequestLog.readVarLong(in);
+            Multimap<String, String> params = LinkedListMultimap.create();
+            for (long i = 0; i < count; i++) {
+                params.put(readString(), readString());
+            }
+            long requestBytes = RequestLog.readVarLong(in);
+            long responseBytes = RequestLog.readVarLong(in);
+            int statusCode = (int) RequestLog.readVarLong(in);
+            long latencyMicros = RequestLog.readVarLong(in);
+            return new RecordedRequest(offsetMicros, KINDS[kind], path, params, requestBytes, responseBytes,
+                    statusCode, latencyMicros);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private String readString() throws IOException {
+        long id = RequestLog.readVarLong(in);
+        if (id == 0) {
+            return readInlineString();
+        }
+        if (id == strings.size() + 1) {
+            String value = readInlineString();
+            strings.add(value);
+            return value;
+        }
+        if (id > strings.size()) {
+            throw new IOException("Unknown string " + id + " in request log");
+        }
+        return strings.get((int) id - 1);
+    }
+
+    private String readInlineString() throws IOException {
+        return version == 1 ? in.readUTF() : RequestLog.readString(in);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
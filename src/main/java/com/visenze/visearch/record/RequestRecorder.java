@@ -0,0 +1,137 @@
+package com.visenze.visearch.record;
+
+import com.google.common.collect.Multimap;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the shape of every API call of a client to a compact binary log, for replay against a
+ * stub server when benchmarking with production traffic:
+ * <pre>
+ * RequestRecorder recorder = RequestRecorder.toFile(new File("visearch.rec"));
+ * clientConfig.setRequestRecorder(recorder);
+ * ...
+ * recorder.close();
+ * </pre>
+ * Each entry holds the path, the parameters, the body sizes, the status and the latency of a
+ * call, but never the uploaded image or the response. Parameter values that could identify
+ * images, users or catalogue content are replaced by tokens of the same length; values that
+ * only tune a search, such as <code>limit</code> or <code>fl</code>, are kept.
+ * Logs are read back with {@link RequestLogReader}.
+ *
+ * Recording is synchronized and buffered; an I/O error stops the recording rather than failing
+ * calls and is available from {@link #getError()}.
+ */
+public class RequestRecorder implements Closeable {
+
+    private final DataOutputStream out;
+    private final RequestAnonymizer anonymizer;
+    private final long startNanos;
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+    private long recorded;
+    private IOException error;
+    private boolean closed;
+
+    public RequestRecorder(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.anonymizer = new RequestAnonymizer(new SecureRandom().nextLong());
+        this.startNanos = System.nanoTime();
+        this.out.writeInt(RequestLog.MAGIC);
+        this.out.writeByte(RequestLog.VERSION);
+        this.out.writeLong(System.currentTimeMillis());
+    }
+
+    public static RequestRecorder toFile(File file) throws IOException {
+        return new RequestRecorder(new FileOutputStream(file));
+    }
+
+    /**
+     * Record a call. Called by the SDK once the call completed or failed.
+     *
+     * @param params       the request parameters, anonymized before they are written
+     * @param startNanos   the {@link System#nanoTime()} at which the call started
+     * @param statusCode   the http status code, 0 if no response was received
+     */
+    public void record(RecordedRequest.Kind kind, String path, Multimap<String, String> params, long requestBytes,
+                       long responseBytes, int statusCode, long startNanos, long latencyNanos) {
+        String anonymizedPath = anonymizer.anonymizePath(path);
+        Multimap<String, String> anonymized = anonymizer.anonymize(params);
+        synchronized (this) {
+            if (closed || error != null) {
+                return;
+            }
+            try {
+                out.writeByte(kind.ordinal());
+                RequestLog.writeVarLong(out, Math.max(0, TimeUnit.NANOSECONDS.toMicros(startNanos - this.startNanos)));
+                writeString(anonymizedPath);
+                RequestLog.writeVarLong(out, anonymized.size());
+                for (Entry<String, String> entry : anonymized.entries()) {
+                    writeString(entry.getKey());
+                    writeString(entry.getValue() == null ? "" : entry.getValue());
+                }
+                RequestLog.writeVarLong(out, Math.max(0, requestBytes));
+                RequestLog.writeVarLong(out, Math.max(0, responseBytes));
+                RequestLog.writeVarLong(out, Math.max(0, statusCode));
+                RequestLog.writeVarLong(out, Math.max(0, TimeUnit.NANOSECONDS.toMicros(latencyNanos)));
+                recorded++;
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        Integer id = strings.get(value);
+        if (id != null) {
+            RequestLog.writeVarLong(out, id + 1);
+            return;
+        }
+        if (strings.size() < RequestLog.MAX_STRINGS) {
+            strings.put(value, strings.size());
+            RequestLog.writeVarLong(out, strings.size());
+        } else {
+            RequestLog.writeVarLong(out, 0);
+        }
+        RequestLog.writeString(out, value);
+    }
+
+    /**
+     * Number of calls recorded so far.
+     */
+    public synchronized long getRecorded() {
+        return recorded;
+    }
+
+    /**
+     * The I/O error that stopped the recording, null if there was none.
+     */
+    public synchronized IOException getError() {
+        return error;
+    }
+
+    public synchronized void flush() throws IOException {
+        if (!closed) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        out.close();
+    }
+}
@@ -0,0 +1,55 @@
+package com.visenze.visearch.tracing;
+
+/**
+ * Starts no spans, the default. Returns a shared span so that disabled tracing does not allocate.
+ */
+public final class NoopViSearchTracer implements ViSearchTracer {
+
+    public static final NoopViSearchTracer INSTANCE = new NoopViSearchTracer();
+
+    private static final ViSearchSpan NOOP_SPAN = new ViSearchSpan() {
+        @Override
+        public boolean isRecording() {
+            return false;
+        }
+
+        @Override
+        public String getTraceId() {
+            return null;
+        }
+
+        @Override
+        public String getSpanId() {
+            return null;
+        }
+
+        @Override
+        public boolean isSampled() {
+            return false;
+        }
+
+        @Override
+        public void setAttribute(String key, String value) {
+        }
+
+        @Override
+        public void setAttribute(String key, long value) {
+        }
+
+        @Override
+        public void recordError(Throwable error) {
+        }
+
+        @Override
+        public void end() {
+        }
+    };
+
+    private NoopViSearchTracer() {
+    }
+
+    @Override
+    public ViSearchSpan startSpan(String endpoint, String method, ViSearchSpan link) {
+        return NOOP_SPAN;
+    }
+}
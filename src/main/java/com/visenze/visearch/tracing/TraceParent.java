@@ -0,0 +1,43 @@
+package com.visenze.visearch.tracing;
+
+/**
+ * The W3C Trace Context <code>traceparent</code> header, see https://www.w3.org/TR/trace-context/.
+ */
+public final class TraceParent {
+
+    public static final String HEADER = "traceparent";
+
+    private static final String VERSION = "00";
+
+    private TraceParent() {
+    }
+
+    /**
+     * @return the header value for a span, e.g. <code>00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01</code>,
+     * or null if the span has no valid ids
+     */
+    public static String format(ViSearchSpan span) {
+        String traceId = span.getTraceId();
+        String spanId = span.getSpanId();
+        if (!isHex(traceId, 32) || !isHex(spanId, 16)) {
+            return null;
+        }
+        return new StringBuilder(55).append(VERSION).append('-').append(traceId).append('-').append(spanId)
+                .append(span.isSampled() ? "-01" : "-00").toString();
+    }
+
+    private static boolean isHex(String id, int length) {
+        if (id == null || id.length() != length) {
+            return false;
+        }
+        boolean allZero = true;
+        for (int i = 0; i < length; i++) {
+            char c = id.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+            allZero &= c == '0';
+        }
+        return !allZero;
+    }
+}
@@ -0,0 +1,45 @@
+package com.visenze.visearch.tracing;
+
+/**
+ * A span opened by a {@link ViSearchTracer} for one ViSearch API call.
+ */
+public interface ViSearchSpan {
+
+    /**
+     * Attribute holding the request id the server returned in the X-Log-ID header.
+     */
+    String LOG_ID = "visearch.log_id";
+
+    String HTTP_METHOD = "http.method";
+
+    String HTTP_STATUS_CODE = "http.status_code";
+
+    /**
+     * Whether the span records anything. The SDK skips the traceparent header and all attributes
+     * of spans that do not.
+     */
+    boolean isRecording();
+
+    /**
+     * The W3C trace id, 32 lower case hex characters.
+     */
+    String getTraceId();
+
+    /**
+     * The W3C span id, 16 lower case hex characters.
+     */
+    String getSpanId();
+
+    boolean isSampled();
+
+    void setAttribute(String key, String value);
+
+    void setAttribute(String key, long value);
+
+    /**
+     * The call failed without a response, e.g. on a connect or socket timeout.
+     */
+    void recordError(Throwable error);
+
+    void end();
+}
@@ -0,0 +1,20 @@
+package com.visenze.visearch.tracing;
+
+/**
+ * Opens a span for every ViSearch API call, see {@link com.visenze.visearch.ClientConfig#setTracer(ViSearchTracer)}.
+ *
+ * Implementations adapt the SDK to a tracing library, typically making the span a child of the
+ * span current in the calling application. Called on the calling thread of every request, so
+ * implementations must be thread safe.
+ */
+public interface ViSearchTracer {
+
+    /**
+     * @param endpoint the API path without path parameters, e.g. <code>/search</code>
+     * @param method   the http method, GET or POST
+     * @param link     the span of the call this one follows from without being part of it, e.g.
+     *                 the search that caused a tracking event, null otherwise
+     * @return the started span, ended by the SDK once the response was read
+     */
+    ViSearchSpan startSpan(String endpoint, String method, ViSearchSpan link);
+}
@@ -0,0 +1,102 @@
+package com.visenze.visearch;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveTimeoutTest {
+
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testMaxTimeoutUntilEnoughSamples() {
+        AdaptiveTimeout adaptiveTimeout = new AdaptiveTimeout(3, 10, 5000, 60000, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < AdaptiveTimeout.MIN_SAMPLES - 1; i++) {
+            adaptiveTimeout.record("/search", 20 * MILLI);
+        }
+        assertEquals(5000, adaptiveTimeout.getTimeout("/search", TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testMultipleOfP99WithinBounds() throws InterruptedException {
+        // intervals of 20 ms, so the timeouts are recomputed quickly
+        AdaptiveTimeout adaptiveTimeout = new AdaptiveTimeout(3, 100, 2000, 100, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 99; i++) {
+            adaptiveTimeout.record("/search", 100 * MILLI);
+            adaptiveTimeout.record("/uploadsearch", 10 * MILLI);
+            adaptiveTimeout.record("/recommendation", 1000 * MILLI);
+        }
+        adaptiveTimeout.record("/search", 200 * MILLI);
+        Thread.sleep(25);
+        assertEquals(300, adaptiveTimeout.getTimeout("/search", TimeUnit.MILLISECONDS), 3);
+        assertEquals(100, adaptiveTimeout.getTimeout("/uploadsearch", TimeUnit.MILLISECONDS));
+        assertEquals(2000, adaptiveTimeout.getTimeout("/recommendation", TimeUnit.MILLISECONDS));
+        assertEquals(2000, adaptiveTimeout.getTimeout("/colorsearch", TimeUnit.MILLISECONDS));
+
+        // once the window passed the latencies are dropped
+        Thread.sleep(150);
+        assertEquals(2000, adaptiveTimeout.getTimeout("/search", TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testSlowCallCut() throws IOException, InterruptedException {
+        final AtomicLong delay = new AtomicLong();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        ExecutorService serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.createContext("/search", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(delay.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] body = "{\"status\":\"OK\",\"method\":\"search\",\"result\":[]}".getBytes("UTF-8");
+                try {
+                    exchange.sendResponseHeaders(200, body.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                } catch (IOException e) {
+                    // the client gave up
+                }
+            }
+        });
+        server.start();
+        try {
+            AdaptiveTimeout adaptiveTimeout = new AdaptiveTimeout(3, 500, 5000, 10000, TimeUnit.MILLISECONDS);
+            ClientConfig clientConfig = new ClientConfig();
+            clientConfig.setAdaptiveTimeout(adaptiveTimeout);
+            ViSearch client = new ViSearch("http://127.0.0.1:" + server.getAddress().getPort(), "access", "secret", clientConfig);
+            client.setEnableAutoSolutionActionTrack(false);
+
+            for (int i = 0; i < AdaptiveTimeout.MIN_SAMPLES; i++) {
+                assertNull(client.search(new SearchParams("a")).getErrorMessage());
+            }
+            // wait for the next interval, where the timeout is recomputed
+            Thread.sleep(2100);
+            assertEquals(500, adaptiveTimeout.getTimeout("/search", TimeUnit.MILLISECONDS));
+
+            delay.set(3000);
+            long start = System.nanoTime();
+            PagedSearchResult result = client.search(new SearchParams("a"));
+            assertEquals(ResponseMessages.REQUEST_TIMEOUT.getMessage(), result.getErrorMessage());
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1500);
+        } finally {
+            server.stop(0);
+            serverThreads.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.visenze.visearch;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.visenze.visearch.metrics.HistogramViSearchMetrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CallOptionsTest {
+
+    private static final String TIMEOUT = ResponseMessages.REQUEST_TIMEOUT.getMessage();
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private final AtomicInteger requests = new AtomicInteger();
+    private HistogramViSearchMetrics metrics;
+    private ViSearch client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        // a response trickling in one byte every 50 ms, each read is well within the socket timeout
+        server.createContext("/search", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    out.write("{\"status\":\"OK\",\"method\":\"search\",\"result\":[".getBytes("UTF-8"));
+                    for (int i = 0; i < 60; i++) {
+                        out.write(' ');
+                        out.flush();
+                        Thread.sleep(50);
+                    }
+                    out.write("]}".getBytes("UTF-8"));
+                    out.close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (IOException e) {
+                    // the client gave up
+                }
+            }
+        });
+        server.createContext("/insert/status/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                byte[] body = "{\"status\":\"OK\",\"method\":\"insert/status\",\"result\":[{\"trans_id\":1,\"processed_total\":0}]}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        metrics = new HistogramViSearchMetrics();
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setMetrics(metrics);
+        clientConfig.setMaxConnection(1);
+        client = new ViSearch("http://127.0.0.1:" + server.getAddress().getPort(), "access", "secret", clientConfig);
+        client.setEnableAutoSolutionActionTrack(false);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    private static long millisSince(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    @Test
+    public void testTricklingResponseCutAtDeadline() {
+        long start = System.nanoTime();
+        CallOptions.Scope scope = CallOptions.withTimeout(200, TimeUnit.MILLISECONDS).enter();
+        PagedSearchResult result;
+        try {
+            result = client.search(new SearchParams("a"));
+        } finally {
+            scope.close();
+        }
+        assertEquals(TIMEOUT, result.getErrorMessage());
+        assertTrue(millisSince(start) < 1500);
+        assertEquals(1, metrics.getEndpoint("/search").getErrors(ResponseMessages.REQUEST_TIMEOUT));
+        assertEquals(1, metrics.getEndpoint("/search").getFailures());
+        assertNull(CallOptions.current());
+
+        // the aborted connection is not returned to the single connection pool
+        assertNull(client.insertStatus("trans-1").getErrorMessage());
+    }
+
+    @Test
+    public void testExpiredDeadlineIsNotSent() {
+        CallOptions.Scope scope = CallOptions.withTimeout(0, TimeUnit.MILLISECONDS).enter();
+        try {
+            assertEquals(TIMEOUT, client.insertStatus("trans-1").getErrorMessage());
+        } finally {
+            scope.close();
+        }
+        assertEquals(0, requests.get());
+    }
+
+    @Test
+    public void testPoolWaitBoundedByDeadline() {
+        SearchResultStream holding = client.searchStream(new SearchParams("a"));
+        try {
+            long start = System.nanoTime();
+            CallOptions.Scope scope = CallOptions.withTimeout(200, TimeUnit.MILLISECONDS).enter();
+            try {
+                assertEquals(TIMEOUT, client.insertStatus("trans-1").getErrorMessage());
+            } finally {
+                scope.close();
+            }
+            assertTrue(millisSince(start) < 1500);
+        } finally {
+            holding.close();
+        }
+        assertNull(client.insertStatus("trans-1").getErrorMessage());
+    }
+
+    @Test
+    public void testStreamCutAtDeadline() {
+        CallOptions.Scope scope = CallOptions.withTimeout(200, TimeUnit.MILLISECONDS).enter();
+        SearchResultStream stream;
+        try {
+            stream = client.searchStream(new SearchParams("a"));
+        } finally {
+            scope.close();
+        }
+        long start = System.nanoTime();
+        assertFalse(stream.hasNext());
+        assertEquals(TIMEOUT, stream.getErrorMessage());
+        assertTrue(millisSince(start) < 1500);
+    }
+
+    @Test
+    public void testNestedScopes() {
+        CallOptions outer = CallOptions.withTimeout(1, TimeUnit.SECONDS);
+        CallOptions inner = outer.withDeadlineAfter(10, TimeUnit.MILLISECONDS);
+        CallOptions.Scope outerScope = outer.enter();
+        CallOptions.Scope innerScope = inner.enter();
+        assertSame(inner, CallOptions.current());
+        assertTrue(inner.getDeadlineNanos() - outer.getDeadlineNanos() < 0);
+        assertEquals(outer.getDeadlineNanos(), outer.withDeadlineAfter(1, TimeUnit.HOURS).getDeadlineNanos());
+        innerScope.close();
+        assertSame(outer, CallOptions.current());
+        outerScope.close();
+        assertNull(CallOptions.current());
+    }
+
+    @Test
+    public void testDerivedOptionsCancelledWithParent() {
+        CallOptions parent = CallOptions.cancellable();
+        CallOptions child = parent.withCancellation();
+        CallOptions grandChild = child.withDeadlineAfter(1, TimeUnit.SECONDS);
+        assertFalse(parent.hasDeadline());
+        assertEquals(Long.MAX_VALUE, child.getRemaining(TimeUnit.NANOSECONDS));
+        assertTrue(grandChild.hasDeadline());
+
+        final AtomicInteger notified = new AtomicInteger();
+        Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                notified.incrementAndGet();
+            }
+        };
+        grandChild.addCancelListener(listener);
+        child.cancel();
+        assertFalse(parent.isCancelled());
+        assertTrue(grandChild.isCancelled());
+        assertEquals(1, notified.get());
+        grandChild.removeCancelListener(listener);
+        parent.cancel();
+        assertEquals(1, notified.get());
+    }
+
+    private static void cancelLater(final CallOptions options, final long millis) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                options.cancel();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Test
+    public void testCancelAbortsRunningCall() {
+        CallOptions options = CallOptions.cancellable();
+        cancelLater(options, 200);
+        long start = System.nanoTime();
+        CallOptions.Scope scope = options.enter();
+        PagedSearchResult result;
+        try {
+            result = client.search(new SearchParams("a"));
+        } finally {
+            scope.close();
+        }
+        assertEquals(ResponseMessages.REQUEST_CANCELLED.getMessage(), result.getErrorMessage());
+        assertTrue(millisSince(start) < 1500);
+        assertEquals(1, metrics.getEndpoint("/search").getErrors(ResponseMessages.REQUEST_CANCELLED));
+
+        // the connection was released
+        assertNull(client.insertStatus("trans-1").getErrorMessage());
+    }
+
+    @Test
+    public void testCancelledOptionsNotSent() {
+        CallOptions options = CallOptions.cancellable();
+        options.cancel();
+        CallOptions.Scope scope = options.withDeadlineAfter(1, TimeUnit.SECONDS).enter();
+        try {
+            assertEquals(ResponseMessages.REQUEST_CANCELLED.getMessage(), client.insertStatus("trans-1").getErrorMessage());
+        } finally {
+            scope.close();
+        }
+        assertEquals(0, requests.get());
+    }
+
+    @Test
+    public void testCancelAbortsStream() {
+        CallOptions options = CallOptions.cancellable();
+        CallOptions.Scope scope = options.enter();
+        SearchResultStream stream;
+        try {
+            stream = client.searchStream(new SearchParams("a"));
+        } finally {
+            scope.close();
+        }
+        cancelLater(options, 100);
+        assertFalse(stream.hasNext());
+        assertEquals(ResponseMessages.REQUEST_CANCELLED.getMessage(), stream.getErrorMessage());
+        stream.close();
+        assertNull(client.insertStatus("trans-1").getErrorMessage());
+    }
+
+    @Test
+    public void testClosingPagerAbortsFetch() throws InterruptedException {
+        SearchPager pager = client.searchAll(new SearchParams("a"), 100);
+        // let the fetch of the first page take the only connection
+        Thread.sleep(100);
+        pager.close();
+        CallOptions.Scope scope = CallOptions.withTimeout(1, TimeUnit.SECONDS).enter();
+        try {
+            assertNull(client.insertStatus("trans-1").getErrorMessage());
+        } finally {
+            scope.close();
+        }
+    }
+
+    @Test
+    public void testMultiSearchTimeoutAbortsCalls() {
+        long start = System.nanoTime();
+        List<PagedSearchResult> results = client.multiSearch()
+                .setTimeout(200, TimeUnit.MILLISECONDS)
+                .search(new SearchParams("a"))
+                .execute();
+        assertEquals(TIMEOUT, results.get(0).getErrorMessage());
+        assertTrue(millisSince(start) < 1500);
+        // the aborted call released its connection
+        assertNull(client.insertStatus("trans-1").getErrorMessage());
+    }
+}
@@ -0,0 +1,87 @@
+package com.visenze.visearch;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CompactSearchResultTest {
+
+    private static PagedSearchResult page() {
+        Map<String, String> first = Maps.newLinkedHashMap();
+        first.put("brand", "acme");
+        first.put("price", "10");
+        Map<String, String> second = Maps.newLinkedHashMap();
+        second.put("brand", "acme");
+        second.put("color", "red");
+        List<ImageResult> results = Lists.newArrayList(
+                new ImageResult("im1", first, 0.9f),
+                new ImageResult("im2", second, 0.8f),
+                new ImageResult("im3", null, null));
+        PagedSearchResult page = new PagedSearchResult(results);
+        page.setPage(2);
+        page.setLimit(3);
+        page.setTotal(30);
+        page.setHeaders(Collections.singletonMap("X-Log-ID", "log-1"));
+        return page;
+    }
+
+    @Test
+    public void testAccessors() {
+        CompactSearchResult compact = page().toCompact();
+        assertEquals(3, compact.size());
+        assertEquals(Integer.valueOf(2), compact.getPage());
+        assertEquals(Integer.valueOf(3), compact.getLimit());
+        assertEquals(Integer.valueOf(30), compact.getTotal());
+        assertEquals("log-1", compact.getReqId());
+        assertEquals("im2", compact.getImName(1));
+        assertEquals(0.8f, compact.getScoreValue(1), 0f);
+        assertEquals(Float.valueOf(0.9f), compact.getScore(0));
+        assertNull(compact.getScore(2));
+        assertTrue(Float.isNaN(compact.getScoreValue(2)));
+        assertEquals(Arrays.asList("brand", "price", "color"), compact.getMetadataKeys());
+        assertEquals("10", compact.getMetadata(0, "price"));
+        assertNull(compact.getMetadata(1, "price"));
+        assertNull(compact.getMetadata(0, "missing"));
+        assertSame(compact.getMetadata(0, "brand"), compact.getMetadata(1, "brand"));
+    }
+
+    @Test
+    public void testImageResultViewEqualsOriginal() {
+        PagedSearchResult page = page();
+        CompactSearchResult compact = page.toCompact();
+        List<ImageResult> results = compact.getResult();
+        assertEquals(page.getResult().size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            ImageResult original = page.getResult().get(i);
+            ImageResult view = results.get(i);
+            assertEquals(original.getImName(), view.getImName());
+            assertEquals(original.getScore(), view.getScore());
+            Map<String, String> expected = original.getMetadata() == null ? Collections.<String, String>emptyMap() : original.getMetadata();
+            assertEquals(expected, view.getMetadata());
+            assertEquals(expected.hashCode(), view.getMetadata().hashCode());
+        }
+        Map<String, String> metadata = results.get(1).getMetadata();
+        assertTrue(metadata.containsKey("color"));
+        assertFalse(metadata.containsKey("price"));
+        assertEquals(2, metadata.size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testViewIsReadOnly() {
+        page().toCompact().getMetadata(0).put("brand", "other");
+    }
+
+    @Test
+    public void testErrorResultIsEmpty() {
+        CompactSearchResult compact = new PagedSearchResult("error", null, null).toCompact();
+        assertEquals(0, compact.size());
+        assertTrue(compact.getResult().isEmpty());
+    }
+}
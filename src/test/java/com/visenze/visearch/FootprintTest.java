@@ -0,0 +1,273 @@
+package com.visenze.visearch;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.visenze.visearch.internal.DataOperations;
+import com.visenze.visearch.internal.DataOperationsImpl;
+import com.visenze.visearch.internal.SearchOperations;
+import com.visenze.visearch.internal.SearchOperationsImpl;
+import com.visenze.visearch.internal.http.ViSearchHttpClient;
+import com.visenze.visearch.internal.http.ViSearchHttpClientImpl;
+import com.visenze.visearch.internal.http.ViSearchHttpResponse;
+import com.visenze.visearch.internal.http.ViSearchHttpStream;
+import com.visenze.visearch.internal.json.ViSearchModule;
+import com.visenze.visearch.metrics.ConnectionPoolStats;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Guards the memory cost of results and calls against regressions: the retained size of parsed
+ * results, which callers keep in caches, and the bytes allocated per call. Limits are the values
+ * measured on a 64 bit JVM with compressed references plus some headroom; lower them when an
+ * improvement lands. Object layout and allocation counts differ between JVMs, so the default
+ * build multiplies the limits by {@link #TOLERANCE} and only fails on clear regressions; the
+ * footprint profile checks the exact limits: mvn test -Pfootprint
+ */
+public class FootprintTest {
+
+    // 50 results and 10 distinct metadata values each, measured 1962, 2049 and 879 bytes
+    private static final long SEARCH_RETAINED_PER_RESULT = 2300;
+    private static final long DISCOVER_RETAINED_PER_RESULT = 2400;
+    private static final long COMPACT_RETAINED_PER_RESULT = 1050;
+    // 10 results and 5 metadata fields, measured 88 kB and 8.8 kB with lazy metadata; 10 images, measured 15 kB
+    private static final long SEARCH_ALLOCATED_PER_CALL = 105000;
+    private static final long LAZY_SEARCH_ALLOCATED_PER_CALL = 11000;
+    private static final long INSERT_ALLOCATED_PER_CALL = 19000;
+
+    private static final double TOLERANCE = Double.parseDouble(System.getProperty("footprint.tolerance", "1.5"));
+
+    private static final int WARMUP_CALLS = 3000;
+    private static final int MEASURED_CALLS = 1000;
+
+    private ObjectMapper objectMapper;
+
+    @Before
+    public void setUp() {
+        objectMapper = new ObjectMapper().registerModule(new ViSearchModule());
+    }
+
+    @Test
+    public void testRetainedSizeOfSearchResult() {
+        assumeCompressedReferences();
+        SearchOperations searchOperations = new SearchOperationsImpl(new CannedClient(searchResponse(50, 10)), objectMapper);
+        PagedSearchResult result = searchOperations.search(new SearchParams("im"));
+        assertNull(result.getErrorMessage());
+
+        long perResult = ObjectFootprint.retainedSize(result) / result.getResult().size();
+        assertTrue("retained bytes per search result " + perResult, perResult <= limit(SEARCH_RETAINED_PER_RESULT));
+    }
+
+    @Test
+    public void testRetainedSizeOfCompactSearchResult() {
+        assumeCompressedReferences();
+        SearchOperations searchOperations = new SearchOperationsImpl(new CannedClient(searchResponse(50, 10)), objectMapper);
+        CompactSearchResult result = searchOperations.search(new SearchParams("im")).toCompact();
+        assertEquals(50, result.size());
+
+        long perResult = ObjectFootprint.retainedSize(result) / result.size();
+        assertTrue("retained bytes per compact search result " + perResult, perResult <= limit(COMPACT_RETAINED_PER_RESULT));
+    }
+
+    @Test
+    public void testRetainedSizeOfDiscoverResult() {
+        assumeCompressedReferences();
+        SearchOperations searchOperations = new SearchOperationsImpl(new CannedClient(discoverResponse(4, 20, 10)), objectMapper);
+        PagedSearchResult result = searchOperations.discoverSearch(new UploadSearchParams("http://www.example.com/query.jpg"));
+        assertNull(result.getErrorMessage());
+
+        int results = 0;
+        for (ObjectSearchResult object : result.getObjects()) {
+            results += object.getResult().size();
+        }
+        long perResult = ObjectFootprint.retainedSize(result) / results;
+        assertTrue("retained bytes per discover result " + perResult, perResult <= limit(DISCOVER_RETAINED_PER_RESULT));
+    }
+
+    @Test
+    public void testAllocationPerSearch() {
+        final SearchOperations searchOperations = new SearchOperationsImpl(new CannedClient(searchResponse(10, 5)), objectMapper);
+        final SearchParams searchParams = new SearchParams("im");
+        searchParams.setLimit(10);
+        searchParams.setFl(Lists.newArrayList("price", "brand"));
+        long perCall = allocatedPerCall(new Runnable() {
+            @Override
+            public void run() {
+                searchOperations.search(searchParams);
+            }
+        });
+        assertTrue("bytes allocated per search " + perCall, perCall <= limit(SEARCH_ALLOCATED_PER_CALL));
+    }
+
+    @Test
+    public void testAllocationPerSearchWithLazyMetadata() {
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setLazyMetadata(true);
+        ObjectMapper lazyMapper = new ObjectMapper().registerModule(new ViSearchModule(null, true));
+        final SearchOperations searchOperations = new SearchOperationsImpl(new CannedClient(searchResponse(10, 5)), lazyMapper, clientConfig);
+        final SearchParams searchParams = new SearchParams("im");
+        long perCall = allocatedPerCall(new Runnable() {
+            @Override
+            public void run() {
+                searchOperations.search(searchParams);
+            }
+        });
+        assertTrue("bytes allocated per search with lazy metadata " + perCall, perCall <= limit(LAZY_SEARCH_ALLOCATED_PER_CALL));
+    }
+
+    @Test
+    public void testAllocationPerInsert() {
+        final DataOperations dataOperations = new DataOperationsImpl(new CannedClient(
+                "{\"status\":\"OK\",\"trans_id\":317503499455827968,\"method\":\"insert\",\"total\":10}"), objectMapper);
+        final List<Image> images = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            Map<String, String> metadata = Maps.newHashMap();
+            metadata.put("price", Integer.toString(i * 10));
+            metadata.put("brand", "brand" + i);
+            images.add(new Image("im" + i, "http://www.example.com/im" + i + ".jpg", metadata));
+        }
+        long perCall = allocatedPerCall(new Runnable() {
+            @Override
+            public void run() {
+                dataOperations.insert(images);
+            }
+        });
+        assertTrue("bytes allocated per insert " + perCall, perCall <= limit(INSERT_ALLOCATED_PER_CALL));
+    }
+
+    private static double limit(long measured) {
+        return measured * TOLERANCE;
+    }
+
+    private static void assumeCompressedReferences() {
+        Assume.assumeTrue(ObjectFootprint.referenceSize() == 4);
+    }
+
+    private static long allocatedPerCall(Runnable call) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        for (int i = 0; i < WARMUP_CALLS; i++) {
+            call.run();
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_CALLS; i++) {
+            call.run();
+        }
+        return (threads.getThreadAllocatedBytes(threadId) - before) / MEASURED_CALLS;
+    }
+
+    private static String searchResponse(int results, int metadataFields) {
+        StringBuilder json = new StringBuilder("{\"status\":\"OK\",\"method\":\"search\",\"error\":[],\"page\":1,\"limit\":")
+                .append(results).append(",\"total\":").append(results * 20).append(",\"result\":");
+        appendResults(json, "im", results, metadataFields);
+        return json.append('}').toString();
+    }
+
+    private static String discoverResponse(int objects, int resultsPerObject, int metadataFields) {
+        StringBuilder json = new StringBuilder("{\"status\":\"OK\",\"method\":\"discoversearch\",\"error\":[],\"page\":1,\"limit\":")
+                .append(resultsPerObject).append(",\"im_id\":\"query.jpg\",\"objects\":[");
+        for (int i = 0; i < objects; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"type\":\"type").append(i)
+                    .append("\",\"score\":0.9,\"box\":[84,223,425,639],\"total\":").append(resultsPerObject * 20).append(",\"result\":");
+            appendResults(json, "type" + i, resultsPerObject, metadataFields);
+            json.append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private static void appendResults(StringBuilder json, String prefix, int results, int metadataFields) {
+        json.append('[');
+        for (int i = 0; i < results; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"im_name\":\"").append(prefix).append("_").append(i)
+                    .append("\",\"score\":0.").append(99 - i % 90).append(",\"value_map\":{");
+            for (int f = 0; f < metadataFields; f++) {
+                json.append(f == 0 ? "" : ",").append("\"field").append(f).append("\":\"value ").append(prefix)
+                        .append(' ').append(i).append(' ').append(f).append('"');
+            }
+            json.append("}}");
+        }
+        json.append(']');
+    }
+
+    /**
+     * Returns one pre-read response with typical headers for every call.
+     */
+    private static class CannedClient implements ViSearchHttpClient {
+
+        private final ViSearchHttpResponse response;
+
+        CannedClient(String body) {
+            CloseableHttpResponse httpResponse = mock(CloseableHttpResponse.class);
+            when(httpResponse.getEntity()).thenReturn(new StringEntity(body, ContentType.APPLICATION_JSON));
+            response = new ViSearchHttpResponse(httpResponse);
+            Map<String, String> headers = Maps.newHashMap();
+            headers.put("Content-Type", "application/json;charset=utf-8");
+            headers.put("X-Log-ID", "2f1c9a4be3d07788");
+            headers.put("Date", "Mon, 19 Oct 2026 08:00:00 GMT");
+            response.setHeaders(headers);
+        }
+
+        @Override
+        public UsernamePasswordCredentials getCredentials() {
+            return new UsernamePasswordCredentials("access", "secret");
+        }
+
+        @Override
+        public ConnectionPoolStats getConnectionPoolStats() {
+            return null;
+        }
+
+        @Override
+        public ViSearchHttpResponse get(String url, Multimap<String, String> params) {
+            return response;
+        }
+
+        @Override
+        public ViSearchHttpStream getStream(String url, Multimap<String, String> params) {
+            return new ViSearchHttpStream(new ByteArrayInputStream(response.getBody().getBytes(ViSearchHttpClientImpl.UTF8_CHARSET)),
+                    response.getHeaders());
+        }
+
+        @Override
+        public ViSearchHttpResponse post(String url, Multimap<String, String> params) {
+            return response;
+        }
+
+        @Override
+        public ViSearchHttpResponse postImage(String url, Multimap<String, String> params, File file) {
+            return response;
+        }
+
+        @Override
+        public ViSearchHttpResponse postImage(String url, Multimap<String, String> params, InputStream inputStream, String filename) {
+            return response;
+        }
+
+        @Override
+        public ViSearchHttpResponse postImFeature(String url, Multimap<String, String> params, String imFeature, String transId) {
+            return response;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.visenze.visearch;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Multimap;
+import com.visenze.visearch.internal.SearchOperationsImpl;
+import com.visenze.visearch.internal.http.ViSearchHttpClient;
+import com.visenze.visearch.internal.http.ViSearchHttpResponse;
+import com.visenze.visearch.internal.json.ViSearchModule;
+import org.junit.Test;
+import org.mockito.Matchers;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LazyMetadataTest {
+
+    private static final String RESULTS = "[{\"im_name\":\"im1\",\"score\":0.9,\"extra\":{\"a\":[1,2]}," +
+            "\"value_map\":{\"brand\":\"acme \\\"pro\\\"\",\"price\":10,\"sale\":true,\"color\":null}}," +
+            "{\"im_name\":\"im2\",\"score\":\"0.8\",\"value_map\":{\"brand\":\"acme\",\"price\":\"10\"}}," +
+            "{\"im_name\":\"im3\",\"value_map\":null},{\"im_name\":\"im4\"}]";
+
+    private static List<ImageResult> read(ViSearchModule module) throws IOException {
+        return new ObjectMapper().registerModule(module).readValue(RESULTS, new TypeReference<List<ImageResult>>() {
+        });
+    }
+
+    @Test
+    public void testLazyResultsEqualEager() throws IOException {
+        List<ImageResult> expected = read(new ViSearchModule());
+        List<ImageResult> lazy = read(new ViSearchModule(null, true));
+        assertEquals(expected.size(), lazy.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getImName(), lazy.get(i).getImName());
+            assertEquals(expected.get(i).getScore(), lazy.get(i).getScore());
+            assertEquals(expected.get(i).getMetadata(), lazy.get(i).getMetadata());
+        }
+        assertSame(lazy.get(0).getMetadata(), lazy.get(0).getMetadata());
+    }
+
+    @Test
+    public void testSingleKeyBeforeDecoding() throws IOException {
+        List<ImageResult> lazy = read(new ViSearchModule(null, true));
+        ImageResult result = lazy.get(0);
+        assertEquals("acme \"pro\"", result.getMetadata("brand"));
+        assertEquals("10", result.getMetadata("price"));
+        assertEquals("true", result.getMetadata("sale"));
+        assertNull(result.getMetadata("color"));
+        assertNull(result.getMetadata("missing"));
+        assertNull(lazy.get(2).getMetadata("brand"));
+        assertNull(lazy.get(3).getMetadata());
+
+        assertEquals("10", result.getMetadata().get("price"));
+        assertEquals("10", result.getMetadata("price"));
+    }
+
+    @Test
+    public void testNestedValuesAsJson() throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new ViSearchModule(null, true));
+        ImageResult result = objectMapper.readValue("{\"im_name\":\"im1\",\"value_map\":{\"sizes\":[\"s\",\"m\"]}}", ImageResult.class);
+        assertEquals("[\"s\",\"m\"]", result.getMetadata("sizes"));
+        assertEquals("[\"s\",\"m\"]", result.getMetadata().get("sizes"));
+    }
+
+    @Test
+    public void testLazySearch() {
+        String body = "{\"status\":\"OK\",\"method\":\"search\",\"error\":[],\"page\":1,\"limit\":10,\"total\":4," +
+                "\"result\":" + RESULTS + ",\"qinfo\":{\"im_url\":\"http://www.example.com/a.jpg\"}}";
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getBody()).thenReturn(body);
+        ViSearchHttpClient client = mock(ViSearchHttpClient.class);
+        when(client.get(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(response);
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setLazyMetadata(true);
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new ViSearchModule(null, true));
+
+        PagedSearchResult result = new SearchOperationsImpl(client, objectMapper, clientConfig).search(new SearchParams("im"));
+        assertNull(result.getErrorMessage());
+        assertEquals(Integer.valueOf(4), result.getTotal());
+        assertEquals("http://www.example.com/a.jpg", result.getQueryInfo().get("im_url"));
+        assertEquals(body, result.getRawJson());
+        assertEquals(4, result.getResult().size());
+        assertEquals("im2", result.getResult().get(1).getImName());
+        assertEquals(Float.valueOf(0.8f), result.getResult().get(1).getScore());
+        assertEquals("acme \"pro\"", result.getResult().get(0).getMetadata("brand"));
+        assertEquals("10", result.getResult().get(0).getMetadata().get("price"));
+        assertNull(result.getResult().get(2).getMetadata());
+    }
+
+    @Test
+    public void testLazySearchError() {
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getBody()).thenReturn("{\"status\":\"fail\",\"method\":\"search\",\"error\":[\"Unauthorized\"]}");
+        ViSearchHttpClient client = mock(ViSearchHttpClient.class);
+        when(client.get(anyString(), Matchers.<Multimap<String, String>>any())).thenReturn(response);
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setLazyMetadata(true);
+
+        PagedSearchResult result = new SearchOperationsImpl(client, new ObjectMapper(), clientConfig).search(new SearchParams("im"));
+        assertEquals("Unauthorized", result.getErrorMessage());
+    }
+
+    @Test
+    public void testLazyWithInterner() throws IOException {
+        List<ImageResult> lazy = read(new ViSearchModule(new MetadataInterner(), true));
+        assertSame(lazy.get(0).getMetadata().get("price"), lazy.get(1).getMetadata().get("price"));
+    }
+}
@@ -0,0 +1,68 @@
+package com.visenze.visearch;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.visenze.visearch.internal.json.ViSearchModule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MetadataInternerTest {
+
+    private static final String RESULTS = "[{\"im_name\":\"im1\",\"score\":0.9,\"extra\":{\"a\":[1,2]}," +
+            "\"value_map\":{\"brand\":\"acme\",\"price\":10,\"sale\":true,\"color\":null}}," +
+            "{\"im_name\":\"im2\",\"score\":\"0.8\",\"value_map\":{\"brand\":\"acme\",\"price\":\"10\"}}," +
+            "{\"im_name\":\"im3\"}]";
+
+    private static List<ImageResult> read(ViSearchModule module) throws IOException {
+        return new ObjectMapper().registerModule(module).readValue(RESULTS, new TypeReference<List<ImageResult>>() {
+        });
+    }
+
+    @Test
+    public void testInternedResultsEqualDefault() throws IOException {
+        List<ImageResult> expected = read(new ViSearchModule());
+        List<ImageResult> interned = read(new ViSearchModule(new MetadataInterner()));
+        assertEquals(expected.size(), interned.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getImName(), interned.get(i).getImName());
+            assertEquals(expected.get(i).getScore(), interned.get(i).getScore());
+            assertEquals(expected.get(i).getMetadata(), interned.get(i).getMetadata());
+        }
+        assertEquals(Arrays.asList("brand", "price", "sale", "color"),
+                Arrays.asList(interned.get(0).getMetadata().keySet().toArray()));
+    }
+
+    @Test
+    public void testValuesSharedAcrossPages() throws IOException {
+        ViSearchModule module = new ViSearchModule(new MetadataInterner());
+        List<ImageResult> first = read(module);
+        List<ImageResult> second = read(module);
+        assertSame(first.get(0).getMetadata().get("brand"), first.get(1).getMetadata().get("brand"));
+        assertSame(first.get(0).getMetadata().get("price"), second.get(1).getMetadata().get("price"));
+    }
+
+    @Test
+    public void testBounded() {
+        MetadataInterner interner = new MetadataInterner(3, 8);
+        String value = new String("acme");
+        assertSame(value, interner.intern(value));
+        assertSame(value, interner.intern(new String("acme")));
+        char[] chars = "xxacmexx".toCharArray();
+        assertSame(value, interner.intern(chars, 2, 4));
+
+        String longValue = "a description longer than the limit";
+        interner.intern(longValue);
+        String copy = new String(longValue);
+        assertSame(copy, interner.intern(copy));
+        assertNull(interner.intern(null));
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("v" + i, interner.intern("v" + i));
+        }
+    }
+}
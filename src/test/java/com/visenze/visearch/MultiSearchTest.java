@@ -0,0 +1,154 @@
+package com.visenze.visearch;
+
+import com.visenze.visearch.internal.SearchOperations;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class MultiSearchTest {
+
+    private SearchOperations searchOperations;
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        searchOperations = mock(SearchOperations.class);
+        Answer<PagedSearchResult> answer = new Answer<PagedSearchResult>() {
+            @Override
+            public PagedSearchResult answer(InvocationOnMock invocation) throws InterruptedException {
+                calls.incrementAndGet();
+                int now = running.incrementAndGet();
+                while (true) {
+                    int max = maxRunning.get();
+                    if (now <= max || maxRunning.compareAndSet(max, now)) {
+                        break;
+                    }
+                }
+                try {
+                    BaseSearchParams<?> params = (BaseSearchParams<?>) invocation.getArguments()[0];
+                    String name = params.toMap().containsKey("im_name") ? params.toMap().get("im_name").iterator().next() : "color";
+                    if (name.startsWith("slow")) {
+                        Thread.sleep(2000);
+                    }
+                    // shuffle the completion order
+                    Thread.sleep((name.hashCode() & 7) * 3);
+                    if (name.startsWith("bad")) {
+                        return new PagedSearchResult(ResponseMessages.SEARCH_IMAGE_NOT_FOUND.getMessage(), null, null);
+                    }
+                    return new PagedSearchResult(Collections.singletonList(new ImageResult(name, null, null)));
+                } finally {
+                    running.decrementAndGet();
+                }
+            }
+        };
+        when(searchOperations.search(any(SearchParams.class))).thenAnswer(answer);
+        when(searchOperations.recommendation(any(SearchParams.class))).thenAnswer(answer);
+        when(searchOperations.colorSearch(any(ColorSearchParams.class))).thenAnswer(answer);
+        when(searchOperations.uploadSearch(any(UploadSearchParams.class))).thenAnswer(answer);
+    }
+
+    @Test
+    public void testResultsInInputOrder() {
+        MultiSearch batch = new MultiSearch(searchOperations).setConcurrency(4);
+        for (int i = 0; i < 40; i++) {
+            batch.recommendation(new SearchParams("product-" + i));
+        }
+        List<PagedSearchResult> results = batch.execute();
+        assertEquals(40, results.size());
+        for (int i = 0; i < 40; i++) {
+            assertEquals("product-" + i, results.get(i).getResult().get(0).getImName());
+        }
+        assertTrue(maxRunning.get() <= 4);
+        assertTrue(maxRunning.get() > 1);
+        verify(searchOperations, times(40)).recommendation(any(SearchParams.class));
+    }
+
+    @Test
+    public void testPerItemErrors() {
+        List<PagedSearchResult> results = new MultiSearch(searchOperations)
+                .search(new SearchParams("a"))
+                .search(new SearchParams("bad-1"))
+                .colorSearch(new ColorSearchParams("ff0000"))
+                .execute();
+        assertNull(results.get(0).getErrorMessage());
+        assertEquals(ResponseMessages.SEARCH_IMAGE_NOT_FOUND.getMessage(), results.get(1).getErrorMessage());
+        assertEquals("color", results.get(2).getResult().get(0).getImName());
+    }
+
+    @Test
+    public void testDuplicatesSentOnce() {
+        List<PagedSearchResult> results = new MultiSearch(searchOperations)
+                .recommendation(new SearchParams("a"))
+                .recommendation(new SearchParams("b"))
+                .recommendation(new SearchParams("a"))
+                .search(new SearchParams("a"))
+                .uploadSearch(new UploadSearchParams(new ByteArrayInputStream(new byte[1])))
+                .uploadSearch(new UploadSearchParams(new ByteArrayInputStream(new byte[1])))
+                .execute();
+        assertEquals(6, results.size());
+        assertSame(results.get(0), results.get(2));
+        assertNotSame(results.get(0), results.get(3));
+        assertEquals(5, calls.get());
+    }
+
+    @Test
+    public void testTimeout() {
+        long start = System.nanoTime();
+        List<PagedSearchResult> results = new MultiSearch(searchOperations)
+                .setConcurrency(2)
+                .setTimeout(300, TimeUnit.MILLISECONDS)
+                .search(new SearchParams("fast"))
+                .search(new SearchParams("slow-1"))
+                .search(new SearchParams("slow-2"))
+                .search(new SearchParams("never-started"))
+                .execute();
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1500);
+        assertNull(results.get(0).getErrorMessage());
+        List<String> errors = new ArrayList<String>();
+        for (PagedSearchResult result : results.subList(1, 4)) {
+            errors.add(result.getErrorMessage());
+        }
+        assertEquals(Collections.nCopies(3, ResponseMessages.REQUEST_TIMEOUT.getMessage()), errors);
+    }
+
+    @Test
+    public void testEmptyBatch() {
+        assertTrue(new MultiSearch(searchOperations).execute().isEmpty());
+    }
+
+    @Test
+    public void testExceptionBecomesErrorResult() throws InterruptedException {
+        SearchOperations failing = mock(SearchOperations.class);
+        when(failing.search(any(SearchParams.class))).thenThrow(new IllegalStateException("boom"));
+        final CountDownLatch ran = new CountDownLatch(1);
+        List<PagedSearchResult> results = new MultiSearch(failing)
+                .setExecutor(new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        command.run();
+                        ran.countDown();
+                    }
+                })
+                .search(new SearchParams("a"))
+                .execute();
+        assertTrue(ran.await(1, TimeUnit.SECONDS));
+        assertEquals(ResponseMessages.SYSTEM_ERROR.getMessage(), results.get(0).getErrorMessage());
+        assertTrue(results.get(0).getCause() instanceof IllegalStateException);
+    }
+}
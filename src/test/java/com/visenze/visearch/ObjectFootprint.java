@@ -0,0 +1,150 @@
+package com.visenze.visearch;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Retained size of an object graph in the running JVM, from the field offsets and array layout
+ * reported by {@link Unsafe}: every object reachable through instance fields is counted once,
+ * rounded up to the 8 byte object alignment. Classes and enum constants are shared and not counted.
+ */
+final class ObjectFootprint {
+
+    private static final Unsafe UNSAFE;
+    private static final int OBJECT_ALIGNMENT = 8;
+    private static final int HEADER_SIZE;
+
+    static {
+        try {
+            Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            UNSAFE = (Unsafe) field.get(null);
+            HEADER_SIZE = (int) UNSAFE.objectFieldOffset(Probe.class.getDeclaredField("value"));
+        } catch (Exception e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final Map<Class<?>, Layout> LAYOUTS = new ConcurrentHashMap<Class<?>, Layout>();
+
+    private ObjectFootprint() {
+    }
+
+    /**
+     * Size of a reference, 4 with compressed references.
+     */
+    static int referenceSize() {
+        return UNSAFE.arrayIndexScale(Object[].class);
+    }
+
+    /**
+     * Bytes retained by the object and everything it references.
+     */
+    static long retainedSize(Object root) {
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        Deque<Object> pending = new ArrayDeque<Object>();
+        pending.push(root);
+        long size = 0;
+        while (!pending.isEmpty()) {
+            Object object = pending.pop();
+            if (object instanceof Class || object instanceof Enum || !visited.add(object)) {
+                continue;
+            }
+            Class<?> type = object.getClass();
+            if (type.isArray()) {
+                int length = java.lang.reflect.Array.getLength(object);
+                size += align(UNSAFE.arrayBaseOffset(type) + (long) length * UNSAFE.arrayIndexScale(type));
+                if (!type.getComponentType().isPrimitive()) {
+                    for (Object element : (Object[]) object) {
+                        if (element != null) {
+                            pending.push(element);
+                        }
+                    }
+                }
+                continue;
+            }
+            Layout layout = layout(type);
+            size += layout.size;
+            for (long offset : layout.references) {
+                Object referenced = UNSAFE.getObject(object, offset);
+                if (referenced != null) {
+                    pending.push(referenced);
+                }
+            }
+        }
+        return size;
+    }
+
+    private static Layout layout(Class<?> type) {
+        Layout layout = LAYOUTS.get(type);
+        if (layout == null) {
+            long end = HEADER_SIZE;
+            List<Long> references = new ArrayList<Long>();
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+                    long offset = UNSAFE.objectFieldOffset(field);
+                    end = Math.max(end, offset + fieldSize(field.getType()));
+                    if (!field.getType().isPrimitive()) {
+                        references.add(offset);
+                    }
+                }
+            }
+            long[] offsets = new long[references.size()];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = references.get(i);
+            }
+            layout = new Layout(align(end), offsets);
+            LAYOUTS.put(type, layout);
+        }
+        return layout;
+    }
+
+    private static int fieldSize(Class<?> type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+        if (type == short.class || type == char.class) {
+            return 2;
+        }
+        if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return referenceSize();
+    }
+
+    private static long align(long size) {
+        return (size + OBJECT_ALIGNMENT - 1) / OBJECT_ALIGNMENT * OBJECT_ALIGNMENT;
+    }
+
+    private static class Layout {
+
+        final long size;
+        final long[] references;
+
+        Layout(long size, long[] references) {
+            this.size = size;
+            this.references = references;
+        }
+    }
+
+    private static class Probe {
+        int value;
+    }
+}
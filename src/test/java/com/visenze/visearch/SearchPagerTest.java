@@ -0,0 +1,180 @@
+package com.visenze.visearch;
+
+import com.google.common.collect.Lists;
+import com.visenze.visearch.internal.DataOperations;
+import com.visenze.visearch.internal.SearchOperations;
+import com.visenze.visearch.internal.TrackOperations;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SearchPagerTest {
+
+    private static PagedSearchResult page(int page, int size, int limit, Integer total) {
+        List<ImageResult> results = new ArrayList<ImageResult>();
+        for (int i = 0; i < size; i++) {
+            results.add(new ImageResult("im-" + ((page - 1) * limit + i), null, null));
+        }
+        PagedSearchResult result = new PagedSearchResult(results);
+        result.setPage(page);
+        result.setLimit(limit);
+        result.setTotal(total);
+        return result;
+    }
+
+    /**
+     * Pages of 10 results out of the given total.
+     */
+    private static class Loader implements SearchPager.PageLoader {
+
+        final List<Integer> loaded = new CopyOnWriteArrayList<Integer>();
+        final CountDownLatch secondPageRequested = new CountDownLatch(1);
+        private final int total;
+
+        Loader(int total) {
+            this.total = total;
+        }
+
+        @Override
+        public PagedSearchResult load(int page) {
+            loaded.add(page);
+            if (page == 2) {
+                secondPageRequested.countDown();
+            }
+            return page(page, Math.max(0, Math.min(10, total - (page - 1) * 10)), 10, total);
+        }
+    }
+
+    private static List<String> names(SearchPager pager) {
+        List<String> names = new ArrayList<String>();
+        while (pager.hasNext()) {
+            names.add(pager.next().getImName());
+        }
+        return names;
+    }
+
+    @Test
+    public void testAllPagesUntilTotal() {
+        Loader loader = new Loader(25);
+        SearchPager pager = new SearchPager(loader, null, 1000);
+        List<String> names = names(pager);
+        assertEquals(25, names.size());
+        assertEquals("im-0", names.get(0));
+        assertEquals("im-24", names.get(24));
+        assertEquals(3, pager.getPages());
+        assertEquals(3, loader.loaded.size());
+        assertNull(pager.getErrorMessage());
+    }
+
+    @Test
+    public void testNextPagePrefetchedWhileReading() throws InterruptedException {
+        Loader loader = new Loader(100);
+        SearchPager pager = new SearchPager(loader, null, 1000);
+        assertEquals("im-0", pager.next().getImName());
+        // page 2 is requested without reading further
+        assertTrue(loader.secondPageRequested.await(5, TimeUnit.SECONDS));
+        pager.close();
+        assertFalse(pager.hasNext());
+    }
+
+    @Test
+    public void testMaxResults() {
+        Loader loader = new Loader(100);
+        SearchPager pager = new SearchPager(loader, 2, 15);
+        List<String> names = names(pager);
+        assertEquals(15, names.size());
+        assertEquals("im-10", names.get(0));
+        assertEquals(2, pager.getPages());
+        assertEquals(2, loader.loaded.size());
+    }
+
+    @Test
+    public void testFailedPageEndsPaging() {
+        SearchPager pager = new SearchPager(new SearchPager.PageLoader() {
+            @Override
+            public PagedSearchResult load(int page) {
+                if (page == 2) {
+                    return new PagedSearchResult(ResponseMessages.SYSTEM_BUSY.getMessage(), null, null);
+                }
+                return page(page, 10, 10, 100);
+            }
+        }, null, 1000);
+        assertEquals(10, names(pager).size());
+        assertEquals(ResponseMessages.SYSTEM_BUSY.getMessage(), pager.getErrorMessage());
+        assertEquals(2, pager.getPages());
+    }
+
+    @Test
+    public void testShortPageEndsPagingWithoutTotal() {
+        final List<Integer> loaded = new CopyOnWriteArrayList<Integer>();
+        SearchPager pager = new SearchPager(new SearchPager.PageLoader() {
+            @Override
+            public PagedSearchResult load(int page) {
+                loaded.add(page);
+                return page(page, page == 2 ? 4 : 10, 10, null);
+            }
+        }, null, 1000);
+        assertEquals(14, names(pager).size());
+        assertEquals(2, loaded.size());
+    }
+
+    @Test
+    public void testUploadSearchReusesImId() {
+        SearchOperations searchOperations = mock(SearchOperations.class);
+        final List<String> imIds = new CopyOnWriteArrayList<String>();
+        when(searchOperations.uploadSearch(any(UploadSearchParams.class))).thenAnswer(new Answer<PagedSearchResult>() {
+            @Override
+            public PagedSearchResult answer(InvocationOnMock invocation) {
+                UploadSearchParams params = (UploadSearchParams) invocation.getArguments()[0];
+                imIds.add(String.valueOf(params.getImId()));
+                PagedSearchResult result = page(params.getPage(), 10, 10, 30);
+                result.setImId("uploaded-1");
+                return result;
+            }
+        });
+        ViSearch client = new ViSearch(mock(DataOperations.class), searchOperations, mock(TrackOperations.class));
+        client.setEnableAutoSolutionActionTrack(false);
+
+        UploadSearchParams params = new UploadSearchParams(new ByteArrayInputStream(new byte[10]));
+        SearchPager pager = client.uploadSearchAll(params, 1000);
+        assertEquals(30, names(pager).size());
+        assertEquals(3, imIds.size());
+        assertEquals("null", imIds.get(0));
+        assertEquals(Collections.nCopies(2, "uploaded-1"), imIds.subList(1, 3));
+        assertNull(params.getImId());
+        assertNull(params.getPage());
+    }
+
+    @Test
+    public void testSearchAllLeavesParamsUnchanged() {
+        SearchOperations searchOperations = mock(SearchOperations.class);
+        when(searchOperations.search(any(SearchParams.class))).thenAnswer(new Answer<PagedSearchResult>() {
+            @Override
+            public PagedSearchResult answer(InvocationOnMock invocation) {
+                SearchParams params = (SearchParams) invocation.getArguments()[0];
+                return page(params.getPage(), 10, 10, 30);
+            }
+        });
+        ViSearch client = new ViSearch(mock(DataOperations.class), searchOperations, mock(TrackOperations.class));
+        client.setEnableAutoSolutionActionTrack(false);
+
+        SearchParams params = new SearchParams("im-1").setPage(1).setFl(Lists.newArrayList("price"));
+        SearchPager pager = client.searchAll(params, 1000);
+        assertEquals(30, names(pager).size());
+        assertEquals(Integer.valueOf(1), params.getPage());
+        assertEquals(Lists.newArrayList("price"), params.getFl());
+    }
+}
@@ -0,0 +1,174 @@
+package com.visenze.visearch;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.visenze.visearch.metrics.HistogramViSearchMetrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SearchResultStreamTest {
+
+    private static final String HEAD = "{\"status\":\"OK\",\"method\":\"recommendation\",\"error\":[],\"page\":1,\"limit\":1000,\"total\":1000,\"result\":[";
+
+    private HttpServer server;
+    private volatile String body;
+    private volatile boolean truncate;
+    private final CountDownLatch firstResultRead = new CountDownLatch(1);
+    private volatile boolean waitForFirstResult;
+    private HistogramViSearchMetrics metrics;
+    private ViSearch client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream out = exchange.getResponseBody();
+                byte[] bytes = body.getBytes("UTF-8");
+                int split = body.indexOf("},{") + 2;
+                out.write(bytes, 0, split);
+                out.flush();
+                if (waitForFirstResult) {
+                    try {
+                        firstResultRead.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (truncate) {
+                    exchange.close();
+                    return;
+                }
+                out.write(bytes, split, bytes.length - split);
+                out.close();
+            }
+        });
+        server.start();
+        metrics = new HistogramViSearchMetrics();
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setMetrics(metrics);
+        clientConfig.setMaxConnection(1);
+        client = new ViSearch("http://127.0.0.1:" + server.getAddress().getPort(), "access", "secret", clientConfig);
+        client.setEnableAutoSolutionActionTrack(false);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private static String response(int results) {
+        StringBuilder json = new StringBuilder(HEAD);
+        for (int i = 0; i < results; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"im_name\":\"im-").append(i).append("\",\"score\":0.5,\"value_map\":{\"price\":\"").append(i).append("\"}}");
+        }
+        return json.append("],\"reqid\":\"r1\"}").toString();
+    }
+
+    @Test
+    public void testStreamsAllResults() {
+        body = response(1000);
+        SearchResultStream stream = client.recommendationStream(new SearchParams("a"));
+        int count = 0;
+        while (stream.hasNext()) {
+            ImageResult result = stream.next();
+            assertEquals("im-" + count, result.getImName());
+            assertEquals(Integer.toString(count), result.getMetadata().get("price"));
+            count++;
+        }
+        assertEquals(1000, count);
+        assertNull(stream.getErrorMessage());
+        assertEquals(Integer.valueOf(1), stream.getPage());
+        assertEquals(Integer.valueOf(1000), stream.getTotal());
+
+        HistogramViSearchMetrics.EndpointMetrics endpoint = metrics.getEndpoint("/recommendation");
+        assertEquals(1, endpoint.getRequests());
+        assertEquals(0, endpoint.getFailures());
+        assertEquals(body.length(), endpoint.getResponseBytes());
+        assertEquals(0, endpoint.getInFlight());
+    }
+
+    @Test
+    public void testFirstResultBeforeResponseComplete() {
+        body = response(10);
+        waitForFirstResult = true;
+        SearchResultStream stream = client.searchStream(new SearchParams("a"));
+        try {
+            // the server sends the rest only after the first result was read
+            assertEquals("im-0", stream.next().getImName());
+            firstResultRead.countDown();
+            int count = 1;
+            while (stream.hasNext()) {
+                stream.next();
+                count++;
+            }
+            assertEquals(10, count);
+        } finally {
+            stream.close();
+        }
+        assertNull(stream.getErrorMessage());
+    }
+
+    @Test
+    public void testCloseEarlyReleasesConnection() {
+        body = response(1000);
+        SearchResultStream stream = client.searchStream(new SearchParams("a"));
+        assertEquals("im-0", stream.next().getImName());
+        stream.close();
+        assertFalse(stream.hasNext());
+        assertEquals(0, metrics.getEndpoint("/search").getInFlight());
+
+        // the pool has a single connection
+        PagedSearchResult result = client.search(new SearchParams("a"));
+        assertNull(result.getErrorMessage());
+        assertEquals(1000, result.getResult().size());
+    }
+
+    @Test
+    public void testErrorResponse() {
+        body = "{\"status\":\"fail\",\"method\":\"search\",\"error\":[\"Image not found with im_name.\"],\"result\":[{},{}]}";
+        SearchResultStream stream = client.searchStream(new SearchParams("a"));
+        assertFalse(stream.hasNext());
+        assertEquals("Image not found with im_name.", stream.getErrorMessage());
+        assertEquals(1, metrics.getEndpoint("/search").getTotalErrors());
+    }
+
+    @Test
+    public void testTruncatedResponse() {
+        body = response(10);
+        truncate = true;
+        SearchResultStream stream = client.searchStream(new SearchParams("a"));
+        int count = 0;
+        while (stream.hasNext()) {
+            stream.next();
+            count++;
+        }
+        assertEquals(1, count);
+        assertNotNull(stream.getErrorMessage());
+        assertEquals(0, metrics.getEndpoint("/search").getInFlight());
+    }
+
+    @Test
+    public void testServerUnavailable() {
+        server.stop(0);
+        SearchResultStream stream = client.searchStream(new SearchParams("a"));
+        assertFalse(stream.hasNext());
+        assertEquals(ResponseMessages.NETWORK_ERROR.getMessage(), stream.getErrorMessage());
+        assertEquals(1, metrics.getEndpoint("/search").getFailures());
+    }
+}
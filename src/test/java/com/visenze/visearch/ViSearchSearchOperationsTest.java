@@ -6,6 +6,7 @@ import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
+import com.visenze.visearch.feature.FeatureCache;
 import com.visenze.visearch.internal.SearchOperations;
 import com.visenze.visearch.internal.SearchOperationsImpl;
 import com.visenze.visearch.internal.http.ViSearchHttpClient;
@@ -17,6 +18,7 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.mockito.Matchers;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.InputStream;
 import java.util.List;
@@ -760,6 +762,93 @@ public class ViSearchSearchOperationsTest {
 
     }
 
+    @Test
+    public void testExtractFeatureWithFeatureCache() {
+        String responseBody = "{\"status\":\"OK\",\"method\":\"extractfeature\",\"error\":[],\"result\":[\"aaab\"],\"im_id\":\"abc.jpg\"}";
+        ViSearchHttpResponse response = mock(ViSearchHttpResponse.class);
+        when(response.getBody()).thenReturn(responseBody);
+        when(mockClient.postImage(anyString(), Matchers.<Multimap<String, String>>any(), Matchers.<InputStream>any(), anyString())).thenReturn(response);
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setFeatureCache(new FeatureCache());
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper, clientConfig);
+
+        FeatureResponseResult first = searchOperations.extractFeature(new UploadSearchParams(new ByteArrayInputStream(new byte[]{1, 2, 3})));
+        FeatureResponseResult second = searchOperations.extractFeature(new UploadSearchParams(new ByteArrayInputStream(new byte[]{1, 2, 3})));
+
+        verify(mockClient, times(1)).postImage(eq("/extractfeature"), Matchers.<Multimap<String, String>>any(), Matchers.<InputStream>any(), anyString());
+        assertEquals("aaab", first.getResult().get(0));
+        assertEquals("aaab", second.getResult().get(0));
+        assertEquals("abc.jpg", second.getImId());
+    }
+
+    @Test
+    public void testUploadSearchWithFeatureCacheHit() {
+        String featureBody = "{\"status\":\"OK\",\"method\":\"extractfeature\",\"error\":[],\"result\":[\"aaab\"]}";
+        String searchBody = "{\"status\":\"OK\",\"method\":\"uploadsearch\",\"error\":[],\"page\":1,\"limit\":10,\"total\":1,\"result\":[{\"im_name\":\"test_im_0\"}]}";
+        ViSearchHttpResponse featureResponse = mock(ViSearchHttpResponse.class);
+        when(featureResponse.getBody()).thenReturn(featureBody);
+        ViSearchHttpResponse searchResponse = mock(ViSearchHttpResponse.class);
+        when(searchResponse.getBody()).thenReturn(searchBody);
+        when(mockClient.postImage(anyString(), Matchers.<Multimap<String, String>>any(), Matchers.<InputStream>any(), anyString())).thenReturn(featureResponse);
+        when(mockClient.postImFeature(anyString(), Matchers.<Multimap<String, String>>any(), anyString(), anyString())).thenReturn(searchResponse);
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setFeatureCache(new FeatureCache());
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper, clientConfig);
+
+        searchOperations.extractFeature(new UploadSearchParams(new ByteArrayInputStream(new byte[]{1, 2, 3})));
+        PagedSearchResult result = searchOperations.uploadSearch(new UploadSearchParams(new ByteArrayInputStream(new byte[]{1, 2, 3})));
+
+        assertEquals(null, result.getErrorMessage());
+        assertEquals("test_im_0", result.getResult().get(0).getImName());
+        verify(mockClient).postImFeature(eq("/uploadsearch"), Matchers.<Multimap<String, String>>any(), eq("aaab"), Matchers.<String>any());
+        verify(mockClient, never()).postImage(eq("/uploadsearch"), Matchers.<Multimap<String, String>>any(), Matchers.<InputStream>any(), anyString());
+    }
+
+    @Test
+    public void testRepeatedUploadSearchUploadsOnce() {
+        String featureBody = "{\"status\":\"OK\",\"method\":\"extractfeature\",\"error\":[],\"result\":[\"aaab\"]}";
+        String searchBody = "{\"status\":\"OK\",\"method\":\"uploadsearch\",\"error\":[],\"page\":1,\"limit\":10,\"total\":1,\"result\":[{\"im_name\":\"test_im_0\"}]}";
+        ViSearchHttpResponse featureResponse = mock(ViSearchHttpResponse.class);
+        when(featureResponse.getBody()).thenReturn(featureBody);
+        ViSearchHttpResponse searchResponse = mock(ViSearchHttpResponse.class);
+        when(searchResponse.getBody()).thenReturn(searchBody);
+        when(mockClient.postImage(anyString(), Matchers.<Multimap<String, String>>any(), Matchers.<InputStream>any(), anyString())).thenReturn(featureResponse);
+        when(mockClient.postImFeature(anyString(), Matchers.<Multimap<String, String>>any(), anyString(), anyString())).thenReturn(searchResponse);
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setFeatureCache(new FeatureCache());
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper, clientConfig);
+
+        PagedSearchResult first = searchOperations.uploadSearch(new UploadSearchParams(new ByteArrayInputStream(new byte[]{1, 2, 3})));
+        PagedSearchResult second = searchOperations.uploadSearch(new UploadSearchParams(new ByteArrayInputStream(new byte[]{1, 2, 3})));
+
+        assertEquals("test_im_0", first.getResult().get(0).getImName());
+        assertEquals("test_im_0", second.getResult().get(0).getImName());
+        verify(mockClient, times(1)).postImage(anyString(), Matchers.<Multimap<String, String>>any(), Matchers.<InputStream>any(), anyString());
+        verify(mockClient, times(2)).postImFeature(eq("/uploadsearch"), Matchers.<Multimap<String, String>>any(), eq("aaab"), Matchers.<String>any());
+    }
+
+    @Test
+    public void testUploadSearchWithSeveralCachedFeaturesUploadsImage() {
+        String featureBody = "{\"status\":\"OK\",\"method\":\"extractfeature\",\"error\":[],\"result\":[\"aaab\",\"aaac\"]}";
+        String searchBody = "{\"status\":\"OK\",\"method\":\"uploadsearch\",\"error\":[],\"page\":1,\"limit\":10,\"total\":1,\"result\":[{\"im_name\":\"test_im_0\"}]}";
+        ViSearchHttpResponse featureResponse = mock(ViSearchHttpResponse.class);
+        when(featureResponse.getBody()).thenReturn(featureBody);
+        ViSearchHttpResponse searchResponse = mock(ViSearchHttpResponse.class);
+        when(searchResponse.getBody()).thenReturn(searchBody);
+        when(mockClient.postImage(eq("/extractfeature"), Matchers.<Multimap<String, String>>any(), Matchers.<InputStream>any(), anyString())).thenReturn(featureResponse);
+        when(mockClient.postImage(eq("/uploadsearch"), Matchers.<Multimap<String, String>>any(), Matchers.<InputStream>any(), anyString())).thenReturn(searchResponse);
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setFeatureCache(new FeatureCache());
+        SearchOperations searchOperations = new SearchOperationsImpl(mockClient, objectMapper, clientConfig);
+
+        searchOperations.extractFeature(new UploadSearchParams(new ByteArrayInputStream(new byte[]{1, 2, 3})).setDetection("all"));
+        PagedSearchResult result = searchOperations.uploadSearch(new UploadSearchParams(new ByteArrayInputStream(new byte[]{1, 2, 3})).setDetection("all"));
+
+        assertEquals("test_im_0", result.getResult().get(0).getImName());
+        verify(mockClient, never()).postImFeature(anyString(), Matchers.<Multimap<String, String>>any(), anyString(), anyString());
+        verify(mockClient).postImage(eq("/uploadsearch"), Matchers.<Multimap<String, String>>any(), Matchers.<InputStream>any(), anyString());
+    }
+
     @Test
     public void testExtractFeatureNullFile() {
         expectedException.expect(NullPointerException.class);
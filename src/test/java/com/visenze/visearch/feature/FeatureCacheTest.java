@@ -0,0 +1,67 @@
+package com.visenze.visearch.feature;
+
+import com.google.common.io.Files;
+import com.visenze.visearch.Box;
+import com.visenze.visearch.UploadSearchParams;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+public class FeatureCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testKeyDependsOnContentAndBox() throws Exception {
+        byte[] image = "image-content".getBytes("UTF-8");
+        File imageFile = folder.newFile("image.jpg");
+        Files.write(image, imageFile);
+
+        String streamKey = FeatureCache.keyFor(image, new UploadSearchParams());
+        assertEquals(streamKey, FeatureCache.keyFor(imageFile, new UploadSearchParams(imageFile)));
+        assertNotEquals(streamKey, FeatureCache.keyFor("other-content".getBytes("UTF-8"), new UploadSearchParams()));
+        assertNotEquals(streamKey, FeatureCache.keyFor(image, new UploadSearchParams().setBox(new Box(0, 0, 10, 10))));
+    }
+
+    @Test
+    public void testKeyCoversDetectionButNotSearchParams() throws Exception {
+        byte[] image = "image-content".getBytes("UTF-8");
+        String key = FeatureCache.keyFor(image, new UploadSearchParams().setDetection("all"));
+        assertNotEquals(key, FeatureCache.keyFor(image, new UploadSearchParams().setDetection("all").setDetectionLimit(5)));
+        assertNotEquals(key, FeatureCache.keyFor(image, new UploadSearchParams().setDetection("all")
+                .setCustom(Collections.singletonMap("detection_model", "v2"))));
+        assertEquals(key, FeatureCache.keyFor(image, new UploadSearchParams().setDetection("all")
+                .setResultLimit(5).setLimit(20).setPage(2)));
+    }
+
+    @Test
+    public void testPersistentTierSurvivesNewInstance() throws Exception {
+        File directory = folder.newFolder("features");
+        FeatureCache cache = new FeatureCache(10, directory);
+        assertNull(cache.get("key"));
+        cache.put("key", "{\"status\":\"OK\"}");
+        assertEquals("{\"status\":\"OK\"}", cache.get("key"));
+
+        FeatureCache reopened = new FeatureCache(10, directory);
+        assertEquals(0, reopened.size());
+        assertEquals("{\"status\":\"OK\"}", reopened.get("key"));
+        assertEquals(1, reopened.size());
+    }
+
+    @Test
+    public void testMemoryTierIsBounded() {
+        FeatureCache cache = new FeatureCache(2);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+        assertEquals(2, cache.size());
+    }
+}
@@ -0,0 +1,137 @@
+package com.visenze.visearch.feature;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.Files;
+import com.visenze.visearch.FeatureResponseResult;
+import com.visenze.visearch.UploadSearchParams;
+import com.visenze.visearch.ResponseMessages;
+import com.visenze.visearch.internal.InternalViSearchException;
+import com.visenze.visearch.internal.SearchOperations;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+public class FeatureExtractionPipelineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SearchOperations searchOperations;
+
+    @Before
+    public void setup() {
+        searchOperations = mock(SearchOperations.class);
+        when(searchOperations.extractFeature(Matchers.<UploadSearchParams>any())).thenAnswer(new Answer<FeatureResponseResult>() {
+            @Override
+            public FeatureResponseResult answer(InvocationOnMock invocation) throws Throwable {
+                UploadSearchParams params = (UploadSearchParams) invocation.getArguments()[0];
+                if (params.getImageUrl() != null && params.getImageUrl().contains("unreachable")) {
+                    throw new InternalViSearchException(ResponseMessages.NETWORK_ERROR);
+                }
+                if (params.getImageUrl() != null && params.getImageUrl().contains("broken")) {
+                    return new FeatureResponseResult("Could not download the image from im_url.", null, null);
+                }
+                if (params.getImageUrl() != null && params.getImageUrl().contains("outfit")) {
+                    FeatureResponseResult result = new FeatureResponseResult(Lists.newArrayList(BaseEncoding.base64().encode(new byte[]{1}),
+                            BaseEncoding.base64().encode(new byte[]{2}), BaseEncoding.base64().encode(new byte[]{3})));
+                    result.setImId("outfit_id");
+                    return result;
+                }
+                FeatureResponseResult result = new FeatureResponseResult(Lists.newArrayList(BaseEncoding.base64().encode(new byte[]{1, 2, 3})));
+                result.setImId("im_id");
+                return result;
+            }
+        });
+    }
+
+    @Test
+    public void testRunWritesRecords() throws Exception {
+        File images = folder.newFolder("images");
+        Files.write(new byte[]{9}, new File(images, "a.jpg"));
+        new File(images, "sub").mkdir();
+        Files.write(new byte[]{8}, new File(images, "sub/b.jpg"));
+        File output = new File(folder.getRoot(), "features.bin");
+
+        FeatureExtractionPipeline.Summary summary = new FeatureExtractionPipeline(searchOperations, output)
+                .setParallelism(2)
+                .run(FeatureSource.fromDirectory(images));
+
+        assertEquals(2, summary.getSucceeded());
+        List<FeatureRecord> records = FeatureRecordFile.readAll(output);
+        assertEquals(2, records.size());
+        assertEquals("im_id", records.get(0).getImId());
+        assertArrayEquals(new byte[]{1, 2, 3}, records.get(0).getFeature());
+        FeatureRecordFile reopened = FeatureRecordFile.open(output);
+        assertEquals(2, reopened.getNames().size());
+        reopened.close();
+    }
+
+    @Test
+    public void testRunResumesAfterTruncatedRecord() throws Exception {
+        File output = new File(folder.getRoot(), "features.bin");
+        new FeatureExtractionPipeline(searchOperations, output)
+                .run(Lists.newArrayList(FeatureSource.ofUrl("a", "http://a"), FeatureSource.ofUrl("b", "http://b")).iterator());
+        // simulate a crash in the middle of writing the last record
+        RandomAccessFile file = new RandomAccessFile(output, "rw");
+        file.setLength(file.length() - 3);
+        file.close();
+
+        FeatureExtractionPipeline.Summary summary = new FeatureExtractionPipeline(searchOperations, output)
+                .run(Lists.newArrayList(FeatureSource.ofUrl("a", "http://a"), FeatureSource.ofUrl("b", "http://b"),
+                        FeatureSource.ofUrl("c", "http://broken")).iterator());
+
+        assertEquals(1, summary.getSkipped());
+        assertEquals(1, summary.getSucceeded());
+        assertEquals(1, summary.getFailed());
+        assertEquals("Could not download the image from im_url.", summary.getFailures().get("c"));
+        assertEquals(2, FeatureRecordFile.readAll(output).size());
+        verify(searchOperations, times(4)).extractFeature(Matchers.<UploadSearchParams>any());
+    }
+
+    @Test
+    public void testRunRecordsThrownFailures() throws Exception {
+        File output = new File(folder.getRoot(), "features.bin");
+        FeatureExtractionPipeline.Summary summary = new FeatureExtractionPipeline(searchOperations, output)
+                .run(Lists.newArrayList(FeatureSource.ofUrl("a", "http://unreachable"), FeatureSource.ofUrl("b", "http://b")).iterator());
+
+        assertEquals(1, summary.getSucceeded());
+        assertEquals(1, summary.getFailed());
+        assertTrue(summary.getFailures().get("a").contains(ResponseMessages.NETWORK_ERROR.getMessage()));
+        assertEquals(1, FeatureRecordFile.readAll(output).size());
+    }
+
+    @Test
+    public void testRunRecordsEveryDetection() throws Exception {
+        File output = new File(folder.getRoot(), "features.bin");
+        FeatureExtractionPipeline.Summary summary = new FeatureExtractionPipeline(searchOperations, output)
+                .setDetection("all")
+                .run(Lists.newArrayList(FeatureSource.ofUrl("look", "http://outfit")).iterator());
+
+        assertEquals(1, summary.getSucceeded());
+        Map<String, byte[]> features = new HashMap<String, byte[]>();
+        for (FeatureRecord record : FeatureRecordFile.readAll(output)) {
+            assertEquals("outfit_id", record.getImId());
+            features.put(record.getName(), record.getFeature());
+        }
+        assertEquals(3, features.size());
+        assertArrayEquals(new byte[]{1}, features.get("look"));
+        assertArrayEquals(new byte[]{2}, features.get("look#1"));
+        assertArrayEquals(new byte[]{3}, features.get(FeatureExtractionPipeline.detectionName("look", 2)));
+    }
+}
@@ -0,0 +1,93 @@
+package com.visenze.visearch.feature;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.BaseEncoding;
+import com.visenze.visearch.FeatureResponseResult;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FeatureSimilarityTest {
+
+    private static String encode(float... vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        return BaseEncoding.base64().encode(buffer.array());
+    }
+
+    @Test
+    public void testDecodeFeature() {
+        String feature = encode(1f, -2.5f, 3f, 0.25f, 7f);
+        assertEquals(5, FeatureVectors.dimension(feature));
+        assertArrayEquals(new float[]{1f, -2.5f, 3f, 0.25f, 7f}, FeatureVectors.toFloatArray(feature), 0f);
+
+        FloatBuffer view = FeatureVectors.asFloatBuffer(FeatureVectors.decode(feature));
+        assertEquals(5, view.remaining());
+        assertEquals(-2.5f, view.get(1), 0f);
+
+        float[] target = new float[8];
+        ByteBuffer scratch = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(5, FeatureVectors.toFloatArray(feature, scratch, target));
+        assertEquals(7f, target[4], 0f);
+    }
+
+    @Test
+    public void testDecodeFeatureResponseResult() {
+        List<float[]> vectors = FeatureVectors.toFloatArrays(new FeatureResponseResult(Lists.newArrayList(encode(1f, 2f), encode(3f))));
+        assertEquals(2, vectors.size());
+        assertArrayEquals(new float[]{3f}, vectors.get(1), 0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeInvalidFeature() {
+        FeatureVectors.toFloatArray("not*base64");
+    }
+
+    @Test
+    public void testScores() {
+        float[] a = {1f, 2f, 3f, 4f, 5f};
+        float[] b = {5f, 4f, 3f, 2f, 1f};
+        assertEquals(35f, FeatureSimilarity.dot(a, b), 1e-6f);
+        assertEquals(40f, FeatureSimilarity.squaredL2(a, b), 1e-6f);
+        assertEquals(35f / 55f, FeatureSimilarity.cosine(a, b), 1e-6f);
+        assertEquals(FeatureSimilarity.score(FeatureSimilarity.Metric.COSINE, a, b),
+                FeatureSimilarity.score(FeatureSimilarity.Metric.COSINE, a, FloatBuffer.wrap(b)), 1e-6f);
+        assertEquals(FeatureSimilarity.score(FeatureSimilarity.Metric.COSINE, a, b),
+                FeatureSimilarity.score(FeatureSimilarity.Metric.COSINE, a, FeatureSimilarity.norm(a), FloatBuffer.wrap(b)), 1e-6f);
+        assertEquals(-40f, FeatureSimilarity.score(FeatureSimilarity.Metric.L2, a, FloatBuffer.wrap(b)), 1e-6f);
+    }
+
+    @Test
+    public void testTopK() {
+        float[] query = {1f, 0f};
+        float[][] candidates = {{0f, 1f}, {1f, 0.1f}, {-1f, 0f}, {1f, 0.5f}, {0.95f, 0f}};
+        TopK topK = new TopK(3);
+        FeatureSimilarity.topK(FeatureSimilarity.Metric.COSINE, query, candidates, topK);
+        assertEquals(3, topK.sort());
+        assertEquals(4, topK.index(0));
+        assertEquals(1, topK.index(1));
+        assertEquals(3, topK.index(2));
+
+        float[] packed = {0f, 1f, 1f, 0.1f, -1f, 0f, 1f, 0.5f, 0.95f, 0f};
+        topK.reset();
+        FeatureSimilarity.topK(FeatureSimilarity.Metric.L2, query, packed, topK);
+        topK.sort();
+        assertEquals(4, topK.index(0));
+        assertEquals(1, topK.index(1));
+    }
+
+    @Test
+    public void testDedupe() {
+        float[][] vectors = {{1f, 0f}, {0.999f, 0.001f}, {0f, 1f}};
+        int[] kept = new int[3];
+        assertEquals(2, FeatureSimilarity.dedupe(FeatureSimilarity.Metric.COSINE, vectors, 0.99f, kept));
+        assertEquals(0, kept[0]);
+        assertEquals(2, kept[1]);
+    }
+}
@@ -0,0 +1,299 @@
+package com.visenze.visearch.feature;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.Files;
+import com.visenze.visearch.*;
+import com.visenze.visearch.internal.InternalViSearchException;
+import com.visenze.visearch.internal.SearchOperations;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class HnswIndexTest {
+
+    private static final int DIMENSION = 16;
+    private static final int COUNT = 1000;
+
+    private float[][] vectors;
+    private HnswIndex index;
+
+    @Before
+    public void setUp() {
+        Random random = new Random(7);
+        vectors = new float[COUNT][DIMENSION];
+        index = new HnswIndex(DIMENSION);
+        for (int i = 0; i < COUNT; i++) {
+            for (int d = 0; d < DIMENSION; d++) {
+                vectors[i][d] = random.nextFloat() - 0.5f;
+            }
+            Map<String, String> metadata = ImmutableMap.of("id", String.valueOf(i), "parity", i % 2 == 0 ? "even" : "odd");
+            index.add("im_" + i, vectors[i], metadata);
+        }
+    }
+
+    private static String encode(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        return BaseEncoding.base64().encode(buffer.array());
+    }
+
+    private Set<String> exactTop(float[] query, int k) {
+        TopK topK = new TopK(k);
+        FeatureSimilarity.topK(FeatureSimilarity.Metric.COSINE, query, vectors, topK);
+        topK.sort();
+        Set<String> names = new HashSet<String>();
+        for (int i = 0; i < topK.size(); i++) {
+            names.add("im_" + topK.index(i));
+        }
+        return names;
+    }
+
+    @Test
+    public void testRecallAgainstExactSearch() {
+        Random random = new Random(11);
+        int hits = 0;
+        for (int q = 0; q < 50; q++) {
+            float[] query = new float[DIMENSION];
+            for (int d = 0; d < DIMENSION; d++) {
+                query[d] = random.nextFloat() - 0.5f;
+            }
+            PagedSearchResult result = index.search(query, new UploadSearchParams().setLimit(10));
+            Set<String> expected = exactTop(query, 10);
+            for (ImageResult image : result.getResult()) {
+                if (expected.contains(image.getImName())) {
+                    hits++;
+                }
+            }
+        }
+        assertTrue("recall " + hits / 500.0, hits >= 475);
+    }
+
+    @Test
+    public void testSearchByFeature() {
+        UploadSearchParams params = new UploadSearchParams();
+        params.setImFeature(encode(vectors[42]));
+        params.setLimit(5).setScore(true).setFl(Lists.newArrayList("id"));
+        PagedSearchResult result = index.search(params);
+        assertNull(result.getErrorMessage());
+        assertEquals(5, result.getResult().size());
+        ImageResult top = result.getResult().get(0);
+        assertEquals("im_42", top.getImName());
+        assertEquals(1f, top.getScore(), 1e-4f);
+        assertEquals(ImmutableMap.of("id", "42"), top.getMetadata());
+        assertEquals(COUNT, result.getTotal().intValue());
+    }
+
+    @Test
+    public void testSearchByNameExcludesQueryImage() {
+        PagedSearchResult result = index.search(new SearchParams("im_42").setLimit(10));
+        assertEquals(10, result.getResult().size());
+        for (ImageResult image : result.getResult()) {
+            assertNotEquals("im_42", image.getImName());
+            assertNull(image.getScore());
+        }
+        assertEquals(ResponseMessages.SEARCH_IMAGE_NOT_FOUND.getMessage(),
+                index.search(new SearchParams("missing")).getErrorMessage());
+    }
+
+    @Test
+    public void testPagingAndFilter() {
+        List<ImageResult> first = index.search(vectors[3], new UploadSearchParams().setLimit(5).setPage(1)).getResult();
+        List<ImageResult> second = index.search(vectors[3], new UploadSearchParams().setLimit(5).setPage(2)).getResult();
+        List<ImageResult> both = index.search(vectors[3], new UploadSearchParams().setLimit(10)).getResult();
+        assertEquals(both.subList(0, 5).get(4).getImName(), first.get(4).getImName());
+        assertEquals(both.subList(5, 10).get(0).getImName(), second.get(0).getImName());
+
+        UploadSearchParams params = new UploadSearchParams().setLimit(20).setGetAllFl(true)
+                .setFq(ImmutableMap.of("parity", "odd"));
+        PagedSearchResult result = index.search(vectors[4], params);
+        assertEquals(20, result.getResult().size());
+        for (ImageResult image : result.getResult()) {
+            assertEquals("odd", image.getMetadata().get("parity"));
+        }
+    }
+
+    @Test
+    public void testRemoveAndReplace() {
+        assertTrue(index.remove("im_42"));
+        assertFalse(index.remove("im_42"));
+        assertEquals(COUNT - 1, index.size());
+        for (ImageResult image : index.search(vectors[42], new UploadSearchParams().setLimit(20)).getResult()) {
+            assertNotEquals("im_42", image.getImName());
+        }
+
+        index.add("im_42", vectors[42], null);
+        index.add("im_42", vectors[43], null);
+        assertEquals(COUNT, index.size());
+        List<ImageResult> result = index.search(vectors[43], new UploadSearchParams().setLimit(2)).getResult();
+        Set<String> names = new HashSet<String>();
+        for (ImageResult image : result) {
+            names.add(image.getImName());
+        }
+        assertEquals(new HashSet<String>(Lists.newArrayList("im_42", "im_43")), names);
+    }
+
+    @Test
+    public void testReAddOnlyImage() {
+        HnswIndex single = new HnswIndex(DIMENSION);
+        single.add("a", vectors[0], null);
+        single.add("a", vectors[1], null);
+        assertEquals(1, single.size());
+        List<ImageResult> result = single.search(vectors[1], new UploadSearchParams()).getResult();
+        assertEquals(1, result.size());
+        assertEquals("a", result.get(0).getImName());
+    }
+
+    @Test
+    public void testAddAfterRemovingAll() {
+        for (int i = 0; i < COUNT; i++) {
+            index.remove("im_" + i);
+        }
+        assertEquals(0, index.size());
+        index.add("new", vectors[5], null);
+        index.add("other", vectors[6], null);
+        assertEquals(2, index.size());
+        List<ImageResult> result = index.search(vectors[5], new UploadSearchParams().setLimit(5)).getResult();
+        assertEquals(2, result.size());
+        assertEquals("new", result.get(0).getImName());
+        assertEquals("other", result.get(1).getImName());
+    }
+
+    @Test
+    public void testReplacedImagesCompacted() {
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < COUNT; i++) {
+                index.add("im_" + i, vectors[(i + round) % COUNT], null);
+            }
+        }
+        assertEquals(COUNT, index.size());
+        assertTrue(index.nodeCount() <= COUNT * 2);
+        index.compact();
+        assertEquals(COUNT, index.nodeCount());
+        List<ImageResult> result = index.search(vectors[10], new UploadSearchParams().setLimit(1)).getResult();
+        assertEquals("im_" + (10 - 4 + COUNT) % COUNT, result.get(0).getImName());
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        index.remove("im_7");
+        File dir = Files.createTempDir();
+        File file = new File(dir, "index.bin");
+        try {
+            index.save(file);
+            HnswIndex loaded = HnswIndex.load(file);
+            assertEquals(index.size(), loaded.size());
+            assertFalse(loaded.contains("im_7"));
+            UploadSearchParams params = new UploadSearchParams().setLimit(10).setGetAllFl(true);
+            List<ImageResult> expected = index.search(vectors[99], params).getResult();
+            List<ImageResult> actual = loaded.search(vectors[99], params).getResult();
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getImName(), actual.get(i).getImName());
+                assertEquals(expected.get(i).getMetadata(), actual.get(i).getMetadata());
+            }
+        } finally {
+            file.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testSyncWithInsertAndRemove() {
+        SearchOperations searchOperations = mock(SearchOperations.class);
+        when(searchOperations.extractFeature(any(UploadSearchParams.class)))
+                .thenReturn(new FeatureResponseResult(Lists.newArrayList(encode(vectors[0]))));
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        HnswIndex local = new HnswIndex(DIMENSION);
+        LocalIndexSync sync = new LocalIndexSync(local, searchOperations, direct);
+
+        List<Image> images = Lists.newArrayList(new Image("a", "http://a.jpg"), new Image("b", "http://b.jpg"));
+        sync.onInsert(images, new InsertTrans("trans", 1, Lists.newArrayList(new InsertError("b", 1, 201, "error"))));
+        assertTrue(local.contains("a"));
+        assertFalse(local.contains("b"));
+
+        sync.onRemove(Lists.newArrayList("a"), new RemoveStatus("error", null, null));
+        assertTrue(local.contains("a"));
+        sync.onRemove(Lists.newArrayList("a"), new RemoveStatus(1));
+        assertFalse(local.contains("a"));
+    }
+
+    @Test
+    public void testSyncDropsExtractionOfRemovedImage() {
+        final SearchOperations searchOperations = mock(SearchOperations.class);
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        HnswIndex local = new HnswIndex(DIMENSION);
+        final LocalIndexSync sync = new LocalIndexSync(local, searchOperations, direct);
+        when(searchOperations.extractFeature(any(UploadSearchParams.class))).thenAnswer(new Answer<FeatureResponseResult>() {
+            @Override
+            public FeatureResponseResult answer(InvocationOnMock invocation) {
+                // removed while its feature is being extracted
+                sync.onRemove(Lists.newArrayList("a"), new RemoveStatus(1));
+                return new FeatureResponseResult(Lists.newArrayList(encode(vectors[0])));
+            }
+        });
+        sync.onInsert(Lists.newArrayList(new Image("a", "http://a.jpg")), new InsertTrans("trans", 1, null));
+        assertFalse(local.contains("a"));
+        assertEquals(0, sync.getFailureCount());
+    }
+
+    @Test
+    public void testSyncReportsFailedExtraction() {
+        SearchOperations searchOperations = mock(SearchOperations.class);
+        when(searchOperations.extractFeature(any(UploadSearchParams.class)))
+                .thenThrow(new InternalViSearchException(ResponseMessages.NETWORK_ERROR));
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        HnswIndex local = new HnswIndex(DIMENSION);
+        LocalIndexSync sync = new LocalIndexSync(local, searchOperations, direct);
+        sync.onInsert(Lists.newArrayList(new Image("a", "http://a.jpg")), new InsertTrans("trans", 1, null));
+        assertFalse(local.contains("a"));
+        assertEquals(1, sync.getFailureCount());
+        assertTrue(sync.getLastFailure().startsWith("a: "));
+    }
+
+    @Test
+    public void testSyncIgnoresInsertAfterShutdown() {
+        SearchOperations searchOperations = mock(SearchOperations.class);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        HnswIndex local = new HnswIndex(DIMENSION);
+        LocalIndexSync sync = new LocalIndexSync(local, searchOperations, executor);
+        // the executor is gone before the sync notices
+        executor.shutdownNow();
+        sync.onInsert(Lists.newArrayList(new Image("a", "http://a.jpg")), new InsertTrans("trans", 1, null));
+        assertFalse(local.contains("a"));
+    }
+}
@@ -0,0 +1,186 @@
+package com.visenze.visearch.feature;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.Files;
+import com.visenze.visearch.FeatureResponseResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MappedFeatureStoreTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() {
+        directory = Files.createTempDir();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private static String encode(float... vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        return BaseEncoding.base64().encode(buffer.array());
+    }
+
+    @Test
+    public void testPutGetAcrossSegments() throws Exception {
+        MappedFeatureStore store = MappedFeatureStore.open(directory, 4, 8);
+        try {
+            for (int i = 0; i < 3000; i++) {
+                store.put("im_" + i, new float[]{i, i + 1, i + 2, i + 3});
+            }
+            assertEquals(3000, store.size());
+            assertArrayEquals(new float[]{1234, 1235, 1236, 1237}, store.get("im_1234"), 0f);
+            assertNull(store.get("missing"));
+            assertTrue(store.contains("im_2999"));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testPutFeatureResponseResult() throws Exception {
+        MappedFeatureStore store = MappedFeatureStore.open(directory, 3, 16);
+        try {
+            assertTrue(store.put("a", new FeatureResponseResult(Lists.newArrayList(encode(0.5f, -1f, 2f)))));
+            assertFalse(store.put("b", new FeatureResponseResult("error", null, null)));
+            assertArrayEquals(new float[]{0.5f, -1f, 2f}, store.get("a"), 0f);
+            assertFalse(store.contains("b"));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testInvalidUpdateKeepsVector() throws Exception {
+        MappedFeatureStore store = MappedFeatureStore.open(directory, 3, 16);
+        try {
+            store.put("a", encode(0.5f, -1f, 2f));
+            String invalid = "!" + encode(1f, 1f, 1f).substring(1);
+            try {
+                store.put("a", invalid);
+                fail("invalid base 64 accepted");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            assertEquals(1, store.size());
+            assertArrayEquals(new float[]{0.5f, -1f, 2f}, store.get("a"), 0f);
+            store.put("b", encode(3f, 4f, 5f));
+            assertEquals("b", store.getName(1));
+            assertArrayEquals(new float[]{3f, 4f, 5f}, store.get("b"), 0f);
+            assertArrayEquals(new float[]{0.5f, -1f, 2f}, store.get("a"), 0f);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testReplaceRemoveAndScan() throws Exception {
+        MappedFeatureStore store = MappedFeatureStore.open(directory, 2, 4);
+        try {
+            store.put("a", new float[]{1f, 0f});
+            store.put("b", new float[]{0f, 1f});
+            store.put("c", new float[]{0.7f, 0.7f});
+            store.put("a", new float[]{-1f, 0f});
+            assertTrue(store.remove("b"));
+            assertFalse(store.remove("b"));
+            assertEquals(2, store.size());
+            assertEquals(4, store.recordCount());
+
+            final List<String> scanned = new ArrayList<String>();
+            final MappedFeatureStore scannedStore = store;
+            store.scan(new MappedFeatureStore.Visitor() {
+                @Override
+                public void visit(long record, FloatBuffer vector) {
+                    assertEquals(2, vector.remaining());
+                    scanned.add(scannedStore.getName(record));
+                }
+            });
+            assertEquals(Lists.newArrayList("c", "a"), scanned);
+
+            TopK topK = new TopK(2);
+            store.topK(FeatureSimilarity.Metric.COSINE, new float[]{1f, 0f}, topK);
+            topK.sort();
+            assertEquals("c", store.getName(topK.index(0)));
+            assertEquals("a", store.getName(topK.index(1)));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        MappedFeatureStore store = MappedFeatureStore.open(directory, 2, 4);
+        for (int i = 0; i < 10; i++) {
+            store.put("im_" + i, new float[]{i, -i});
+        }
+        store.remove("im_3");
+        store.close();
+
+        store = MappedFeatureStore.open(directory, 2);
+        try {
+            assertEquals(9, store.size());
+            assertFalse(store.contains("im_3"));
+            assertArrayEquals(new float[]{7f, -7f}, store.get("im_7"), 0f);
+            store.put("im_10", new float[]{10f, -10f});
+            assertEquals(10, store.size());
+        } finally {
+            store.close();
+        }
+
+        try {
+            MappedFeatureStore.open(directory, 3);
+            fail("Expected a dimension mismatch");
+        } catch (java.io.IOException e) {
+            assertTrue(e.getMessage().contains("dimension"));
+        }
+    }
+
+    @Test
+    public void testReopenKeepsLastRecordOfInterruptedReplace() throws Exception {
+        MappedFeatureStore store = MappedFeatureStore.open(directory, 2, 4);
+        store.put("im_a", new float[]{1f, 1f});
+        store.put("im_b", new float[]{2f, 2f});
+        store.close();
+
+        // a replace that died before tombstoning: record 1 is a second live record of im_a
+        RandomAccessFile segment = new RandomAccessFile(new File(directory, "segment-00000.dat"), "rw");
+        try {
+            byte[] header = new byte[16];
+            segment.readFully(header);
+            segment.seek(24);
+            segment.write(header);
+        } finally {
+            segment.close();
+        }
+
+        store = MappedFeatureStore.open(directory, 2);
+        try {
+            assertEquals(1, store.size());
+            assertArrayEquals(new float[]{2f, 2f}, store.get("im_a"), 0f);
+            assertNull(store.getName(0));
+            assertEquals("im_a", store.getName(1));
+        } finally {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.visenze.visearch.internal.http;
+
+import com.google.common.collect.HashMultimap;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.visenze.visearch.ClientConfig;
+import com.visenze.visearch.internal.InternalViSearchException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class EndpointRouterTest {
+
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static Map<String, Integer> route(EndpointRouter router, int calls) {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < calls; i++) {
+            String url = router.select().getUrl();
+            counts.put(url, counts.containsKey(url) ? counts.get(url) + 1 : 1);
+        }
+        return counts;
+    }
+
+    private static void call(EndpointRouter.Endpoint endpoint, long latencyNanos, boolean failed) {
+        endpoint.callStarted();
+        endpoint.callEnded(latencyNanos, failed);
+    }
+
+    @Test
+    public void testSingleEndpoint() {
+        EndpointRouter router = new EndpointRouter(Collections.singletonList("http://a"));
+        assertEquals(Collections.singletonMap("http://a", 100), route(router, 100));
+    }
+
+    @Test
+    public void testFastestEndpointPreferred() {
+        EndpointRouter router = new EndpointRouter(Arrays.asList("http://fast", "http://slow", "http://medium"));
+        EndpointRouter.Endpoint[] endpoints = router.getEndpoints();
+        for (int i = 0; i < 10; i++) {
+            call(endpoints[0], 10 * MILLI, false);
+            call(endpoints[1], 200 * MILLI, false);
+            call(endpoints[2], 50 * MILLI, false);
+        }
+        Map<String, Integer> counts = route(router, 3000);
+        // the fastest wins every pair it is in, the slowest only gets the exploring calls
+        assertTrue(counts.get("http://fast") > 1800);
+        assertTrue(counts.get("http://slow") <= 3000 / EndpointRouter.EXPLORE_EVERY);
+        assertTrue(counts.get("http://medium") > 800);
+    }
+
+    @Test
+    public void testErrorsAndLoadRaiseCost() {
+        EndpointRouter router = new EndpointRouter(Arrays.asList("http://a", "http://b"));
+        EndpointRouter.Endpoint[] endpoints = router.getEndpoints();
+        call(endpoints[0], 10 * MILLI, false);
+        call(endpoints[1], 15 * MILLI, false);
+        assertEquals("http://a", router.select().getUrl());
+
+        call(endpoints[0], 10 * MILLI, true);
+        assertEquals(0.2, endpoints[0].getErrorRate(), 1e-9);
+        assertEquals("http://b", router.select().getUrl());
+
+        // the error rate decays with the calls that succeed
+        for (int i = 0; i < 10; i++) {
+            call(endpoints[0], 10 * MILLI, false);
+        }
+        assertEquals("http://a", router.select().getUrl());
+
+        endpoints[0].callStarted();
+        endpoints[0].callStarted();
+        assertEquals(2, endpoints[0].getInFlight());
+        assertEquals("http://b", router.select().getUrl());
+    }
+
+    @Test
+    public void testFailingEndpointEjectedAndProbed() throws InterruptedException {
+        EndpointRouter router = new EndpointRouter(Arrays.asList("http://a", "http://b"), 100 * MILLI);
+        EndpointRouter.Endpoint[] endpoints = router.getEndpoints();
+        call(endpoints[1], 50 * MILLI, false);
+        for (int i = 0; i < EndpointRouter.FAILURES_TO_EJECT; i++) {
+            call(endpoints[0], 1 * MILLI, true);
+        }
+        assertEquals(Collections.singletonMap("http://b", 100), route(router, 100));
+
+        // back after the ejection, and out again at the next failure, for twice as long
+        Thread.sleep(120);
+        assertEquals("http://a", router.select().getUrl());
+        call(endpoints[0], 1 * MILLI, true);
+        Thread.sleep(120);
+        assertEquals(Collections.singletonMap("http://b", 100), route(router, 100));
+        Thread.sleep(100);
+        call(endpoints[0], 1 * MILLI, false);
+        assertEquals("http://a", router.select().getUrl());
+    }
+
+    @Test
+    public void testSingleProbeAfterEjection() throws InterruptedException {
+        EndpointRouter router = new EndpointRouter(Arrays.asList("http://a", "http://b"), 100 * MILLI);
+        EndpointRouter.Endpoint[] endpoints = router.getEndpoints();
+        call(endpoints[1], 50 * MILLI, false);
+        for (int i = 0; i < EndpointRouter.FAILURES_TO_EJECT; i++) {
+            call(endpoints[0], 1 * MILLI, true);
+        }
+        Thread.sleep(120);
+        // one caller gets the probe, the others stay away until it ends
+        EndpointRouter.Endpoint probe = router.select();
+        assertEquals("http://a", probe.getUrl());
+        assertEquals(Collections.singletonMap("http://b", 50), route(router, 50));
+        call(probe, 1 * MILLI, false);
+        assertEquals("http://a", router.select().getUrl());
+    }
+
+    @Test
+    public void testSlowEndpointRecovers() {
+        EndpointRouter router = new EndpointRouter(Arrays.asList("http://a", "http://b"));
+        EndpointRouter.Endpoint[] endpoints = router.getEndpoints();
+        call(endpoints[0], 10 * MILLI, false);
+        call(endpoints[1], 200 * MILLI, false);
+        // b became faster than a, which only the exploring calls can notice
+        int b = 0;
+        for (int i = 0; i < 3000; i++) {
+            EndpointRouter.Endpoint endpoint = router.select();
+            call(endpoint, endpoint == endpoints[1] ? 5 * MILLI : 10 * MILLI, false);
+            if (i >= 2500 && endpoint == endpoints[1]) {
+                b++;
+            }
+        }
+        assertTrue(b > 450);
+    }
+
+    @Test
+    public void testAllEjected() {
+        EndpointRouter router = new EndpointRouter(Arrays.asList("http://a", "http://b"), 100 * MILLI);
+        EndpointRouter.Endpoint[] endpoints = router.getEndpoints();
+        for (int i = 0; i < EndpointRouter.FAILURES_TO_EJECT; i++) {
+            call(endpoints[1], 1 * MILLI, true);
+        }
+        for (int i = 0; i < EndpointRouter.FAILURES_TO_EJECT; i++) {
+            call(endpoints[0], 1 * MILLI, true);
+        }
+        assertEquals(Collections.singletonMap("http://b", 10), route(router, 10));
+    }
+
+    @Test
+    public void testCancelledCallNotScored() {
+        EndpointRouter router = new EndpointRouter(Arrays.asList("http://a", "http://b"));
+        EndpointRouter.Endpoint endpoint = router.getEndpoints()[0];
+        call(endpoint, -1, true);
+        assertEquals(0, endpoint.getInFlight());
+        assertEquals(0, endpoint.getErrorRate(), 0);
+        assertEquals(0, endpoint.getLatencyNanos(), 0);
+    }
+
+    @Test
+    public void testFailoverToLiveEndpoint() throws IOException {
+        final AtomicInteger served = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/search", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                served.incrementAndGet();
+                byte[] body = "{\"status\":\"OK\",\"method\":\"search\",\"result\":[]}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+        // a port nothing listens on
+        ServerSocket socket = new ServerSocket(0);
+        int deadPort = socket.getLocalPort();
+        socket.close();
+        try {
+            ViSearchHttpClientImpl client = new ViSearchHttpClientImpl(Arrays.asList(
+                    "http://127.0.0.1:" + deadPort, "http://127.0.0.1:" + server.getAddress().getPort()),
+                    "access", "secret", new ClientConfig());
+            int failures = 0;
+            for (int i = 0; i < 50; i++) {
+                try {
+                    client.get("/search", HashMultimap.<String, String>create()).getBody();
+                } catch (InternalViSearchException e) {
+                    failures++;
+                }
+            }
+            assertTrue(failures <= EndpointRouter.FAILURES_TO_EJECT);
+            assertEquals(50 - failures, served.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -2,15 +2,20 @@ package com.visenze.visearch.internal.http;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
+import com.visenze.visearch.CallOptions;
+import com.visenze.visearch.ClientConfig;
 import com.visenze.visearch.internal.InternalViSearchException;
 import com.visenze.visearch.internal.http.ViSearchHttpClientImpl;
+import com.visenze.visearch.metrics.ViSearchMetrics;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.http.Header;
+import org.apache.http.HttpVersion;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicStatusLine;
 import org.apache.http.util.EncodingUtils;
 import org.junit.Rule;
 import org.junit.Test;
@@ -21,6 +26,7 @@ import org.mockito.Matchers;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -173,6 +179,23 @@ public class ViSearchHttpClientTest {
         client.post(path, params);
     }
 
+    @Test
+    public void testCompletedCallsLeaveNoDeadlinesQueued() throws Exception {
+        ViSearchHttpClientImpl client = new ViSearchHttpClientImpl(validEndpoint, validAccessKey, validSecretKey, mockedHttpClient);
+        CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+        when(response.getEntity()).thenReturn(new StringEntity("test"));
+        when(mockedHttpClient.execute(Matchers.<HttpUriRequest>any())).thenReturn(response);
+        CallOptions.Scope scope = CallOptions.withTimeout(30, TimeUnit.SECONDS).enter();
+        try {
+            for (int i = 0; i < 1000; i++) {
+                client.post(path, params);
+            }
+        } finally {
+            scope.close();
+        }
+        assertEquals(0, HttpCall.pendingDeadlines());
+    }
+
     @Test
     public void testInvalidFileUsingFirstPostImageMethod() {
         expectedException.expect(IllegalArgumentException.class);
@@ -195,4 +218,29 @@ public class ViSearchHttpClientTest {
         assertEquals(validAccessKey, client.getCredentials().getUserName());
         assertEquals(validSecretKey, client.getCredentials().getPassword());
     }
+
+    @Test
+    public void testMetricsRecorded() throws Exception {
+        ViSearchMetrics metrics = mock(ViSearchMetrics.class);
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setMetrics(metrics);
+        ViSearchHttpClientImpl client = new ViSearchHttpClientImpl(validEndpoint, validAccessKey, validSecretKey, mockedHttpClient, clientConfig);
+        CloseableHttpResponse response = mock(CloseableHttpResponse.class);
+        when(response.getEntity()).thenReturn(new StringEntity("test"));
+        when(response.getStatusLine()).thenReturn(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK"));
+        when(mockedHttpClient.execute(Matchers.<HttpUriRequest>any())).thenReturn(response);
+
+        client.get("/insert/status/123", params);
+        verify(metrics).requestStarted("/insert/status");
+        verify(metrics).requestCompleted(eq("/insert/status"), eq(200), anyLong(), eq(0L), anyLong());
+
+        when(mockedHttpClient.execute(Matchers.<HttpUriRequest>any())).thenThrow(new IOException("test IOException"));
+        try {
+            client.post("/search", params);
+        } catch (InternalViSearchException e) {
+            verify(metrics).requestFailed(eq("/search"), anyLong());
+            return;
+        }
+        throw new AssertionError("Expected a network error");
+    }
 }
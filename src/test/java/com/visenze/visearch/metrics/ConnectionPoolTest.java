@@ -0,0 +1,130 @@
+package com.visenze.visearch.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.visenze.visearch.ClientConfig;
+import com.visenze.visearch.PagedSearchResult;
+import com.visenze.visearch.SearchParams;
+import com.visenze.visearch.ViSearch;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConnectionPoolTest {
+
+    private static final String SEARCH_RESPONSE = "{\"status\":\"OK\",\"method\":\"search\",\"error\":[],\"page\":1,\"limit\":10,\"total\":0," +
+            "\"result\":[]}";
+
+    private HttpServer server;
+    private volatile CountDownLatch release = new CountDownLatch(0);
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] body = SEARCH_RESPONSE.getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        server.stop(0);
+    }
+
+    private String endpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @Test
+    public void testPoolStatsAndWaitMetric() {
+        HistogramViSearchMetrics metrics = new HistogramViSearchMetrics();
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setMetrics(metrics);
+        ViSearch client = new ViSearch(endpoint(), "access", "secret", clientConfig);
+        client.setEnableAutoSolutionActionTrack(false);
+
+        PagedSearchResult result = client.search(new SearchParams("a"));
+        assertNull(result.getErrorMessage());
+        ConnectionPoolStats stats = client.getConnectionPoolStats();
+        assertEquals(0, stats.getLeased());
+        assertEquals(1, stats.getAvailable());
+        assertEquals(ClientConfig.DEFAULT_MAX_CONNECTIONS, stats.getMax());
+        ConnectionPoolStats route = stats.getRoutes().get(endpoint());
+        assertNotNull(stats.getRoutes().toString(), route);
+        assertEquals(1, route.getAvailable());
+        assertEquals(1, metrics.getEndpoint("/search").getPoolWait().getCount());
+    }
+
+    @Test
+    public void testSaturationAlert() throws InterruptedException {
+        release = new CountDownLatch(1);
+        final CountDownLatch saturated = new CountDownLatch(1);
+        final ConnectionPoolStats[] alerted = new ConnectionPoolStats[1];
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setMaxConnection(1);
+        clientConfig.setConnectionEvictionInterval(20);
+        clientConfig.setConnectionPoolListener(new ConnectionPoolListener() {
+            @Override
+            public void onSaturated(ConnectionPoolStats stats) {
+                alerted[0] = stats;
+                saturated.countDown();
+            }
+        });
+        final ViSearch client = new ViSearch(endpoint(), "access", "secret", clientConfig);
+        client.setEnableAutoSolutionActionTrack(false);
+
+        Thread caller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                client.search(new SearchParams("a"));
+            }
+        });
+        caller.start();
+        assertTrue(saturated.await(5, TimeUnit.SECONDS));
+        assertEquals(1, alerted[0].getLeased());
+        assertEquals(1.0, alerted[0].getUtilization(), 0.0);
+        release.countDown();
+        caller.join(5000);
+    }
+
+    @Test
+    public void testIdleConnectionsEvicted() throws InterruptedException {
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setConnectionIdleTimeout(1);
+        clientConfig.setConnectionEvictionInterval(20);
+        ViSearch client = new ViSearch(endpoint(), "access", "secret", clientConfig);
+        client.setEnableAutoSolutionActionTrack(false);
+
+        client.search(new SearchParams("a"));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (client.getConnectionPoolStats().getAvailable() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, client.getConnectionPoolStats().getAvailable());
+    }
+}
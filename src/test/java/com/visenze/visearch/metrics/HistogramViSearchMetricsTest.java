@@ -0,0 +1,67 @@
+package com.visenze.visearch.metrics;
+
+import com.visenze.visearch.ResponseMessages;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramViSearchMetricsTest {
+
+    @Test
+    public void testHistogramBucketsRoundTrip() {
+        long[] values = {0, 1, 127, 128, 255, 256, 1000, 123456789, Long.MAX_VALUE / 2};
+        for (long value : values) {
+            long highest = LatencyHistogram.highestEquivalentValue(LatencyHistogram.indexOf(value));
+            assertTrue(value + " -> " + highest, highest >= value);
+            assertTrue(value + " -> " + highest, highest - value <= Math.max(1, value / 100));
+        }
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500, histogram.getValueAtPercentile(50, TimeUnit.MICROSECONDS), 5);
+        assertEquals(990, histogram.getValueAtPercentile(99, TimeUnit.MICROSECONDS), 10);
+        assertEquals(1000, histogram.getValueAtPercentile(100, TimeUnit.MICROSECONDS));
+        assertEquals(1000, histogram.getMax(TimeUnit.MICROSECONDS));
+        assertEquals(500500, histogram.getMeanNanos(), 1);
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99, TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testEndpointCounters() {
+        HistogramViSearchMetrics metrics = new HistogramViSearchMetrics();
+        metrics.requestStarted("/search");
+        metrics.requestStarted("/search");
+        assertEquals(2, metrics.getInFlight());
+        metrics.requestCompleted("/search", 200, 1000, 10, 300);
+        metrics.requestFailed("/search", 5000);
+        metrics.error("/search", ResponseMessages.NETWORK_ERROR);
+        metrics.error("/search", null);
+
+        HistogramViSearchMetrics.EndpointMetrics search = metrics.getEndpoint("/search");
+        assertEquals(0, search.getInFlight());
+        assertEquals(2, search.getRequests());
+        assertEquals(1, search.getFailures());
+        assertEquals(10, search.getRequestBytes());
+        assertEquals(300, search.getResponseBytes());
+        assertEquals(1, search.getErrors(ResponseMessages.NETWORK_ERROR));
+        assertEquals(1, search.getOtherErrors());
+        assertEquals(2, search.getTotalErrors());
+        assertEquals(2, search.getLatency().getCount());
+        assertEquals(1, metrics.getEndpoints().size());
+
+        assertEquals(0, metrics.getEndpoint("/colorsearch").getRequests());
+        assertEquals(1, metrics.getEndpoints().size());
+    }
+}
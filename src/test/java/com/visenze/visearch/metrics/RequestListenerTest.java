@@ -0,0 +1,115 @@
+package com.visenze.visearch.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.visenze.visearch.ClientConfig;
+import com.visenze.visearch.PagedSearchResult;
+import com.visenze.visearch.SearchParams;
+import com.visenze.visearch.ViSearch;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RequestListenerTest {
+
+    private static final String SEARCH_RESPONSE = "{\"status\":\"OK\",\"method\":\"search\",\"error\":[],\"page\":1,\"limit\":10,\"total\":1," +
+            "\"result\":[{\"im_name\":\"a\"}]}";
+
+    private HttpServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = SEARCH_RESPONSE.getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private static class RecordingListener implements RequestListener {
+
+        private final List<RequestPhase> phases = new ArrayList<RequestPhase>();
+        private final List<RequestTimeline> completed = new ArrayList<RequestTimeline>();
+
+        @Override
+        public void onPhase(RequestTimeline timeline, RequestPhase phase) {
+            phases.add(phase);
+        }
+
+        @Override
+        public void onComplete(RequestTimeline timeline) {
+            completed.add(timeline);
+        }
+    }
+
+    @Test
+    public void testPhasesOfSearch() {
+        RecordingListener listener = new RecordingListener();
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.addRequestListener(listener);
+        ViSearch client = new ViSearch("http://127.0.0.1:" + server.getAddress().getPort(), "access", "secret", clientConfig);
+        client.setEnableAutoSolutionActionTrack(false);
+
+        PagedSearchResult result = client.search(new SearchParams("a"));
+        assertNull(result.getErrorMessage());
+        assertEquals(1, listener.completed.size());
+        RequestTimeline timeline = listener.completed.get(0);
+        assertEquals("/search", timeline.getEndpoint());
+        assertEquals("GET", timeline.getMethod());
+        assertEquals(200, timeline.getStatusCode());
+        assertEquals(SEARCH_RESPONSE.length(), timeline.getResponseBytes());
+        assertFalse(timeline.isConnectionReused());
+        for (RequestPhase phase : RequestPhase.values()) {
+            assertTrue(phase.name(), timeline.hasReached(phase));
+        }
+        assertEquals(Arrays.asList(RequestPhase.values()), listener.phases);
+        RequestPhase[] phases = RequestPhase.values();
+        for (int i = 1; i < phases.length; i++) {
+            assertTrue(timeline.getDuration(phases[i - 1], phases[i], TimeUnit.NANOSECONDS) >= 0);
+        }
+
+        client.search(new SearchParams("a"));
+        assertTrue(listener.completed.get(1).isConnectionReused());
+    }
+
+    @Test
+    public void testFailedCallCompletes() {
+        RecordingListener listener = new RecordingListener();
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.addRequestListener(listener);
+        int port = server.getAddress().getPort();
+        server.stop(0);
+        ViSearch client = new ViSearch("http://127.0.0.1:" + port, "access", "secret", clientConfig);
+
+        PagedSearchResult result = client.search(new SearchParams("a"));
+        assertNotNull(result.getErrorMessage());
+        assertEquals(1, listener.completed.size());
+        RequestTimeline timeline = listener.completed.get(0);
+        assertNotNull(timeline.getError());
+        assertFalse(timeline.hasReached(RequestPhase.REQUEST_SENT));
+        assertEquals(0, timeline.getStatusCode());
+    }
+}
@@ -0,0 +1,138 @@
+package com.visenze.visearch.metrics.jfr;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.visenze.visearch.ClientConfig;
+import com.visenze.visearch.PagedSearchResult;
+import com.visenze.visearch.SearchParams;
+import com.visenze.visearch.ViSearch;
+import com.visenze.visearch.metrics.RequestListener;
+import com.visenze.visearch.metrics.RequestPhase;
+import com.visenze.visearch.metrics.RequestTimeline;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FlightRecorderListenerTest {
+
+    private static final String SEARCH_RESPONSE = "{\"status\":\"OK\",\"method\":\"search\",\"error\":[],\"page\":1,\"limit\":10,\"total\":2," +
+            "\"result\":[{\"im_name\":\"a\"},{\"im_name\":\"b\"}]}";
+
+    private HttpServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = SEARCH_RESPONSE.getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testEventsRecorded() throws IOException {
+        ClientConfig clientConfig = new ClientConfig();
+        assertTrue(clientConfig.enableFlightRecorderEvents());
+        ViSearch client = new ViSearch("http://127.0.0.1:" + server.getAddress().getPort(), "access", "secret", clientConfig);
+        client.setEnableAutoSolutionActionTrack(false);
+
+        File file = File.createTempFile("visearch", ".jfr");
+        file.deleteOnExit();
+        Recording recording = new Recording();
+        recording.enable(HttpCallEvent.class);
+        recording.enable(ResponseParseEvent.class);
+        recording.start();
+        PagedSearchResult result = client.search(new SearchParams("a"));
+        recording.stop();
+        recording.dump(file.toPath());
+        recording.close();
+        assertNull(result.getErrorMessage());
+
+        List<RecordedEvent> httpCalls = new ArrayList<RecordedEvent>();
+        List<RecordedEvent> parses = new ArrayList<RecordedEvent>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+            if (event.getEventType().getName().equals("com.visenze.visearch.HttpCall")) {
+                httpCalls.add(event);
+            } else if (event.getEventType().getName().equals("com.visenze.visearch.ResponseParse")) {
+                parses.add(event);
+            }
+        }
+        assertEquals(1, httpCalls.size());
+        RecordedEvent httpCall = httpCalls.get(0);
+        assertEquals("/search", httpCall.getString("endpoint"));
+        assertEquals(200, httpCall.getInt("statusCode"));
+        assertEquals(SEARCH_RESPONSE.length(), httpCall.getLong("responseBytes"));
+        assertFalse(httpCall.getBoolean("connectionReused"));
+        assertEquals(1, parses.size());
+        assertEquals("PagedSearchResult", parses.get(0).getString("resultType"));
+        assertEquals(2, parses.get(0).getInt("resultCount"));
+    }
+
+    @Test
+    public void testEventsFollowTheirCallAcrossThreads() throws Exception {
+        FlightRecorderListener listener = new FlightRecorderListener();
+        List<RequestListener> listeners = Collections.<RequestListener>singletonList(listener);
+        final RequestTimeline first = new RequestTimeline("/first", "POST", listeners);
+        RequestTimeline second = new RequestTimeline("/second", "POST", listeners);
+
+        File file = File.createTempFile("visearch", ".jfr");
+        file.deleteOnExit();
+        Recording recording = new Recording();
+        recording.enable(ResponseParseEvent.class).withThreshold(Duration.ZERO);
+        recording.start();
+        // two streamed calls open on one thread, the first closed on another thread
+        for (RequestTimeline timeline : Arrays.asList(first, second)) {
+            timeline.mark(RequestPhase.LEASE_START);
+            timeline.mark(RequestPhase.BODY_COMPLETE);
+        }
+        Thread closer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                first.parseComplete();
+            }
+        });
+        closer.start();
+        closer.join();
+        second.parseComplete();
+        recording.stop();
+        recording.dump(file.toPath());
+        recording.close();
+
+        List<String> endpoints = new ArrayList<String>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+            if (event.getEventType().getName().equals("com.visenze.visearch.ResponseParse")) {
+                endpoints.add(event.getString("endpoint"));
+            }
+        }
+        Collections.sort(endpoints);
+        assertEquals(Arrays.asList("/first", "/second"), endpoints);
+    }
+}
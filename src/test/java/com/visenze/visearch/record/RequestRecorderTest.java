@@ -0,0 +1,201 @@
+package com.visenze.visearch.record;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.visenze.visearch.ClientConfig;
+import com.visenze.visearch.PagedSearchResult;
+import com.visenze.visearch.SearchParams;
+import com.visenze.visearch.UploadSearchParams;
+import com.visenze.visearch.ViSearch;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class RequestRecorderTest {
+
+    private static final String SEARCH_RESPONSE = "{\"status\":\"OK\",\"method\":\"search\",\"error\":[],\"page\":1,\"limit\":10,\"total\":1," +
+            "\"result\":[{\"im_name\":\"a\"}]}";
+
+    private HttpServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                while (in.read() >= 0) {
+                    // drain the upload
+                }
+                byte[] body = SEARCH_RESPONSE.getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testRecordAndRead() throws IOException {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        RequestRecorder recorder = new RequestRecorder(log);
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setRequestRecorder(recorder);
+        ViSearch client = new ViSearch("http://127.0.0.1:" + server.getAddress().getPort(), "access", "secret", clientConfig);
+        client.setEnableAutoSolutionActionTrack(false);
+
+        SearchParams searchParams = new SearchParams("shoe-123");
+        searchParams.setLimit(20);
+        searchParams.setFq(Collections.singletonMap("brand", "acme"));
+        for (int i = 0; i < 2; i++) {
+            PagedSearchResult result = client.search(searchParams);
+            assertNull(result.getErrorMessage());
+        }
+        byte[] image = new byte[1000];
+        client.uploadSearch(new UploadSearchParams(new ByteArrayInputStream(image)));
+        recorder.close();
+        assertEquals(3, recorder.getRecorded());
+        assertNull(recorder.getError());
+
+        RequestLogReader reader = new RequestLogReader(new ByteArrayInputStream(log.toByteArray()));
+        RecordedRequest first = reader.read();
+        RecordedRequest second = reader.read();
+        RecordedRequest upload = reader.read();
+        assertNull(reader.read());
+        reader.close();
+
+        assertEquals(RecordedRequest.Kind.GET, first.getKind());
+        assertEquals("/search", first.getPath());
+        assertEquals(200, first.getStatusCode());
+        assertEquals(SEARCH_RESPONSE.length(), first.getResponseBytes());
+        assertEquals(0, first.getRequestBytes());
+        assertTrue(second.getOffsetMicros() >= first.getOffsetMicros());
+        assertEquals(Arrays.asList("20"), first.getParams().get("limit"));
+        String imName = first.getParams().get("im_name").iterator().next();
+        assertNotEquals("shoe-123", imName);
+        assertEquals("shoe-123".length(), imName.length());
+        assertEquals(first.getParams().get("im_name"), second.getParams().get("im_name"));
+        String fq = first.getParams().get("fq").iterator().next();
+        assertTrue(fq.startsWith("brand:"));
+        assertFalse(fq.contains("acme"));
+
+        assertEquals(RecordedRequest.Kind.POST_IMAGE, upload.getKind());
+        assertEquals("/uploadsearch", upload.getPath());
+        assertTrue(upload.getRequestBytes() > image.length);
+    }
+
+    @Test
+    public void testFailedCallIsRecorded() throws IOException {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        RequestRecorder recorder = new RequestRecorder(log);
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setRequestRecorder(recorder);
+        int port = server.getAddress().getPort();
+        server.stop(0);
+        ViSearch client = new ViSearch("http://127.0.0.1:" + port, "access", "secret", clientConfig);
+
+        assertNotNull(client.search(new SearchParams("a")).getErrorMessage());
+        recorder.close();
+
+        RequestLogReader reader = new RequestLogReader(new ByteArrayInputStream(log.toByteArray()));
+        RecordedRequest request = reader.read();
+        assertEquals(0, request.getStatusCode());
+        assertEquals(0, request.getResponseBytes());
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void testStringTableOverflowAndTruncatedLog() throws IOException {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        RequestRecorder recorder = new RequestRecorder(log);
+        int count = RequestLog.MAX_STRINGS + 10;
+        for (int i = 0; i < count; i++) {
+            Multimap<String, String> params = HashMultimap.create();
+            params.put("im_name", "im-" + i);
+            recorder.record(RecordedRequest.Kind.GET, "/search", params, 0, 10, 200, System.nanoTime(), 1000);
+        }
+        recorder.close();
+        byte[] bytes = log.toByteArray();
+
+        RequestLogReader reader = new RequestLogReader(new ByteArrayInputStream(bytes));
+        int read = 0;
+        RecordedRequest request;
+        while ((request = reader.read()) != null) {
+            assertEquals(("im-" + read).length(), request.getParams().get("im_name").iterator().next().length());
+            read++;
+        }
+        assertEquals(count, read);
+
+        reader = new RequestLogReader(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 3)));
+        read = 0;
+        while (reader.read() != null) {
+            read++;
+        }
+        assertEquals(count - 1, read);
+    }
+
+    @Test
+    public void testValueLongerThan64KB() throws IOException {
+        char[] feature = new char[100000];
+        Arrays.fill(feature, 'f');
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        RequestRecorder recorder = new RequestRecorder(log);
+        Multimap<String, String> params = HashMultimap.create();
+        params.put("im_feature", new String(feature));
+        recorder.record(RecordedRequest.Kind.POST, "/uploadsearch", params, 100000, 10, 200, System.nanoTime(), 1000);
+        recorder.close();
+        assertNull(recorder.getError());
+
+        RequestLogReader reader = new RequestLogReader(new ByteArrayInputStream(log.toByteArray()));
+        RecordedRequest request = reader.read();
+        assertEquals(feature.length, request.getParams().get("im_feature").iterator().next().length());
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void testReadVersion1Log() throws IOException {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(log);
+        out.writeInt(RequestLog.MAGIC);
+        out.writeByte(1);
+        out.writeLong(1000L);
+        out.writeByte(RecordedRequest.Kind.GET.ordinal());
+        RequestLog.writeVarLong(out, 5);
+        RequestLog.writeVarLong(out, 1);
+        out.writeUTF("/search");
+        RequestLog.writeVarLong(out, 0);
+        for (int i = 0; i < 4; i++) {
+            RequestLog.writeVarLong(out, 200);
+        }
+        out.close();
+
+        RequestLogReader reader = new RequestLogReader(new ByteArrayInputStream(log.toByteArray()));
+        RecordedRequest request = reader.read();
+        assertEquals("/search", request.getPath());
+        assertEquals(200, request.getStatusCode());
+        assertNull(reader.read());
+    }
+}
@@ -0,0 +1,211 @@
+package com.visenze.visearch.tracing;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.visenze.visearch.ClientConfig;
+import com.visenze.visearch.PagedSearchResult;
+import com.visenze.visearch.SearchParams;
+import com.visenze.visearch.SearchResultStream;
+import com.visenze.visearch.ViSearch;
+import com.visenze.visearch.internal.TrackOperationsImpl;
+import com.visenze.visearch.internal.http.ViSearchHttpClientImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class TracingTest {
+
+    private static final String SEARCH_RESPONSE = "{\"status\":\"OK\",\"method\":\"search\",\"error\":[],\"page\":1,\"limit\":10,\"total\":0," +
+            "\"result\":[]}";
+
+    private HttpServer server;
+    private final List<String> traceParents = new CopyOnWriteArrayList<String>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String traceParent = exchange.getRequestHeaders().getFirst(TraceParent.HEADER);
+                traceParents.add(traceParent == null ? "" : traceParent);
+                byte[] body = SEARCH_RESPONSE.getBytes("UTF-8");
+                exchange.getResponseHeaders().add("X-Log-ID", "log-1");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private String endpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private static class RecordingSpan implements ViSearchSpan {
+
+        private static final AtomicLong IDS = new AtomicLong(1);
+
+        private final String endpoint;
+        private final ViSearchSpan link;
+        private final String spanId = String.format("%016x", IDS.getAndIncrement());
+        private final Map<String, Object> attributes = new HashMap<String, Object>();
+        private final CountDownLatch ended = new CountDownLatch(1);
+
+        RecordingSpan(String endpoint, ViSearchSpan link) {
+            this.endpoint = endpoint;
+            this.link = link;
+        }
+
+        @Override
+        public boolean isRecording() {
+            return true;
+        }
+
+        @Override
+        public String getTraceId() {
+            return "4bf92f3577b34da6a3ce929d0e0e4736";
+        }
+
+        @Override
+        public String getSpanId() {
+            return spanId;
+        }
+
+        @Override
+        public boolean isSampled() {
+            return true;
+        }
+
+        @Override
+        public void setAttribute(String key, String value) {
+            attributes.put(key, value);
+        }
+
+        @Override
+        public void setAttribute(String key, long value) {
+            attributes.put(key, value);
+        }
+
+        @Override
+        public void recordError(Throwable error) {
+            attributes.put("error", error);
+        }
+
+        @Override
+        public void end() {
+            ended.countDown();
+        }
+    }
+
+    private static class RecordingTracer implements ViSearchTracer {
+
+        private final List<RecordingSpan> spans = new CopyOnWriteArrayList<RecordingSpan>();
+
+        @Override
+        public ViSearchSpan startSpan(String endpoint, String method, ViSearchSpan link) {
+            RecordingSpan span = new RecordingSpan(endpoint, link);
+            spans.add(span);
+            return span;
+        }
+    }
+
+    @Test
+    public void testSearchSpanAndLinkedTrackingEvent() throws InterruptedException {
+        RecordingTracer tracer = new RecordingTracer();
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setTracer(tracer);
+        ViSearch client = new ViSearch(endpoint(), "access", "secret", clientConfig);
+        client.setEnableAutoSolutionActionTrack(false);
+
+        PagedSearchResult result = client.search(new SearchParams("a"));
+        assertNull(result.getErrorMessage());
+        assertEquals(1, tracer.spans.size());
+        RecordingSpan search = tracer.spans.get(0);
+        assertEquals("/search", search.endpoint);
+        assertEquals(0, search.ended.getCount());
+        assertEquals("log-1", search.attributes.get(ViSearchSpan.LOG_ID));
+        assertEquals(200L, search.attributes.get(ViSearchSpan.HTTP_STATUS_CODE));
+        assertEquals("00-4bf92f3577b34da6a3ce929d0e0e4736-" + search.spanId + "-01", traceParents.get(0));
+
+        TrackOperationsImpl track = new TrackOperationsImpl(new ViSearchHttpClientImpl(endpoint(), "access", "secret", clientConfig));
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("action", "search");
+        params.put("reqid", "log-1");
+        track.sendEvent(params);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (tracer.spans.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        RecordingSpan event = tracer.spans.get(1);
+        assertTrue(event.ended.await(5, TimeUnit.SECONDS));
+        assertEquals("/__aq.gif", event.endpoint);
+        assertSame(search, event.link);
+    }
+
+    @Test
+    public void testTrackingEventLinkedWhileStreamOpen() throws InterruptedException {
+        RecordingTracer tracer = new RecordingTracer();
+        ClientConfig clientConfig = new ClientConfig();
+        clientConfig.setTracer(tracer);
+        ViSearch client = new ViSearch(endpoint(), "access", "secret", clientConfig);
+        client.setEnableAutoSolutionActionTrack(false);
+
+        SearchResultStream stream = client.searchStream(new SearchParams("a"));
+        try {
+            RecordingSpan search = tracer.spans.get(0);
+            assertEquals(1, search.ended.getCount());
+            assertEquals("log-1", search.attributes.get(ViSearchSpan.LOG_ID));
+
+            // as sent by searchStream with auto tracking, before the body is read
+            TrackOperationsImpl track = new TrackOperationsImpl(new ViSearchHttpClientImpl(endpoint(), "access", "secret", clientConfig));
+            Map<String, String> params = new HashMap<String, String>();
+            params.put("action", "search");
+            params.put("reqid", "log-1");
+            track.sendEvent(params);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (tracer.spans.size() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertSame(search, tracer.spans.get(1).link);
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        ViSearch client = new ViSearch(endpoint(), "access", "secret", new ClientConfig());
+        client.setEnableAutoSolutionActionTrack(false);
+        client.search(new SearchParams("a"));
+        assertEquals("", traceParents.get(0));
+    }
+
+    @Test
+    public void testTraceParentFormat() {
+        RecordingSpan span = new RecordingSpan("/search", null);
+        assertEquals("00-4bf92f3577b34da6a3ce929d0e0e4736-" + span.spanId + "-01", TraceParent.format(span));
+        assertNull(TraceParent.format(NoopViSearchTracer.INSTANCE.startSpan("/search", "GET", null)));
+    }
+}